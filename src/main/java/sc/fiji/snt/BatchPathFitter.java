@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImagePlus;
+
+/**
+ * Fits multiple paths at once. Rather than fitting each path in its own
+ * thread, nodes of all paths are split into small chunks that are fitted by a
+ * pool of workers, so that long paths do not serialize the job. Each worker
+ * reuses its own cross-section sampling buffers. Since nodes are not fitted in
+ * order, each search starts from the centre of the node's cross-section rather
+ * than from the optimum of the previous node (as in {@link PathFitter#call()}),
+ * so that results may differ slightly from those of serial fits.
+ *
+ * @author Tiago Ferreira
+ * @see PathFitter
+ */
+public class BatchPathFitter implements Callable<List<Path>> {
+
+	/* Number of nodes fitted by a worker at a time */
+	private static final int CHUNK_SIZE = 32;
+
+	private final List<PathFitter> fitters;
+	private int nThreads;
+	private int nNodes;
+	private long elapsedNanos;
+
+	/**
+	 * @param fitters the (configured) fitters of the paths to be fitted
+	 */
+	public BatchPathFitter(final Collection<PathFitter> fitters) {
+		this.fitters = new ArrayList<>(fitters);
+		nThreads = SNTPrefs.getThreads();
+	}
+
+	/**
+	 * Sets the number of threads to be used.
+	 *
+	 * @param nThreads the number of threads. If non-positive, all available
+	 *          processors are used
+	 */
+	public void setNumThreads(final int nThreads) {
+		this.nThreads = (nThreads < 1) ? Runtime.getRuntime().availableProcessors() : nThreads;
+	}
+
+	/**
+	 * Fits all paths.
+	 *
+	 * @return the results of each fitter (in input order), as per
+	 *         {@link PathFitter#call()}
+	 * @throws InterruptedException if interrupted while fitting
+	 * @throws ExecutionException if a fit could not be computed
+	 */
+	@Override
+	public List<Path> call() throws InterruptedException, ExecutionException {
+		final long start = System.nanoTime();
+		final Map<ImagePlus, Object[]> pixels = new IdentityHashMap<>();
+		final List<int[]> chunks = new ArrayList<>();
+		final AtomicInteger[] remaining = new AtomicInteger[fitters.size()];
+		final int[] sizes = new int[fitters.size()];
+		nNodes = 0;
+		for (int f = 0; f < fitters.size(); f++) {
+			final PathFitter fitter = fitters.get(f);
+			fitter.prepare(pixels.computeIfAbsent(fitter.getImage(), PathFitter::getPixels));
+			final int n = sizes[f] = fitter.getNodeCount();
+			remaining[f] = new AtomicInteger(n);
+			for (int i = 0; i < n; i += CHUNK_SIZE)
+				chunks.add(new int[] { f, i, Math.min(n, i + CHUNK_SIZE) });
+			nNodes += n;
+		}
+
+		final int nWorkers = Math.max(1, Math.min(nThreads, chunks.size()));
+		final ExecutorService executor = Executors.newFixedThreadPool(nWorkers);
+		final AtomicInteger nextChunk = new AtomicInteger();
+		try {
+			final List<Future<?>> futures = new ArrayList<>(nWorkers);
+			for (int w = 0; w < nWorkers; w++) {
+				futures.add(executor.submit(() -> {
+					final PathFitter.Sampler sampler = new PathFitter.Sampler();
+					int c;
+					while ((c = nextChunk.getAndIncrement()) < chunks.size()) {
+						if (Thread.currentThread().isInterrupted()) return;
+						final int[] chunk = chunks.get(c);
+						final PathFitter fitter = fitters.get(chunk[0]);
+						for (int i = chunk[1]; i < chunk[2]; i++)
+							fitter.fitNode(i, sampler);
+						final int left = remaining[chunk[0]].addAndGet(chunk[1] - chunk[2]);
+						final int n = sizes[chunk[0]];
+						fitter.updateProgress((double) (n - left) / n);
+						if (left == 0) fitter.finish(); // last chunk of this path
+					}
+				}));
+			}
+			for (final Future<?> future : futures)
+				future.get();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		final List<Path> result = new ArrayList<>(fitters.size());
+		for (final PathFitter fitter : fitters)
+			result.add(fitter.complete());
+		elapsedNanos = System.nanoTime() - start;
+		SNTUtils.log(String.format("Fitted %d nodes (%d paths) in %.2fs: %.0f nodes/s (%d threads)", nNodes,
+				fitters.size(), getElapsedTime(), getThroughput(), nWorkers));
+		return result;
+	}
+
+	/**
+	 * @return the number of nodes processed by the last call to {@link #call()}
+	 */
+	public int getNodeCount() {
+		return nNodes;
+	}
+
+	/**
+	 * @return the duration (in seconds) of the last call to {@link #call()}
+	 */
+	public double getElapsedTime() {
+		return elapsedNanos / 1e9;
+	}
+
+	/**
+	 * @return the aggregate throughput (fitted nodes per second) of the last
+	 *         call to {@link #call()}
+	 */
+	public double getThroughput() {
+		return (elapsedNanos == 0) ? 0 : nNodes / getElapsedTime();
+	}
+
+}
@@ -0,0 +1,598 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package sc.fiji.snt;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import sc.fiji.snt.util.PointInImage;
+
+/**
+ * Reads and writes SNT's binary reconstruction container, a compact
+ * alternative to (gzipped) XML .traces files. Paths and fills are stored as
+ * blocks of contiguous little-endian primitive arrays, preceded by a header
+ * (spatial calibration, image dimensions) and a directory with the offset of
+ * each block. Files are memory-mapped when read. {@link #readPaths} and
+ * {@link #readFills} decode all blocks at once, while {@link #readPath(int)}
+ * decodes a single path block on demand, through the directory.
+ * <p>
+ * Version 1 layout:
+ * </p>
+ * <pre>
+ * header:    magic ("SNTB"), version (short), flags (short), x,y,z spacing
+ *            (double), spacing units (string), width, height, depth (int),
+ *            number of paths (int), number of fills (int)
+ * directory: offset (long) of each path block, then of each fill block
+ * path:      id, SWC type, channel, frame, flags (int), [ARGB color (int)],
+ *            [fitted id (int)], [fitted version-of id (int)], [start join: path
+ *            id (int), x,y,z (double)], [end join: idem], name (string), n
+ *            (int), x[n], y[n], z[n] (double), [tx[n], ty[n], tz[n], r[n]
+ *            (double)], [values[n] (double)], [colors: ARGB[n] (int), set[n]
+ *            (byte)]
+ * fill:      n sources (int), source ids[n] (int), metric (string),
+ *            threshold (double), n nodes (int), x[n], y[n], z[n] (int),
+ *            distance[n] (double), previous[n] (int), open[n] (byte)
+ * string:    byte length (int, -1 if null), UTF-8 bytes
+ * </pre>
+ *
+ * @author Tiago Ferreira
+ */
+final class BinaryTracesFile {
+
+	/** The default extension of binary reconstruction files */
+	static final String EXTENSION = ".btraces";
+
+	/* "SNTB" when serialized as little-endian */
+	private static final int MAGIC = 0x42544E53;
+	private static final short VERSION = 1;
+
+	/* Header flags */
+	private static final short HAS_IMAGE_SIZE = 1;
+
+	/* Path flags */
+	private static final int PRIMARY = 1;
+	private static final int USE_FITTED = 1 << 1;
+	private static final int COLOR = 1 << 2;
+	private static final int FITTED = 1 << 3;
+	private static final int FITTED_VERSION_OF = 1 << 4;
+	private static final int START_JOIN = 1 << 5;
+	private static final int END_JOIN = 1 << 6;
+	private static final int RADII = 1 << 7;
+	private static final int NODE_VALUES = 1 << 8;
+	private static final int NODE_COLORS = 1 << 9;
+
+	private final ByteBuffer buffer;
+	private final double xSpacing;
+	private final double ySpacing;
+	private final double zSpacing;
+	private final String spacingUnits;
+	private final int[] imageSize;
+	private final long[] pathOffsets;
+	private final long[] fillOffsets;
+
+	/**
+	 * Maps a binary reconstruction file and reads its header.
+	 *
+	 * @param file the file to be read
+	 * @throws IOException if the file could not be read or is not a valid binary
+	 *           reconstruction file
+	 */
+	BinaryTracesFile(final File file) throws IOException {
+		try (final FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (fc.size() > Integer.MAX_VALUE)
+				throw new IOException("File is too large: " + file);
+			buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not a binary reconstruction file: " + file);
+			final short version = buffer.getShort();
+			if (version > VERSION)
+				throw new IOException("Unsupported file version (" + version + "): " + file);
+			final short flags = buffer.getShort();
+			xSpacing = buffer.getDouble();
+			ySpacing = buffer.getDouble();
+			zSpacing = buffer.getDouble();
+			spacingUnits = getString(buffer);
+			final int[] dims = { buffer.getInt(), buffer.getInt(), buffer.getInt() };
+			imageSize = ((flags & HAS_IMAGE_SIZE) != 0) ? dims : null;
+			pathOffsets = new long[buffer.getInt()];
+			fillOffsets = new long[buffer.getInt()];
+			for (int i = 0; i < pathOffsets.length; i++)
+				pathOffsets[i] = buffer.getLong();
+			for (int i = 0; i < fillOffsets.length; i++)
+				fillOffsets[i] = buffer.getLong();
+		}
+		catch (final RuntimeException ex) {
+			throw new IOException("Truncated or corrupted file: " + file, ex);
+		}
+	}
+
+	/**
+	 * Checks whether a file starts with the signature of binary reconstruction
+	 * files.
+	 *
+	 * @param header the first (at least 4) bytes of the file
+	 * @return true if {@code header} matches the signature
+	 */
+	static boolean isBinaryTraces(final byte[] header) {
+		return header.length >= 4 && header[0] == 'S' && header[1] == 'N' &&
+			header[2] == 'T' && header[3] == 'B';
+	}
+
+	double getXSpacing() {
+		return xSpacing;
+	}
+
+	double getYSpacing() {
+		return ySpacing;
+	}
+
+	double getZSpacing() {
+		return zSpacing;
+	}
+
+	String getSpacingUnits() {
+		return spacingUnits;
+	}
+
+	/**
+	 * @return the {width, height, depth} of the image associated with the
+	 *         reconstruction, or null if it was not recorded
+	 */
+	int[] getImageSize() {
+		return imageSize;
+	}
+
+	int getPathCount() {
+		return pathOffsets.length;
+	}
+
+	int getFillCount() {
+		return fillOffsets.length;
+	}
+
+	/**
+	 * Decodes all the paths in the file, restoring joins and fitted versions.
+	 * Paths without a start join (or flagged as primary) start a new tree, as
+	 * when loading XML files.
+	 *
+	 * @return the list of paths, in the order they were written
+	 * @throws IOException if the file is malformed
+	 */
+	List<Path> readPaths(final double xSpacing, final double ySpacing,
+		final double zSpacing, final String spacingUnits) throws IOException
+	{
+		final List<Path> paths = new ArrayList<>(pathOffsets.length);
+		final PathRecord[] records = new PathRecord[pathOffsets.length];
+		final Map<Integer, Path> idToPath = new HashMap<>();
+		int treeID = 0;
+		for (int i = 0; i < pathOffsets.length; i++) {
+			records[i] = new PathRecord();
+			final Path p;
+			try {
+				p = readPath(i, records[i], xSpacing, ySpacing, zSpacing, spacingUnits);
+			}
+			catch (final RuntimeException ex) {
+				throw new IOException("Truncated or corrupted path block #" + i, ex);
+			}
+			if (idToPath.put(records[i].id, p) != null)
+				throw new IOException("There is more than one path with ID " + records[i].id);
+			if ((records[i].flags & (PRIMARY | START_JOIN)) != START_JOIN) {
+				p.setIsPrimary(true);
+				++treeID;
+			}
+			p.setIDs(records[i].id, treeID);
+			p.setName(records[i].name);
+			paths.add(p);
+		}
+		for (int i = 0; i < records.length; i++) {
+			final PathRecord r = records[i];
+			final Path p = paths.get(i);
+			if ((r.flags & START_JOIN) != 0)
+				p.setStartJoin(getPath(idToPath, r.startJoinID), r.startJoinPoint);
+			if ((r.flags & END_JOIN) != 0)
+				p.setEndJoin(getPath(idToPath, r.endJoinID), r.endJoinPoint);
+			if ((r.flags & FITTED) != 0) {
+				p.fitted = getPath(idToPath, r.fittedID);
+				p.useFitted = (r.flags & USE_FITTED) != 0;
+			}
+			if ((r.flags & FITTED_VERSION_OF) != 0)
+				p.fittedVersionOf = getPath(idToPath, r.fittedVersionOfID);
+		}
+		for (final Path p : paths) {
+			if (p.fitted != null && p.fitted.fittedVersionOf != p)
+				throw new IOException("Malformed file: fitted version of path " + p.getID() + " does not match");
+			if (p.fittedVersionOf != null && p.fittedVersionOf.fitted != p)
+				throw new IOException("Malformed file: path " + p.getID() + " does not match its unfitted version");
+		}
+		return paths;
+	}
+
+	/**
+	 * Decodes all the fills in the file.
+	 *
+	 * @param paths the paths of the reconstruction (used to resolve the source
+	 *          paths of each fill)
+	 * @return the list of fills, in the order they were written
+	 * @throws IOException if the file is malformed
+	 */
+	List<Fill> readFills(final Collection<Path> paths) throws IOException {
+		final Map<Integer, Path> idToPath = new HashMap<>();
+		for (final Path p : paths)
+			idToPath.put(p.getID(), p);
+		final List<Fill> fills = new ArrayList<>(fillOffsets.length);
+		for (int i = 0; i < fillOffsets.length; i++) {
+			try {
+				fills.add(readFill(i, idToPath));
+			}
+			catch (final RuntimeException ex) {
+				throw new IOException("Truncated or corrupted fill block #" + i, ex);
+			}
+		}
+		return fills;
+	}
+
+	/**
+	 * Decodes a single path block, without decoding any other block. Paths are
+	 * calibrated with the spacing recorded in the file header. Since other paths
+	 * are not decoded, joins and fitted versions are not restored.
+	 *
+	 * @param index the index of the path block, in the order paths were written
+	 * @return the decoded path
+	 * @throws IOException if the block is malformed
+	 * @throws IndexOutOfBoundsException if index is not a valid block index
+	 */
+	Path readPath(final int index) throws IOException {
+		if (index < 0 || index >= pathOffsets.length)
+			throw new IndexOutOfBoundsException("Invalid path block #" + index);
+		final PathRecord record = new PathRecord();
+		final Path p;
+		try {
+			p = readPath(index, record, xSpacing, ySpacing, zSpacing, spacingUnits);
+		}
+		catch (final RuntimeException ex) {
+			throw new IOException("Truncated or corrupted path block #" + index, ex);
+		}
+		p.setIDs(record.id, 0);
+		p.setName(record.name);
+		return p;
+	}
+
+	/* The properties of a path block that refer to other paths */
+	private static class PathRecord {
+		int id;
+		int flags;
+		int fittedID;
+		int fittedVersionOfID;
+		int startJoinID;
+		PointInImage startJoinPoint;
+		int endJoinID;
+		PointInImage endJoinPoint;
+		String name;
+	}
+
+	private Path readPath(final int index, final PathRecord record,
+		final double xSpacing, final double ySpacing, final double zSpacing,
+		final String spacingUnits)
+	{
+		final ByteBuffer b = block(pathOffsets[index]);
+		record.id = b.getInt();
+		final int swcType = b.getInt();
+		final int channel = b.getInt();
+		final int frame = b.getInt();
+		final int flags = record.flags = b.getInt();
+		final Color color = ((flags & COLOR) != 0) ? new Color(b.getInt(), true) : null;
+		if ((flags & FITTED) != 0) record.fittedID = b.getInt();
+		if ((flags & FITTED_VERSION_OF) != 0) record.fittedVersionOfID = b.getInt();
+		if ((flags & START_JOIN) != 0) {
+			record.startJoinID = b.getInt();
+			record.startJoinPoint = new PointInImage(b.getDouble(), b.getDouble(), b.getDouble());
+		}
+		if ((flags & END_JOIN) != 0) {
+			record.endJoinID = b.getInt();
+			record.endJoinPoint = new PointInImage(b.getDouble(), b.getDouble(), b.getDouble());
+		}
+		record.name = getString(b);
+		final int n = b.getInt();
+		final double[] x = getDoubles(b, n);
+		final double[] y = getDoubles(b, n);
+		final double[] z = getDoubles(b, n);
+
+		final Path p = new Path(xSpacing, ySpacing, zSpacing, spacingUnits, Math.max(1, n));
+		p.setSWCType(swcType, false);
+		p.setCTposition(channel, frame);
+		if (color != null) p.setColor(color);
+		for (int i = 0; i < n; i++)
+			p.addPointDouble(x[i], y[i], z[i]);
+		if ((flags & RADII) != 0) {
+			p.createCircles();
+			b.asDoubleBuffer().get(p.tangents_x, 0, n);
+			skip(b, 8 * n);
+			b.asDoubleBuffer().get(p.tangents_y, 0, n);
+			skip(b, 8 * n);
+			b.asDoubleBuffer().get(p.tangents_z, 0, n);
+			skip(b, 8 * n);
+			b.asDoubleBuffer().get(p.radii, 0, n);
+			skip(b, 8 * n);
+		}
+		if ((flags & NODE_VALUES) != 0) {
+			final double[] values = getDoubles(b, n);
+			for (int i = 0; i < n; i++)
+				p.setNodeValue(values[i], i);
+		}
+		if ((flags & NODE_COLORS) != 0) {
+			final int[] argb = new int[n];
+			b.asIntBuffer().get(argb);
+			skip(b, 4 * n);
+			final Color[] colors = new Color[n];
+			for (int i = 0; i < n; i++)
+				if (b.get() != 0) colors[i] = new Color(argb[i], true);
+			p.setNodeColors(colors);
+		}
+		return p;
+	}
+
+	private Fill readFill(final int index, final Map<Integer, Path> idToPath) {
+		final ByteBuffer b = block(fillOffsets[index]);
+		final int[] sourceIDs = new int[b.getInt()];
+		b.asIntBuffer().get(sourceIDs);
+		skip(b, 4 * sourceIDs.length);
+		final Fill fill = new Fill();
+		fill.setMetric(getString(b));
+		fill.setThreshold(b.getDouble());
+		final int n = b.getInt();
+		final int[] x = getInts(b, n);
+		final int[] y = getInts(b, n);
+		final int[] z = getInts(b, n);
+		final double[] distance = getDoubles(b, n);
+		final int[] previous = getInts(b, n);
+		fill.nodeList.ensureCapacity(n);
+		for (int i = 0; i < n; i++)
+			fill.add(x[i], y[i], z[i], distance[i], previous[i], b.get() != 0);
+		final Set<Path> sourcePaths = new HashSet<>();
+		for (final int id : sourceIDs) {
+			final Path p = idToPath.get(id);
+			if (p != null) sourcePaths.add(p);
+		}
+		fill.setSourcePaths(sourcePaths);
+		return fill;
+	}
+
+	/**
+	 * Writes a reconstruction to a binary file.
+	 *
+	 * @param file the output file. Overwritten if it exists
+	 * @param imageSize the {width, height, depth} of the image associated with
+	 *          the reconstruction. Null allowed.
+	 * @throws IOException if the file could not be written
+	 */
+	static void write(final File file, final double xSpacing,
+		final double ySpacing, final double zSpacing, final String spacingUnits,
+		final int[] imageSize, final List<Path> paths, final List<Fill> fills)
+		throws IOException
+	{
+		final int headerSize = 4 + 2 + 2 + 3 * 8 + stringSize(spacingUnits) + 3 * 4 + 4 + 4 +
+			8 * (paths.size() + fills.size());
+		final ByteBuffer header = allocate(headerSize);
+		header.putInt(MAGIC).putShort(VERSION).putShort((imageSize == null) ? 0 : HAS_IMAGE_SIZE);
+		header.putDouble(xSpacing).putDouble(ySpacing).putDouble(zSpacing);
+		putString(header, spacingUnits);
+		for (int i = 0; i < 3; i++)
+			header.putInt((imageSize == null) ? 0 : imageSize[i]);
+		header.putInt(paths.size()).putInt(fills.size());
+		try (final FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			// blocks are written first, so that the directory can be filled in
+			fc.position(headerSize);
+			for (final Path p : paths) {
+				header.putLong(fc.position());
+				writeFully(fc, encode(p));
+			}
+			for (final Fill f : fills) {
+				header.putLong(fc.position());
+				writeFully(fc, encode(f));
+			}
+			header.flip();
+			fc.position(0);
+			writeFully(fc, header);
+		}
+	}
+
+	private static ByteBuffer encode(final Path p) {
+		final int n = p.size();
+		int flags = 0;
+		if (p.isPrimary()) flags |= PRIMARY;
+		if (p.getUseFitted()) flags |= USE_FITTED;
+		if (p.getColor() != null) flags |= COLOR;
+		if (p.getFitted() != null) flags |= FITTED;
+		if (p.fittedVersionOf != null) flags |= FITTED_VERSION_OF;
+		if (p.startJoins != null) flags |= START_JOIN;
+		if (p.endJoins != null) flags |= END_JOIN;
+		if (p.hasRadii()) flags |= RADII;
+		if (p.hasNodeValues()) flags |= NODE_VALUES;
+		if (p.hasNodeColors()) flags |= NODE_COLORS;
+		final String name = p.getName();
+		int size = 5 * 4 + stringSize(name) + 4 + 3 * 8 * n;
+		if ((flags & COLOR) != 0) size += 4;
+		if ((flags & FITTED) != 0) size += 4;
+		if ((flags & FITTED_VERSION_OF) != 0) size += 4;
+		if ((flags & START_JOIN) != 0) size += 4 + 3 * 8;
+		if ((flags & END_JOIN) != 0) size += 4 + 3 * 8;
+		if ((flags & RADII) != 0) size += 4 * 8 * n;
+		if ((flags & NODE_VALUES) != 0) size += 8 * n;
+		if ((flags & NODE_COLORS) != 0) size += 5 * n;
+
+		final ByteBuffer b = allocate(size);
+		b.putInt(p.getID()).putInt(p.getSWCType()).putInt(p.getChannel()).putInt(p.getFrame()).putInt(flags);
+		if ((flags & COLOR) != 0) b.putInt(p.getColor().getRGB());
+		if ((flags & FITTED) != 0) b.putInt(p.getFitted().getID());
+		if ((flags & FITTED_VERSION_OF) != 0) b.putInt(p.fittedVersionOf.getID());
+		if ((flags & START_JOIN) != 0) {
+			b.putInt(p.startJoins.getID());
+			b.putDouble(p.startJoinsPoint.x).putDouble(p.startJoinsPoint.y).putDouble(p.startJoinsPoint.z);
+		}
+		if ((flags & END_JOIN) != 0) {
+			b.putInt(p.endJoins.getID());
+			b.putDouble(p.endJoinsPoint.x).putDouble(p.endJoinsPoint.y).putDouble(p.endJoinsPoint.z);
+		}
+		putString(b, name);
+		b.putInt(n);
+		putDoubles(b, p.precise_x_positions, n);
+		putDoubles(b, p.precise_y_positions, n);
+		putDoubles(b, p.precise_z_positions, n);
+		if ((flags & RADII) != 0) {
+			putDoubles(b, p.tangents_x, n);
+			putDoubles(b, p.tangents_y, n);
+			putDoubles(b, p.tangents_z, n);
+			putDoubles(b, p.radii, n);
+		}
+		if ((flags & NODE_VALUES) != 0) {
+			for (int i = 0; i < n; i++)
+				b.putDouble(p.getNodeValue(i));
+		}
+		if ((flags & NODE_COLORS) != 0) {
+			for (int i = 0; i < n; i++) {
+				final Color c = p.getNodeColor(i);
+				b.putInt((c == null) ? 0 : c.getRGB());
+			}
+			for (int i = 0; i < n; i++)
+				b.put((byte) ((p.getNodeColor(i) == null) ? 0 : 1));
+		}
+		b.flip();
+		return b;
+	}
+
+	private static ByteBuffer encode(final Fill f) {
+		final int nSources = (f.sourcePaths == null) ? 0 : f.sourcePaths.size();
+		final int n = f.nodeList.size();
+		final ByteBuffer b = allocate(4 + 4 * nSources + stringSize(f.getMetric()) + 8 + 4 +
+			n * (3 * 4 + 8 + 4 + 1));
+		b.putInt(nSources);
+		if (nSources > 0) {
+			for (final Path p : f.sourcePaths)
+				b.putInt(p.getID());
+		}
+		putString(b, f.getMetric());
+		b.putDouble(f.getThreshold());
+		b.putInt(n);
+		for (final Fill.Node node : f.nodeList)
+			b.putInt(node.x);
+		for (final Fill.Node node : f.nodeList)
+			b.putInt(node.y);
+		for (final Fill.Node node : f.nodeList)
+			b.putInt(node.z);
+		for (final Fill.Node node : f.nodeList)
+			b.putDouble(node.distance);
+		for (final Fill.Node node : f.nodeList)
+			b.putInt(node.previous);
+		for (final Fill.Node node : f.nodeList)
+			b.put((byte) (node.open ? 1 : 0));
+		b.flip();
+		return b;
+	}
+
+	private static Path getPath(final Map<Integer, Path> idToPath, final int id)
+		throws IOException
+	{
+		final Path p = idToPath.get(id);
+		if (p == null) throw new IOException("Malformed file: no path with ID " + id);
+		return p;
+	}
+
+	private ByteBuffer block(final long offset) {
+		final ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		b.position((int) offset);
+		return b;
+	}
+
+	private static ByteBuffer allocate(final int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void writeFully(final FileChannel fc, final ByteBuffer b)
+		throws IOException
+	{
+		while (b.hasRemaining())
+			fc.write(b);
+	}
+
+	private static void skip(final ByteBuffer b, final int nBytes) {
+		b.position(b.position() + nBytes);
+	}
+
+	private static double[] getDoubles(final ByteBuffer b, final int n) {
+		final double[] array = new double[n];
+		b.asDoubleBuffer().get(array);
+		skip(b, 8 * n);
+		return array;
+	}
+
+	private static int[] getInts(final ByteBuffer b, final int n) {
+		final int[] array = new int[n];
+		b.asIntBuffer().get(array);
+		skip(b, 4 * n);
+		return array;
+	}
+
+	private static void putDoubles(final ByteBuffer b, final double[] array, final int n) {
+		b.asDoubleBuffer().put(array, 0, n);
+		skip(b, 8 * n);
+	}
+
+	private static int stringSize(final String string) {
+		return 4 + ((string == null) ? 0 : string.getBytes(StandardCharsets.UTF_8).length);
+	}
+
+	private static void putString(final ByteBuffer b, final String string) {
+		if (string == null) {
+			b.putInt(-1);
+			return;
+		}
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		b.putInt(bytes.length).put(bytes);
+	}
+
+	private static String getString(final ByteBuffer b) {
+		final int length = b.getInt();
+		if (length < 0) return null;
+		final byte[] bytes = new byte[length];
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
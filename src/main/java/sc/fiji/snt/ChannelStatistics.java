@@ -0,0 +1,261 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.stream.IntStream;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/**
+ * Intensity statistics (range and a coarse histogram) of a single channel and
+ * frame of an image. Slices are processed in parallel, and statistics obtained
+ * through {@link #get(ImagePlus, int, int)} are cached per image and C,T
+ * position, so that switching between channels/frames of a hyperstack only
+ * requires the data to be scanned once. NB: 16-bit data is read as signed
+ * values, consistently with how it is read by {@link SearchThread}s.
+ *
+ * @author Tiago Ferreira
+ */
+public final class ChannelStatistics {
+
+	/** The number of bins of the histogram */
+	public static final int N_BINS = 256;
+
+	/* Statistics of cached positions, keyed by C,T position */
+	private static final Map<ImagePlus, Map<Long, ChannelStatistics>> CACHE = new WeakHashMap<>();
+
+	private final float min;
+	private final float max;
+	private final long[] histogram;
+	private final int fingerprint;
+
+	private ChannelStatistics(final float min, final float max, final long[] histogram, final int fingerprint) {
+		this.min = min;
+		this.max = max;
+		this.histogram = histogram;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Retrieves the statistics of the specified C,T position of an image,
+	 * computing them only if they have not been cached yet, or if the pixel
+	 * arrays of the position were replaced since statistics were computed.
+	 *
+	 * @param imp     the image
+	 * @param channel the channel (1-based index)
+	 * @param frame   the frame (1-based index)
+	 * @return the statistics of the specified position
+	 * @throws IllegalArgumentException if image type is not supported
+	 */
+	public static ChannelStatistics get(final ImagePlus imp, final int channel, final int frame)
+			throws IllegalArgumentException {
+		return get(imp, channel, frame, getSlices(imp, channel, frame));
+	}
+
+	/**
+	 * Retrieves the statistics of the specified C,T position of an image, using
+	 * pixel arrays that have already been retrieved by the caller.
+	 *
+	 * @param imp     the image
+	 * @param channel the channel (1-based index)
+	 * @param frame   the frame (1-based index)
+	 * @param slices  the pixel arrays of each Z-slice of the position
+	 * @return the statistics of the specified position
+	 * @throws IllegalArgumentException if image type is not supported
+	 * @see #get(ImagePlus, int, int)
+	 */
+	static ChannelStatistics get(final ImagePlus imp, final int channel, final int frame, final Object[] slices)
+			throws IllegalArgumentException {
+		final Long key = ((long) channel << 32) | (frame & 0xFFFFFFFFL);
+		// Virtual stacks return new arrays on every access: Assume data on disk is unchanged
+		final int fingerprint = (imp.getStack().isVirtual()) ? 0 : fingerprint(slices);
+		synchronized (CACHE) {
+			final Map<Long, ChannelStatistics> cached = CACHE.get(imp);
+			final ChannelStatistics stats = (cached == null) ? null : cached.get(key);
+			if (stats != null && stats.fingerprint == fingerprint) return stats;
+		}
+		final ChannelStatistics stats = compute(slices, fingerprint);
+		synchronized (CACHE) {
+			CACHE.computeIfAbsent(imp, k -> new HashMap<>()).put(key, stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Computes the statistics of the specified C,T position of an image without
+	 * caching them, e.g., for transient images.
+	 *
+	 * @param imp     the image
+	 * @param channel the channel (1-based index)
+	 * @param frame   the frame (1-based index)
+	 * @return the statistics of the specified position
+	 * @throws IllegalArgumentException if image type is not supported
+	 */
+	public static ChannelStatistics compute(final ImagePlus imp, final int channel, final int frame)
+			throws IllegalArgumentException {
+		return compute(getSlices(imp, channel, frame), 0);
+	}
+
+	/**
+	 * Discards all the statistics cached for the specified image, e.g., after
+	 * its pixel data has been modified in place.
+	 *
+	 * @param imp the image
+	 */
+	public static void invalidate(final ImagePlus imp) {
+		synchronized (CACHE) {
+			CACHE.remove(imp);
+		}
+	}
+
+	private static Object[] getSlices(final ImagePlus imp, final int channel, final int frame) {
+		final ImageStack stack = imp.getStack();
+		final Object[] slices = new Object[imp.getNSlices()];
+		for (int z = 0; z < slices.length; z++)
+			slices[z] = stack.getPixels(imp.getStackIndex(channel, z + 1, frame));
+		return slices;
+	}
+
+	private static int fingerprint(final Object[] slices) {
+		int hash = slices.length;
+		for (final Object slice : slices)
+			hash = 31 * hash + System.identityHashCode(slice);
+		return hash;
+	}
+
+	private static ChannelStatistics compute(final Object[] slices, final int fingerprint) {
+		for (final Object slice : slices) {
+			if (!(slice instanceof byte[] || slice instanceof short[] || slice instanceof float[]))
+				throw new IllegalArgumentException("Unsupported image type");
+		}
+
+		// 1st pass: range of each slice
+		final float[][] sliceRanges = new float[slices.length][];
+		IntStream.range(0, slices.length).parallel().forEach(z -> sliceRanges[z] = range(slices[z]));
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		for (final float[] range : sliceRanges) {
+			min = Math.min(min, range[0]);
+			max = Math.max(max, range[1]);
+		}
+		if (min > max) { // no valid values
+			min = 0;
+			max = 0;
+		}
+
+		// 2nd pass: histogram of each slice
+		final float histMin = min;
+		final double scale = (max > min) ? N_BINS / ((double) max - min) : 0;
+		final long[][] sliceHistograms = new long[slices.length][];
+		IntStream.range(0, slices.length).parallel()
+				.forEach(z -> sliceHistograms[z] = histogram(slices[z], histMin, scale));
+		final long[] histogram = new long[N_BINS];
+		for (final long[] sHist : sliceHistograms) {
+			for (int bin = 0; bin < N_BINS; bin++)
+				histogram[bin] += sHist[bin];
+		}
+		return new ChannelStatistics(min, max, histogram, fingerprint);
+	}
+
+	private static float[] range(final Object slice) {
+		float sMin = Float.POSITIVE_INFINITY;
+		float sMax = Float.NEGATIVE_INFINITY;
+		if (slice instanceof byte[]) {
+			for (final byte b : (byte[]) slice) {
+				final int v = b & 0xff;
+				if (v < sMin) sMin = v;
+				if (v > sMax) sMax = v;
+			}
+		} else if (slice instanceof short[]) {
+			for (final short v : (short[]) slice) {
+				if (v < sMin) sMin = v;
+				if (v > sMax) sMax = v;
+			}
+		} else {
+			for (final float v : (float[]) slice) {
+				if (v < sMin) sMin = v; // NaNs are skipped by both comparisons
+				if (v > sMax) sMax = v;
+			}
+		}
+		return new float[] { sMin, sMax };
+	}
+
+	private static long[] histogram(final Object slice, final float min, final double scale) {
+		final long[] hist = new long[N_BINS];
+		final int lastBin = N_BINS - 1;
+		if (slice instanceof byte[]) {
+			for (final byte b : (byte[]) slice)
+				hist[Math.min(lastBin, (int) (((b & 0xff) - min) * scale))]++;
+		} else if (slice instanceof short[]) {
+			for (final short v : (short[]) slice)
+				hist[Math.min(lastBin, (int) ((v - min) * scale))]++;
+		} else {
+			for (final float v : (float[]) slice) {
+				if (v == v) // skip NaNs
+					hist[Math.min(lastBin, (int) ((v - min) * scale))]++;
+			}
+		}
+		return hist;
+	}
+
+	/**
+	 * @return the smallest (non-NaN) intensity value
+	 */
+	public float getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the largest (non-NaN) intensity value
+	 */
+	public float getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the histogram of intensities. Bins are evenly spaced between
+	 * {@link #getMin()} and {@link #getMax()}.
+	 *
+	 * @return the histogram counts ({@link #N_BINS} entries)
+	 */
+	public long[] getHistogram() {
+		return Arrays.copyOf(histogram, N_BINS);
+	}
+
+	/**
+	 * @return the width of each histogram bin
+	 */
+	public double getBinWidth() {
+		return ((double) max - min) / N_BINS;
+	}
+
+	@Override
+	public String toString() {
+		return "ChannelStatistics [min=" + min + ", max=" + max + "]";
+	}
+}
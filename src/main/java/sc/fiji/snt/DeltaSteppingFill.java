@@ -0,0 +1,394 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import sc.fiji.snt.util.NeighborStencil;
+
+/**
+ * A multi-threaded, delta-stepping implementation of the (unbounded) Dijkstra
+ * search performed by {@link FillerThread}. Tentative distances are bucketed
+ * in intervals of width delta: all the voxels of the lowest bucket are relaxed
+ * concurrently across a {@link ForkJoinPool} until the bucket is exhausted, at
+ * which point its voxels are settled (closed). Settled voxels are only
+ * re-opened if seeds are added to an ongoing search. Distances are updated
+ * with a compare-and-set minimum and computed exactly as in the serial search,
+ * so that the final distances of both searches are identical (predecessors
+ * may differ between equally short routes).
+ * <p>
+ * The state of each voxel is packed in a single long: the bits of its
+ * (float) distance in the upper 32 bits, followed by 'reached' and 'closed'
+ * flags and the direction of its predecessor in the lowest byte. State arrays
+ * are allocated lazily, one per slice.
+ * </p>
+ *
+ * @author Tiago Ferreira
+ */
+final class DeltaSteppingFill {
+
+	private static final long REACHED = 1L << 9;
+	private static final long CLOSED = 1L << 8;
+	private static final long PREDECESSOR_MASK = 0xFF;
+	/* Frontiers smaller than this are relaxed in the calling thread */
+	private static final int MIN_CHUNK_SIZE = 512;
+
+	private final SearchThread search;
+	private final NeighborStencil stencil;
+	private final int width;
+	private final int height;
+	private final int depth;
+	private final int sliceSize;
+	private final double minimumCost;
+	private final double delta;
+	private final AtomicReferenceArray<AtomicLongArray> slices;
+	private final TreeMap<Long, LongList> buckets;
+	private final LongList bucketMembers;
+	private final LongAdder reached;
+	private final LongAdder closed;
+	private final ForkJoinPool pool;
+	private final int nThreads;
+	private long currentBucket = -1;
+
+	/**
+	 * @param search the (unidirectional) search to be parallelized. It is used
+	 *          for its image dimensions, neighbourhood and cost function.
+	 * @param nThreads the number of threads to be used
+	 */
+	DeltaSteppingFill(final SearchThread search, final int nThreads) {
+		this.search = search;
+		stencil = search.stencil;
+		width = search.width;
+		height = search.height;
+		depth = search.depth;
+		sliceSize = width * height;
+		minimumCost = search.minimum_cost_per_unit_distance;
+		slices = new AtomicReferenceArray<>(depth);
+		buckets = new TreeMap<>();
+		bucketMembers = new LongList();
+		reached = new LongAdder();
+		closed = new LongAdder();
+		this.nThreads = Math.max(1, nThreads);
+		pool = new ForkJoinPool(this.nThreads);
+		delta = estimateDelta();
+	}
+
+	/*
+	 * Chooses a bucket width in the order of the typical cost of a step to a
+	 * face neighbour, estimated from a sample of voxels across the image.
+	 */
+	private double estimateDelta() {
+		double minStep = Double.MAX_VALUE;
+		for (final double step : stencil.stepLengths)
+			minStep = Math.min(minStep, step);
+		final long nVoxels = (long) sliceSize * depth;
+		final long stride = Math.max(1, nVoxels / 4096);
+		double sum = 0;
+		int n = 0;
+		for (long i = 0; i < nVoxels; i += stride) {
+			final int z = (int) (i / sliceSize);
+			final int index = (int) (i % sliceSize);
+			sum += Math.max(minimumCost, search.costMovingTo(index % width, index /
+				width, z));
+			n++;
+		}
+		final double d = (n == 0) ? 0 : minStep * sum / n;
+		return (d > 0 && !Double.isInfinite(d)) ? d : 1;
+	}
+
+	/**
+	 * Seeds this search with a node of an existing search. Closed nodes are
+	 * kept closed, all others are queued for expansion. Seeding an already
+	 * reached voxel replaces its state, re-opening it if needed.
+	 */
+	void seed(final int x, final int y, final int z, final float g,
+		final boolean isClosed, final int predX, final int predY,
+		final int predZ)
+	{
+		long pred = PREDECESSOR_MASK;
+		final int dx = predX - x;
+		final int dy = predY - y;
+		final int dz = predZ - z;
+		if (predX >= 0 && Math.abs(dx) <= 1 && Math.abs(dy) <= 1 && Math.abs(
+			dz) <= 1) pred = SparseNodeStore.direction(dx, dy, dz);
+		final long index = (long) z * sliceSize + y * width + x;
+		final long old = slice(z).getAndSet(y * width + x, encode(g, pred) |
+			((isClosed) ? CLOSED : 0));
+		if ((old & REACHED) == 0) reached.increment();
+		if (isClosed) {
+			if ((old & CLOSED) == 0) closed.increment();
+		}
+		else {
+			if ((old & CLOSED) != 0) closed.decrement();
+			queue(index, g);
+		}
+	}
+
+	/** @return true if there are voxels left to be relaxed */
+	boolean hasWork() {
+		return !buckets.isEmpty();
+	}
+
+	/**
+	 * Relaxes all the voxels currently in the lowest non-empty bucket. Voxels
+	 * whose distance improves are (re)queued. Once a bucket is exhausted, its
+	 * voxels are closed.
+	 */
+	void relaxNextPhase() {
+		final Map.Entry<Long, LongList> entry = buckets.pollFirstEntry();
+		if (entry == null) return;
+		if (entry.getKey() != currentBucket) {
+			settle();
+			currentBucket = entry.getKey();
+		}
+		final LongList frontier = new LongList();
+		final LongList queued = entry.getValue();
+		for (int i = 0; i < queued.size; i++) {
+			final long index = queued.values[i];
+			final long state = state(index);
+			if ((state & CLOSED) != 0 || bucketOf(distance(state)) != currentBucket)
+				continue; // stale entry
+			frontier.add(index);
+		}
+		bucketMembers.addAll(frontier);
+		for (final LongList improved : relax(frontier)) {
+			for (int i = 0; i < improved.size; i++) {
+				final long index = improved.values[i];
+				queue(index, distance(state(index)));
+			}
+		}
+		if (buckets.isEmpty()) settle();
+	}
+
+	private List<LongList> relax(final LongList frontier) {
+		final List<LongList> result = new ArrayList<>();
+		final int nChunks = (int) Math.min(nThreads * 4L, frontier.size /
+			MIN_CHUNK_SIZE);
+		if (nChunks <= 1) {
+			result.add(relax(frontier, 0, frontier.size));
+			return result;
+		}
+		final List<Callable<LongList>> tasks = new ArrayList<>(nChunks);
+		final int chunkSize = (frontier.size + nChunks - 1) / nChunks;
+		for (int start = 0; start < frontier.size; start += chunkSize) {
+			final int from = start;
+			final int to = Math.min(frontier.size, start + chunkSize);
+			tasks.add(() -> relax(frontier, from, to));
+		}
+		try {
+			for (final Future<LongList> future : pool.invokeAll(tasks))
+				result.add(future.get());
+		}
+		catch (final InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Parallel fill interrupted", e);
+		}
+		return result;
+	}
+
+	private LongList relax(final LongList frontier, final int from,
+		final int to)
+	{
+		final LongList improved = new LongList();
+		for (int f = from; f < to; f++) {
+			final long index = frontier.values[f];
+			final int z = (int) (index / sliceSize);
+			final int pIndex = (int) (index % sliceSize);
+			final int x = pIndex % width;
+			final int y = pIndex / width;
+			final float g = distance(state(index));
+			final boolean interior = stencil.isInterior(x, y, z);
+			for (int i = 0; i < stencil.size; i++) {
+				if (!interior && !stencil.inBounds(i, x, y, z)) continue;
+				final int newX = x + stencil.dx[i];
+				final int newY = y + stencil.dy[i];
+				final int newZ = z + stencil.dz[i];
+				final AtomicLongArray slice = slice(newZ);
+				final int newIndex = pIndex + stencil.offsets[i];
+				long old = slice.get(newIndex);
+				if ((old & CLOSED) != 0 && distance(old) <= g) continue;
+				double cost = search.costMovingTo(newX, newY, newZ);
+				if (cost < minimumCost) cost = minimumCost;
+				final float newG = (float) (g + stencil.stepLengths[i] * cost);
+				final long updated = encode(newG, SparseNodeStore.direction(
+					-stencil.dx[i], -stencil.dy[i], -stencil.dz[i]));
+				while ((old & REACHED) == 0 || newG < distance(old)) {
+					if (slice.compareAndSet(newIndex, old, updated)) {
+						if ((old & REACHED) == 0) reached.increment();
+						else if ((old & CLOSED) != 0) closed.decrement(); // re-opened
+						improved.add((long) newZ * sliceSize + newIndex);
+						break;
+					}
+					old = slice.get(newIndex);
+				}
+			}
+		}
+		return improved;
+	}
+
+	private void settle() {
+		for (int i = 0; i < bucketMembers.size; i++) {
+			final long index = bucketMembers.values[i];
+			final AtomicLongArray slice = slice((int) (index / sliceSize));
+			final int sIndex = (int) (index % sliceSize);
+			final long state = slice.get(sIndex);
+			if ((state & CLOSED) == 0) {
+				slice.set(sIndex, state | CLOSED);
+				closed.increment();
+			}
+		}
+		bucketMembers.clear();
+	}
+
+	private void queue(final long index, final float g) {
+		buckets.computeIfAbsent(bucketOf(g), k -> new LongList()).add(index);
+	}
+
+	private long bucketOf(final float g) {
+		return (long) (g / delta);
+	}
+
+	private static long encode(final float g, final long predecessor) {
+		return ((long) Float.floatToIntBits(g) << 32) | REACHED | (predecessor &
+			PREDECESSOR_MASK);
+	}
+
+	private static float distance(final long state) {
+		return Float.intBitsToFloat((int) (state >>> 32));
+	}
+
+	private AtomicLongArray slice(final int z) {
+		AtomicLongArray slice = slices.get(z);
+		if (slice == null) {
+			slices.compareAndSet(z, null, new AtomicLongArray(sliceSize));
+			slice = slices.get(z);
+		}
+		return slice;
+	}
+
+	private long state(final long index) {
+		final AtomicLongArray slice = slices.get((int) (index / sliceSize));
+		return (slice == null) ? 0 : slice.get((int) (index % sliceSize));
+	}
+
+	/**
+	 * @return the distance of the specified voxel, or -1 if the voxel has not
+	 *         been reached
+	 */
+	float getDistance(final int x, final int y, final int z) {
+		final long state = state((long) z * sliceSize + y * width + x);
+		return ((state & REACHED) == 0) ? -1f : distance(state);
+	}
+
+	/**
+	 * @return the search status of the specified voxel (open or closed from
+	 *         start) or {@link SparseNodeStore#UNVISITED} if the voxel has not
+	 *         been reached
+	 */
+	byte getStatus(final int x, final int y, final int z) {
+		final long state = state((long) z * sliceSize + y * width + x);
+		if ((state & REACHED) == 0) return SparseNodeStore.UNVISITED;
+		return ((state & CLOSED) == 0) ? SearchThread.OPEN_FROM_START
+			: SearchThread.CLOSED_FROM_START;
+	}
+
+	/**
+	 * @return a lower bound of the distance of any open voxel, or -1 if there
+	 *         are no open voxels
+	 */
+	float getMinimumOpenDistance() {
+		if (buckets.isEmpty()) return -1f;
+		return (float) (buckets.firstKey() * delta);
+	}
+
+	int getOpenCount() {
+		return (int) (reached.sum() - closed.sum());
+	}
+
+	int getClosedCount() {
+		return (int) closed.sum();
+	}
+
+	/** Visits all the voxels reached by this search, in scanline order. */
+	void forEach(final SearchThread.NodeVisitor visitor) {
+		for (int z = 0; z < depth; z++) {
+			final AtomicLongArray slice = slices.get(z);
+			if (slice == null) continue;
+			for (int i = 0; i < sliceSize; i++) {
+				final long state = slice.get(i);
+				if ((state & REACHED) == 0) continue;
+				final int x = i % width;
+				final int y = i / width;
+				final byte status = ((state & CLOSED) == 0)
+					? SearchThread.OPEN_FROM_START : SearchThread.CLOSED_FROM_START;
+				final byte pred = (byte) (state & PREDECESSOR_MASK);
+				if (pred == SparseNodeStore.NO_PREDECESSOR) {
+					visitor.visit(x, y, z, distance(state), status, -1, -1, -1);
+				}
+				else {
+					visitor.visit(x, y, z, distance(state), status, x + SparseNodeStore
+						.directionX(pred), y + SparseNodeStore.directionY(pred), z +
+							SparseNodeStore.directionZ(pred));
+				}
+			}
+		}
+	}
+
+	/** Releases the worker threads of this search. */
+	void shutdown() {
+		pool.shutdown();
+	}
+
+	private static final class LongList {
+
+		long[] values = new long[16];
+		int size;
+
+		void add(final long value) {
+			if (size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		void addAll(final LongList other) {
+			if (size + other.size > values.length) values = Arrays.copyOf(values,
+				Math.max(size + other.size, size * 2));
+			System.arraycopy(other.values, 0, values, size, other.size);
+			size += other.size;
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+
+}
@@ -89,6 +89,8 @@ public class FillManagerUI extends JDialog implements PathAndFillListener,
 	private JButton view3D;
 	private JPopupMenu viewFillsMenu;
 	private JCheckBox transparent;
+	private JCheckBox parallel;
+	private JCheckBox stopAtThreshold;
 	protected JButton pauseOrRestartFilling;
 	private JButton saveFill;
 	private JButton discardFill;
@@ -244,6 +246,27 @@ public class FillManagerUI extends JDialog implements PathAndFillListener,
 			fillControlPanel = SNTUI.buttonPanel(pauseOrRestartFilling, discardFill, saveFill);
 			add(fillControlPanel, c);
 			++c.gridy;
+			parallel = new JCheckBox(" Multi-threaded search",
+				plugin.isParallelFilling());
+			parallel.setToolTipText("Use " + SNTPrefs.getThreads() +
+				" threads to compute new fills");
+			parallel.addActionListener(e -> plugin.setParallelFilling(parallel
+				.isSelected()));
+			final JPanel parallelPanel = leftAlignedPanel();
+			parallelPanel.add(parallel);
+			add(parallelPanel, c);
+			++c.gridy;
+			stopAtThreshold = new JCheckBox(" Explore only up to threshold distance",
+				plugin.isStopFillAtThreshold());
+			stopAtThreshold.setToolTipText("<HTML>If selected, the search waits "
+				+ "once the threshold distance is reached<br>and resumes when the "
+				+ "threshold is increased");
+			stopAtThreshold.addActionListener(e -> plugin.setStopFillAtThreshold(
+				stopAtThreshold.isSelected()));
+			final JPanel stopPanel = leftAlignedPanel();
+			stopPanel.add(stopAtThreshold);
+			add(stopPanel, c);
+			++c.gridy;
 		}
 
 		GuiUtils.addSeparator((JComponent) getContentPane(), " Export Fill(s):",
@@ -332,6 +355,8 @@ public class FillManagerUI extends JDialog implements PathAndFillListener,
 		view3D.setEnabled(true);
 		exportAsCSV.setEnabled(true);
 		transparent.setEnabled(true);
+		parallel.setEnabled(false);
+		stopAtThreshold.setEnabled(true);
 		pauseOrRestartFilling.setEnabled(true);
 		saveFill.setEnabled(false);
 		discardFill.setEnabled(true);
@@ -351,6 +376,8 @@ public class FillManagerUI extends JDialog implements PathAndFillListener,
 		view3D.setEnabled(false);
 		exportAsCSV.setEnabled(false);
 		transparent.setEnabled(false);
+		parallel.setEnabled(true);
+		stopAtThreshold.setEnabled(true);
 		pauseOrRestartFilling.setEnabled(false);
 		saveFill.setEnabled(false);
 		discardFill.setEnabled(false);
@@ -369,6 +396,8 @@ public class FillManagerUI extends JDialog implements PathAndFillListener,
 		view3D.setEnabled(false);
 		exportAsCSV.setEnabled(false);
 		transparent.setEnabled(false);
+		parallel.setEnabled(false);
+		stopAtThreshold.setEnabled(false);
 		pauseOrRestartFilling.setEnabled(false);
 		saveFill.setEnabled(false);
 		discardFill.setEnabled(false);
@@ -25,8 +25,9 @@ package sc.fiji.snt;
 import java.awt.Graphics;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.List;
 import java.util.Set;
 
 import ij.ImagePlus;
@@ -55,47 +56,48 @@ public class FillerThread extends SearchThread {
 		final int y = (int) Math.round(yd);
 		final int z = (int) Math.round(zd);
 
-		final SearchNode[] slice = nodes_as_image_from_start[z];
-		if (slice == null) return -1.0f;
-
-		final SearchNode n = slice[y * width + x];
-		if (n == null) return -1.0f;
-		else return n.g;
+		return getNodeG(x, y, z, true);
 	}
 
 	// FIXME: may be buggy, synchronization issues
 
 	Fill getFill() {
 
-		final Hashtable<SearchNode, Integer> h = new Hashtable<>();
-
-		final ArrayList<SearchNode> a = new ArrayList<>();
-
-		// The tricky bit here is that we want to create a
-		// Fill object with index
+		// The tricky bit here is that we want to create a Fill object with
+		// indices of predecessors. Nodes are keyed by their (packed) position
+		// so that this works regardless of how the search stores its nodes.
 
-		int openAtOrAbove;
+		final HashMap<Long, Integer> h = new HashMap<>();
+		final ArrayList<int[]> closed = new ArrayList<>();
+		final ArrayList<int[]> open = new ArrayList<>();
+		final ArrayList<Float> closedG = new ArrayList<>();
+		final ArrayList<Float> openG = new ArrayList<>();
 
-		int i = 0;
-
-		for (final SearchNode current : closed_from_start) {
-			/* if( current.g <= threshold ) { */
-			h.put(current, i);
-			a.add(current);
-			++i;
-			/* } */
-		}
+		visitNodes(true, (x, y, z, g, status, predX, predY, predZ) -> {
+			if (status == CLOSED_FROM_START) {
+				closed.add(new int[] { x, y, z, predX, predY, predZ });
+				closedG.add(g);
+			}
+			else if (status == OPEN_FROM_START) {
+				open.add(new int[] { x, y, z, predX, predY, predZ });
+				openG.add(g);
+			}
+		});
 
-		openAtOrAbove = i;
+		final ArrayList<int[]> a = new ArrayList<>(closed.size() + open.size());
+		final ArrayList<Float> aG = new ArrayList<>(closed.size() + open.size());
+		a.addAll(closed);
+		a.addAll(open);
+		aG.addAll(closedG);
+		aG.addAll(openG);
+		final int openAtOrAbove = closed.size();
 
 		SNTUtils.log("openAtOrAbove is: " + openAtOrAbove);
 
-		for (final SearchNode current : open_from_start) {
-			/* if( current.g <= threshold ) { */
-			h.put(current, i);
-			a.add(current);
-			++i;
-			/* } */
+		int i;
+		for (i = 0; i < a.size(); ++i) {
+			final int[] n = a.get(i);
+			h.put(SparseNodeStore.key(n[0], n[1], n[2]), i);
 		}
 
 		final Fill fill = new Fill();
@@ -109,16 +111,15 @@ public class FillerThread extends SearchThread {
 		SNTUtils.log("... out of a.size() " + a.size() + " entries");
 
 		for (i = 0; i < a.size(); ++i) {
-			final SearchNode f = a.get(i);
+			final int[] f = a.get(i);
 			int previousIndex = -1;
-			final SearchNode previous = f.getPredecessor();
-			if (previous != null) {
-				final Integer p = h.get(previous);
+			if (f[3] >= 0) {
+				final Integer p = h.get(SparseNodeStore.key(f[3], f[4], f[5]));
 				if (p != null) {
 					previousIndex = p;
 				}
 			}
-			fill.add(f.x, f.y, f.z, f.g, previousIndex, i >= openAtOrAbove);
+			fill.add(f[0], f[1], f[2], aG.get(i), previousIndex, i >= openAtOrAbove);
 		}
 
 		if (sourcePaths != null) {
@@ -183,10 +184,109 @@ public class FillerThread extends SearchThread {
 		return result;
 	}
 
-	float threshold;
+	volatile float threshold;
+
+	private boolean parallel;
+	private DeltaSteppingFill parallelFill;
+	private volatile boolean stopAtThreshold;
+	/* Internal idle state, distinct from the (user-controlled) pause state */
+	private volatile boolean waitingAtThreshold;
+	private final Object thresholdLock = new Object();
+	/* Max. time between checks of threshold and thread status while waiting */
+	private static final long THRESHOLD_WAIT_MILLIS = 250;
+	private final List<Path> pendingSourcePaths = new ArrayList<>();
+
+	/**
+	 * Sets whether the fill should be computed using multiple threads. Parallel
+	 * fills yield the same distances as serial ones, but explore the image in
+	 * 'bands' of similar distance, so intermediate results (e.g., of a paused
+	 * fill) may differ. Must be called before the thread is started.
+	 *
+	 * @param parallel whether the fill should be multi-threaded
+	 * @see SNTPrefs#getThreads()
+	 */
+	public void setParallel(final boolean parallel) {
+		if (parallelFill != null) throw new IllegalStateException(
+			"Fill has already started");
+		this.parallel = parallel;
+	}
 
+	/**
+	 * @return whether the fill is computed using multiple threads
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Sets whether the search should only explore the image up to the current
+	 * threshold distance. Once all the nodes within the threshold have been
+	 * explored, the thread waits, keeping its frontier, so that the search can
+	 * be resumed by raising the threshold or by adding source paths. This does
+	 * not affect the pause state of the thread (see {@link #pauseOrUnpause()}).
+	 * If false (the default) the search explores the whole image.
+	 *
+	 * @param stopAtThreshold whether the search should stop at the threshold
+	 */
+	public void setStopAtThreshold(final boolean stopAtThreshold) {
+		this.stopAtThreshold = stopAtThreshold;
+		if (!stopAtThreshold) resumeIfWaiting();
+	}
+
+	/**
+	 * @return whether the search stops at the threshold distance
+	 */
+	public boolean isStopAtThreshold() {
+		return stopAtThreshold;
+	}
+
+	/**
+	 * @return whether all the nodes within the threshold distance have been
+	 *         explored and the search is waiting for the threshold to be raised
+	 * @see #setStopAtThreshold(boolean)
+	 */
+	public boolean isWaitingAtThreshold() {
+		return waitingAtThreshold;
+	}
+
+	private void resumeIfWaiting() {
+		synchronized (thresholdLock) {
+			if (waitingAtThreshold) {
+				waitingAtThreshold = false;
+				thresholdLock.notifyAll();
+			}
+		}
+	}
+
+	/* Waits (briefly) for the threshold to be raised or for new sources */
+	private void waitAtThreshold() {
+		if (!waitingAtThreshold) {
+			waitingAtThreshold = true;
+			reportPointsInSearch(); // so that the fill display is complete
+		}
+		synchronized (thresholdLock) {
+			if (!waitingAtThreshold) return;
+			try {
+				thresholdLock.wait(THRESHOLD_WAIT_MILLIS);
+			}
+			catch (final InterruptedException ignored) {
+				// e.g., unpaused or stopped: status is checked by the caller
+			}
+		}
+	}
+
+	/**
+	 * Sets the distance threshold of the fill. If the search is stopped at the
+	 * threshold (see {@link #setStopAtThreshold(boolean)}), raising the threshold
+	 * resumes the search from its current frontier. Lowering it only filters the
+	 * nodes already explored.
+	 *
+	 * @param threshold the new threshold
+	 */
 	public void setThreshold(final double threshold) {
+		final boolean raised = threshold > this.threshold;
 		this.threshold = (float) threshold;
+		if (raised) resumeIfWaiting();
 	}
 
 	public float getThreshold() {
@@ -205,11 +305,66 @@ public class FillerThread extends SearchThread {
 			startPaused, 0, reportEveryMilliseconds);
 
 		this.reciprocal = reciprocal;
+		// Fills have always been computed with the reciprocal cost: the flag only
+		// determines the metric recorded in the Fill
+		setSearchCost(IntensityCost.of(this, true));
 		setThreshold(initialThreshold);
 
 		setPriority(MIN_PRIORITY);
 	}
 
+	/**
+	 * Adds source paths to the fill. Only paths that are not already sources of
+	 * this fill are seeded, and the existing search is extended rather than
+	 * restarted. If the thread is already running, the new seeds are added by
+	 * the search thread itself at its next iteration.
+	 *
+	 * @param newSourcePaths the paths to be added
+	 */
+	public void addSourcePaths(final Collection<Path> newSourcePaths) {
+		final List<Path> added = new ArrayList<>();
+		synchronized (pendingSourcePaths) {
+			if (sourcePaths == null) sourcePaths = new HashSet<>();
+			for (final Path p : newSourcePaths) {
+				if (p != null && sourcePaths.add(p)) added.add(p);
+			}
+			if (added.isEmpty()) return;
+			if (getState() == State.NEW) {
+				added.forEach(this::seed);
+				return;
+			}
+			pendingSourcePaths.addAll(added);
+		}
+		resumeIfWaiting();
+	}
+
+	/**
+	 * @return whether the fill can be extended to the specified source paths,
+	 *         i.e., whether the thread is still alive and the specified paths
+	 *         include all of the current source paths
+	 */
+	boolean isExtensibleTo(final Collection<Path> paths) {
+		return isAlive() && getThreadStatus() != STOPPING &&
+			sourcePaths != null && paths.containsAll(sourcePaths);
+	}
+
+	private void seed(final Path p) {
+		for (int k = 0; k < p.size(); ++k) {
+			if (parallelFill == null) addSeed(p.getXUnscaled(k), p.getYUnscaled(k), p
+				.getZUnscaled(k), true);
+			else parallelFill.seed(p.getXUnscaled(k), p.getYUnscaled(k), p
+				.getZUnscaled(k), 0f, false, -1, -1, -1);
+		}
+	}
+
+	private void seedPendingSourcePaths() {
+		synchronized (pendingSourcePaths) {
+			if (pendingSourcePaths.isEmpty()) return;
+			pendingSourcePaths.forEach(this::seed);
+			pendingSourcePaths.clear();
+		}
+	}
+
 	public void setSourcePaths(final Collection<Path> newSourcePaths) {
 		sourcePaths = new HashSet<>();
 		sourcePaths.addAll(newSourcePaths);
@@ -249,11 +404,10 @@ public class FillerThread extends SearchThread {
 		final ImageStack stack = new ImageStack(width, height);
 
 		for (int z = 0; z < depth; ++z) {
-			final SearchNode[] nodes_this_slice = nodes_as_image_from_start[z];
-			if (nodes_this_slice != null) for (int y = 0; y < height; ++y) {
+			for (int y = 0; y < height; ++y) {
 				for (int x = 0; x < width; ++x) {
-					final SearchNode s = nodes_as_image_from_start[z][y * width + x];
-					if ((s != null) && (s.g <= threshold)) {
+					final float g = getNodeG(x, y, z, true);
+					if ((g >= 0) && (g <= threshold)) {
 						switch (imageType) {
 							case ImagePlus.GRAY8:
 							case ImagePlus.COLOR_256:
@@ -311,10 +465,8 @@ public class FillerThread extends SearchThread {
 		super.reportPointsInSearch();
 
 		// Find the minimum distance in the open list.
-		final SearchNode p = open_from_start.peek();
-		if (p == null) return;
-
-		final float minimumDistanceInOpen = p.g;
+		final float minimumDistanceInOpen = getMinimumOpenG(true);
+		if (minimumDistanceInOpen < 0) return;
 
 		for (final SearchProgressCallback progress : progressListeners) {
 			if (progress instanceof FillerProgressCallback) {
@@ -327,6 +479,91 @@ public class FillerThread extends SearchThread {
 
 	}
 
+	@Override
+	public void run() {
+		try {
+			super.run();
+		}
+		finally {
+			if (parallelFill != null) parallelFill.shutdown();
+		}
+	}
+
+	@Override
+	protected boolean hasOpenNodes() {
+		if (parallel && parallelFill == null) {
+			// Continue from wherever the serial search was left, e.g., seeds of
+			// source paths or the nodes of a loaded fill
+			parallelFill = new DeltaSteppingFill(this, SNTPrefs.getThreads());
+			super.visitNodes(true, (x, y, z, g, status, predX, predY,
+				predZ) -> parallelFill.seed(x, y, z, g, status == CLOSED_FROM_START,
+					predX, predY, predZ));
+			loopsBetweenChecks = 1;
+		}
+		seedPendingSourcePaths();
+		return (parallelFill == null) ? super.hasOpenNodes() : parallelFill
+			.hasWork();
+	}
+
+	@Override
+	protected boolean expandNext() {
+		if (stopAtThreshold && getMinimumOpenG(true) > threshold) {
+			// Everything within the threshold has been explored: Keep the
+			// frontier and wait for the threshold to be raised. The search
+			// loop keeps checking for stop requests in the meantime
+			waitAtThreshold();
+			return false;
+		}
+		if (waitingAtThreshold) waitingAtThreshold = false;
+		if (parallelFill == null) return super.expandNext();
+		parallelFill.relaxNextPhase();
+		return false;
+	}
+
+	@Override
+	protected float getNodeG(final int x, final int y, final int z,
+		final boolean fromStart)
+	{
+		if (parallelFill == null) return super.getNodeG(x, y, z, fromStart);
+		return (fromStart) ? parallelFill.getDistance(x, y, z) : -1f;
+	}
+
+	@Override
+	protected float getMinimumOpenG(final boolean fromStart) {
+		if (parallelFill == null) return super.getMinimumOpenG(fromStart);
+		return (fromStart) ? parallelFill.getMinimumOpenDistance() : -1f;
+	}
+
+	@Override
+	void visitNodes(final boolean fromStart, final NodeVisitor visitor) {
+		if (parallelFill == null) super.visitNodes(fromStart, visitor);
+		else if (fromStart) parallelFill.forEach(visitor);
+	}
+
+	@Override
+	byte statusUnderThreshold(final int x, final int y, final int z,
+		final double threshold)
+	{
+		if (parallelFill == null) return super.statusUnderThreshold(x, y, z,
+			threshold);
+		final float g = parallelFill.getDistance(x, y, z);
+		if (g < 0 || (threshold >= 0 && g > threshold))
+			return SparseNodeStore.UNVISITED;
+		return parallelFill.getStatus(x, y, z);
+	}
+
+	@Override
+	protected int pointsInOpen() {
+		return (parallelFill == null) ? super.pointsInOpen() : parallelFill
+			.getOpenCount();
+	}
+
+	@Override
+	protected int pointsInClosed() {
+		return (parallelFill == null) ? super.pointsInClosed() : parallelFill
+			.getClosedCount();
+	}
+
 	@Override
 	public void drawProgressOnSlice(final int plane,
 		final int currentSliceInPlane, final TracerCanvas canvas, final Graphics g)
@@ -22,14 +22,14 @@
 
 package sc.fiji.snt;
 
-import features.ComputeCurvatures;
 import ij.ImagePlus;
 
 /**
  * This class is responsible for initiating Heassian analysis on both the
- * <i>primary</i> (main) and the <i>secondary</i> image. Currently computations
- * are performed by {@link features.ComputeCurvatures}, but could be extended to
- * adopt other approaches.
+ * <i>primary</i> (main) and the <i>secondary</i> image. Computations are
+ * performed on demand by {@link LazyHessian}, i.e., only on the regions of the
+ * image explored by searches, but could be extended to adopt other approaches.
+ * Computed blocks are persisted in SNT's {@link TubenessDiskCache}, if any.
  * 
  * @author Tiago Ferreira
  */
@@ -43,7 +43,7 @@ public class HessianCaller {
 	private final int type;
 	double sigma = -1;
 	double multiplier = DEFAULT_MULTIPLIER;
-	protected ComputeCurvatures hessian;
+	protected volatile LazyHessian hessian;
 	protected float[][] cachedTubeness;
 	private ImagePlus imp;
 
@@ -54,7 +54,7 @@ public class HessianCaller {
 
 	public void setSigmaAndMax(final double sigmaInCalibratedUnits, final double max) {
 		if (sigma != sigmaInCalibratedUnits)
-			hessian = null;
+			disposeHessian();
 		this.sigma = sigmaInCalibratedUnits;
 		this.multiplier = impMax() / max;
 		if (snt.ui != null) snt.ui.updateHessianPanel(this);
@@ -99,19 +99,42 @@ public class HessianCaller {
 
 	public Thread start() {
 		if (hessian == null && cachedTubeness == null) {
-			SNTUtils.log("Computing Gaussian "+ toString());
+			SNTUtils.log("Preparing on-demand Hessian "+ toString());
 			snt.changeUIState((type == PRIMARY) ? SNTUI.CALCULATING_GAUSSIAN_I : SNTUI.CALCULATING_GAUSSIAN_II);
 			if (sigma == -1)
 				sigma = getDefaultSigma();
-			setImp();
-			hessian = new ComputeCurvatures(imp, sigma, snt, true);
-			final Thread thread = new Thread(hessian);
+			final Thread thread = new Thread(() -> {
+				final Object[] data = getData();
+				if (data == null) {
+					snt.proportionDone(-1);
+					return;
+				}
+				// Nothing is computed until a search requests costs
+				final LazyHessian lazyHessian = new LazyHessian(data, snt.width, snt.height, sigma, snt.x_spacing,
+						snt.y_spacing, snt.z_spacing);
+				final TubenessDiskCache diskCache = snt.getTubenessDiskCache();
+				if (diskCache != null) lazyHessian.setStore(diskCache.open(lazyHessian, snt.channel, snt.frame));
+				hessian = lazyHessian;
+				snt.proportionDone(1);
+			});
 			thread.start();
 			return thread;
 		}
 		return null;
 	}
 
+	private Object[] getData() {
+		if (type == SECONDARY) return snt.secondaryData;
+		if (snt.slices_data_b != null) return snt.slices_data_b;
+		if (snt.slices_data_s != null) return snt.slices_data_s;
+		return snt.slices_data_f;
+	}
+
+	private void disposeHessian() {
+		if (hessian != null) hessian.dispose();
+		hessian = null;
+	}
+
 	private void setImp() {
 		if (imp == null) imp = (type == PRIMARY) ? snt.getLoadedDataAsImp() : snt.getSecondaryDataAsImp();
 	}
@@ -122,11 +145,11 @@ public class HessianCaller {
 	}
 
 	protected void cancelGaussianGeneration() {
-		if (hessian != null) hessian.cancelGaussianGeneration();
+		// Blocks are computed on demand: there is no preprocessing to cancel
 	}
 
 	void nullify() {
-		hessian = null;
+		disposeHessian();
 		sigma = -1;
 		multiplier = DEFAULT_MULTIPLIER;
 		cachedTubeness = null;
@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import features.ComputeCurvatures;
+
+/**
+ * A {@link SearchCost} based on Hessian eigenvalues computed on-the-fly by
+ * {@link ComputeCurvatures}: Voxels along tubular structures are cheap to move
+ * to. For 2D images, the absolute value of the largest eigenvalue (if
+ * negative) is used. For 3D images, the geometric mean of the two largest
+ * eigenvalues (if both negative) is used.
+ *
+ * @author Tiago Ferreira
+ * @see TubenessCost
+ */
+public class HessianCost implements SearchCost {
+
+	/* Cost of voxels that do not resemble a tube */
+	static final double NON_TUBULAR_MEASURE = 0.2;
+
+	private final ComputeCurvatures hessian;
+	private final double multiplier;
+	private final boolean singleSlice;
+	private final float x_spacing;
+	private final float y_spacing;
+	private final float z_spacing;
+
+	public HessianCost(final ComputeCurvatures hessian, final double multiplier,
+		final boolean singleSlice, final float x_spacing, final float y_spacing,
+		final float z_spacing)
+	{
+		if (hessian == null) throw new IllegalArgumentException(
+			"Hessian is not available");
+		this.hessian = hessian;
+		this.multiplier = multiplier;
+		this.singleSlice = singleSlice;
+		this.x_spacing = x_spacing;
+		this.y_spacing = y_spacing;
+		this.z_spacing = z_spacing;
+	}
+
+	@Override
+	public double costMovingTo(final int x, final int y, final int z) {
+		return (singleSlice) ? cost2D(x, y) : cost3D(x, y, z);
+	}
+
+	private double cost2D(final int x, final int y) {
+		final double[] hessianEigenValues = new double[2];
+		final boolean real = hessian.hessianEigenvaluesAtPoint2D(x, y, true,
+			hessianEigenValues, false, true, x_spacing, y_spacing);
+
+		// Just use the absolute value of the largest eigenvalue (if it's < 0)
+		if (real && (hessianEigenValues[1] < 0)) {
+			double measure = Math.abs(hessianEigenValues[1]);
+			if (measure == 0) // This should never happen in practice...
+				measure = NON_TUBULAR_MEASURE;
+			measure *= multiplier;
+			if (measure > 256) measure = 256;
+			return 1 / measure;
+		}
+		return 1 / NON_TUBULAR_MEASURE;
+	}
+
+	private double cost3D(final int x, final int y, final int z) {
+		final double[] hessianEigenValues = new double[3];
+		final boolean real = hessian.hessianEigenvaluesAtPoint3D(x, y, z, true,
+			hessianEigenValues, false, true, x_spacing, y_spacing, z_spacing);
+
+		/*
+		 * FIXME: there's lots of literature on how to pick this rule (see Sato et al,
+		 * "Three-dimensional multi-scale line filter for segmentation and visualization
+		 * of curvilinear structures in medical images". The rule I'm using here
+		 * probably isn't optimal.
+		 */
+		final double e1 = hessianEigenValues[1];
+		final double e2 = hessianEigenValues[2];
+		if (real && (e1 < 0) && (e2 < 0)) {
+			double measure = Math.sqrt(e1 * e2);
+			if (measure == 0) // This should never happen in practice...
+				measure = NON_TUBULAR_MEASURE;
+			measure *= multiplier;
+			if (measure > 256) measure = 256;
+			return 1 / measure;
+		}
+		return 1 / NON_TUBULAR_MEASURE;
+	}
+
+	@Override
+	public double minimumCostPerUnitDistance() {
+		// 1E-4 for the ratio of e0/e1; 0.002 for e1 - e0
+		return 1 / 60.0;
+	}
+
+}
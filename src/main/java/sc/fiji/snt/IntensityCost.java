@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import ij.ImagePlus;
+
+/**
+ * A {@link SearchCost} based on image intensity: bright voxels are cheap to
+ * move to and dark voxels expensive. Intensities of 16 and 32-bit images are
+ * rescaled to the 0-255 range using the stack min/max. Costs are either the
+ * reciprocal of the (rescaled) intensity, or 256 minus the (rescaled)
+ * intensity.
+ * <p>
+ * Implementations are specialized by image type: For 8 and 16-bit data all the
+ * possible costs are precomputed in a look-up table (256 and 65536 entries
+ * respectively) so that no branching, rescaling or divisions take place
+ * while searching.
+ * </p>
+ *
+ * @author Tiago Ferreira
+ */
+public abstract class IntensityCost implements SearchCost {
+
+	/*
+	 * If we're taking the reciprocal of the value at the new point as our cost,
+	 * then values of zero cause a problem. This is the value that we use instead
+	 * of zero there.
+	 */
+	static final double RECIPROCAL_FUDGE = 0.5;
+
+	protected final int width;
+	protected final boolean reciprocal;
+
+	protected IntensityCost(final int width, final boolean reciprocal) {
+		this.width = width;
+		this.reciprocal = reciprocal;
+	}
+
+	/**
+	 * Creates the intensity cost appropriate for the data being searched by the
+	 * specified thread.
+	 *
+	 * @param search the search thread
+	 * @param reciprocal if true, cost is the reciprocal of the rescaled
+	 *          intensity, otherwise 256 minus the rescaled intensity
+	 * @return the intensity cost
+	 */
+	static IntensityCost of(final SearchThread search, final boolean reciprocal) {
+		switch (search.imageType) {
+			case ImagePlus.GRAY8:
+			case ImagePlus.COLOR_256:
+				return new ByteCost(search.slices_data_b, search.width, reciprocal);
+			case ImagePlus.GRAY16:
+				return new ShortCost(search.slices_data_s, search.width,
+					search.stackMin, search.stackMax, reciprocal);
+			case ImagePlus.GRAY32:
+				return new FloatCost(search.slices_data_f, search.width,
+					search.stackMin, search.stackMax, reciprocal);
+			default:
+				throw new IllegalArgumentException("Unsupported image type");
+		}
+	}
+
+	/**
+	 * Returns the cost associated with a rescaled (0-255) intensity value.
+	 *
+	 * @param value the rescaled intensity value
+	 * @return the cost of moving to a voxel with that intensity
+	 */
+	protected double cost(final double value) {
+		if (reciprocal) {
+			return (value == 0) ? 1 / RECIPROCAL_FUDGE : 1.0 / value;
+		}
+		return 256 - value;
+	}
+
+	@Override
+	public double minimumCostPerUnitDistance() {
+		return reciprocal ? (1 / 255.0) : 1;
+	}
+
+	/** Cost of 8-bit data: a 256-entry look-up table. */
+	public static class ByteCost extends IntensityCost {
+
+		private final byte[][] data;
+		private final double[] lut;
+
+		public ByteCost(final byte[][] data, final int width,
+			final boolean reciprocal)
+		{
+			super(width, reciprocal);
+			this.data = data;
+			lut = new double[256];
+			for (int i = 0; i < 256; i++)
+				lut[i] = cost(i);
+		}
+
+		@Override
+		public double costMovingTo(final int x, final int y, final int z) {
+			return lut[data[z][y * width + x] & 0xFF];
+		}
+	}
+
+	/**
+	 * Cost of 16-bit data: a 65536-entry look-up table, with rescaling already
+	 * applied. NB: Values are interpreted as signed, consistently with how the
+	 * stack min/max are computed by {@link SNT}.
+	 */
+	public static class ShortCost extends IntensityCost {
+
+		private final short[][] data;
+		private final double[] lut;
+
+		public ShortCost(final short[][] data, final int width,
+			final float stackMin, final float stackMax, final boolean reciprocal)
+		{
+			super(width, reciprocal);
+			this.data = data;
+			lut = new double[65536];
+			for (int i = 0; i < 65536; i++) {
+				final double v = (short) i;
+				lut[i] = cost(255.0 * (v - stackMin) / (stackMax - stackMin));
+			}
+		}
+
+		@Override
+		public double costMovingTo(final int x, final int y, final int z) {
+			return lut[data[z][y * width + x] & 0xFFFF];
+		}
+	}
+
+	/**
+	 * Cost of 32-bit data. A look-up table is not possible, but the rescaling
+	 * factor is precomputed.
+	 */
+	public static class FloatCost extends IntensityCost {
+
+		private final float[][] data;
+		private final double stackMin;
+		private final double scale;
+
+		public FloatCost(final float[][] data, final int width,
+			final float stackMin, final float stackMax, final boolean reciprocal)
+		{
+			super(width, reciprocal);
+			this.data = data;
+			this.stackMin = stackMin;
+			this.scale = 255.0 / (stackMax - stackMin);
+		}
+
+		@Override
+		public double costMovingTo(final int x, final int y, final int z) {
+			return cost((data[z][y * width + x] - stackMin) * scale);
+		}
+	}
+
+}
@@ -0,0 +1,512 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes Hessian-based tubeness lazily: The image is divided into blocks
+ * that are only processed (Gaussian smoothing of the block plus a halo, then
+ * eigen-decomposition of the Hessian at each voxel) once a search requests a
+ * cost within them. Blocks are computed in parallel (neighbours of requested
+ * blocks are computed ahead of time, as long as the bounded prefetch queue
+ * has room) and kept in a bounded LRU cache, so that
+ * tracing can start immediately, and only the regions explored by the search
+ * frontier are ever processed. If a {@link TubenessDiskCache} entry is
+ * attached, blocks are persisted once computed and read back on reuse.
+ * <p>
+ * Tubeness is defined as in {@link HessianCost}: for 3D images, the geometric
+ * mean of the two largest eigenvalues (if both negative), for 2D images the
+ * absolute value of the largest eigenvalue (if negative). Voxels that do not
+ * resemble a tube have a tubeness of zero.
+ * </p>
+ *
+ * @author Tiago Ferreira
+ * @see LazyHessianCost
+ */
+final class LazyHessian {
+
+	/* Block dimensions (in voxels) */
+	static final int BLOCK_XY = 32;
+	static final int BLOCK_Z = 16;
+	/* Upper bound for the memory used by cached blocks */
+	private static final long CACHE_BYTES = 128L * 1024 * 1024;
+	/* Maximum number of pending prefetches (per thread): excess ones are dropped */
+	private static final int PREFETCH_QUEUE_PER_THREAD = 32;
+
+	private final Object[] slices;
+	private final int width;
+	private final int height;
+	private final int depth;
+	private final boolean is2D;
+	private final double sigma;
+	private final double[] spacing;
+	private final float[][] kernels;
+	private final int[] halo;
+	private final int blockZ;
+	private final int nBlocksX;
+	private final int nBlocksY;
+	private final int nBlocksZ;
+	private final int maxCachedBlocks;
+	private final Map<Long, FutureTask<float[]>> cache;
+	private final ThreadPoolExecutor executor;
+	private volatile TubenessDiskCache.Store store;
+
+	/**
+	 * @param slices  the image data: an array of byte[], short[] or float[]
+	 *                pixel arrays, one per z-slice
+	 * @param width   the image width
+	 * @param height  the image height
+	 * @param sigma   the scale (in physical units) of the Gaussian
+	 * @param spacing the x,y,z voxel dimensions
+	 */
+	LazyHessian(final Object[] slices, final int width, final int height, final double sigma,
+			final double... spacing) {
+		this.slices = slices;
+		this.width = width;
+		this.height = height;
+		depth = slices.length;
+		is2D = depth == 1;
+		this.sigma = sigma;
+		this.spacing = spacing;
+		kernels = new float[3][];
+		halo = new int[3];
+		for (int d = 0; d < ((is2D) ? 2 : 3); d++) {
+			kernels[d] = gaussianKernel(sigma / spacing[d]);
+			halo[d] = kernels[d].length / 2 + 1; // +1 for finite differences
+		}
+		blockZ = (is2D) ? 1 : BLOCK_Z;
+		nBlocksX = (width + BLOCK_XY - 1) / BLOCK_XY;
+		nBlocksY = (height + BLOCK_XY - 1) / BLOCK_XY;
+		nBlocksZ = (depth + blockZ - 1) / blockZ;
+		maxCachedBlocks = (int) Math.max(64, CACHE_BYTES / (4L * BLOCK_XY * BLOCK_XY * blockZ));
+		cache = new LinkedHashMap<Long, FutureTask<float[]>>(256, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Long, FutureTask<float[]>> eldest) {
+				if (size() <= maxCachedBlocks) return false;
+				// evicted blocks that were not yet computed no longer need computing
+				discard(eldest.getValue());
+				return true;
+			}
+		};
+		final int nThreads = Math.max(1, SNTPrefs.getThreads());
+		executor = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(nThreads * PREFETCH_QUEUE_PER_THREAD), threadFactory(),
+				new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	private static ThreadFactory threadFactory() {
+		return r -> {
+			final Thread thread = new Thread(r, "SNT Lazy Hessian");
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * @return the scale (in physical units) of the Gaussian
+	 */
+	double getSigma() {
+		return sigma;
+	}
+
+	Object[] getSlices() {
+		return slices;
+	}
+
+	int getWidth() {
+		return width;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	double[] getSpacing() {
+		return spacing;
+	}
+
+	/**
+	 * @return the number of blocks the image is divided into
+	 */
+	int getBlockCount() {
+		return nBlocksX * nBlocksY * nBlocksZ;
+	}
+
+	/**
+	 * @return the length of the tubeness array of each block
+	 */
+	int getBlockLength() {
+		return BLOCK_XY * BLOCK_XY * blockZ;
+	}
+
+	/**
+	 * Attaches a disk cache entry from which blocks are read (and to which
+	 * computed blocks are written). Blocks computed before this call are only
+	 * written by {@link #computeAll()}.
+	 */
+	void setStore(final TubenessDiskCache.Store store) {
+		this.store = store;
+	}
+
+	/**
+	 * @return true if a disk cache entry is attached
+	 */
+	boolean hasStore() {
+		return store != null;
+	}
+
+	/**
+	 * Returns the key of the block containing the specified voxel.
+	 */
+	long blockKey(final int x, final int y, final int z) {
+		return ((long) (z / blockZ) * nBlocksY + y / BLOCK_XY) * nBlocksX + x / BLOCK_XY;
+	}
+
+	/**
+	 * Returns the index of the specified voxel within the tubeness array of its
+	 * block.
+	 */
+	int indexInBlock(final int x, final int y, final int z) {
+		return ((z % blockZ) * BLOCK_XY + y % BLOCK_XY) * BLOCK_XY + x % BLOCK_XY;
+	}
+
+	/**
+	 * Retrieves the tubeness of the block with the specified key, computing it
+	 * (and scheduling the computation of its neighbours) if needed. Blocks are
+	 * always {@code BLOCK_XY*BLOCK_XY*BLOCK_Z} arrays (BLOCK_Z being 1 for 2D
+	 * images), regardless of their position in the image.
+	 *
+	 * @param key the block key, as retrieved by {@link #blockKey(int, int, int)}
+	 * @return the tubeness values of the block
+	 */
+	float[] getBlock(final long key) {
+		final FutureTask<float[]> task;
+		synchronized (cache) {
+			FutureTask<float[]> t = cache.get(key);
+			if (t == null) {
+				t = newTask(key);
+				prefetchNeighbours(key);
+			}
+			task = t;
+		}
+		// If the block is still queued (or its prefetch was dropped), compute it
+		// in this thread rather than waiting. Does nothing if task already ran
+		task.run();
+		try {
+			return task.get();
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return new float[BLOCK_XY * BLOCK_XY * blockZ];
+		} catch (final CancellationException ex) {
+			// evicted from the cache before it could run
+			return loadOrCompute(key);
+		} catch (final ExecutionException ex) {
+			throw new IllegalStateException("Hessian could not be computed", ex.getCause());
+		}
+	}
+
+	/**
+	 * Retrieves the tubeness at the specified voxel.
+	 */
+	float tubenessAt(final int x, final int y, final int z) {
+		return getBlock(blockKey(x, y, z))[indexInBlock(x, y, z)];
+	}
+
+	/**
+	 * Computes all the blocks not yet in the attached disk cache entry, in
+	 * parallel, writing them to disk. Blocks are not kept in memory.
+	 *
+	 * @return false if no disk cache entry is attached, true otherwise
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	boolean computeAll() throws InterruptedException {
+		final TubenessDiskCache.Store store = this.store;
+		if (store == null) return false;
+		// A dedicated (unbounded) pool: the prefetch pool drops excess tasks
+		final ExecutorService pool = Executors.newFixedThreadPool(executor.getCorePoolSize(), threadFactory());
+		final List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (long key = 0; key < getBlockCount(); key++) {
+				if (store.contains(key)) continue;
+				final long k = key;
+				futures.add(pool.submit(() -> store.write(k, computeBlock(k))));
+			}
+			for (final Future<?> future : futures)
+				future.get();
+		} catch (final ExecutionException ex) {
+			throw new IllegalStateException("Hessian could not be computed", ex.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return true;
+	}
+
+	/**
+	 * Discards all computed blocks and stops any pending computation.
+	 */
+	void dispose() {
+		synchronized (cache) {
+			cache.values().forEach(this::discard);
+			cache.clear();
+		}
+		// Searches still holding this instance compute blocks in their own thread
+		executor.shutdownNow();
+		if (store != null) store.close();
+		store = null;
+	}
+
+	/* Must be called while holding the cache lock */
+	private FutureTask<float[]> newTask(final long key) {
+		final FutureTask<float[]> task = new FutureTask<>(() -> loadOrCompute(key));
+		cache.put(key, task);
+		return task;
+	}
+
+	private float[] loadOrCompute(final long key) {
+		final TubenessDiskCache.Store store = this.store;
+		if (store == null) return computeBlock(key);
+		float[] block = store.read(key);
+		if (block == null) {
+			block = computeBlock(key);
+			store.write(key, block);
+		}
+		return block;
+	}
+
+	/* Cancels a pending block computation and removes it from the prefetch queue */
+	private void discard(final FutureTask<float[]> task) {
+		if (task.isDone()) return;
+		task.cancel(false);
+		executor.remove(task);
+	}
+
+	/* Must be called while holding the cache lock */
+	private void prefetchNeighbours(final long key) {
+		if (executor.isShutdown()) return;
+		final int bx = (int) (key % nBlocksX);
+		final int by = (int) ((key / nBlocksX) % nBlocksY);
+		final int bz = (int) (key / ((long) nBlocksX * nBlocksY));
+		for (int z = Math.max(0, bz - 1); z <= Math.min(nBlocksZ - 1, bz + 1); z++) {
+			for (int y = Math.max(0, by - 1); y <= Math.min(nBlocksY - 1, by + 1); y++) {
+				for (int x = Math.max(0, bx - 1); x <= Math.min(nBlocksX - 1, bx + 1); x++) {
+					final long neighbour = ((long) z * nBlocksY + y) * nBlocksX + x;
+					// Rejected (queue full or shut down) tasks are discarded and, if
+					// needed, computed on demand by getBlock()
+					if (!cache.containsKey(neighbour))
+						executor.execute(newTask(neighbour));
+				}
+			}
+		}
+	}
+
+	private float[] computeBlock(final long key) {
+		final int bx = (int) (key % nBlocksX);
+		final int by = (int) ((key / nBlocksX) % nBlocksY);
+		final int bz = (int) (key / ((long) nBlocksX * nBlocksY));
+		final int[] origin = { bx * BLOCK_XY, by * BLOCK_XY, bz * blockZ };
+		final int[] size = { Math.min(BLOCK_XY, width - origin[0]), Math.min(BLOCK_XY, height - origin[1]),
+				Math.min(blockZ, depth - origin[2]) };
+
+		// Extract block plus halo (edges are replicated) and smooth it
+		final int[] rOrigin = new int[3];
+		final int[] rSize = new int[3];
+		for (int d = 0; d < 3; d++) {
+			rOrigin[d] = origin[d] - halo[d];
+			rSize[d] = size[d] + 2 * halo[d];
+		}
+		final float[] region = extract(rOrigin, rSize);
+		for (int d = 0; d < ((is2D) ? 2 : 3); d++)
+			convolve(region, rSize, d, kernels[d]);
+
+		// Compute tubeness at each voxel of the block
+		final float[] tubeness = new float[BLOCK_XY * BLOCK_XY * blockZ];
+		final int sx = 1;
+		final int sy = rSize[0];
+		final int sz = rSize[0] * rSize[1];
+		final double ax = spacing[0];
+		final double ay = spacing[1];
+		final double az = (is2D) ? 1 : spacing[2];
+		final double[] evalues = new double[3];
+		for (int z = 0; z < size[2]; z++) {
+			for (int y = 0; y < size[1]; y++) {
+				for (int x = 0; x < size[0]; x++) {
+					final int i = (z + halo[2]) * sz + (y + halo[1]) * sy + (x + halo[0]);
+					final double v2 = 2 * region[i];
+					final double hxx = (region[i + sx] - v2 + region[i - sx]) / (ax * ax);
+					final double hyy = (region[i + sy] - v2 + region[i - sy]) / (ay * ay);
+					final double hxy = (region[i + sx + sy] - region[i - sx + sy] - region[i + sx - sy]
+							+ region[i - sx - sy]) / (4 * ax * ay);
+					float measure = 0;
+					if (is2D) {
+						eigenvalues2D(hxx, hxy, hyy, evalues);
+						if (evalues[1] < 0) measure = (float) -evalues[1];
+					} else {
+						final double hzz = (region[i + sz] - v2 + region[i - sz]) / (az * az);
+						final double hxz = (region[i + sx + sz] - region[i - sx + sz] - region[i + sx - sz]
+								+ region[i - sx - sz]) / (4 * ax * az);
+						final double hyz = (region[i + sy + sz] - region[i - sy + sz] - region[i + sy - sz]
+								+ region[i - sy - sz]) / (4 * ay * az);
+						eigenvalues3D(hxx, hxy, hxz, hyy, hyz, hzz, evalues);
+						if (evalues[1] < 0 && evalues[2] < 0) measure = (float) Math.sqrt(evalues[1] * evalues[2]);
+					}
+					tubeness[(z * BLOCK_XY + y) * BLOCK_XY + x] = measure;
+				}
+			}
+		}
+		return tubeness;
+	}
+
+	private float[] extract(final int[] rOrigin, final int[] rSize) {
+		final float[] region = new float[rSize[0] * rSize[1] * rSize[2]];
+		final int[] xs = new int[rSize[0]];
+		for (int x = 0; x < rSize[0]; x++)
+			xs[x] = clamp(rOrigin[0] + x, width);
+		int i = 0;
+		for (int z = 0; z < rSize[2]; z++) {
+			final Object slice = slices[clamp(rOrigin[2] + z, depth)];
+			for (int y = 0; y < rSize[1]; y++) {
+				final int offset = clamp(rOrigin[1] + y, height) * width;
+				if (slice instanceof byte[]) {
+					final byte[] pixels = (byte[]) slice;
+					for (int x = 0; x < rSize[0]; x++)
+						region[i++] = pixels[offset + xs[x]] & 0xff;
+				} else if (slice instanceof short[]) {
+					final short[] pixels = (short[]) slice;
+					for (int x = 0; x < rSize[0]; x++)
+						region[i++] = pixels[offset + xs[x]] & 0xffff;
+				} else {
+					final float[] pixels = (float[]) slice;
+					for (int x = 0; x < rSize[0]; x++)
+						region[i++] = pixels[offset + xs[x]];
+				}
+			}
+		}
+		return region;
+	}
+
+	private static int clamp(final int value, final int size) {
+		return (value < 0) ? 0 : (value >= size) ? size - 1 : value;
+	}
+
+	/* Separable convolution along dimension 'dim', replicating edges */
+	private static void convolve(final float[] data, final int[] size, final int dim, final float[] kernel) {
+		final int stride = (dim == 0) ? 1 : (dim == 1) ? size[0] : size[0] * size[1];
+		final int n = size[dim];
+		final int radius = kernel.length / 2;
+		final float[] line = new float[n];
+		final int nLines = data.length / n;
+		for (int l = 0; l < nLines; l++) {
+			// index of the first element of the l-th line along dim
+			final int start = (l / stride) * stride * n + (l % stride);
+			for (int k = 0; k < n; k++)
+				line[k] = data[start + k * stride];
+			for (int k = 0; k < n; k++) {
+				double sum = 0;
+				for (int j = -radius; j <= radius; j++)
+					sum += kernel[j + radius] * line[clamp(k + j, n)];
+				data[start + k * stride] = (float) sum;
+			}
+		}
+	}
+
+	private static float[] gaussianKernel(final double sigmaInPixels) {
+		final int radius = Math.max(1, (int) Math.ceil(3 * sigmaInPixels));
+		final float[] kernel = new float[2 * radius + 1];
+		double sum = 0;
+		for (int i = -radius; i <= radius; i++) {
+			final double v = Math.exp(-(i * i) / (2 * sigmaInPixels * sigmaInPixels));
+			kernel[i + radius] = (float) v;
+			sum += v;
+		}
+		for (int i = 0; i < kernel.length; i++)
+			kernel[i] /= sum;
+		return kernel;
+	}
+
+	/* Eigenvalues of a symmetric 2x2 matrix, sorted by absolute value */
+	static void eigenvalues2D(final double a, final double b, final double d, final double[] result) {
+		final double halfTrace = (a + d) / 2;
+		final double disc = Math.sqrt(((a - d) / 2) * ((a - d) / 2) + b * b);
+		final double e0 = halfTrace - disc;
+		final double e1 = halfTrace + disc;
+		if (Math.abs(e0) <= Math.abs(e1)) {
+			result[0] = e0;
+			result[1] = e1;
+		} else {
+			result[0] = e1;
+			result[1] = e0;
+		}
+	}
+
+	/* Eigenvalues of a symmetric 3x3 matrix, sorted by absolute value */
+	static void eigenvalues3D(final double a11, final double a12, final double a13, final double a22,
+			final double a23, final double a33, final double[] result) {
+		final double p1 = a12 * a12 + a13 * a13 + a23 * a23;
+		if (p1 == 0) { // diagonal matrix
+			result[0] = a11;
+			result[1] = a22;
+			result[2] = a33;
+		} else {
+			final double q = (a11 + a22 + a33) / 3;
+			final double b11 = a11 - q;
+			final double b22 = a22 - q;
+			final double b33 = a33 - q;
+			final double p = Math.sqrt((b11 * b11 + b22 * b22 + b33 * b33 + 2 * p1) / 6);
+			final double det = b11 * (b22 * b33 - a23 * a23) - a12 * (a12 * b33 - a23 * a13)
+					+ a13 * (a12 * a23 - b22 * a13);
+			final double r = Math.max(-1, Math.min(1, det / (2 * p * p * p)));
+			final double phi = Math.acos(r) / 3;
+			result[0] = q + 2 * p * Math.cos(phi);
+			result[2] = q + 2 * p * Math.cos(phi + 2 * Math.PI / 3);
+			result[1] = 3 * q - result[0] - result[2];
+		}
+		// sort by absolute value
+		for (int i = 1; i < 3; i++) {
+			final double v = result[i];
+			int j = i - 1;
+			while (j >= 0 && Math.abs(result[j]) > Math.abs(v)) {
+				result[j + 1] = result[j];
+				j--;
+			}
+			result[j + 1] = v;
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+/**
+ * A {@link SearchCost} based on Hessian eigenvalues computed block-wise, on
+ * demand, by a {@link LazyHessian}. Costs are identical in formulation to
+ * those of {@link HessianCost}, but no full-image preprocessing is required.
+ * Instances are not thread-safe: each search should use its own.
+ *
+ * @author Tiago Ferreira
+ * @see HessianCost
+ * @see TubenessCost
+ */
+public class LazyHessianCost implements SearchCost {
+
+	private final LazyHessian hessian;
+	private final double multiplier;
+	private long lastKey = -1;
+	private float[] lastBlock;
+
+	LazyHessianCost(final LazyHessian hessian, final double multiplier) {
+		if (hessian == null) throw new IllegalArgumentException(
+			"Hessian is not available");
+		this.hessian = hessian;
+		this.multiplier = multiplier;
+	}
+
+	@Override
+	public double costMovingTo(final int x, final int y, final int z) {
+		final long key = hessian.blockKey(x, y, z);
+		if (key != lastKey) { // neighbours are often in the same block
+			lastBlock = hessian.getBlock(key);
+			lastKey = key;
+		}
+		double measure = lastBlock[hessian.indexInBlock(x, y, z)];
+		if (measure == 0) return 1 / HessianCost.NON_TUBULAR_MEASURE;
+		measure *= multiplier;
+		if (measure > 256) measure = 256;
+		return 1 / measure;
+	}
+
+	@Override
+	public double minimumCostPerUnitDistance() {
+		return 1 / 60.0;
+	}
+
+}
@@ -22,7 +22,6 @@
 
 package sc.fiji.snt;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Line2D;
@@ -132,6 +131,10 @@ public class Path implements Comparable<Path> {
 	protected double[] precise_x_positions;
 	protected double[] precise_y_positions;
 	protected double[] precise_z_positions;
+	// incremented whenever nodes are added, removed or moved
+	int modCount;
+	// the spatial indices holding this path, notified whenever nodes change
+	private List<PathNodeIndex> nodeIndices;
 	// radii and tangents
 	protected double[] radii;
 	protected double[] tangents_x;
@@ -139,6 +142,8 @@ public class Path implements Comparable<Path> {
 	protected double[] tangents_z;
 	// numeric properties of nodes (e.g., pixel intensities)
 	private double[] nodeValues;
+	// per-channel numeric properties of nodes, indexed by [channel - 1][node]
+	private double[][] nodeChannelValues;
 	// BrainAnnotations associated with this node;
 	private BrainAnnotation[] nodeAnnotations;
 	// Hemisphere flags associated with this node;
@@ -731,6 +736,7 @@ public class Path implements Comparable<Path> {
 		precise_z_positions = ArrayUtils.insert(index, precise_z_positions,
 			point.z);
 		points++;
+		nodesModified();
 		if (hasRadii()) {
 			tangents_x = ArrayUtils.insert(index, tangents_x, 0d);
 			tangents_y = ArrayUtils.insert(index, tangents_y, 0d);
@@ -746,6 +752,10 @@ public class Path implements Comparable<Path> {
 		if (nodeValues != null) {
 			nodeValues = ArrayUtils.insert(index, nodeValues, Double.NaN);
 		}
+		if (nodeChannelValues != null) {
+			for (int c = 0; c < nodeChannelValues.length; c++)
+				nodeChannelValues[c] = ArrayUtils.insert(index, nodeChannelValues[c], Double.NaN);
+		}
 	}
 
 	/**
@@ -765,6 +775,7 @@ public class Path implements Comparable<Path> {
 		precise_y_positions = ArrayUtils.remove(precise_y_positions, index);
 		precise_z_positions = ArrayUtils.remove(precise_z_positions, index);
 		points -= 1;
+		nodesModified();
 		if (hasRadii()) {
 			tangents_x = ArrayUtils.remove(tangents_x, index);
 			tangents_y = ArrayUtils.remove(tangents_y, index);
@@ -780,6 +791,10 @@ public class Path implements Comparable<Path> {
 		if (nodeValues != null) {
 			nodeValues = ArrayUtils.remove(nodeValues, index);
 		}
+		if (nodeChannelValues != null) {
+			for (int c = 0; c < nodeChannelValues.length; c++)
+				nodeChannelValues[c] = ArrayUtils.remove(nodeChannelValues[c], index);
+		}
 		if (p.equals(startJoinsPoint)) startJoinsPoint = getNodeWithoutChecks(0);
 		if (p.equals(endJoinsPoint) && points > 0) endJoinsPoint = getNodeWithoutChecks(
 			points - 1);
@@ -798,6 +813,7 @@ public class Path implements Comparable<Path> {
 		precise_x_positions[index] = destination.x;
 		precise_y_positions[index] = destination.y;
 		precise_z_positions[index] = destination.z;
+		nodesModified();
 	}
 
 	/**
@@ -966,6 +982,21 @@ public class Path implements Comparable<Path> {
 		return precise_z_positions[i] / z_spacing + canvasOffset.z;
 	}
 
+	/* Flags node coordinates as modified */
+	void nodesModified() {
+		modCount++;
+		if (nodeIndices != null) nodeIndices.forEach(index -> index.invalidate(this));
+	}
+
+	void attachNodeIndex(final PathNodeIndex index) {
+		if (nodeIndices == null) nodeIndices = new ArrayList<>(1);
+		if (!nodeIndices.contains(index)) nodeIndices.add(index);
+	}
+
+	void detachNodeIndex(final PathNodeIndex index) {
+		if (nodeIndices != null) nodeIndices.remove(index);
+	}
+
 	/**
 	 * Gets a section between two nodes of this Path.
 	 *
@@ -995,6 +1026,11 @@ public class Path implements Comparable<Path> {
 			sub.tangents_z = Arrays.copyOfRange(tangents_z, startIndex, endIndex + 1);
 		if (nodeValues != null)
 			sub.nodeValues = Arrays.copyOfRange(nodeValues, startIndex, endIndex + 1);
+		if (nodeChannelValues != null) {
+			sub.nodeChannelValues = new double[nodeChannelValues.length][];
+			for (int c = 0; c < nodeChannelValues.length; c++)
+				sub.nodeChannelValues[c] = Arrays.copyOfRange(nodeChannelValues[c], startIndex, endIndex + 1);
+		}
 		if (nodeAnnotations != null)
 			sub.nodeAnnotations = Arrays.copyOfRange(nodeAnnotations, startIndex, endIndex + 1);
 		if (nodeHemisphereFlags != null)
@@ -1052,6 +1088,8 @@ public class Path implements Comparable<Path> {
 		if (tangents_y != null) dup.tangents_y = tangents_y.clone();
 		if (tangents_z != null) dup.tangents_z = tangents_z.clone();
 		if (nodeValues != null) dup.nodeValues = nodeValues.clone();
+		if (nodeChannelValues != null) dup.nodeChannelValues = Arrays.stream(nodeChannelValues).map(double[]::clone)
+				.toArray(double[][]::new);
 		if (nodeAnnotations != null) dup.nodeAnnotations = nodeAnnotations.clone();
 		if (nodeHemisphereFlags != null) dup.nodeHemisphereFlags = nodeHemisphereFlags.clone();
 		dup.somehowJoins = (ArrayList<Path>) somehowJoins.clone();
@@ -1157,6 +1195,10 @@ public class Path implements Comparable<Path> {
 			System.arraycopy(nodeValues, 0, newNodeValues, 0, points);
 			nodeValues = newNodeValues;
 		}
+		if (nodeChannelValues != null) {
+			for (int c = 0; c < nodeChannelValues.length; c++)
+				nodeChannelValues[c] = Arrays.copyOf(nodeChannelValues[c], newMaxPoints);
+		}
 		maxPoints = newMaxPoints;
 	}
 
@@ -1221,6 +1263,7 @@ public class Path implements Comparable<Path> {
 		}
 
 		points = points + (other.points - toSkip);
+		nodesModified();
 
 		if (hasRadii()) {
 			setGuessedTangents(2);
@@ -1279,6 +1322,7 @@ public class Path implements Comparable<Path> {
 		precise_x_positions[points] = x;
 		precise_y_positions[points] = y;
 		precise_z_positions[points++] = z;
+		nodesModified();
 	}
 
 	public void drawPathAsPoints(final TracerCanvas canvas, final Graphics2D g,
@@ -1316,7 +1360,7 @@ public class Path implements Comparable<Path> {
 	{
 
 		g2.setColor(c);
-		g2.setStroke(new BasicStroke((float) (canvas.nodeDiameter() / 2.5), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+		g2.setStroke(canvas.getPathStroke());
 		int startIndexOfLastDrawnLine = -1;
 
 		if (!hasRadii()) drawDiameter = false;
@@ -1624,6 +1668,48 @@ public class Path implements Comparable<Path> {
 		this.nodeValues = (values == null) ? null : values.clone();
 	}
 
+	/**
+	 * Sets the per-channel node values, typically voxel intensities of all the
+	 * channels of the image being traced.
+	 *
+	 * @param values the node values, indexed by [channel - 1][node], or null to
+	 *          clear existing values
+	 * @see PathProfiler#assignChannelValues()
+	 */
+	public void setNodeChannelValues(final double[][] values) {
+		if (values != null) {
+			for (final double[] channelValues : values) {
+				if (channelValues.length != size()) throw new IllegalArgumentException(
+					"values arrays must have as many elements as nodes");
+			}
+		}
+		this.nodeChannelValues = (values == null) ? null : Arrays.stream(values).map(double[]::clone)
+				.toArray(double[][]::new);
+	}
+
+	/**
+	 * Returns the values of the specified channel at each node.
+	 *
+	 * @param channel the (1-based) channel
+	 * @return the node values of the specified channel, or null if no such
+	 *         values have been assigned
+	 * @see #setNodeChannelValues(double[][])
+	 */
+	public double[] getNodeChannelValues(final int channel) {
+		if (nodeChannelValues == null || channel < 1 || channel > nodeChannelValues.length) return null;
+		return Arrays.copyOf(nodeChannelValues[channel - 1], size());
+	}
+
+	/**
+	 * Returns the number of channels for which node values have been assigned.
+	 *
+	 * @return the number of channels, 0 if no values have been assigned
+	 * @see #setNodeChannelValues(double[][])
+	 */
+	public int getNodeChannelCount() {
+		return (nodeChannelValues == null) ? 0 : nodeChannelValues.length;
+	}
+
 	/**
 	 * Assesses whether the nodes of this path have been assigned an array of
 	 * values
@@ -2034,6 +2120,7 @@ public class Path implements Comparable<Path> {
 		this.precise_x_positions = optimized_x.clone();
 		this.precise_y_positions = optimized_y.clone();
 		this.precise_z_positions = optimized_z.clone();
+		nodesModified();
 	}
 
 	public String realToString() {
@@ -2828,6 +2915,7 @@ public class Path implements Comparable<Path> {
 				precise_y_positions = new_y_points;
 				precise_z_positions = new_z_points;
 				radii = new_radiuses;
+				nodesModified();
 				if (hasRadii()) {
 					setGuessedTangents(2);
 				}
@@ -31,12 +31,15 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -47,6 +50,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -55,8 +59,6 @@ import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -82,7 +84,6 @@ import sc.fiji.snt.gui.GuiUtils;
 import sc.fiji.snt.util.BoundingBox;
 import sc.fiji.snt.util.PointInImage;
 import sc.fiji.snt.util.SNTColor;
-import sc.fiji.snt.util.SNTPoint;
 import sc.fiji.snt.util.SWCPoint;
 import util.Bresenham3D;
 import util.XMLFunctions;
@@ -104,6 +105,7 @@ public class PathAndFillManager extends DefaultHandler implements
 	protected static final int TRACES_FILE_TYPE_UNCOMPRESSED_XML = 2;
 	protected static final int TRACES_FILE_TYPE_SWC = 3;
 	protected static final int TRACES_FILE_TYPE_ML_JSON = 4;
+	protected static final int TRACES_FILE_TYPE_BINARY = 5;
 
 	private static final DecimalFormat fileIndexFormatter = new DecimalFormat(
 		"000");
@@ -122,6 +124,8 @@ public class PathAndFillManager extends DefaultHandler implements
 	private final ArrayList<Fill> allFills;
 	private final ArrayList<PathAndFillListener> listeners;
 	private final HashSet<Path> selectedPathsSet;
+	/** Spatial index of the nodes of allPaths */
+	private final PathNodeIndex nodeIndex;
 	private int maxUsedPathID = -1;
 	private int maxUsedTreeID = 0;
 
@@ -152,6 +156,7 @@ public class PathAndFillManager extends DefaultHandler implements
 		allFills = new ArrayList<>();
 		listeners = new ArrayList<>();
 		selectedPathsSet = new HashSet<>();
+		nodeIndex = new PathNodeIndex();
 		resetSpatialSettings();
 	}
 
@@ -1030,6 +1035,7 @@ public class PathAndFillManager extends DefaultHandler implements
 			p.addTo3DViewer(plugin.univ, plugin.deselectedColor3f, plugin.colorImage);
 		}
 		allPaths.add(p);
+		nodeIndex.add(p);
 		resetListeners(p);
 	}
 
@@ -1118,6 +1124,8 @@ public class PathAndFillManager extends DefaultHandler implements
 		boolean removed = allPaths.remove(unfittedPathToDelete);
 		if (fittedPathToDelete != null)
 			removed = removed || allPaths.remove(fittedPathToDelete);
+		nodeIndex.remove(unfittedPathToDelete);
+		if (fittedPathToDelete != null) nodeIndex.remove(fittedPathToDelete);
 		if (removed && plugin != null) plugin.unsavedPaths = true;
 
 		// We don't just delete; have to fix up the references
@@ -1851,6 +1859,7 @@ public class PathAndFillManager extends DefaultHandler implements
 			case "path":
 
 				allPaths.add(current_path);
+				nodeIndex.add(current_path);
 
 				break;
 			case "fill":
@@ -2044,6 +2053,7 @@ public class PathAndFillManager extends DefaultHandler implements
 				p.removeFrom3DViewer(plugin.univ);
 		}
 		allPaths.clear();
+		nodeIndex.clear();
 		allFills.clear();
 		resetListeners(null);
 	}
@@ -2068,8 +2078,9 @@ public class PathAndFillManager extends DefaultHandler implements
 		if (SNTUtils.isValidURL(urlOrFilePath)) {
 			try {
 				final URL url = new URL(urlOrFilePath);
-				final InputStream is = url.openStream();
-				return importSWC(descriptor, new BufferedReader(new InputStreamReader(is)));
+				try (final ReadableByteChannel channel = Channels.newChannel(url.openStream())) {
+					return importSWC(new SWCReader(channel), descriptor, false, 0, 0, 0, 1, 1, 1, false);
+				}
 			}
 			catch (final IOException e) {
 				return false;
@@ -2130,11 +2141,6 @@ public class PathAndFillManager extends DefaultHandler implements
 		return result;
 	}
 
-	private boolean importSWC(final String descriptor, final BufferedReader br) throws IOException
-	{
-		return importSWC(br, descriptor, false, 0, 0, 0, 1, 1, 1, false);
-	}
-
 	/**
 	 * Imports SWC data with advanced settings. The SWC format is described in
 	 * <a href="https://www.ncbi.nlm.nih.gov/pubmed/9821633">PMID 9821633</a> and
@@ -2182,61 +2188,38 @@ public class PathAndFillManager extends DefaultHandler implements
 		final double yScale, final double zScale, final boolean replaceAllPaths, final int... swcTypes)
 	{
 
-		if (replaceAllPaths) clear();
+		return importSWC(new SWCReader(br), descriptor, assumeCoordinatesInVoxels,
+			xOffset, yOffset, zOffset, xScale, yScale, zScale, replaceAllPaths,
+			swcTypes);
+	}
 
-		final Pattern pEmpty = Pattern.compile("^\\s*$");
-		final Pattern pComment = Pattern.compile("^([^#]*)#.*$");
+	private boolean importSWC(final SWCReader reader, final String descriptor,
+		final boolean assumeCoordinatesInVoxels, final double xOffset,
+		final double yOffset, final double zOffset, final double xScale,
+		final double yScale, final double zScale, final boolean replaceAllPaths,
+		final int... swcTypes)
+	{
+
+		if (replaceAllPaths) clear();
 
-		final TreeSet<SWCPoint> nodes = new TreeSet<>();
-		String line;
 		try {
-			while ((line = br.readLine()) != null) {
-				final Matcher mComment = pComment.matcher(line);
-				line = mComment.replaceAll("$1").trim();
-				final Matcher mEmpty = pEmpty.matcher(line);
-				if (mEmpty.matches()) continue;
-				final String[] fields = line.split("\\s+");
-				if (fields.length < 7) {
-					error("Wrong number of fields (" + fields.length + ") in line: " +
-						line);
-					return false;
-				}
-				try {
-					final int type = Integer.parseInt(fields[1]);
-					if (matchesType(type, swcTypes)) {
-						final int id = Integer.parseInt(fields[0]);
-						final double x = xScale * Double.parseDouble(fields[2]) + xOffset;
-						final double y = yScale * Double.parseDouble(fields[3]) + yOffset;
-						final double z = zScale * Double.parseDouble(fields[4]) + zOffset;
-						double radius;
-						try {
-							radius = Double.parseDouble(fields[5]);
-						} catch (final NumberFormatException ignored) {
-							radius = 0; // files in which radius is set to NaN
-						}
-						final int previous = Integer.parseInt(fields[6]);
-						nodes.add(new SWCPoint(id, type, x, y, z, radius, previous));
-					}
-				}
-				catch (final NumberFormatException nfe) {
-					error("There was a malformed number in line: " + line);
-					return false;
-				}
+			if (!reader.read(swcTypes)) {
+				error(reader.getError());
+				return false;
 			}
 		}
 		catch (final IOException exc) {
 			SNTUtils.error("IO ERROR", exc);
 			return false;
 		}
+		final List<SWCPoint> nodes = reader.getNodes(xOffset, yOffset, zOffset,
+			xScale, yScale, zScale);
 		return importNodes(descriptor, nodes, null, assumeCoordinatesInVoxels);
 	}
 
-	private boolean matchesType(final int type, final int... swcTypes) {
-		return swcTypes.length == 0 || Arrays.stream(swcTypes).anyMatch(t -> t == type);
-	}
-
+	/* NB: points are expected to be sorted by id, without duplicates */
 	private boolean importNodes(final String descriptor,
-	                            final TreeSet<SWCPoint> points, final ColorRGB color,
+	                            final Collection<SWCPoint> points, final ColorRGB color,
 	                            final boolean assumeCoordinatesInVoxels)
 	{
 
@@ -2379,7 +2362,7 @@ public class PathAndFillManager extends DefaultHandler implements
 		{
 			if (boundingBox == null)
 				boundingBox = new BoundingBox();
-			boundingBox.compute(((TreeSet<? extends SNTPoint>) points).iterator());
+			boundingBox.compute(points.iterator());
 
 			// If a plugin exists, warn user if its image cannot render imported nodes
 			if (plugin != null && plugin.getImagePlus() != null) {
@@ -2509,20 +2492,13 @@ public class PathAndFillManager extends DefaultHandler implements
 			return false;
 		}
 
-		InputStream is = null;
 		boolean result = false;
 
-		try {
-
-			is = new BufferedInputStream(new FileInputStream(filePath));
-			final BufferedReader br = new BufferedReader(new InputStreamReader(is,
-					StandardCharsets.UTF_8));
+		try (final FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
 
-			result = importSWC(br, SNTUtils.stripExtension(f.getName()), assumeCoordinatesInVoxels, xOffset, yOffset,
+			result = importSWC(new SWCReader(fc), SNTUtils.stripExtension(f.getName()), assumeCoordinatesInVoxels, xOffset, yOffset,
 				zOffset, xScale, yScale, zScale, replaceAllPaths, swcTypes);
 
-			if (is != null) is.close();
-
 		}
 		catch (final IOException ioe) {
 			error("Could not read " + filePath);
@@ -2556,7 +2532,10 @@ public class PathAndFillManager extends DefaultHandler implements
 			is.read(buf, 0, 8);
 			is.close();
 			//SNT.log("buf[0]: " + buf[0] + ", buf[1]: " + buf[1]);
-			if (((buf[0] & 0xFF) == 0x1F) && ((buf[1] & 0xFF) == 0x8B)) {
+			if (BinaryTracesFile.isBinaryTraces(buf)) {
+				return TRACES_FILE_TYPE_BINARY;
+			}
+			else if (((buf[0] & 0xFF) == 0x1F) && ((buf[1] & 0xFF) == 0x8B)) {
 				return TRACES_FILE_TYPE_COMPRESSED_XML;
 			}
 			else if (((buf[0] == '<') && (buf[1] == '?') && (buf[2] == 'x') &&
@@ -2597,6 +2576,71 @@ public class PathAndFillManager extends DefaultHandler implements
 		}
 	}
 
+	protected boolean loadBinary(final String filename) {
+		SNTUtils.log("Loading binary file...");
+		try {
+			final BinaryTracesFile file = new BinaryTracesFile(new File(filename));
+			clear();
+			if (boundingBox == null) boundingBox = new BoundingBox();
+			boundingBox.setUnit(file.getSpacingUnits());
+			boundingBox.xSpacing = file.getXSpacing();
+			boundingBox.ySpacing = file.getYSpacing();
+			boundingBox.zSpacing = file.getZSpacing();
+			if (spacingIsUnset) {
+				x_spacing = boundingBox.xSpacing;
+				y_spacing = boundingBox.ySpacing;
+				z_spacing = boundingBox.zSpacing;
+				spacing_units = file.getSpacingUnits();
+				spacingIsUnset = false;
+			}
+			final int[] dims = file.getImageSize();
+			if (dims != null) {
+				if (plugin != null && (dims[0] != plugin.width || dims[1] != plugin.height ||
+					dims[2] != plugin.depth))
+				{
+					SNTUtils.warn(
+						"The image size in the traces file didn't match - it's probably for another image");
+				}
+				boundingBox.setOrigin(new PointInImage(0, 0, 0));
+				boundingBox.setDimensions(dims[0], dims[1], dims[2]);
+			}
+			final List<Path> paths = file.readPaths(x_spacing, y_spacing, z_spacing, spacing_units);
+			final List<Fill> fills = file.readFills(paths);
+			for (final Path p : paths) {
+				if (p.getID() > maxUsedPathID) maxUsedPathID = p.getID();
+				if (p.getTreeID() > maxUsedTreeID) maxUsedTreeID = p.getTreeID();
+				allPaths.add(p);
+				nodeIndex.add(p);
+			}
+			allFills.addAll(fills);
+			for (final Path p : allPaths) {
+				addTo3DViewer(p);
+			}
+			setSelected(new ArrayList<Path>(), this);
+			resetListeners(null, true);
+			return true;
+		}
+		catch (final IOException ioe) {
+			clear();
+			error("Could not read '" + filename + "' (" + ioe.getMessage() + ")");
+			return false;
+		}
+	}
+
+	/**
+	 * Saves all paths and fills to a binary reconstruction file, a compact
+	 * alternative to XML that is considerably faster to read.
+	 *
+	 * @param fileName the absolute path of the output file
+	 * @throws IOException if the file could not be written
+	 */
+	synchronized protected void writeBinary(final String fileName) throws IOException {
+		final int[] imageSize = (plugin == null) ? null
+			: new int[] { plugin.width, plugin.height, plugin.depth };
+		BinaryTracesFile.write(new File(fileName), x_spacing, y_spacing, z_spacing,
+			spacing_units, imageSize, allPaths, allFills);
+	}
+
 	private boolean loadJSON(final String filename, final int... swcTypes) {
 		String compartment = "all";
 		if (swcTypes.length == 1 && swcTypes[0] == Path.SWC_AXON) {
@@ -2640,6 +2684,9 @@ public class PathAndFillManager extends DefaultHandler implements
 			case TRACES_FILE_TYPE_ML_JSON:
 				result = loadJSON(filePath, swcTypes);
 				break;
+			case TRACES_FILE_TYPE_BINARY:
+				result = loadBinary(filePath);
+				break;
 			case TRACES_FILE_TYPE_SWC:
 				result = importSWC(filePath, false, 0, 0, 0, 1, 1, 1, true, swcTypes);
 				break;
@@ -2739,6 +2786,15 @@ public class PathAndFillManager extends DefaultHandler implements
 		final double y, final double z)
 	{
 
+		long nSelectedNodes = 0;
+		for (final Path p : selectedPathsSet)
+			nSelectedNodes += p.size();
+		if (!PathNodeIndex.preferExhaustiveSearch(nSelectedNodes)) {
+			nodeIndex.update();
+			return nodeIndex.nearestNode(x * x_spacing, y * y_spacing, z * z_spacing,
+				selectedPathsSet);
+		}
+
 		PointInImage result = null;
 		double minimumDistanceSquared = Double.MAX_VALUE;
 
@@ -2856,11 +2912,22 @@ public class PathAndFillManager extends DefaultHandler implements
 	}
 	// ... end of methods for UniverseListener
 
-	public NearPoint nearestPointOnAnyPath(final double x, final double y,
+	public synchronized NearPoint nearestPointOnAnyPath(final double x,
+		final double y, final double z, final double distanceLimit)
+	{
+		nodeIndex.update();
+		return nearestIndexedPoint(x, y, z, distanceLimit);
+	}
+
+	/* Assumes the node index is up-to-date */
+	private NearPoint nearestIndexedPoint(final double x, final double y,
 		final double z, final double distanceLimit)
 	{
-		return nearestPointOnAnyPath(allPaths, new PointInImage(x, y, z), Math.sqrt(
-			distanceLimit), false);
+		final PointInImage pim = new PointInImage(x, y, z);
+		if (Double.isNaN(z)) // 2D query: search the XY-projection of the index
+			return nodeIndex.nearestPointXY(pim, Math.sqrt(distanceLimit), null,
+				false, new double[] { 1, 1 }, new double[] { 0, 0 });
+		return nodeIndex.nearestPoint(pim, Math.sqrt(distanceLimit));
 	}
 
 	protected List<Path> getAllPathsRenderedInViewPort(
@@ -2893,11 +2960,24 @@ public class PathAndFillManager extends DefaultHandler implements
 		return paths;
 	}
 
-	protected NearPoint nearestPointOnAnyPath(final List<Path> paths,
+	protected synchronized NearPoint nearestPointOnAnyPath(final List<Path> paths,
 		final PointInImage pim, final double distanceLimitSquared,
 		final boolean unScaledPositions)
 	{
 
+		if (Double.isNaN(pim.z) && indexedXY(paths, unScaledPositions)) {
+			final Set<Path> among = Collections.newSetFromMap(
+				new IdentityHashMap<>());
+			among.addAll(paths);
+			final Path ref = paths.get(0);
+			final double[] scale = (unScaledPositions) ? new double[] { 1 /
+				ref.x_spacing, 1 / ref.y_spacing } : new double[] { 1, 1 };
+			final double[] offset = (unScaledPositions) ? new double[] {
+				ref.canvasOffset.x, ref.canvasOffset.y } : new double[] { 0, 0 };
+			return nodeIndex.nearestPointXY(pim, distanceLimitSquared, among,
+				unScaledPositions, scale, offset);
+		}
+
 		// Order all points in all paths by their Euclidean distance to pim:
 		final PriorityQueue<NearPoint> pq = new PriorityQueue<>();
 
@@ -2925,6 +3005,28 @@ public class PathAndFillManager extends DefaultHandler implements
 		}
 	}
 
+	/*
+	 * Whether a 2D query among the specified paths can be answered by the node
+	 * index: All paths must be indexed, numerous enough, and (for queries in
+	 * pixel coordinates) share the same calibration and canvas offset.
+	 */
+	private boolean indexedXY(final List<Path> paths,
+		final boolean unScaledPositions)
+	{
+		if (paths.isEmpty()) return false;
+		nodeIndex.update();
+		final Path ref = paths.get(0);
+		long nNodes = 0;
+		for (final Path p : paths) {
+			if (!nodeIndex.contains(p)) return false;
+			if (unScaledPositions && (p.x_spacing != ref.x_spacing ||
+				p.y_spacing != ref.y_spacing || p.canvasOffset.x != ref.canvasOffset.x ||
+				p.canvasOffset.y != ref.canvasOffset.y)) return false;
+			nNodes += p.size();
+		}
+		return !PathNodeIndex.preferExhaustiveSearch(nNodes);
+	}
+
 	public Iterator<PointInImage> allPointsIterator() {
 		return new AllPointsIterator();
 	}
@@ -2959,12 +3061,15 @@ public class PathAndFillManager extends DefaultHandler implements
 
 		final ArrayList<NearPoint> result = new ArrayList<>();
 
-		final Iterator<PointInImage> i = allPointsIterator();
-		while (i.hasNext()) {
-			final PointInImage p = i.next();
-			final NearPoint np = other.nearestPointOnAnyPath(p.x, p.y, p.z,
-				maxDistance);
-			result.add(np);
+		synchronized (other) {
+			other.nodeIndex.update();
+			final Iterator<PointInImage> i = allPointsIterator();
+			while (i.hasNext()) {
+				final PointInImage p = i.next();
+				final NearPoint np = other.nearestIndexedPoint(p.x, p.y, p.z,
+					maxDistance);
+				result.add(np);
+			}
 		}
 		return result;
 	}
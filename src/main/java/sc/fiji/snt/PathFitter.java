@@ -34,7 +34,8 @@ import pal.math.MultivariateFunction;
 /**
  * Class for fitting circular cross-sections around existing nodes of a
  * {@link Path} in order to compute radii (node thickness) and midpoint
- * refinement of existing coordinates.
+ * refinement of existing coordinates. Multiple paths are best fitted using
+ * {@link BatchPathFitter}, which parallelizes computations across nodes.
  * 
  * @author Tiago Ferreira
  * @author Mark Longair
@@ -74,6 +75,7 @@ public class PathFitter implements Callable<Path> {
 	private int fitScope = RADII_AND_MIDPOINTS;
 	private Path fitted;
 	private boolean fitInPlace;
+	private FitState fits;
 
 
 	/**
@@ -174,6 +176,14 @@ public class PathFitter implements Callable<Path> {
 	@Override
 	public Path call() throws IllegalArgumentException {
 		fitCircles();
+		return complete();
+	}
+
+	/**
+	 * Sets the relationships between input path and the result of the fit, once
+	 * {@link #finish()} has been called.
+	 */
+	Path complete() {
 		if (fitted == null) {
 			succeeded = false;
 			return (fitInPlace) ? path : null;
@@ -251,186 +261,235 @@ public class PathFitter implements Callable<Path> {
 	}
 
 	private void fitCircles() {
+		prepare(getPixels(imp));
+		final Sampler sampler = new Sampler();
+		for (int i = 0; i < fits.totalPoints && !fits.failed; ++i) {
+			// Nodes are fitted in order: each search starts from the previous optimum
+			fitNode(i, sampler, i > 0);
+			updateProgress(((double) i + 1) / fits.totalPoints);
+		}
+		finish();
+	}
 
-		SNTUtils.log("Fitting " + path.getName() + ", Scope: " + getScopeAsString() +
-			", Max radius: " + sideSearch);
-		final boolean fitRadii = (fitScope == PathFitter.RADII_AND_MIDPOINTS ||
-			fitScope == PathFitter.RADII);
-		final boolean fitPoints = (fitScope == PathFitter.RADII_AND_MIDPOINTS ||
-			fitScope == PathFitter.MIDPOINTS);
-		final boolean outputRadii = fitRadii || path.hasRadii();
-		final int totalPoints = path.size();
-		final int pointsEitherSide = 4;
-
-		fitted = path.createPath();
-		SNTUtils.log("  Generating cross-section stack (" + totalPoints +
-			"slices/nodes)");
-		final int width = imp.getWidth();
-		final int height = imp.getHeight();
-		final int depth = imp.getNSlices();
-		final ImageStack stack = new ImageStack(sideSearch, sideSearch);
-
-		// We assume that the first and the last in the stack are fine;
-		final double[] centre_x_positionsUnscaled = new double[totalPoints];
-		final double[] centre_y_positionsUnscaled = new double[totalPoints];
-		final double[] rs = new double[totalPoints];
-		final double[] rsUnscaled = new double[totalPoints];
-
-		final double[] ts_x = new double[totalPoints];
-		final double[] ts_y = new double[totalPoints];
-		final double[] ts_z = new double[totalPoints];
-
-		final double[] optimized_x = new double[totalPoints];
-		final double[] optimized_y = new double[totalPoints];
-		final double[] optimized_z = new double[totalPoints];
-
-		final double[] scores = new double[totalPoints];
-		final double[] moved = new double[totalPoints];
-		final boolean[] valid = new boolean[totalPoints];
-
-		final int[] xs_in_image = new int[totalPoints];
-		final int[] ys_in_image = new int[totalPoints];
-		final int[] zs_in_image = new int[totalPoints];
-
-		final double scaleInNormalPlane = path.getMinimumSeparation();
-		final double[] tangent = new double[3];
-
-		if (progress != null) progress.updateProgress(0d, fitterIndex);
-
-		final double[] startValues = new double[3];
-		startValues[0] = sideSearch / 2.0;
-		startValues[1] = sideSearch / 2.0;
-		startValues[2] = 3;
-
-		SNTUtils.log("  Searches starting at: " + startValues[0] + "," + startValues[1] +
-			" radius: " + startValues[2]);
-
-		for (int i = 0; i < totalPoints; ++i) {
-
-			SNTUtils.log("  Node " + i + ". Computing tangents...");
-
-			path.getTangent(i, pointsEitherSide, tangent);
-
-			final double x_world = path.precise_x_positions[i];
-			final double y_world = path.precise_y_positions[i];
-			final double z_world = path.precise_z_positions[i];
-
-			final double[] x_basis_in_plane = new double[3];
-			final double[] y_basis_in_plane = new double[3];
-
-			final float[] normalPlane = squareNormalToVector(sideSearch,
-				scaleInNormalPlane, // This is in the same units as
-				// the _spacing, etc. variables.
-				x_world, y_world, z_world, // These are scaled now
-				tangent[0], tangent[1], tangent[2], //
-				x_basis_in_plane, y_basis_in_plane, imp);
-
-			// Now at this stage, try to optimize a circle in there...
+	void updateProgress(final double proportionDone) {
+		if (progress != null) progress.updateProgress(proportionDone, fitterIndex);
+	}
 
-			// NB these aren't normalized
-			ts_x[i] = tangent[0];
-			ts_y[i] = tangent[1];
-			ts_z[i] = tangent[2];
+	ImagePlus getImage() {
+		return imp;
+	}
 
-			final ConjugateDirectionSearch optimizer = new ConjugateDirectionSearch();
-//			if (SNT.isDebugMode()) optimizer.prin = 1; // debugging level
-			optimizer.step = sideSearch / 4.0;
+	/**
+	 * Retrieves the pixel arrays of the specified image, one per slice.
+	 */
+	static Object[] getPixels(final ImagePlus imp) {
+		final int imageType = imp.getType();
+		if (imageType != ImagePlus.GRAY8 && imageType != ImagePlus.COLOR_256 &&
+			imageType != ImagePlus.GRAY16 && imageType != ImagePlus.GRAY32)
+		{
+			throw new IllegalArgumentException("Only 8-, 16- and 32-bit images are supported");
+		}
+		final ImageStack s = imp.getStack();
+		final Object[] pixels = new Object[imp.getNSlices()];
+		for (int z = 0; z < pixels.length; ++z)
+			pixels[z] = s.getPixels(z + 1);
+		return pixels;
+	}
 
-			float minValueInSquare = Float.MAX_VALUE;
-			float maxValueInSquare = Float.MIN_VALUE;
-			for (int j = 0; j < (sideSearch * sideSearch); ++j) {
-				final float value = normalPlane[j];
-				maxValueInSquare = Math.max(value, maxValueInSquare);
-				minValueInSquare = Math.min(value, minValueInSquare);
-			}
+	int getNodeCount() {
+		return path.size();
+	}
 
-			final CircleAttempt attempt = new CircleAttempt(startValues, normalPlane,
-				minValueInSquare, maxValueInSquare, sideSearch);
+	/**
+	 * Allocates the per-node results of the fit. Must be called before
+	 * {@link #fitNode(int, Sampler)}.
+	 *
+	 * @param pixels the pixel arrays of the image being fitted, as retrieved by
+	 *          {@link #getPixels(ImagePlus)}
+	 */
+	void prepare(final Object[] pixels) {
+		SNTUtils.log("Fitting " + path.getName() + ", Scope: " + getScopeAsString() +
+			", Max radius: " + sideSearch);
+		fitted = path.createPath();
+		fits = new FitState(pixels);
+		SNTUtils.log("  Searches starting at: " + sideSearch / 2.0 + "," +
+			sideSearch / 2.0 + " radius: " + 3);
+		updateProgress(0d);
+	}
 
-			try {
-				optimizer.optimize(attempt, startValues, 2, 2);
-			}
-			catch (final ConjugateDirectionSearch.OptimizationError e) {
-				SNTUtils.log("  Failure :" + e.getMessage());
-				fitted = null;
-				return;
-			}
+	/**
+	 * Fits a cross-section circle around the specified node. Nodes of a path can
+	 * be fitted concurrently, as long as each thread uses its own sampler. The
+	 * search starts from the centre of the node's cross-section.
+	 *
+	 * @param i the node index
+	 * @param sampler the (per-thread) sampling buffers
+	 */
+	void fitNode(final int i, final Sampler sampler) {
+		fitNode(i, sampler, false);
+	}
 
-			centre_x_positionsUnscaled[i] = startValues[0];
-			centre_y_positionsUnscaled[i] = startValues[1];
-			rsUnscaled[i] = startValues[2];
-			rs[i] = scaleInNormalPlane * rsUnscaled[i];
+	/**
+	 * Fits a cross-section circle around the specified node.
+	 *
+	 * @param i the node index
+	 * @param sampler the (per-thread) sampling buffers
+	 * @param warmStart if true, the search starts from the circle last fitted
+	 *          with this sampler (i.e., the optimum of the previous node when
+	 *          nodes are fitted serially). Otherwise, it starts from the centre
+	 *          of the node's cross-section
+	 */
+	private void fitNode(final int i, final Sampler sampler, final boolean warmStart) {
+
+		final FitState f = fits;
+		if (f.failed) return;
+		final double[] tangent = sampler.tangent;
+		path.getTangent(i, f.pointsEitherSide, tangent);
+
+		final double x_world = path.precise_x_positions[i];
+		final double y_world = path.precise_y_positions[i];
+		final double z_world = path.precise_z_positions[i];
+
+		final double[] x_basis_in_plane = sampler.xBasis;
+		final double[] y_basis_in_plane = sampler.yBasis;
+
+		final float[] normalPlane = squareNormalToVector(sideSearch,
+			f.scaleInNormalPlane, // This is in the same units as
+			// the _spacing, etc. variables.
+			x_world, y_world, z_world, // These are scaled now
+			tangent[0], tangent[1], tangent[2], //
+			x_basis_in_plane, y_basis_in_plane, f.pixels, sampler.plane(sideSearch));
+
+		// Now at this stage, try to optimize a circle in there...
+
+		// NB these aren't normalized
+		f.ts_x[i] = tangent[0];
+		f.ts_y[i] = tangent[1];
+		f.ts_z[i] = tangent[2];
+
+		final ConjugateDirectionSearch optimizer = new ConjugateDirectionSearch();
+//		if (SNT.isDebugMode()) optimizer.prin = 1; // debugging level
+		optimizer.step = sideSearch / 4.0;
+
+		float minValueInSquare = Float.MAX_VALUE;
+		float maxValueInSquare = Float.MIN_VALUE;
+		for (int j = 0; j < (sideSearch * sideSearch); ++j) {
+			final float value = normalPlane[j];
+			maxValueInSquare = Math.max(value, maxValueInSquare);
+			minValueInSquare = Math.min(value, minValueInSquare);
+		}
 
-			scores[i] = attempt.min;
+		final double[] startValues = sampler.startValues;
+		if (!warmStart) {
+			startValues[0] = sideSearch / 2.0;
+			startValues[1] = sideSearch / 2.0;
+			startValues[2] = 3;
+		}
 
-			// Now we calculate the real co-ordinates of the new centre:
+		final CircleAttempt attempt = new CircleAttempt(startValues, normalPlane,
+			minValueInSquare, maxValueInSquare, sideSearch);
 
-			final double x_from_centre_in_plane = startValues[0] - (sideSearch / 2.0);
-			final double y_from_centre_in_plane = startValues[1] - (sideSearch / 2.0);
+		try {
+			optimizer.optimize(attempt, startValues, 2, 2);
+		}
+		catch (final ConjugateDirectionSearch.OptimizationError e) {
+			SNTUtils.log("  Failure :" + e.getMessage());
+			f.failed = true;
+			return;
+		}
 
-			moved[i] = scaleInNormalPlane * Math.sqrt(x_from_centre_in_plane *
-				x_from_centre_in_plane + y_from_centre_in_plane *
-					y_from_centre_in_plane);
+		f.centre_x_positionsUnscaled[i] = startValues[0];
+		f.centre_y_positionsUnscaled[i] = startValues[1];
+		f.rsUnscaled[i] = startValues[2];
+		f.rs[i] = f.scaleInNormalPlane * f.rsUnscaled[i];
 
-			// SNT.log("Vector to new centre from original: " + x_from_centre_in_plane
-			// + "," + y_from_centre_in_plane);
+		f.scores[i] = attempt.min;
 
-			double centre_real_x = x_world;
-			double centre_real_y = y_world;
-			double centre_real_z = z_world;
+		// Now we calculate the real co-ordinates of the new centre:
 
-			SNTUtils.log("    Original coordinates: " + centre_real_x + "," +
-				centre_real_y + "," + centre_real_z);
+		final double x_from_centre_in_plane = startValues[0] - (sideSearch / 2.0);
+		final double y_from_centre_in_plane = startValues[1] - (sideSearch / 2.0);
 
-			// FIXME: I really think these should be +=, but it seems clear from
-			// the results that I've got a sign wrong somewhere :(
+		f.moved[i] = f.scaleInNormalPlane * Math.sqrt(x_from_centre_in_plane *
+			x_from_centre_in_plane + y_from_centre_in_plane *
+				y_from_centre_in_plane);
 
-			centre_real_x -= x_basis_in_plane[0] * x_from_centre_in_plane +
-				y_basis_in_plane[0] * y_from_centre_in_plane;
-			centre_real_y -= x_basis_in_plane[1] * x_from_centre_in_plane +
-				y_basis_in_plane[1] * y_from_centre_in_plane;
-			centre_real_z -= x_basis_in_plane[2] * x_from_centre_in_plane +
-				y_basis_in_plane[2] * y_from_centre_in_plane;
+		// SNT.log("Vector to new centre from original: " + x_from_centre_in_plane
+		// + "," + y_from_centre_in_plane);
 
-			SNTUtils.log("    Adjusted coordinates: " + centre_real_x + "," +
-				centre_real_y + "," + centre_real_z);
+		double centre_real_x = x_world;
+		double centre_real_y = y_world;
+		double centre_real_z = z_world;
 
-			optimized_x[i] = centre_real_x;
-			optimized_y[i] = centre_real_y;
-			optimized_z[i] = centre_real_z;
+		// FIXME: I really think these should be +=, but it seems clear from
+		// the results that I've got a sign wrong somewhere :(
 
-			if (progress != null) progress.updateProgress(((double) i + 1) /
-				totalPoints, fitterIndex);
+		centre_real_x -= x_basis_in_plane[0] * x_from_centre_in_plane +
+			y_basis_in_plane[0] * y_from_centre_in_plane;
+		centre_real_y -= x_basis_in_plane[1] * x_from_centre_in_plane +
+			y_basis_in_plane[1] * y_from_centre_in_plane;
+		centre_real_z -= x_basis_in_plane[2] * x_from_centre_in_plane +
+			y_basis_in_plane[2] * y_from_centre_in_plane;
 
-			if (!fitRadii && !showDetailedFittingResults) continue;
+		f.optimized_x[i] = centre_real_x;
+		f.optimized_y[i] = centre_real_y;
+		f.optimized_z[i] = centre_real_z;
 
-			int x_in_image = (int) Math.round(centre_real_x / path.x_spacing);
-			int y_in_image = (int) Math.round(centre_real_y / path.y_spacing);
-			int z_in_image = (int) Math.round(centre_real_z / path.z_spacing);
+		if (!f.fitRadii && !showDetailedFittingResults) return;
 
-//			SNT.log("  Adjusted center image position: " + x_in_image + "," + y_in_image + "," + z_in_image);
+		int x_in_image = (int) Math.round(centre_real_x / path.x_spacing);
+		int y_in_image = (int) Math.round(centre_real_y / path.y_spacing);
+		int z_in_image = (int) Math.round(centre_real_z / path.z_spacing);
 
-			if (x_in_image < 0) x_in_image = 0;
-			if (x_in_image >= width) x_in_image = width - 1;
-			if (y_in_image < 0) y_in_image = 0;
-			if (y_in_image >= height) y_in_image = height - 1;
-			if (z_in_image < 0) z_in_image = 0;
-			if (z_in_image >= depth) z_in_image = depth - 1;
+		if (x_in_image < 0) x_in_image = 0;
+		if (x_in_image >= f.width) x_in_image = f.width - 1;
+		if (y_in_image < 0) y_in_image = 0;
+		if (y_in_image >= f.height) y_in_image = f.height - 1;
+		if (z_in_image < 0) z_in_image = 0;
+		if (z_in_image >= f.depth) z_in_image = f.depth - 1;
 
-			// SNT.log("addingPoint: " + x_in_image + "," + y_in_image + "," +
-			// z_in_image);
+		f.xs_in_image[i] = x_in_image;
+		f.ys_in_image[i] = y_in_image;
+		f.zs_in_image[i] = z_in_image;
 
-			xs_in_image[i] = x_in_image;
-			ys_in_image[i] = y_in_image;
-			zs_in_image[i] = z_in_image;
+		// Sampling buffers are reused: keep a copy only if it is to be displayed
+		if (showDetailedFittingResults) f.normalPlanes[i] = normalPlane.clone();
 
-			// SNT.log("Adding a real slice.");
+	}
 
-			final FloatProcessor bp = new FloatProcessor(sideSearch, sideSearch);
-			bp.setPixels(normalPlane);
-			stack.addSlice("Node " + (i + 1), bp);
+	/**
+	 * Filters the circles fitted by {@link #fitNode(int, Sampler)} and assembles
+	 * the fitted result. Must be called once all nodes have been fitted.
+	 */
+	void finish() {
 
+		final FitState f = fits;
+		fits = null;
+		if (f.failed) {
+			fitted = null;
+			return;
 		}
+		final int totalPoints = f.totalPoints;
+		final boolean fitRadii = f.fitRadii;
+		final boolean fitPoints = f.fitPoints;
+		final boolean outputRadii = f.outputRadii;
+		final double scaleInNormalPlane = f.scaleInNormalPlane;
+		final double[] centre_x_positionsUnscaled = f.centre_x_positionsUnscaled;
+		final double[] centre_y_positionsUnscaled = f.centre_y_positionsUnscaled;
+		final double[] rs = f.rs;
+		final double[] rsUnscaled = f.rsUnscaled;
+		final double[] ts_x = f.ts_x;
+		final double[] ts_y = f.ts_y;
+		final double[] ts_z = f.ts_z;
+		final double[] optimized_x = f.optimized_x;
+		final double[] optimized_y = f.optimized_y;
+		final double[] optimized_z = f.optimized_z;
+		final double[] scores = f.scores;
+		final double[] moved = f.moved;
+		final boolean[] valid = f.valid;
+		final int[] xs_in_image = f.xs_in_image;
+		final int[] ys_in_image = f.ys_in_image;
+		final int[] zs_in_image = f.zs_in_image;
 
 		if (!fitRadii && !showDetailedFittingResults) {
 			fitted.setFittedCircles(totalPoints, path.tangents_x, path.tangents_y,
@@ -472,17 +531,19 @@ public class PathFitter implements Callable<Path> {
 		final double[] angles = new double[totalPoints];
 		// Set the end points to 180 degrees:
 		angles[0] = angles[totalPoints - 1] = Math.PI;
+		// Index of the next valid node (nodes ahead of i are not modified below).
+		// If there's no next valid one then just use the last:
+		final int[] nextValidIndices = new int[totalPoints];
+		int next = totalPoints - 1;
+		for (int j = totalPoints - 1; j >= 0; --j) {
+			nextValidIndices[j] = next;
+			if (valid[j]) next = j;
+		}
+		// If there's no previously valid one then just use the first:
+		int previousValid = 0;
 		for (int i = 1; i < totalPoints - 1; ++i) {
-			// If there's no previously valid one then
-			// just use the first:
-			int previousValid = 0;
-			for (int j = 0; j < i; ++j)
-				if (valid[j]) previousValid = j;
-			// If there's no next valid one then just use
-			// the first:
-			int nextValid = totalPoints - 1;
-			for (int j = totalPoints - 1; j > i; --j)
-				if (valid[j]) nextValid = j;
+			if (valid[i - 1]) previousValid = i - 1;
+			final int nextValid = nextValidIndices[i];
 			final double adiffx = optimized_x[previousValid] - optimized_x[i];
 			final double adiffy = optimized_y[previousValid] - optimized_y[i];
 			final double adiffz = optimized_z[previousValid] - optimized_z[i];
@@ -639,6 +700,11 @@ public class PathFitter implements Callable<Path> {
 			" accepted fits");
 		if (showDetailedFittingResults) {
 			SNTUtils.log("Generating annotated cross view stack");
+			final ImageStack stack = new ImageStack(sideSearch, sideSearch);
+			for (int i = 0; i < totalPoints; ++i) {
+				if (f.normalPlanes[i] != null) stack.addSlice("Node " + (i + 1),
+					new FloatProcessor(sideSearch, sideSearch, f.normalPlanes[i]));
+			}
 			final ImagePlus imp = new ImagePlus("Cross-section View " + fitted
 				.getName(), stack);
 			imp.setCalibration(this.imp.getCalibration());
@@ -812,11 +878,9 @@ public class PathFitter implements Callable<Path> {
 																										* The basis vectors are returned here
 																										*/
 		final double[] y_basis_vector, /* they *are* scaled by _spacing */
-		final ImagePlus image)
+		final Object[] pixels, final float[] result)
 	{
 
-		final float[] result = new float[side * side];
-
 		final double epsilon = 0.000001;
 
 		/*
@@ -885,36 +949,9 @@ public class PathFitter implements Callable<Path> {
 //		SNT.log("a_dot_n: " + a_dot_n);
 //		SNT.log("b_dot_n: " + b_dot_n);
 
-		final int width = image.getWidth();
-		final int height = image.getHeight();
-		final int depth = image.getNSlices();
-		final float[][] v = new float[depth][];
-		final ImageStack s = image.getStack();
-		final int imageType = image.getType();
-		final int arraySize = width * height;
-		if (imageType == ImagePlus.GRAY8 || imageType == ImagePlus.COLOR_256) {
-			for (int z = 0; z < depth; ++z) {
-				final byte[] bytePixels = (byte[]) s.getPixels(z + 1);
-				final float[] fa = new float[arraySize];
-				for (int i = 0; i < arraySize; ++i)
-					fa[i] = bytePixels[i] & 0xFF;
-				v[z] = fa;
-			}
-		}
-		else if (imageType == ImagePlus.GRAY16) {
-			for (int z = 0; z < depth; ++z) {
-				final short[] shortPixels = (short[]) s.getPixels(z + 1);
-				final float[] fa = new float[arraySize];
-				for (int i = 0; i < arraySize; ++i)
-					fa[i] = shortPixels[i];
-				v[z] = fa;
-			}
-		}
-		else if (imageType == ImagePlus.GRAY32) {
-			for (int z = 0; z < depth; ++z) {
-				v[z] = (float[]) s.getPixels(z + 1);
-			}
-		}
+		final int width = imp.getWidth();
+		final int height = imp.getHeight();
+		final int depth = pixels.length;
 
 		for (int grid_i = 0; grid_i < side; ++grid_i) {
 			for (int grid_j = 0; grid_j < side; ++grid_j) {
@@ -981,17 +1018,17 @@ public class PathFitter implements Callable<Path> {
 				}
 				else {
 
-					fff = v[z_f][width * y_f + x_f];
-					cff = v[z_c][width * y_f + x_f];
+					fff = valueAt(pixels[z_f], width * y_f + x_f);
+					cff = valueAt(pixels[z_c], width * y_f + x_f);
 
-					fcf = v[z_f][width * y_c + x_f];
-					ccf = v[z_c][width * y_c + x_f];
+					fcf = valueAt(pixels[z_f], width * y_c + x_f);
+					ccf = valueAt(pixels[z_c], width * y_c + x_f);
 
-					ffc = v[z_f][width * y_f + x_c];
-					cfc = v[z_c][width * y_f + x_c];
+					ffc = valueAt(pixels[z_f], width * y_f + x_c);
+					cfc = valueAt(pixels[z_c], width * y_f + x_c);
 
-					fcc = v[z_f][width * y_c + x_c];
-					ccc = v[z_c][width * y_c + x_c];
+					fcc = valueAt(pixels[z_f], width * y_c + x_c);
+					ccc = valueAt(pixels[z_c], width * y_c + x_c);
 
 				}
 
@@ -1023,6 +1060,71 @@ public class PathFitter implements Callable<Path> {
 		return result;
 	}
 
+	private static float valueAt(final Object pixels, final int index) {
+		if (pixels instanceof byte[]) return ((byte[]) pixels)[index] & 0xFF;
+		if (pixels instanceof short[]) return ((short[]) pixels)[index]; // signed, as before
+		return ((float[]) pixels)[index];
+	}
+
+	/**
+	 * Per-thread buffers used to sample cross-sections, so that fitting does not
+	 * allocate image data for each node.
+	 */
+	static class Sampler {
+
+		private float[] plane;
+		private final double[] tangent = new double[3];
+		private final double[] xBasis = new double[3];
+		private final double[] yBasis = new double[3];
+		private final double[] startValues = new double[3];
+
+		private float[] plane(final int side) {
+			if (plane == null || plane.length != side * side) plane = new float[side * side];
+			return plane;
+		}
+	}
+
+	/** Per-node results of an ongoing fit */
+	private class FitState {
+
+		final Object[] pixels;
+		final int width = imp.getWidth();
+		final int height = imp.getHeight();
+		final int depth = imp.getNSlices();
+		final int pointsEitherSide = 4;
+		final int totalPoints = path.size();
+		final boolean fitRadii = (fitScope == PathFitter.RADII_AND_MIDPOINTS ||
+			fitScope == PathFitter.RADII);
+		final boolean fitPoints = (fitScope == PathFitter.RADII_AND_MIDPOINTS ||
+			fitScope == PathFitter.MIDPOINTS);
+		final boolean outputRadii = fitRadii || path.hasRadii();
+		final double scaleInNormalPlane = path.getMinimumSeparation();
+
+		// We assume that the first and the last in the stack are fine;
+		final double[] centre_x_positionsUnscaled = new double[totalPoints];
+		final double[] centre_y_positionsUnscaled = new double[totalPoints];
+		final double[] rs = new double[totalPoints];
+		final double[] rsUnscaled = new double[totalPoints];
+		final double[] ts_x = new double[totalPoints];
+		final double[] ts_y = new double[totalPoints];
+		final double[] ts_z = new double[totalPoints];
+		final double[] optimized_x = new double[totalPoints];
+		final double[] optimized_y = new double[totalPoints];
+		final double[] optimized_z = new double[totalPoints];
+		final double[] scores = new double[totalPoints];
+		final double[] moved = new double[totalPoints];
+		final boolean[] valid = new boolean[totalPoints];
+		final int[] xs_in_image = new int[totalPoints];
+		final int[] ys_in_image = new int[totalPoints];
+		final int[] zs_in_image = new int[totalPoints];
+		final float[][] normalPlanes = (showDetailedFittingResults) ? new float[totalPoints][] : null;
+		volatile boolean failed;
+
+		FitState(final Object[] pixels) {
+			this.pixels = pixels;
+		}
+	}
+
 	private class CircleAttempt implements MultivariateFunction,
 		Comparable<CircleAttempt>
 	{
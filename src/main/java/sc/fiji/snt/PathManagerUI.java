@@ -1082,10 +1082,11 @@ public class PathManagerUI extends JDialog implements PathAndFillListener,
 			final int preFittingState = ui.getState();
 			ui.changeState(SNTUI.FITTING_PATHS);
 			final int numberOfPathsToFit = pathsToFit.size();
-			final int processors = Math.min(numberOfPathsToFit, SNTPrefs.getThreads());
-			final String statusMsg = (processors == 1) ? "Fitting 1 path..."
-				: "Fitting " + numberOfPathsToFit + " paths (" + processors +
-					" threads)...";
+			// Nodes (not paths) are distributed across threads
+			final int processors = SNTPrefs.getThreads();
+			final String statusMsg = ((numberOfPathsToFit == 1) ? "Fitting 1 path"
+				: "Fitting " + numberOfPathsToFit + " paths") + ((processors == 1) ? "..."
+					: " (" + processors + " threads)...");
 			ui.showStatus(statusMsg, false);
 			setEnabledCommands(false);
 			final JDialog msg = guiUtils.floatingMsg(statusMsg, false);
@@ -1095,7 +1096,8 @@ public class PathManagerUI extends JDialog implements PathAndFillListener,
 				@Override
 				protected Object doInBackground() {
 
-					final ExecutorService es = Executors.newFixedThreadPool(processors);
+					final BatchPathFitter batchFitter = new BatchPathFitter(pathsToFit);
+					batchFitter.setNumThreads(processors);
 					final FittingProgress progress = new FittingProgress(plugin.getUI(),
 						plugin.statusService, numberOfPathsToFit);
 					try {
@@ -1106,8 +1108,7 @@ public class PathManagerUI extends JDialog implements PathAndFillListener,
 							pf.setReplaceNodes(fitInPlace);
 							pf.setProgressCallback(i, progress);
 						}
-						for (final Future<Path> future : es.invokeAll(pathsToFit)) {
-							final Path path = future.get();
+						for (final Path path : batchFitter.call()) {
 							if (!fitInPlace) pathAndFillManager.addPath(path);
 						}
 					}
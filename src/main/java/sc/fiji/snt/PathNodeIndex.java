@@ -0,0 +1,504 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import sc.fiji.snt.util.PointInImage;
+
+/**
+ * A spatial index of the nodes of a collection of {@link Path}s, used by
+ * {@link PathAndFillManager} to answer nearest-node queries without visiting
+ * every node of every path. Nodes are bucketed in a uniform grid of cubic
+ * cells (in calibrated units) that is updated incrementally as paths are added
+ * or removed. Indexed paths notify the index when their nodes are modified, and
+ * are re-indexed by {@link #update()}. Cells are also projected onto the XY
+ * plane (columns), for queries that ignore Z.
+ *
+ * @author Tiago Ferreira
+ */
+final class PathNodeIndex {
+
+	/* The average number of nodes per (occupied) cell the grid aims for */
+	private static final int NODES_PER_CELL = 8;
+	/* Cell indices are packed into a long key with this many bits per axis */
+	private static final int CELL_BITS = 21;
+	private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+	private static final int CELL_OFFSET = 1 << (CELL_BITS - 1);
+	/* Below this number of candidate nodes, queries are performed exhaustively */
+	private static final int EXHAUSTIVE_SEARCH_LIMIT = 4096;
+	/* The grid is re-laid out when the number of nodes grows by this factor */
+	private static final int RELAYOUT_FACTOR = 8;
+
+	private final Map<Path, Entry> entries = new IdentityHashMap<>();
+	private final HashMap<Long, Cell> cells = new HashMap<>();
+	private final HashMap<Long, Cell> columns = new HashMap<>();
+	private final Set<Path> modified = Collections.synchronizedSet(Collections
+		.newSetFromMap(new IdentityHashMap<>()));
+	private double cellSize = Double.NaN;
+	private long nNodes;
+	private long nNodesAtLayout;
+	private int minX, minY, minZ, maxX, maxY, maxZ;
+
+	private static final class Entry {
+
+		long[] cellKeys;
+		long[] columnKeys;
+	}
+
+	private static final class Cell {
+
+		Path[] paths = new Path[NODES_PER_CELL];
+		int[] nodes = new int[NODES_PER_CELL];
+		int size;
+
+		void add(final Path path, final int node) {
+			if (size == paths.length) {
+				paths = Arrays.copyOf(paths, size * 2);
+				nodes = Arrays.copyOf(nodes, size * 2);
+			}
+			paths[size] = path;
+			nodes[size++] = node;
+		}
+
+		int remove(final Path path) {
+			int j = 0;
+			for (int i = 0; i < size; i++) {
+				if (paths[i] == path) continue;
+				paths[j] = paths[i];
+				nodes[j++] = nodes[i];
+			}
+			Arrays.fill(paths, j, size, null);
+			final int removed = size - j;
+			size = j;
+			return removed;
+		}
+	}
+
+	/* Callback for the nodes retrieved from the grid */
+	private interface NodeConsumer {
+
+		void accept(Path path, int node);
+	}
+
+	/* Feeds the nodes of the k-th shell (or ring) around a query location */
+	private interface ShellScanner {
+
+		void scan(int k, NodeConsumer consumer);
+	}
+
+	/**
+	 * Adds all the nodes of the specified path to the index.
+	 *
+	 * @param path the path to be indexed
+	 */
+	void add(final Path path) {
+		if (entries.containsKey(path)) remove(path);
+		if (Double.isNaN(cellSize) || !fitsGrid(path)) {
+			final List<Path> paths = new ArrayList<>(entries.keySet());
+			paths.add(path);
+			layout(paths);
+			return;
+		}
+		final Entry entry = new Entry();
+		final Set<Long> keys = new LinkedHashSet<>();
+		final Set<Long> columnKeys = new LinkedHashSet<>();
+		long lastKey = Long.MIN_VALUE;
+		long lastColumnKey = Long.MIN_VALUE;
+		for (int i = 0; i < path.size(); i++) {
+			final int cx = cell(path.precise_x_positions[i]);
+			final int cy = cell(path.precise_y_positions[i]);
+			final int cz = cell(path.precise_z_positions[i]);
+			final long key = key(cx, cy, cz);
+			cells.computeIfAbsent(key, k -> new Cell()).add(path, i);
+			if (key != lastKey) keys.add(key);
+			lastKey = key;
+			final long columnKey = key(cx, cy, 0);
+			columns.computeIfAbsent(columnKey, k -> new Cell()).add(path, i);
+			if (columnKey != lastColumnKey) columnKeys.add(columnKey);
+			lastColumnKey = columnKey;
+			updateBounds(cx, cy, cz);
+		}
+		entry.cellKeys = keys.stream().mapToLong(Long::longValue).toArray();
+		entry.columnKeys = columnKeys.stream().mapToLong(Long::longValue)
+			.toArray();
+		entries.put(path, entry);
+		path.attachNodeIndex(this);
+		nNodes += path.size();
+		if (nNodes > RELAYOUT_FACTOR * nNodesAtLayout) layout(new ArrayList<>(
+			entries.keySet()));
+	}
+
+	/**
+	 * Removes the nodes of the specified path from the index.
+	 *
+	 * @param path the path to be removed
+	 */
+	void remove(final Path path) {
+		final Entry entry = entries.remove(path);
+		if (entry == null) return;
+		path.detachNodeIndex(this);
+		modified.remove(path);
+		for (final long key : entry.cellKeys) {
+			final Cell cell = cells.get(key);
+			if (cell == null) continue;
+			nNodes -= cell.remove(path);
+			if (cell.size == 0) cells.remove(key);
+		}
+		for (final long key : entry.columnKeys) {
+			final Cell column = columns.get(key);
+			if (column == null) continue;
+			column.remove(path);
+			if (column.size == 0) columns.remove(key);
+		}
+	}
+
+	/** Removes all paths from the index. */
+	void clear() {
+		entries.keySet().forEach(path -> path.detachNodeIndex(this));
+		entries.clear();
+		cells.clear();
+		columns.clear();
+		modified.clear();
+		nNodes = 0;
+		nNodesAtLayout = 0;
+		cellSize = Double.NaN;
+	}
+
+	/**
+	 * Flags an indexed path as modified, so that it is re-indexed by the next
+	 * call to {@link #update()}. Called by {@link Path} whenever its nodes change.
+	 *
+	 * @param path the modified path
+	 */
+	void invalidate(final Path path) {
+		modified.add(path);
+	}
+
+	/**
+	 * Re-indexes the paths modified since the last update. The cost is
+	 * proportional to the number of modified paths.
+	 */
+	void update() {
+		if (modified.isEmpty()) return;
+		final List<Path> paths;
+		synchronized (modified) {
+			paths = new ArrayList<>(modified);
+			modified.clear();
+		}
+		for (final Path path : paths) {
+			if (entries.containsKey(path)) add(path);
+		}
+	}
+
+	/**
+	 * @param path the path to be checked
+	 * @return whether the specified path is indexed
+	 */
+	boolean contains(final Path path) {
+		return entries.containsKey(path);
+	}
+
+	/*
+	 * (Re)builds the grid, choosing a cell size from the density of the nodes of
+	 * the specified paths.
+	 */
+	private void layout(final Collection<Path> paths) {
+		clear();
+		double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, z0 = Double.MAX_VALUE;
+		double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE,
+				z1 = -Double.MAX_VALUE;
+		long n = 0;
+		for (final Path p : paths) {
+			if (p == null) continue;
+			for (int i = 0; i < p.size(); i++) {
+				x0 = Math.min(x0, p.precise_x_positions[i]);
+				y0 = Math.min(y0, p.precise_y_positions[i]);
+				z0 = Math.min(z0, p.precise_z_positions[i]);
+				x1 = Math.max(x1, p.precise_x_positions[i]);
+				y1 = Math.max(y1, p.precise_y_positions[i]);
+				z1 = Math.max(z1, p.precise_z_positions[i]);
+			}
+			n += p.size();
+		}
+		// Aim for NODES_PER_CELL nodes per cell, considering only non-flat axes
+		double volume = 1;
+		int nDims = 0;
+		for (final double extent : new double[] { x1 - x0, y1 - y0, z1 - z0 }) {
+			if (extent > 0) {
+				volume *= extent;
+				nDims++;
+			}
+		}
+		cellSize = (n == 0 || nDims == 0) ? 1 : Math.pow(volume *
+			NODES_PER_CELL / n, 1d / nDims);
+		// Ensure cell indices fit in CELL_BITS
+		final double maxExtent = Math.max(Math.max(Math.abs(x0), Math.abs(x1)),
+			Math.max(Math.max(Math.abs(y0), Math.abs(y1)), Math.max(Math.abs(z0),
+				Math.abs(z1))));
+		if (n > 0) cellSize = Math.max(cellSize, 2 * maxExtent / CELL_OFFSET);
+		if (!(cellSize > 0) || Double.isInfinite(cellSize)) cellSize = 1;
+		minX = minY = minZ = Integer.MAX_VALUE;
+		maxX = maxY = maxZ = Integer.MIN_VALUE;
+		nNodesAtLayout = Math.max(n, EXHAUSTIVE_SEARCH_LIMIT);
+		for (final Path p : paths)
+			if (p != null) add(p);
+	}
+
+	private boolean fitsGrid(final Path path) {
+		for (int i = 0; i < path.size(); i++) {
+			if (Math.abs(cell(path.precise_x_positions[i])) >= CELL_OFFSET || Math
+				.abs(cell(path.precise_y_positions[i])) >= CELL_OFFSET || Math.abs(cell(
+					path.precise_z_positions[i])) >= CELL_OFFSET) return false;
+		}
+		return true;
+	}
+
+	private void updateBounds(final int cx, final int cy, final int cz) {
+		minX = Math.min(minX, cx);
+		minY = Math.min(minY, cy);
+		minZ = Math.min(minZ, cz);
+		maxX = Math.max(maxX, cx);
+		maxY = Math.max(maxY, cy);
+		maxZ = Math.max(maxZ, cz);
+	}
+
+	private int cell(final double coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private static long key(final int cx, final int cy, final int cz) {
+		return ((cx + CELL_OFFSET) & CELL_MASK) << (2 * CELL_BITS) | ((cy +
+			CELL_OFFSET) & CELL_MASK) << CELL_BITS | ((cz + CELL_OFFSET) & CELL_MASK);
+	}
+
+	/* Feeds all the nodes in cells at a Chebyshev distance of k from (cx,cy,cz) */
+	private void scanShell(final int cx, final int cy, final int cz, final int k,
+		final NodeConsumer consumer)
+	{
+		for (int x = Math.max(minX, cx - k); x <= Math.min(maxX, cx + k); x++) {
+			final boolean xFace = Math.abs(x - cx) == k;
+			for (int y = Math.max(minY, cy - k); y <= Math.min(maxY, cy + k); y++) {
+				final boolean xyFace = xFace || Math.abs(y - cy) == k;
+				for (int z = Math.max(minZ, cz - k); z <= Math.min(maxZ, cz + k); z++) {
+					if (!xyFace && Math.abs(z - cz) != k) {
+						// Interior of the shell: jump to its far face
+						if (z < cz + k) z = Math.min(maxZ + 1, cz + k) - 1;
+						continue;
+					}
+					final Cell cell = cells.get(key(x, y, z));
+					if (cell == null) continue;
+					for (int i = 0; i < cell.size; i++)
+						consumer.accept(cell.paths[i], cell.nodes[i]);
+				}
+			}
+		}
+	}
+
+	/* Feeds all the nodes in columns at a Chebyshev distance of k from (cx,cy) */
+	private void scanRing(final int cx, final int cy, final int k,
+		final NodeConsumer consumer)
+	{
+		for (int x = Math.max(minX, cx - k); x <= Math.min(maxX, cx + k); x++) {
+			final boolean xFace = Math.abs(x - cx) == k;
+			for (int y = Math.max(minY, cy - k); y <= Math.min(maxY, cy + k); y++) {
+				if (!xFace && Math.abs(y - cy) != k) {
+					// Interior of the ring: jump to its far side
+					if (y < cy + k) y = Math.min(maxY + 1, cy + k) - 1;
+					continue;
+				}
+				final Cell column = columns.get(key(x, y, 0));
+				if (column == null) continue;
+				for (int i = 0; i < column.size; i++)
+					consumer.accept(column.paths[i], column.nodes[i]);
+			}
+		}
+	}
+
+	/* The number of shells required to cover all occupied cells */
+	private int maxShell(final int cx, final int cy, final int cz) {
+		int k = Math.max(Math.abs(cx - minX), Math.abs(cx - maxX));
+		k = Math.max(k, Math.max(Math.abs(cy - minY), Math.abs(cy - maxY)));
+		return Math.max(k, Math.max(Math.abs(cz - minZ), Math.abs(cz - maxZ)));
+	}
+
+	/**
+	 * Finds the nearest point on any path in use (see {@link Path#versionInUse()})
+	 * to the specified location, with the same semantics of
+	 * {@link PathAndFillManager#nearestPointOnAnyPath(double, double, double, double)}:
+	 * nodes are considered in order of distance to the location, and the first
+	 * one for which {@link NearPoint#distanceToPathNearPoint()} is defined is
+	 * returned.
+	 *
+	 * @param pim the query location (calibrated coordinates)
+	 * @param distanceLimitSquared nodes further away than this are ignored
+	 * @return the nearest point or null if no such point exists
+	 */
+	NearPoint nearestPoint(final PointInImage pim,
+		final double distanceLimitSquared)
+	{
+		if (entries.isEmpty() || Double.isNaN(cellSize)) return null;
+		final int cx = cell(pim.x);
+		final int cy = cell(pim.y);
+		final int cz = cell(pim.z);
+		return nearestPoint(maxShell(cx, cy, cz), cellSize, (k,
+			consumer) -> scanShell(cx, cy, cz, k, consumer), (path,
+				node) -> new NearPoint(pim, path, node), null, distanceLimitSquared);
+	}
+
+	/**
+	 * Finds the nearest point to the specified location ignoring Z, with the
+	 * same semantics of {@link #nearestPoint(PointInImage, double)}. Only the
+	 * XY-projection of the grid is visited. The query location is expressed in
+	 * the coordinates of {@link NearPoint}: either calibrated or, if
+	 * {@code unScaledPositions} is set, pixel coordinates. In the latter case
+	 * the conversion from calibrated coordinates is given by
+	 * {@code pixel = calibrated * scale + offset}.
+	 *
+	 * @param pim the query location (its Z-coordinate is ignored)
+	 * @param distanceLimitSquared nodes further away than this are ignored
+	 * @param among if not null, only nodes of these paths are considered
+	 * @param unScaledPositions whether distances are measured in pixels
+	 * @param scale the x,y scaling factors from calibrated to query coordinates
+	 * @param offset the x,y offsets from calibrated to query coordinates
+	 * @return the nearest point or null if no such point exists
+	 */
+	NearPoint nearestPointXY(final PointInImage pim,
+		final double distanceLimitSquared, final Set<Path> among,
+		final boolean unScaledPositions, final double[] scale,
+		final double[] offset)
+	{
+		if (entries.isEmpty() || Double.isNaN(cellSize)) return null;
+		final int cx = cell((pim.x - offset[0]) / scale[0]);
+		final int cy = cell((pim.y - offset[1]) / scale[1]);
+		final PointInImage query = new PointInImage(pim.x, pim.y, Double.NaN);
+		final int maxK = Math.max(Math.max(Math.abs(cx - minX), Math.abs(cx -
+			maxX)), Math.max(Math.abs(cy - minY), Math.abs(cy - maxY)));
+		return nearestPoint(maxK, cellSize * Math.min(scale[0], scale[1]), (k,
+			consumer) -> scanRing(cx, cy, k, consumer), (path,
+				node) -> new NearPoint(query, path, node, unScaledPositions), among,
+			distanceLimitSquared);
+	}
+
+	/* Factory of the NearPoints of candidate nodes */
+	private interface NearPointFactory {
+
+		NearPoint create(Path path, int node);
+	}
+
+	/*
+	 * Visits shells of increasing distance, returning the first point for which
+	 * NearPoint#distanceToPathNearPoint() is defined once no unvisited node can
+	 * be closer. shellWidth is the minimum distance (in query units) covered by
+	 * each shell.
+	 */
+	private NearPoint nearestPoint(final int maxK, final double shellWidth,
+		final ShellScanner scanner, final NearPointFactory factory,
+		final Set<Path> among, final double distanceLimitSquared)
+	{
+		final PriorityQueue<NearPoint> pq = new PriorityQueue<>();
+		for (int k = 0;; k++) {
+			scanner.scan(k, (path, node) -> {
+				if (path.versionInUse() && (among == null || among.contains(path)))
+					pq.add(factory.create(path, node));
+			});
+			// Nodes outside the scanned shells are further than this:
+			final double radius = k * shellWidth;
+			final boolean allScanned = k >= maxK;
+			while (!pq.isEmpty() && (allScanned || pq.peek()
+				.distanceToPathPointSquared() <= radius * radius))
+			{
+				final NearPoint np = pq.poll();
+				if (np.distanceToPathPointSquared() > distanceLimitSquared)
+					return null;
+				if (np.distanceToPathNearPoint() >= 0) return np;
+			}
+			if (allScanned || radius * radius > distanceLimitSquared) return null;
+		}
+	}
+
+	/**
+	 * Finds the node nearest to the specified location among the nodes of the
+	 * specified paths.
+	 *
+	 * @param x the x-coordinate of the query location (calibrated)
+	 * @param y the y-coordinate of the query location (calibrated)
+	 * @param z the z-coordinate of the query location (calibrated)
+	 * @param among only nodes of these paths are considered
+	 * @return the nearest node, or null if none of the paths is indexed
+	 */
+	PointInImage nearestNode(final double x, final double y, final double z,
+		final Set<Path> among)
+	{
+		if (entries.isEmpty() || Double.isNaN(cellSize)) return null;
+		final int cx = cell(x);
+		final int cy = cell(y);
+		final int cz = cell(z);
+		final int maxK = maxShell(cx, cy, cz);
+		final double[] best = { Double.MAX_VALUE };
+		final Path[] bestPath = { null };
+		final int[] bestNode = { -1 };
+		for (int k = 0; k <= maxK; k++) {
+			scanShell(cx, cy, cz, k, (path, node) -> {
+				if (!among.contains(path)) return;
+				final double dx = path.precise_x_positions[node] - x;
+				final double dy = path.precise_y_positions[node] - y;
+				final double dz = path.precise_z_positions[node] - z;
+				final double d = dx * dx + dy * dy + dz * dz;
+				if (d < best[0]) {
+					best[0] = d;
+					bestPath[0] = path;
+					bestNode[0] = node;
+				}
+			});
+			final double radius = k * cellSize;
+			if (bestPath[0] != null && best[0] <= radius * radius) break;
+		}
+		return (bestPath[0] == null) ? null : bestPath[0].getNodeWithoutChecks(
+			bestNode[0]);
+	}
+
+	/** @return the number of indexed nodes */
+	long size() {
+		return nNodes;
+	}
+
+	/**
+	 * @return whether queries restricted to the specified number of nodes are
+	 *         better served by an exhaustive search
+	 */
+	static boolean preferExhaustiveSearch(final long nCandidateNodes) {
+		return nCandidateNodes < EXHAUSTIVE_SEARCH_LIMIT;
+	}
+
+}
@@ -0,0 +1,381 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import sc.fiji.snt.hyperpanes.MultiDThreePanes;
+
+/**
+ * Renders paths on a {@link TracerCanvas}, culling those outside the visible
+ * region. Unselected paths are rendered into off-screen layers that are reused
+ * across repaints: a layer is kept for each combination of zoom, display
+ * settings and (when only nearby slices are rendered in full) slice, so that
+ * scrolling back and forth does not re-render paths. Layers are positioned in
+ * image (rather than screen) space and extend beyond the viewport, so that
+ * panning only shifts them, unless the viewport leaves the layer. When paths
+ * change, only the region they occupy(-ied) is re-rendered. Selected paths are
+ * always rendered directly.
+ * <p>
+ * Changes are detected by comparing, on each repaint, a cheap stamp of each
+ * path (modification count, color, joins, etc.) against that recorded when the
+ * layer was last rendered.
+ * </p>
+ *
+ * @author Tiago Ferreira
+ */
+class PathOverlayCache {
+
+	/* Max. number of cached layers */
+	private static final int MAX_LAYERS = 8;
+	/* Re-render the whole layer if dirty region exceeds this layer fraction */
+	private static final double MAX_DIRTY_FRACTION = 0.5;
+	/* Layer margin on each side of the viewport, as a fraction of its size */
+	private static final double LAYER_MARGIN = 0.25;
+
+	private final TracerCanvas canvas;
+	private final Map<Path, Bounds> bounds;
+	private final Map<List<Object>, Layer> layers;
+	private boolean drawDiameters;
+
+	PathOverlayCache(final TracerCanvas canvas) {
+		this.canvas = canvas;
+		bounds = new IdentityHashMap<>();
+		layers = new LinkedHashMap<List<Object>, Layer>(MAX_LAYERS, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<List<Object>, Layer> eldest) {
+				if (size() <= MAX_LAYERS) return false;
+				eldest.getValue().image.flush();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Draws the specified paths.
+	 *
+	 * @param g            the canvas graphics
+	 * @param paths        the paths to be rendered, in rendering order
+	 * @param colors       the rendering color of each path
+	 * @param selected     whether each path is selected
+	 * @param highContrast whether each path should be rendered in high contrast
+	 * @param drawDiameters whether diameters should be rendered
+	 * @param settingsKey  the display settings (other than the viewport) used
+	 *                     for rendering
+	 */
+	void draw(final Graphics2D g, final List<Path> paths, final List<Color> colors, final List<Boolean> selected,
+			final List<Boolean> highContrast, final boolean drawDiameters, final List<Object> settingsKey) {
+
+		final Rectangle viewport = new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
+		if (viewport.isEmpty()) return;
+		this.drawDiameters = drawDiameters;
+		// Location of the viewport in image space (i.e., image coordinates at
+		// current zoom)
+		final double mag = canvas.getMagnification();
+		final double viewX = canvas.getSrcRect().x * mag;
+		final double viewY = canvas.getSrcRect().y * mag;
+		final List<Path> livePaths = new ArrayList<>();
+		final List<Integer> liveIndices = new ArrayList<>();
+		final Map<Path, Stamp> stamps = new IdentityHashMap<>();
+		for (int i = 0; i < paths.size(); i++) {
+			final Path p = paths.get(i);
+			if (selected.get(i)) {
+				livePaths.add(p);
+				liveIndices.add(i);
+			} else {
+				stamps.put(p, new Stamp(p, colors.get(i), bounds(p)));
+			}
+		}
+		pruneBounds(paths.size());
+
+		// Unselected paths: (re)render cached layer and blit it
+		if (!stamps.isEmpty()) {
+			final List<Object> key = new ArrayList<>(settingsKey);
+			key.add(drawDiameters);
+			key.add(mag);
+			key.add(viewport.getSize());
+			Layer layer = layers.get(key);
+			if (layer == null) {
+				layer = new Layer(viewport.width, viewport.height);
+				layers.put(key, layer);
+			}
+			final Point location = layer.update(paths, stamps, viewport, viewX, viewY);
+			g.drawImage(layer.image, location.x, location.y, null);
+		}
+
+		// Selected paths: render directly
+		for (int i = 0; i < livePaths.size(); i++) {
+			final Path p = livePaths.get(i);
+			final Rectangle2D b = bounds(p);
+			if (!b.intersects(viewX, viewY, viewport.width, viewport.height)) continue;
+			final int idx = liveIndices.get(i);
+			drawPath(g, p, colors.get(idx), highContrast.get(idx));
+		}
+	}
+
+	/**
+	 * Discards all cached layers.
+	 */
+	void invalidate() {
+		layers.values().forEach(layer -> layer.image.flush());
+		layers.clear();
+	}
+
+	private void drawPath(final Graphics2D g, final Path p, final Color color, final boolean highContrast) {
+		if (canvas.just_near_slices) {
+			p.drawPathAsPoints(canvas, g, color, canvas.getPlane(), highContrast, drawDiameters,
+					canvas.getImage().getZ() - 1, canvas.eitherSide);
+		} else {
+			p.drawPathAsPoints(canvas, g, color, canvas.getPlane(), highContrast, drawDiameters);
+		}
+	}
+
+	/*
+	 * Returns the region that may be affected by rendering p, in image space,
+	 * i.e., screen coordinates as if the image origin was at the top left
+	 * corner of the canvas
+	 */
+	private Rectangle2D bounds(final Path p) {
+		Bounds b = bounds.get(p);
+		if (b == null || !b.isValidFor(p)) {
+			b = new Bounds(p);
+			bounds.put(p, b);
+		}
+		b.lastUsed = true;
+		final double[] min = new double[2];
+		final double[] max = new double[2];
+		switch (canvas.getPlane()) {
+		case MultiDThreePanes.XZ_PLANE:
+			min[0] = b.minX; max[0] = b.maxX;
+			min[1] = b.minZ; max[1] = b.maxZ;
+			break;
+		case MultiDThreePanes.ZY_PLANE:
+			min[0] = b.minZ; max[0] = b.maxZ;
+			min[1] = b.minY; max[1] = b.maxY;
+			break;
+		default:
+			min[0] = b.minX; max[0] = b.maxX;
+			min[1] = b.minY; max[1] = b.maxY;
+		}
+		// Largest node (editable hermit node) is 10x the node diameter
+		final double pad = 5 * canvas.nodeDiameter() + 2;
+		// cf. MultiDThreePanesCanvas#myScreenXDprecise() with a null srcRect
+		final double mag = canvas.getMagnification();
+		final double x0 = min[0] * mag + mag / 2 - pad;
+		final double y0 = min[1] * mag + mag / 2 - pad;
+		final double x1 = max[0] * mag + mag / 2 + pad;
+		final double y1 = max[1] * mag + mag / 2 + pad;
+		return new Rectangle2D.Double(x0, y0, x1 - x0, y1 - y0);
+	}
+
+	private void pruneBounds(final int nPaths) {
+		if (bounds.size() <= 2 * nPaths + 16) return;
+		final Iterator<Bounds> it = bounds.values().iterator();
+		while (it.hasNext()) {
+			final Bounds b = it.next();
+			if (!b.lastUsed) it.remove();
+			else b.lastUsed = false;
+		}
+	}
+
+	/** Bounding box of a path, in (unscaled) image coordinates */
+	private static class Bounds {
+
+		private final int modCount;
+		private final double offsetX;
+		private final double offsetY;
+		private final double offsetZ;
+		private final double[] radii;
+		private double minX = Double.MAX_VALUE;
+		private double minY = Double.MAX_VALUE;
+		private double minZ = Double.MAX_VALUE;
+		private double maxX = -Double.MAX_VALUE;
+		private double maxY = -Double.MAX_VALUE;
+		private double maxZ = -Double.MAX_VALUE;
+		private boolean lastUsed;
+
+		Bounds(final Path p) {
+			modCount = p.modCount;
+			offsetX = p.canvasOffset.x;
+			offsetY = p.canvasOffset.y;
+			offsetZ = p.canvasOffset.z;
+			radii = p.radii;
+			double maxRadius = 0;
+			for (int i = 0; i < p.size(); i++) {
+				final double x = p.getXUnscaledDouble(i);
+				final double y = p.getYUnscaledDouble(i);
+				final double z = p.getZUnscaledDouble(i);
+				if (x < minX) minX = x;
+				if (x > maxX) maxX = x;
+				if (y < minY) minY = y;
+				if (y > maxY) maxY = y;
+				if (z < minZ) minZ = z;
+				if (z > maxZ) maxZ = z;
+				if (radii != null && i < radii.length && radii[i] > maxRadius) maxRadius = radii[i];
+			}
+			if (maxRadius > 0) { // diameters may be rendered
+				final double rx = maxRadius / p.x_spacing;
+				final double ry = maxRadius / p.y_spacing;
+				minX -= rx;
+				maxX += rx;
+				minY -= ry;
+				maxY += ry;
+			}
+		}
+
+		boolean isValidFor(final Path p) {
+			return modCount == p.modCount && radii == p.radii && offsetX == p.canvasOffset.x
+					&& offsetY == p.canvasOffset.y && offsetZ == p.canvasOffset.z;
+		}
+	}
+
+	/** Rendering state of an unselected path */
+	private static class Stamp {
+
+		private final int modCount;
+		private final Color color;
+		private final Color[] nodeColors;
+		private final Path startJoins;
+		private final Path endJoins;
+		private final int editableNode;
+		private final Rectangle2D bounds;
+
+		Stamp(final Path p, final Color color, final Rectangle2D bounds) {
+			modCount = p.modCount;
+			this.color = color;
+			nodeColors = p.getNodeColors();
+			startJoins = p.startJoins;
+			endJoins = p.endJoins;
+			editableNode = p.getEditableNodeIndex();
+			this.bounds = bounds;
+		}
+
+		boolean sameAs(final Stamp other) {
+			return modCount == other.modCount && Objects.equals(color, other.color) && nodeColors == other.nodeColors
+					&& startJoins == other.startJoins && endJoins == other.endJoins
+					&& editableNode == other.editableNode && bounds.equals(other.bounds);
+		}
+	}
+
+	private class Layer {
+
+		private final BufferedImage image;
+		private final int marginX;
+		private final int marginY;
+		/* Location of the layer in image space */
+		private double x;
+		private double y;
+		private Map<Path, Stamp> rendered;
+
+		Layer(final int viewportWidth, final int viewportHeight) {
+			marginX = (int) Math.ceil(LAYER_MARGIN * viewportWidth);
+			marginY = (int) Math.ceil(LAYER_MARGIN * viewportHeight);
+			image = new BufferedImage(viewportWidth + 2 * marginX, viewportHeight + 2 * marginY,
+					BufferedImage.TYPE_INT_ARGB_PRE);
+		}
+
+		/*
+		 * Re-renders the outdated regions of this layer and returns its screen
+		 * location. The layer is re-centered (and fully re-rendered) if the
+		 * viewport, located at (viewX, viewY) in image space, is no longer within
+		 * it, or if it cannot be blitted at a whole-pixel offset.
+		 */
+		Point update(final List<Path> paths, final Map<Path, Stamp> stamps, final Rectangle viewport,
+				final double viewX, final double viewY) {
+			final double screenX = x - viewX;
+			final double screenY = y - viewY;
+			if (rendered == null || !isWhole(screenX) || !isWhole(screenY) || screenX > 0 || screenY > 0
+					|| screenX + image.getWidth() < viewport.width || screenY + image.getHeight() < viewport.height) {
+				x = viewX - marginX;
+				y = viewY - marginY;
+				rendered = null;
+			}
+			final Point location = new Point((int) Math.round(x - viewX), (int) Math.round(y - viewY));
+			final Rectangle extent = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+
+			Rectangle2D dirty = null;
+			if (rendered == null) {
+				dirty = new Rectangle2D.Double(x, y, extent.width, extent.height);
+			} else {
+				for (final Map.Entry<Path, Stamp> entry : rendered.entrySet()) {
+					final Stamp current = stamps.get(entry.getKey());
+					if (current == null || !current.sameAs(entry.getValue()))
+						dirty = union(dirty, entry.getValue().bounds);
+				}
+				for (final Map.Entry<Path, Stamp> entry : stamps.entrySet()) {
+					if (!rendered.containsKey(entry.getKey()))
+						dirty = union(dirty, entry.getValue().bounds);
+				}
+			}
+			rendered = stamps;
+			if (dirty == null) return location;
+			final Rectangle region = new Rectangle2D.Double(dirty.getX() - x, dirty.getY() - y, dirty.getWidth(),
+					dirty.getHeight()).getBounds().intersection(extent);
+			if (region.isEmpty()) return location;
+			if ((double) region.width * region.height > MAX_DIRTY_FRACTION * extent.width * extent.height)
+				region.setBounds(extent);
+
+			final Graphics2D g = canvas.getGraphics2D(image.createGraphics());
+			g.setComposite(AlphaComposite.Clear);
+			g.fill(region);
+			g.setComposite(AlphaComposite.SrcOver);
+			g.setClip(region);
+			// paths are rendered in screen coordinates
+			g.translate(-location.x, -location.y);
+			final Rectangle2D regionBounds = new Rectangle2D.Double(region.x + x, region.y + y, region.width,
+					region.height);
+			for (final Path p : paths) {
+				final Stamp stamp = stamps.get(p);
+				if (stamp != null && stamp.bounds.intersects(regionBounds))
+					drawPath(g, p, stamp.color, false);
+			}
+			g.dispose();
+			return location;
+		}
+
+		private boolean isWhole(final double value) {
+			return Math.abs(value - Math.rint(value)) < 1e-6;
+		}
+
+		private Rectangle2D union(final Rectangle2D r1, final Rectangle2D r2) {
+			return (r1 == null) ? r2 : r1.createUnion(r2);
+		}
+	}
+
+}
@@ -179,6 +179,7 @@ public class SNT extends MultiDThreePanes implements
 	private volatile boolean hessianEnabled = false;
 	protected final HessianCaller primaryHessian;
 	protected final HessianCaller secondaryHessian;
+	private volatile TubenessDiskCache tubenessDiskCache; // opt-in: see SNTPrefs
 
 	/* tracing threads */
 	private TracerThread currentSearchThread = null;
@@ -231,6 +232,8 @@ public class SNT extends MultiDThreePanes implements
 	// This should only be assigned to when synchronized on this object
 	// (FIXME: check that that is true)
 	FillerThread filler = null;
+	private volatile boolean parallelFilling = false;
+	private volatile boolean stopFillAtThreshold = false;
 
 	/* Colors */
 	private static final Color DEFAULT_SELECTED_COLOR = Color.GREEN;
@@ -572,6 +575,10 @@ public class SNT extends MultiDThreePanes implements
 			channel > getImagePlus().getNChannels())
 			throw new IllegalArgumentException("Invalid position: C=" + channel +
 				" T=" + frame);
+		if (channel == this.channel && frame == this.frame) {
+			// An explicit reload: Image data may have been edited in place
+			ChannelStatistics.invalidate(getImagePlus());
+		}
 		this.channel = channel;
 		this.frame = frame;
 		final boolean currentSinglePane = getSinglePane();
@@ -614,40 +621,28 @@ public class SNT extends MultiDThreePanes implements
 				for (int z = 0; z < depth; ++z)
 					slices_data_s[z] = (short[]) s.getPixels(xy.getStackIndex(channel, z +
 						1, frame));
-				statusService.showStatus("Finding stack minimum / maximum");
-				for (int z = 0; z < depth; ++z) {
-					for (int y = 0; y < height; ++y)
-						for (int x = 0; x < width; ++x) {
-							final short v = slices_data_s[z][y * width + x];
-							if (v < stackMin) stackMin = v;
-							if (v > stackMax) stackMax = v;
-						}
-					statusService.showProgress(z, depth);
-				}
-				statusService.showProgress(0, 0);
+				setStackMinMax(slices_data_s);
 				break;
 			case ImagePlus.GRAY32:
 				slices_data_f = new float[depth][];
 				for (int z = 0; z < depth; ++z)
 					slices_data_f[z] = (float[]) s.getPixels(xy.getStackIndex(channel, z +
 						1, frame));
-				statusService.showStatus("Finding stack minimum / maximum");
-				for (int z = 0; z < depth; ++z) {
-					for (int y = 0; y < height; ++y)
-						for (int x = 0; x < width; ++x) {
-							final float v = slices_data_f[z][y * width + x];
-							if (v < stackMin) stackMin = v;
-							if (v > stackMax) stackMax = v;
-						}
-					statusService.showProgress(z, depth);
-				}
-				statusService.showProgress(0, 0);
+				setStackMinMax(slices_data_f);
 				break;
 		}
 		nullifyHessian(); // ensure it will be reloaded
 		updateLut();
 	}
 
+	private void setStackMinMax(final Object[] slices) {
+		statusService.showStatus("Finding stack minimum / maximum");
+		final ChannelStatistics stats = ChannelStatistics.get(xy, channel, frame, slices);
+		stackMin = stats.getMin();
+		stackMax = stats.getMax();
+		statusService.clearStatus();
+	}
+
 	public void startUI() {
 		GuiUtils.setSystemLookAndFeel();
 		final SNT thisPlugin = this;
@@ -1923,6 +1918,8 @@ public class SNT extends MultiDThreePanes implements
 
 	public void startFillerThread(final FillerThread filler) {
 		this.filler = filler;
+		filler.setParallel(parallelFilling);
+		filler.setStopAtThreshold(stopFillAtThreshold);
 		filler.addProgressListener(this);
 		filler.addProgressListener(ui.getFillManager());
 		addThreadToDraw(filler);
@@ -1932,6 +1929,14 @@ public class SNT extends MultiDThreePanes implements
 
 	synchronized public void startFillingPaths(final Set<Path> fromPaths) {
 
+		if (filler != null && filler.isExtensibleTo(fromPaths)) {
+			// Extend the ongoing fill rather than restarting it
+			filler.addSourcePaths(fromPaths);
+			if (ui != null) ui.setFillListVisible(true);
+			return;
+		}
+		discardFill(false);
+
 		// currentlyFilling = true;
 		if (ui != null) {
 			ui.getFillManager().pauseOrRestartFilling.setText("Pause");
@@ -1946,6 +1951,8 @@ public class SNT extends MultiDThreePanes implements
 		filler.addProgressListener(this);
 		filler.addProgressListener(ui.getFillManager());
 		filler.setSourcePaths(fromPaths);
+		filler.setParallel(parallelFilling);
+		filler.setStopAtThreshold(stopFillAtThreshold);
 
 		if (ui != null) ui.setFillListVisible(true);
 		filler.start();
@@ -2153,17 +2160,13 @@ public class SNT extends MultiDThreePanes implements
 		SNTUtils.convertTo32bit(imp);
 		final ImageStack s = imp.getStack();
 		for (int z = 0; z < depth; ++z) {
-			showStatus(z, depth, "Loading image/Computing range...");
 			final int pos = imp.getStackIndex(channel, z + 1, frame);
 			destination[z] = (float[]) s.getPixels(pos);
-			for (int y = 0; y < height; ++y) {
-				for (int x = 0; x < width; ++x) {
-					final float v = destination[z][y * width + x];
-					if (v < stackMinSecondary) stackMinSecondary = v;
-					if (v > stackMaxSecondary) stackMaxSecondary = v;
-				}
-			}
 		}
+		showStatus(0, 0, "Loading image/Computing range...");
+		final ChannelStatistics stats = ChannelStatistics.get(imp, channel, frame, destination);
+		stackMinSecondary = stats.getMin();
+		stackMaxSecondary = stats.getMax();
 		showStatus(0, 0, null);
 	}
 
@@ -2871,6 +2874,48 @@ public class SNT extends MultiDThreePanes implements
 		if (ui != null) ui.enableAStarGUI(enable);
 	}
 
+	/**
+	 * Sets whether filling should be performed using multiple threads. Only
+	 * fills started after this call are affected.
+	 *
+	 * @param parallel if true, fills are computed in parallel
+	 * @see SNTPrefs#getThreads()
+	 */
+	public void setParallelFilling(final boolean parallel) {
+		parallelFilling = parallel;
+	}
+
+	/**
+	 * Checks if filling is performed using multiple threads
+	 *
+	 * @return true, if fills are computed in parallel, otherwise false
+	 */
+	public boolean isParallelFilling() {
+		return parallelFilling;
+	}
+
+	/**
+	 * Sets whether fills should only explore the image up to the fill threshold.
+	 * If true, the filler waits once the threshold distance has been explored
+	 * and resumes from its frontier when the threshold is raised. The current
+	 * fill (if any) is also affected.
+	 *
+	 * @param stop if true, fills stop at the threshold distance
+	 */
+	public void setStopFillAtThreshold(final boolean stop) {
+		stopFillAtThreshold = stop;
+		if (filler != null) filler.setStopAtThreshold(stop);
+	}
+
+	/**
+	 * Checks if fills stop at the fill threshold
+	 *
+	 * @return true, if fills only explore up to the threshold distance
+	 */
+	public boolean isStopFillAtThreshold() {
+		return stopFillAtThreshold;
+	}
+
 	/**
 	 * Checks if A* search is enabled
 	 *
@@ -2900,6 +2945,62 @@ public class SNT extends MultiDThreePanes implements
 		return hc != null && hc.cachedTubeness != null;
 	}
 
+	/**
+	 * @return the disk cache persisting computed tubeness across sessions, or
+	 *         null if disk caching is disabled
+	 */
+	public TubenessDiskCache getTubenessDiskCache() {
+		return tubenessDiskCache;
+	}
+
+	/**
+	 * Sets the disk cache persisting computed tubeness across sessions. Only
+	 * affects Hessian analyses started after this call.
+	 *
+	 * @param cache the disk cache, or null to disable disk caching
+	 */
+	public void setTubenessDiskCache(final TubenessDiskCache cache) {
+		tubenessDiskCache = cache;
+	}
+
+	/**
+	 * Computes the tubeness of the whole image for the current Hessian
+	 * parameters (default sigma if unset), storing it in the disk cache so that
+	 * subsequent sessions on the same data can reuse it. Blocks already cached
+	 * are skipped. Blocks until done.
+	 *
+	 * @param image either "primary" or "secondary"
+	 * @throws IllegalStateException if disk caching is disabled, or Hessian
+	 *           analysis could not be started (e.g., a tubeness image is
+	 *           loaded)
+	 * @throws InterruptedException  if interrupted while waiting
+	 */
+	public void warmTubenessDiskCache(final String image) throws InterruptedException {
+		final TubenessDiskCache cache = tubenessDiskCache;
+		if (cache == null) throw new IllegalStateException("Tubeness disk cache is disabled");
+		final HessianCaller hc = getHessianCaller(image);
+		final Thread thread = hc.start();
+		if (thread != null) thread.join();
+		final LazyHessian hessian = hc.hessian;
+		if (hessian == null)
+			throw new IllegalStateException("Hessian analysis unavailable for " + image + " image");
+		// Analysis may have started before disk caching was enabled
+		if (!hessian.hasStore()) hessian.setStore(cache.open(hessian, channel, frame));
+		hessian.computeAll();
+		SNTUtils.log("Tubeness cached " + hc.toString());
+	}
+
+	/**
+	 * Deletes all entries of the tubeness disk cache, except those in use by
+	 * ongoing Hessian analyses. If disk caching is disabled, the default cache
+	 * directory ({@link TubenessDiskCache#getDefaultDirectory()}) is cleared
+	 * instead, so that entries of previous sessions can always be deleted.
+	 */
+	public void clearTubenessDiskCache() {
+		final TubenessDiskCache cache = tubenessDiskCache;
+		((cache == null) ? new TubenessDiskCache() : cache).clear();
+	}
+
 	/**
 	 * @return true if the image currently loaded does not have a depth (Z)
 	 *         dimension
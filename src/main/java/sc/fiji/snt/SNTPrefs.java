@@ -53,6 +53,7 @@ public class SNTPrefs { // TODO: Adopt PrefService
 	private static final int DEBUG = 4096;
 	// @Deprecated//private static final int LOOK_FOR_TRACES = 8192;
 	private static final int COMPRESSED_XML = 16384;
+	private static final int TUBENESS_DISK_CACHE = 32768;
 
 	private static final String BOOLEANS = "tracing.snt.booleans";
 	private static final String SNAP_XY = "tracing.snt.xysnap";
@@ -135,6 +136,8 @@ public class SNTPrefs { // TODO: Adopt PrefService
 		snt.displayCustomPathColors = !getPref(ENFORCE_DEFAULT_PATH_COLORS);
 		snt.setShowOnlySelectedPaths(getPref(SHOW_ONLY_SELECTED), false);
 		if (!SNTUtils.isDebugMode()) SNTUtils.setDebugMode(getPref(DEBUG));
+		if (getPref(TUBENESS_DISK_CACHE) && snt.getTubenessDiskCache() == null)
+			snt.setTubenessDiskCache(new TubenessDiskCache());
 		snt.cursorSnapWindowXY = (int) Prefs.get(SNAP_XY, 6);
 		snt.cursorSnapWindowXY = whithinBoundaries(snt.cursorSnapWindowXY,
 			SNT.MIN_SNAP_CURSOR_WINDOW_XY,
@@ -216,6 +219,25 @@ public class SNTPrefs { // TODO: Adopt PrefService
 		setPref(COMPRESSED_XML, bool);
 	}
 
+	/**
+	 * @return whether computed tubeness is persisted across sessions in a
+	 *         {@link TubenessDiskCache} (disabled by default)
+	 */
+	public boolean isTubenessDiskCacheEnabled() {
+		return getPref(TUBENESS_DISK_CACHE);
+	}
+
+	/**
+	 * Enables or disables the {@link TubenessDiskCache}, stored in
+	 * {@link TubenessDiskCache#getDefaultDirectory()}. Only affects Hessian
+	 * analyses started after this call.
+	 */
+	public void setTubenessDiskCacheEnabled(final boolean enable) {
+		setPref(TUBENESS_DISK_CACHE, enable);
+		if (!enable) snt.setTubenessDiskCache(null);
+		else if (snt.getTubenessDiskCache() == null) snt.setTubenessDiskCache(new TubenessDiskCache());
+	}
+
 	public boolean isSaveWinLocations() {
 		return getPref(STORE_WIN_LOCATIONS);
 	}
@@ -728,6 +728,36 @@ public class SNTService extends AbstractService implements ImageJService {
 		}
 	}
 
+	/**
+	 * Computes the tubeness of the image being traced with the current Hessian
+	 * parameters, persisting it in SNT's tubeness disk cache, so that
+	 * subsequent sessions on the same image skip Hessian computations.
+	 *
+	 * @param image either "primary" or "secondary"
+	 * @throws UnsupportedOperationException if SNT is not running
+	 * @throws IllegalStateException if disk caching is disabled or no image
+	 *           data is available
+	 * @throws InterruptedException if interrupted while computing
+	 * @see SNT#warmTubenessDiskCache(String)
+	 */
+	public void warmTubenessDiskCache(final String image) throws InterruptedException {
+		accessActiveInstance(false);
+		plugin.warmTubenessDiskCache(image);
+	}
+
+	/**
+	 * Deletes SNT's tubeness disk cache. Also available when SNT is not running.
+	 *
+	 * @see SNT#clearTubenessDiskCache()
+	 */
+	public void clearTubenessDiskCache() {
+		final SNT instance = SNTUtils.getPluginInstance();
+		if (instance != null)
+			instance.clearTubenessDiskCache();
+		else
+			new TubenessDiskCache().clear();
+	}
+
 	/**
 	 * Quits SNT. Does nothing if SNT is currently not running.
 	 */
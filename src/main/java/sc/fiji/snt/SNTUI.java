@@ -2620,6 +2620,14 @@ public class SNTUI extends JDialog {
 
 		optionsMenu.add(hessianCompMenu("Cached Computations (Main Image)", "primary"));
 		optionsMenu.add(hessianCompMenu("Cached Computations (Secondary Image)", "secondary"));
+		final JCheckBoxMenuItem diskCacheItem = new JCheckBoxMenuItem("Keep Computations on Disk",
+				plugin.getPrefs().isTubenessDiskCacheEnabled());
+		diskCacheItem.setToolTipText("<HTML><div WIDTH=500>If selected, computed tubeness is stored in "
+				+ TubenessDiskCache.getDefaultDirectory() + " (up to "
+				+ (TubenessDiskCache.DEFAULT_MAX_SIZE >> 30) + "GB) and reused when the same image is traced "
+				+ "again with the same parameters. Only affects analyses started after the change");
+		diskCacheItem.addActionListener(e -> plugin.getPrefs().setTubenessDiskCacheEnabled(diskCacheItem.isSelected()));
+		optionsMenu.add(diskCacheItem);
 		hessianPanel = new JPanel(new BorderLayout());
 		hessianPanel.add(preprocess, BorderLayout.CENTER);
 		hessianPanel.add(optionsButton, BorderLayout.EAST);
@@ -232,7 +232,6 @@ public class SNTUtils {
 		final PrintWriter pw = new PrintWriter(
 				new OutputStreamWriter(new FileOutputStream(outputFile.getAbsolutePath()), StandardCharsets.UTF_8));
 		final int columns = table.getColumnCount();
-		final int rows = table.getRowCount();
 
 		// Print a column header to hold row headers
 		SNTUtils.csvQuoteAndPrint(pw, "Description");
@@ -243,7 +242,36 @@ public class SNTUtils {
 				pw.print(sep);
 		}
 		pw.print("\r\n");
-		for (int row = 0; row < rows; row++) {
+		printTableRows(pw, table, 0);
+		pw.close();
+	}
+
+	/**
+	 * Appends rows of a table to a CSV file previously written by
+	 * {@link #saveTable(GenericTable, File)}. It is up to the caller to ensure
+	 * that the columns of {@code table} have not changed since the file was
+	 * written.
+	 *
+	 * @param table      the table holding the rows to be appended
+	 * @param firstRow   the index of the first row to be appended
+	 * @param outputFile the CSV file
+	 * @throws IOException if file could not be written
+	 */
+	public static void appendTableRows(final GenericTable table, final int firstRow, final File outputFile)
+			throws IOException {
+		final PrintWriter pw = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(outputFile.getAbsolutePath(), true), StandardCharsets.UTF_8));
+		printTableRows(pw, table, firstRow);
+		pw.close();
+		if (pw.checkError())
+			throw new IOException("Could not append to " + outputFile.getAbsolutePath());
+	}
+
+	private static void printTableRows(final PrintWriter pw, final GenericTable table, final int firstRow) {
+		final String sep = ",";
+		final int columns = table.getColumnCount();
+		final int rows = table.getRowCount();
+		for (int row = Math.max(0, firstRow); row < rows; row++) {
 			SNTUtils.csvQuoteAndPrint(pw, table.getRowHeader(row));
 			pw.print(sep);
 			for (int col = 0; col < columns; col++) {
@@ -253,7 +281,6 @@ public class SNTUtils {
 			}
 			pw.print("\r\n");
 		}
-		pw.close();
 	}
 
 	protected static boolean fileAvailable(final File file) {
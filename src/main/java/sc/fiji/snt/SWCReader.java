@@ -0,0 +1,393 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package sc.fiji.snt;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import sc.fiji.snt.util.SWCPoint;
+
+/**
+ * A streaming SWC tokenizer used by {@link PathAndFillManager}. Lines are
+ * scanned directly in a byte buffer (no regular expressions nor intermediate
+ * Strings) and the seven SWC columns are parsed into primitive arrays.
+ * Parsing is equivalent to that of {@link Integer#parseInt(String)} and
+ * {@link Double#parseDouble(String)}: numbers that cannot be parsed exactly by
+ * the fast path are handed over to the JDK parsers.
+ *
+ * @author Tiago Ferreira
+ */
+final class SWCReader {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	/* Powers of ten that are exactly representable as doubles */
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1d;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10d;
+	}
+	/* Mantissas with up to this many digits are exactly representable */
+	private static final int MAX_EXACT_DIGITS = 15;
+	/* Sample numbers are sorted by direct addressing when (almost) contiguous */
+	private static final int MAX_ID_GAP = 1024;
+
+	private final ReadableByteChannel channel;
+	private final Reader reader;
+	private char[] chars;
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	private boolean eof;
+	private int lineStart;
+	private int lineEnd;
+	private final int[] tokenStart = new int[7];
+	private final int[] tokenEnd = new int[7];
+
+	private int size;
+	private int[] ids = new int[1024];
+	private int[] types = new int[1024];
+	private int[] parents = new int[1024];
+	private double[] xs = new double[1024];
+	private double[] ys = new double[1024];
+	private double[] zs = new double[1024];
+	private double[] radii = new double[1024];
+	private String error;
+
+	SWCReader(final ReadableByteChannel channel) {
+		this.channel = channel;
+		this.reader = null;
+	}
+
+	SWCReader(final Reader reader) {
+		this.channel = null;
+		this.reader = reader;
+	}
+
+	/**
+	 * Parses all the nodes in the stream.
+	 *
+	 * @param swcTypes the SWC types to be retained. If empty, all nodes are
+	 *          retained
+	 * @return true if successful, false if the data is malformed, in which case
+	 *         {@link #getError()} describes the problem
+	 * @throws IOException if the stream could not be read
+	 */
+	boolean read(final int... swcTypes) throws IOException {
+		while (nextLine()) {
+			int end = lineEnd;
+			for (int i = lineStart; i < end; i++) {
+				if (buf[i] == '#') {
+					end = i;
+					break;
+				}
+			}
+			int nFields = 0;
+			int i = lineStart;
+			while (i < end) {
+				while (i < end && isBlank(buf[i]))
+					i++;
+				if (i == end) break;
+				final int start = i;
+				while (i < end && !isBlank(buf[i]))
+					i++;
+				if (nFields < 7) {
+					tokenStart[nFields] = start;
+					tokenEnd[nFields] = i;
+				}
+				nFields++;
+			}
+			if (nFields == 0) continue;
+			if (nFields < 7) {
+				error = "Wrong number of fields (" + nFields + ") in line: " + line(end);
+				return false;
+			}
+			try {
+				final int type = parseInt(1);
+				if (matchesType(type, swcTypes)) {
+					ensureCapacity();
+					ids[size] = parseInt(0);
+					types[size] = type;
+					xs[size] = parseDouble(2);
+					ys[size] = parseDouble(3);
+					zs[size] = parseDouble(4);
+					try {
+						radii[size] = parseDouble(5);
+					}
+					catch (final NumberFormatException ignored) {
+						radii[size] = 0; // files in which radius is set to NaN
+					}
+					parents[size] = parseInt(6);
+					size++;
+				}
+			}
+			catch (final NumberFormatException nfe) {
+				error = "There was a malformed number in line: " + line(end);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the description of the last parsing error
+	 */
+	String getError() {
+		return error;
+	}
+
+	/**
+	 * Assembles the parsed nodes, sorted by sample number. As with a
+	 * {@link java.util.TreeSet}, only the first occurrence of a duplicated sample
+	 * number is retained.
+	 *
+	 * @return the list of nodes, with coordinates set to {@code scale * c + offset}
+	 */
+	List<SWCPoint> getNodes(final double xOffset, final double yOffset,
+		final double zOffset, final double xScale, final double yScale,
+		final double zScale)
+	{
+		final int[] order = sortedUniqueIndices();
+		final List<SWCPoint> nodes = new ArrayList<>(order.length);
+		for (final int i : order) {
+			nodes.add(new SWCPoint(ids[i], types[i], xScale * xs[i] + xOffset,
+				yScale * ys[i] + yOffset, zScale * zs[i] + zOffset, radii[i],
+				parents[i]));
+		}
+		return nodes;
+	}
+
+	private int[] sortedUniqueIndices() {
+		if (size == 0) return new int[0];
+		int min = ids[0];
+		int max = ids[0];
+		for (int i = 1; i < size; i++) {
+			if (ids[i] < min) min = ids[i];
+			else if (ids[i] > max) max = ids[i];
+		}
+		final long range = (long) max - min + 1;
+		if (range <= 2L * size + MAX_ID_GAP) {
+			// slots hold index + 1 of the first node with a given sample number
+			final int[] slots = new int[(int) range];
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				final int s = ids[i] - min;
+				if (slots[s] == 0) {
+					slots[s] = i + 1;
+					n++;
+				}
+			}
+			final int[] order = new int[n];
+			n = 0;
+			for (final int slot : slots) {
+				if (slot != 0) order[n++] = slot - 1;
+			}
+			return order;
+		}
+		// sparse sample numbers: sort (id, index) pairs
+		final long[] keys = new long[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = ((long) ids[i] << 32) | i;
+		Arrays.sort(keys);
+		final int[] order = new int[size];
+		int n = 0;
+		for (int k = 0; k < size; k++) {
+			if (k > 0 && (keys[k] >> 32) == (keys[k - 1] >> 32)) continue;
+			order[n++] = (int) keys[k];
+		}
+		return Arrays.copyOf(order, n);
+	}
+
+	private boolean matchesType(final int type, final int... swcTypes) {
+		if (swcTypes.length == 0) return true;
+		for (final int t : swcTypes)
+			if (t == type) return true;
+		return false;
+	}
+
+	/* Whitespace and control characters, as per String#trim() */
+	private static boolean isBlank(final byte b) {
+		return b >= 0 && b <= ' ';
+	}
+
+	private String line(int end) {
+		int start = lineStart;
+		while (start < end && isBlank(buf[start]))
+			start++;
+		while (end > start && isBlank(buf[end - 1]))
+			end--;
+		return new String(buf, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	private String token(final int field) {
+		return new String(buf, tokenStart[field], tokenEnd[field] -
+			tokenStart[field], StandardCharsets.UTF_8);
+	}
+
+	private int parseInt(final int field) {
+		int i = tokenStart[field];
+		final int end = tokenEnd[field];
+		boolean negative = false;
+		if (buf[i] == '-' || buf[i] == '+') {
+			negative = buf[i] == '-';
+			i++;
+		}
+		final int nDigits = end - i;
+		if (nDigits < 1 || nDigits > 9) return Integer.parseInt(token(field));
+		int value = 0;
+		for (; i < end; i++) {
+			final int d = buf[i] - '0';
+			if (d < 0 || d > 9) return Integer.parseInt(token(field));
+			value = value * 10 + d;
+		}
+		return (negative) ? -value : value;
+	}
+
+	private double parseDouble(final int field) {
+		int i = tokenStart[field];
+		final int end = tokenEnd[field];
+		boolean negative = false;
+		if (buf[i] == '-' || buf[i] == '+') {
+			negative = buf[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int nDigits = 0; // significant digits
+		int nAnyDigits = 0;
+		int exponent = 0;
+		boolean dot = false;
+		for (; i < end; i++) {
+			final byte b = buf[i];
+			if (b >= '0' && b <= '9') {
+				nAnyDigits++;
+				if (dot) exponent--;
+				if (mantissa == 0 && b == '0') continue;
+				if (++nDigits > MAX_EXACT_DIGITS) return Double.parseDouble(token(field));
+				mantissa = mantissa * 10 + (b - '0');
+			}
+			else if (b == '.' && !dot) {
+				dot = true;
+			}
+			else {
+				break;
+			}
+		}
+		if (nAnyDigits == 0) return Double.parseDouble(token(field));
+		if (i < end) {
+			// exponent: [eE][+-]?digits
+			if (buf[i] != 'e' && buf[i] != 'E') return Double.parseDouble(token(field));
+			i++;
+			boolean negativeExp = false;
+			if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+				negativeExp = buf[i] == '-';
+				i++;
+			}
+			if (i == end || end - i > 3) return Double.parseDouble(token(field));
+			int exp = 0;
+			for (; i < end; i++) {
+				final int d = buf[i] - '0';
+				if (d < 0 || d > 9) return Double.parseDouble(token(field));
+				exp = exp * 10 + d;
+			}
+			exponent += (negativeExp) ? -exp : exp;
+		}
+		final double value;
+		if (mantissa == 0) value = 0d;
+		else if (exponent < 0 && -exponent < POW10.length) value = mantissa / POW10[-exponent];
+		else if (exponent >= 0 && exponent < POW10.length) value = mantissa * POW10[exponent];
+		else return Double.parseDouble(token(field));
+		return (negative) ? -value : value;
+	}
+
+	private void ensureCapacity() {
+		if (size < ids.length) return;
+		final int capacity = ids.length * 2;
+		ids = Arrays.copyOf(ids, capacity);
+		types = Arrays.copyOf(types, capacity);
+		parents = Arrays.copyOf(parents, capacity);
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		zs = Arrays.copyOf(zs, capacity);
+		radii = Arrays.copyOf(radii, capacity);
+	}
+
+	/* Delimits the next line in the buffer, reading more data as needed */
+	private boolean nextLine() throws IOException {
+		int scan = pos;
+		while (true) {
+			for (int i = scan; i < limit; i++) {
+				final byte b = buf[i];
+				if (b == '\n' || b == '\r') {
+					lineStart = pos;
+					lineEnd = i;
+					pos = i + 1;
+					return true;
+				}
+			}
+			if (eof) {
+				if (pos == limit) return false;
+				lineStart = pos;
+				lineEnd = limit;
+				pos = limit;
+				return true;
+			}
+			scan = limit - pos;
+			fill();
+		}
+	}
+
+	/* Compacts the unread portion of the buffer and appends more data to it */
+	private void fill() throws IOException {
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		if (limit == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+		final int n;
+		if (channel != null) {
+			final ByteBuffer bb = ByteBuffer.wrap(buf, limit, buf.length - limit);
+			int read;
+			do {
+				read = channel.read(bb);
+			} while (read == 0);
+			n = read;
+		}
+		else {
+			if (chars == null || chars.length < buf.length - limit) chars =
+				new char[buf.length - limit];
+			n = reader.read(chars, 0, buf.length - limit);
+			// SWC data is ASCII: anything else can only occur in comments
+			for (int i = 0; i < n; i++)
+				buf[limit + i] = (chars[i] < 0x80) ? (byte) chars[i] : (byte) '?';
+		}
+		if (n < 0) eof = true;
+		else limit += n;
+	}
+
+}
@@ -0,0 +1,59 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+/**
+ * Defines the cost of moving to a new voxel during a {@link SearchThread}
+ * search. Costs do not take into account the distance to the new voxel: they
+ * are post-multiplied by the length of the step. Implementations are expected
+ * to be called for each of the 26 neighbours of every expanded node, so they
+ * should be as cheap as possible: type-specific decisions and any
+ * normalization should be resolved once, when the cost is created.
+ *
+ * @author Tiago Ferreira
+ * @see IntensityCost
+ * @see HessianCost
+ * @see TubenessCost
+ */
+public interface SearchCost {
+
+	/**
+	 * Returns the cost of moving to the specified voxel.
+	 *
+	 * @param x the x-coordinate of the voxel (unscaled)
+	 * @param y the y-coordinate of the voxel (unscaled)
+	 * @param z the z-coordinate (0-based index of the slice) of the voxel
+	 * @return the cost of moving to (x,y,z)
+	 */
+	public double costMovingTo(int x, int y, int z);
+
+	/**
+	 * Returns the minimum cost per unit of distance, i.e., a lower bound of
+	 * {@link #costMovingTo(int, int, int)}. Used to assemble an admissible A*
+	 * heuristic.
+	 *
+	 * @return the minimum cost per unit distance
+	 */
+	public double minimumCostPerUnitDistance();
+
+}
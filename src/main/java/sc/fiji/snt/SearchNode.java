@@ -34,6 +34,10 @@ public class SearchNode implements Comparable<SearchNode> {
 
 	public float f; // should always be the sum of g and h
 
+	/* Position of this node in its SearchNodeHeap, or NOT_QUEUED */
+	static final int NOT_QUEUED = -1;
+	int heapIndex = NOT_QUEUED;
+
 	private SearchNode predecessor;
 
 	public SearchNode getPredecessor() {
@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An indexed binary min-heap of {@link SearchNode}s, ordered by
+ * {@link SearchNode#compareTo(SearchNode)}. Each node stores its own position
+ * in the heap, so that a node whose priority has improved can be re-positioned
+ * in O(log n) (decrease-key), rather than requiring the linear scan of
+ * {@link java.util.PriorityQueue#remove(Object)}.
+ * <p>
+ * A node can only be a member of a single heap at any given time.
+ * </p>
+ *
+ * @author Tiago Ferreira
+ */
+public class SearchNodeHeap implements Iterable<SearchNode> {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private SearchNode[] heap;
+	private int size;
+
+	public SearchNodeHeap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public SearchNodeHeap(final int initialCapacity) {
+		heap = new SearchNode[Math.max(2, initialCapacity)];
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(final SearchNode n) {
+		final int i = n.heapIndex;
+		return i >= 0 && i < size && heap[i] == n;
+	}
+
+	/**
+	 * Inserts a node in the heap.
+	 *
+	 * @param n the node to be inserted. Must not be already queued.
+	 */
+	public void add(final SearchNode n) {
+		if (size == heap.length) heap = Arrays.copyOf(heap, size + (size >> 1));
+		heap[size] = n;
+		n.heapIndex = size;
+		siftUp(size++);
+	}
+
+	/**
+	 * Retrieves, but does not remove, the node with the lowest priority value.
+	 *
+	 * @return the head of the heap or null if empty
+	 */
+	public SearchNode peek() {
+		return (size == 0) ? null : heap[0];
+	}
+
+	/**
+	 * Retrieves and removes the node with the lowest priority value.
+	 *
+	 * @return the head of the heap or null if empty
+	 */
+	public SearchNode poll() {
+		if (size == 0) return null;
+		final SearchNode result = heap[0];
+		removeAt(0);
+		return result;
+	}
+
+	/**
+	 * Removes the specified node from the heap.
+	 *
+	 * @param n the node to be removed
+	 * @return true if the node was queued
+	 */
+	public boolean remove(final SearchNode n) {
+		if (!contains(n)) return false;
+		removeAt(n.heapIndex);
+		return true;
+	}
+
+	/**
+	 * Restores heap ordering after the priority (f) of a queued node has been
+	 * lowered, e.g., because a better route to it has been found.
+	 *
+	 * @param n the node whose priority decreased. Must be queued.
+	 */
+	public void decreaseKey(final SearchNode n) {
+		siftUp(n.heapIndex);
+	}
+
+	/**
+	 * Restores heap ordering after the priority (f) of a queued node has changed
+	 * in either direction.
+	 *
+	 * @param n the node whose priority changed. Must be queued.
+	 */
+	public void update(final SearchNode n) {
+		final int i = n.heapIndex;
+		siftUp(i);
+		if (heap[i] == n) siftDown(i);
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			heap[i].heapIndex = SearchNode.NOT_QUEUED;
+			heap[i] = null;
+		}
+		size = 0;
+	}
+
+	private void removeAt(final int i) {
+		final SearchNode removed = heap[i];
+		removed.heapIndex = SearchNode.NOT_QUEUED;
+		final int last = --size;
+		if (i == last) {
+			heap[last] = null;
+			return;
+		}
+		final SearchNode moved = heap[last];
+		heap[last] = null;
+		heap[i] = moved;
+		moved.heapIndex = i;
+		siftDown(i);
+		if (heap[i] == moved) siftUp(i);
+	}
+
+	private void siftUp(int i) {
+		final SearchNode n = heap[i];
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			final SearchNode p = heap[parent];
+			if (n.compareTo(p) >= 0) break;
+			heap[i] = p;
+			p.heapIndex = i;
+			i = parent;
+		}
+		heap[i] = n;
+		n.heapIndex = i;
+	}
+
+	private void siftDown(int i) {
+		final SearchNode n = heap[i];
+		final int half = size >>> 1;
+		while (i < half) {
+			int child = (i << 1) + 1;
+			SearchNode c = heap[child];
+			final int right = child + 1;
+			if (right < size && c.compareTo(heap[right]) > 0) {
+				child = right;
+				c = heap[child];
+			}
+			if (n.compareTo(c) <= 0) break;
+			heap[i] = c;
+			c.heapIndex = i;
+			i = child;
+		}
+		heap[i] = n;
+		n.heapIndex = i;
+	}
+
+	/**
+	 * Returns an iterator over the queued nodes, in no particular order.
+	 */
+	@Override
+	public Iterator<SearchNode> iterator() {
+		return new Iterator<SearchNode>() {
+
+			private int cursor = 0;
+
+			@Override
+			public boolean hasNext() {
+				return cursor < size;
+			}
+
+			@Override
+			public SearchNode next() {
+				if (cursor >= size) throw new NoSuchElementException();
+				return heap[cursor++];
+			}
+		};
+	}
+
+}
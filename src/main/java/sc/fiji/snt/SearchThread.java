@@ -25,13 +25,14 @@ package sc.fiji.snt;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.util.ArrayList;
-import java.util.PriorityQueue;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.measure.Calibration;
 import sc.fiji.snt.hyperpanes.MultiDThreePanes;
+import sc.fiji.snt.util.NeighborStencil;
 
 /**
  * Implements a common thread that explores the image using a variety of
@@ -98,60 +99,77 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 	private int timeoutSeconds;
 	private long reportEveryMilliseconds;
 	private long lastReportMilliseconds;
+	/* How often (in iterations) to check for timeouts and report progress */
+	protected int loopsBetweenChecks = 1000;
 	protected ArrayList<SearchProgressCallback> progressListeners;
 	protected double minimum_cost_per_unit_distance;
-	protected PriorityQueue<SearchNode> closed_from_start;
-	protected PriorityQueue<SearchNode> open_from_start;
 
-	// The next two are null if the search is not bidirectional
-	private PriorityQueue<SearchNode> closed_from_goal;
-	private PriorityQueue<SearchNode> open_from_goal;
+	/*
+	 * Open nodes are kept in indexed heaps (for O(log n) decrease-key). Closed
+	 * nodes are only tracked through their searchStatus in nodes_as_image_*, so
+	 * for those we just keep a tally.
+	 */
+	protected SearchNodeHeap open_from_start;
+	protected int closed_from_start_count;
+
+	// The next two are null/unused if the search is not bidirectional
+	private SearchNodeHeap open_from_goal;
+	private int closed_from_goal_count;
 
 	protected SearchNode[][] nodes_as_image_from_start;
 	protected SearchNode[][] nodes_as_image_from_goal;
 
+	/*
+	 * On large images, nodes are kept in primitive arrays instead of SearchNode
+	 * objects. In that case the node images and open heaps above are unused.
+	 */
+	static final long SPARSE_STORAGE_VOXEL_THRESHOLD = 1L << 26;
+	protected boolean sparseNodeStorage;
+	private SparseNodeStore sparse_from_start;
+	private SparseNodeStore sparse_from_goal;
+
 	protected int exitReason;
 	private boolean verbose = SNTUtils.isDebugMode();
 	private CountDownLatch latch;
 	protected int minExpectedSize;
 
+	/* The cost function of the search */
+	protected SearchCost cost;
+
+	/* The 26-neighbourhood of a voxel, built once from the image calibration */
+	protected NeighborStencil stencil;
+
 	/*
 	 * This calculates the cost of moving to a new point in the image. This does not
 	 * take into account the distance to this new point, only the value at it. This
 	 * will be post-multiplied by the distance from the last point. So, if you want
 	 * to take into account the curvature of the image at that point then you should
-	 * do so in this method.
+	 * do so in the SearchCost of this search (see setSearchCost()).
 	 */
-
-	// The default implementation does a simple reciprocal of the
-	// image value scaled to 0 to 255 if it is not already an 8
-	// bit value:
-
 	protected double costMovingTo(final int new_x, final int new_y,
 		final int new_z)
 	{
+		return cost.costMovingTo(new_x, new_y, new_z);
+	}
 
-		double value_at_new_point = -1;
-		switch (imageType) {
-			case ImagePlus.GRAY8:
-			case ImagePlus.COLOR_256:
-				value_at_new_point = slices_data_b[new_z][new_y * width + new_x] & 0xFF;
-				break;
-			case ImagePlus.GRAY16:
-				value_at_new_point = slices_data_s[new_z][new_y * width + new_x];
-				value_at_new_point = 255.0 * (value_at_new_point - stackMin) /
-					(stackMax - stackMin);
-				break;
-			case ImagePlus.GRAY32:
-				value_at_new_point = slices_data_f[new_z][new_y * width + new_x];
-				value_at_new_point = 255.0 * (value_at_new_point - stackMin) /
-					(stackMax - stackMin);
-				break;
-		}
-
-		if (value_at_new_point == 0) return 2.0;
-		else return 1.0 / value_at_new_point;
+	/**
+	 * Sets the cost function of this search. By default, the cost of moving to a
+	 * voxel is the reciprocal of its intensity (rescaled to 0-255 if image is not
+	 * 8-bit). Must be called before the thread is started.
+	 *
+	 * @param cost the new cost function
+	 */
+	public void setSearchCost(final SearchCost cost) {
+		if (cost == null) throw new IllegalArgumentException("Cost cannot be null");
+		this.cost = cost;
+		minimum_cost_per_unit_distance = minimumCostPerUnitDistance();
+	}
 
+	/**
+	 * @return the cost function of this search
+	 */
+	public SearchCost getSearchCost() {
+		return cost;
 	}
 
 	/*
@@ -160,15 +178,22 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 	 */
 	protected void reportPointsInSearch() {
 		for (final SearchProgressCallback progress : progressListeners)
-			progress.pointsInSearch(this, open_from_start.size() + (bidirectional
-				? open_from_goal.size() : 0), closed_from_start.size() + (bidirectional
-					? closed_from_goal.size() : 0));
+			progress.pointsInSearch(this, pointsInOpen(), pointsInClosed());
 	}
 
 	public int pointsConsideredInSearch() {
-		return open_from_start.size() + (bidirectional ? open_from_goal.size()
-			: 0) + closed_from_start.size() + (bidirectional ? closed_from_goal.size()
-				: 0);
+		return pointsInOpen() + pointsInClosed();
+	}
+
+	/* The number of open nodes in the search (in both directions) */
+	protected int pointsInOpen() {
+		return openSize(true) + (bidirectional ? openSize(false) : 0);
+	}
+
+	/* The number of closed nodes in the search (in both directions) */
+	protected int pointsInClosed() {
+		return closed_from_start_count + (bidirectional ? closed_from_goal_count
+			: 0);
 	}
 
 	/*
@@ -405,24 +430,159 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 		}
 
 	private void init() {
-		closed_from_start = new PriorityQueue<>();
-		open_from_start = new PriorityQueue<>();
-		if (bidirectional) {
-			closed_from_goal = new PriorityQueue<>();
-			open_from_goal = new PriorityQueue<>();
-		}
-		nodes_as_image_from_start = new SearchNode[depth][];
-		if (bidirectional) nodes_as_image_from_goal = new SearchNode[depth][];
+		stencil = new NeighborStencil(26, width, height, depth, x_spacing,
+			y_spacing, z_spacing);
+		cost = IntensityCost.of(this, true);
+		sparseNodeStorage = (long) width * height *
+			depth > SPARSE_STORAGE_VOXEL_THRESHOLD;
+		initNodeStorage();
 		minimum_cost_per_unit_distance = minimumCostPerUnitDistance();
 		progressListeners = new ArrayList<>();
 	}
 
+	private void initNodeStorage() {
+		closed_from_start_count = 0;
+		closed_from_goal_count = 0;
+		if (sparseNodeStorage) {
+			open_from_start = open_from_goal = null;
+			nodes_as_image_from_start = nodes_as_image_from_goal = null;
+			sparse_from_start = new SparseNodeStore(width, height, depth);
+			if (bidirectional) sparse_from_goal = new SparseNodeStore(width, height,
+				depth);
+		}
+		else {
+			sparse_from_start = sparse_from_goal = null;
+			open_from_start = new SearchNodeHeap();
+			if (bidirectional) open_from_goal = new SearchNodeHeap();
+			nodes_as_image_from_start = new SearchNode[depth][];
+			if (bidirectional) nodes_as_image_from_goal = new SearchNode[depth][];
+		}
+	}
+
+	/**
+	 * Sets how explored nodes are stored. By default, one {@link SearchNode} is
+	 * created per explored voxel, unless the image is very large. With sparse
+	 * storage, node data is kept in lazily allocated primitive arrays instead,
+	 * which requires a fraction of the memory, and allows searches on very large
+	 * volumes without long garbage collection pauses. Results are identical
+	 * either way. Any nodes already added to the search are preserved. Must be
+	 * called before the thread is started.
+	 *
+	 * @param sparse if true, nodes are kept in primitive arrays
+	 */
+	public void setSparseNodeStorage(final boolean sparse) {
+		if (sparse == sparseNodeStorage) return;
+		final List<SearchNode> startNodes = collectNodes(true);
+		final List<SearchNode> goalNodes = (bidirectional) ? collectNodes(false)
+			: null;
+		sparseNodeStorage = sparse;
+		initNodeStorage();
+		for (final SearchNode n : startNodes)
+			addNode(n, true);
+		if (goalNodes != null) for (final SearchNode n : goalNodes)
+			addNode(n, false);
+	}
+
+	/**
+	 * @return whether explored nodes are stored in primitive arrays rather than
+	 *         as SearchNode objects
+	 * @see #setSparseNodeStorage(boolean)
+	 */
+	public boolean isSparseNodeStorage() {
+		return sparseNodeStorage;
+	}
+
+	private List<SearchNode> collectNodes(final boolean fromStart) {
+		final List<SearchNode> nodes = new ArrayList<>();
+		if (sparseNodeStorage) {
+			final SparseNodeStore store = (fromStart) ? sparse_from_start
+				: sparse_from_goal;
+			store.forEach((x, y, z, g, status, predX, predY, predZ) -> nodes.add(
+				store.materialize(x, y, z)));
+		}
+		else {
+			final SearchNode[][] nodes_as_image = (fromStart)
+				? nodes_as_image_from_start : nodes_as_image_from_goal;
+			for (final SearchNode[] slice : nodes_as_image) {
+				if (slice == null) continue;
+				for (final SearchNode n : slice)
+					if (n != null) nodes.add(n);
+			}
+		}
+		return nodes;
+	}
+
+	/*
+	 * Callback used to visit the nodes of a search independently of how they are
+	 * stored. predX, predY and predZ are -1 for nodes without a predecessor.
+	 */
+	interface NodeVisitor {
+
+		void visit(int x, int y, int z, float g, byte status, int predX,
+			int predY, int predZ);
+	}
+
+	/*
+	 * Visits all the nodes (open and closed) of the search from the start (or from
+	 * the goal).
+	 */
+	void visitNodes(final boolean fromStart, final NodeVisitor visitor) {
+		if (sparseNodeStorage) {
+			((fromStart) ? sparse_from_start : sparse_from_goal).forEach(visitor);
+			return;
+		}
+		final SearchNode[][] nodes_as_image = (fromStart)
+			? nodes_as_image_from_start : nodes_as_image_from_goal;
+		for (final SearchNode[] slice : nodes_as_image) {
+			if (slice == null) continue;
+			for (final SearchNode n : slice) {
+				if (n == null) continue;
+				final SearchNode pred = n.getPredecessor();
+				if (pred == null) visitor.visit(n.x, n.y, n.z, n.g, n.searchStatus, -1,
+					-1, -1);
+				else visitor.visit(n.x, n.y, n.z, n.g, n.searchStatus, pred.x, pred.y,
+					pred.z);
+			}
+		}
+	}
+
+	/*
+	 * Returns the g value (cost of the path so far) of the node at the specified
+	 * voxel, or -1 if the voxel has not been reached by the search.
+	 */
+	protected float getNodeG(final int x, final int y, final int z,
+		final boolean fromStart)
+	{
+		if (sparseNodeStorage) {
+			final SparseNodeStore store = (fromStart) ? sparse_from_start
+				: sparse_from_goal;
+			if (store.getStatus(x, y, z) == SparseNodeStore.UNVISITED) return -1f;
+			return store.getG(x, y, z);
+		}
+		final SearchNode[] slice = ((fromStart) ? nodes_as_image_from_start
+			: nodes_as_image_from_goal)[z];
+		if (slice == null) return -1f;
+		final SearchNode n = slice[y * width + x];
+		return (n == null) ? -1f : n.g;
+	}
+
+	/*
+	 * Returns the g value of the highest priority open node, or -1 if there are
+	 * no open nodes.
+	 */
+	protected float getMinimumOpenG(final boolean fromStart) {
+		if (openSize(fromStart) == 0) return -1f;
+		if (sparseNodeStorage) return ((fromStart) ? sparse_from_start
+			: sparse_from_goal).open.peekG();
+		return ((fromStart) ? open_from_start : open_from_goal).peek().g;
+	}
+
 	public void printStatus() {
-		SNTUtils.log("... Start nodes: open=" + open_from_start.size() +
-			" closed=" + closed_from_start.size());
+		SNTUtils.log("... Start nodes: open=" + openSize(true) +
+			" closed=" + closed_from_start_count);
 		if (bidirectional) {
-			SNTUtils.log("...  Goal nodes: open=" + open_from_goal.size() +
-				" closed=" + closed_from_goal.size());
+			SNTUtils.log("...  Goal nodes: open=" + openSize(false) +
+				" closed=" + closed_from_goal_count);
 		}
 		else SNTUtils.log(" ... unidirectional search");
 	}
@@ -459,9 +619,7 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 			 * arrays that are indexed in the same way as voxels in the image.
 			 */
 
-			while ((open_from_start.size() > 0) || (bidirectional && (open_from_goal
-				.size() > 0)))
-			{
+			while (hasOpenNodes()) {
 
 				if (threadStatus == STOPPING) {
 					reportThreadStatus();
@@ -480,7 +638,7 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 				// We only check every thousandth loop for
 				// whether we should report the progress, etc.
 
-				if (0 == (loops % 1000)) {
+				if (0 == (loops % loopsBetweenChecks)) {
 
 					final long currentMilliseconds = System.currentTimeMillis();
 
@@ -514,179 +672,7 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 					}
 				}
 
-				boolean fromStart = true;
-				if (bidirectional) fromStart = open_from_goal.size() > open_from_start
-					.size();
-
-				final PriorityQueue<SearchNode> open_queue = fromStart ? open_from_start
-					: open_from_goal;
-				final PriorityQueue<SearchNode> closed_queue = fromStart
-					? closed_from_start : closed_from_goal;
-
-				final SearchNode[][] nodes_as_image_this_search = fromStart
-					? nodes_as_image_from_start : nodes_as_image_from_goal;
-				final SearchNode[][] nodes_as_image_other_search = fromStart
-					? nodes_as_image_from_goal : nodes_as_image_from_start;
-
-				SearchNode p = null;
-
-				if (open_queue.size() == 0) continue;
-
-				// p = get_highest_priority( open_from_start,
-				// open_from_start_hash );
-				p = open_queue.poll();
-				if (p == null) continue;
-
-				// Has the route from the start found the goal?
-				if (definedGoal && atGoal(p.x, p.y, p.z, fromStart)) {
-					SNTUtils.log("Found the goal!");
-					if (fromStart) foundGoal(p.asPath(x_spacing, y_spacing, z_spacing,
-						spacing_units));
-					else foundGoal(p.asPathReversed(x_spacing, y_spacing, z_spacing,
-						spacing_units));
-					setExitReason(SUCCESS);
-					reportFinished(true);
-					return;
-				}
-
-				p.searchStatus = fromStart ? CLOSED_FROM_START : CLOSED_FROM_GOAL;
-				closed_queue.add(p);
-				nodes_as_image_this_search[p.z][p.y * width + p.x] = p;
-
-				// Now look at the neighbours of p. We're going to consider
-				// the 26 neighbours in 3D.
-
-				for (int zdiff = -1; zdiff <= 1; zdiff++) {
-
-					final int new_z = p.z + zdiff;
-					if (new_z < 0 || new_z >= depth) continue;
-
-					if (nodes_as_image_this_search[new_z] == null) {
-						nodes_as_image_this_search[new_z] = new SearchNode[width * height];
-					}
-
-					for (int xdiff = -1; xdiff <= 1; xdiff++)
-						for (int ydiff = -1; ydiff <= 1; ydiff++) {
-
-							if ((xdiff == 0) && (ydiff == 0) && (zdiff == 0)) continue;
-
-							final int new_x = p.x + xdiff;
-							final int new_y = p.y + ydiff;
-
-							if (new_x < 0 || new_x >= width) continue;
-
-							if (new_y < 0 || new_y >= height) continue;
-
-							final double xdiffsq = (xdiff * x_spacing) * (xdiff * x_spacing);
-							final double ydiffsq = (ydiff * y_spacing) * (ydiff * y_spacing);
-							final double zdiffsq = (zdiff * z_spacing) * (zdiff * z_spacing);
-
-							final float h_for_new_point = estimateCostToGoal(new_x, new_y,
-								new_z, fromStart);
-
-							double cost_moving_to_new_point = costMovingTo(new_x, new_y,
-								new_z);
-							if (cost_moving_to_new_point < minimum_cost_per_unit_distance) {
-								cost_moving_to_new_point = minimum_cost_per_unit_distance;
-							}
-
-							final float g_for_new_point = (float) (p.g + Math.sqrt(xdiffsq +
-								ydiffsq + zdiffsq) * cost_moving_to_new_point);
-
-							final float f_for_new_point = h_for_new_point + g_for_new_point;
-
-							final SearchNode newNode = createNewNode(new_x, new_y, new_z,
-								g_for_new_point, h_for_new_point, p, FREE);
-
-							// Is this newNode really new?
-							final SearchNode alreadyThereInThisSearch =
-								nodes_as_image_this_search[new_z][new_y * width + new_x];
-
-							if (alreadyThereInThisSearch == null) {
-
-								newNode.searchStatus = fromStart ? OPEN_FROM_START
-									: OPEN_FROM_GOAL;
-								open_queue.add(newNode);
-								addingNode(newNode);
-								nodes_as_image_this_search[new_z][new_y * width + new_x] =
-									newNode;
-
-							}
-							else {
-
-								// The other alternative is that this node is
-								// already in one
-								// of the lists working from the start but has a
-								// better way
-								// of getting to that point.
-
-								if (alreadyThereInThisSearch.f > f_for_new_point) {
-
-									if (alreadyThereInThisSearch.searchStatus == (fromStart
-										? OPEN_FROM_START : OPEN_FROM_GOAL))
-									{
-
-										open_queue.remove(alreadyThereInThisSearch);
-										alreadyThereInThisSearch.setFrom(newNode);
-										alreadyThereInThisSearch.searchStatus = fromStart
-											? OPEN_FROM_START : OPEN_FROM_GOAL;
-										open_queue.add(alreadyThereInThisSearch);
-
-									}
-									else if (alreadyThereInThisSearch.searchStatus == (fromStart
-										? CLOSED_FROM_START : CLOSED_FROM_GOAL))
-									{
-
-										closed_queue.remove(alreadyThereInThisSearch);
-										alreadyThereInThisSearch.setFrom(newNode);
-										alreadyThereInThisSearch.searchStatus = fromStart
-											? OPEN_FROM_START : OPEN_FROM_GOAL;
-										open_queue.add(alreadyThereInThisSearch);
-									}
-								}
-							}
-
-							if (bidirectional && nodes_as_image_other_search[new_z] != null) {
-
-								final SearchNode alreadyThereInOtherSearch =
-									nodes_as_image_other_search[new_z][new_y * width + new_x];
-								if (alreadyThereInOtherSearch != null) {
-
-									Path result = null;
-
-									// If either of the next two if conditions
-									// are true
-									// then we've finished.
-
-									if (alreadyThereInOtherSearch != null &&
-										(alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_START ||
-											alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_GOAL))
-									{
-
-										if (fromStart) {
-											result = p.asPath(x_spacing, y_spacing, z_spacing,
-												spacing_units);
-											final Path fromGoalReversed = alreadyThereInOtherSearch
-												.asPathReversed(x_spacing, y_spacing, z_spacing,
-													spacing_units);
-											result.add(fromGoalReversed);
-										}
-										else {
-											result = alreadyThereInOtherSearch.asPath(x_spacing,
-												y_spacing, z_spacing, spacing_units);
-											result.add(p.asPathReversed(x_spacing, y_spacing,
-												z_spacing, spacing_units));
-										}
-										SNTUtils.log("Searches met!");
-										foundGoal(result);
-										setExitReason(SUCCESS);
-										reportFinished(true);
-										return;
-									}
-								}
-							}
-						}
-				}
+				if (expandNext()) return;
 				++loops;
 			}
 
@@ -715,6 +701,292 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 		}
 	}
 
+	/*
+	 * Whether the search still has nodes to be expanded.
+	 */
+	protected boolean hasOpenNodes() {
+		return (openSize(true) > 0) || (bidirectional && (openSize(false) > 0));
+	}
+
+	/*
+	 * Performs one iteration of the search, i.e., expands the highest priority
+	 * open node. Returns true if the search has finished successfully, in which
+	 * case foundGoal() and reportFinished() have already been called.
+	 */
+	protected boolean expandNext() {
+		boolean fromStart = true;
+		if (bidirectional) fromStart = openSize(false) > openSize(true);
+		return (sparseNodeStorage) ? expandSparseNode(fromStart)
+			: expandObjectNode(fromStart);
+	}
+
+	/*
+	 * Expands the highest priority open node when nodes are stored as SearchNode
+	 * objects. Returns true if the search has finished successfully.
+	 */
+	private boolean expandObjectNode(final boolean fromStart) {
+
+		final SearchNodeHeap open_queue = fromStart ? open_from_start
+			: open_from_goal;
+		final byte openStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
+		final byte closedStatus = fromStart ? CLOSED_FROM_START
+			: CLOSED_FROM_GOAL;
+
+		final SearchNode[][] nodes_as_image_this_search = fromStart
+			? nodes_as_image_from_start : nodes_as_image_from_goal;
+		final SearchNode[][] nodes_as_image_other_search = fromStart
+			? nodes_as_image_from_goal : nodes_as_image_from_start;
+
+		if (open_queue.size() == 0) return false;
+
+		final SearchNode p = open_queue.poll();
+		if (p == null) return false;
+
+		// Has the route from the start found the goal?
+		if (definedGoal && atGoal(p.x, p.y, p.z, fromStart)) {
+			SNTUtils.log("Found the goal!");
+			if (fromStart) foundGoal(p.asPath(x_spacing, y_spacing, z_spacing,
+				spacing_units));
+			else foundGoal(p.asPathReversed(x_spacing, y_spacing, z_spacing,
+				spacing_units));
+			setExitReason(SUCCESS);
+			reportFinished(true);
+			return true;
+		}
+
+		p.searchStatus = closedStatus;
+		incrementClosedCount(fromStart, 1);
+		nodes_as_image_this_search[p.z][p.y * width + p.x] = p;
+
+		// Now look at the neighbours of p. We're going to consider
+		// the 26 neighbours in 3D. Only nodes on the image boundary
+		// need to have their neighbours checked for bounds.
+
+		for (int z = Math.max(0, p.z - 1); z <= Math.min(depth - 1, p.z + 1); z++) {
+			if (nodes_as_image_this_search[z] == null) {
+				nodes_as_image_this_search[z] = new SearchNode[width * height];
+			}
+		}
+
+		final boolean interior = stencil.isInterior(p.x, p.y, p.z);
+		final int pIndex = p.y * width + p.x;
+
+		for (int i = 0; i < stencil.size; i++) {
+
+			if (!interior && !stencil.inBounds(i, p.x, p.y, p.z)) continue;
+
+			final int new_x = p.x + stencil.dx[i];
+			final int new_y = p.y + stencil.dy[i];
+			final int new_z = p.z + stencil.dz[i];
+			final int new_index = pIndex + stencil.offsets[i];
+
+			final float h_for_new_point = estimateCostToGoal(new_x, new_y, new_z,
+				fromStart);
+
+			double cost_moving_to_new_point = costMovingTo(new_x, new_y, new_z);
+			if (cost_moving_to_new_point < minimum_cost_per_unit_distance) {
+				cost_moving_to_new_point = minimum_cost_per_unit_distance;
+			}
+
+			final float g_for_new_point = (float) (p.g + stencil.stepLengths[i] *
+				cost_moving_to_new_point);
+
+			final float f_for_new_point = h_for_new_point + g_for_new_point;
+
+			// Is this node really new?
+			final SearchNode alreadyThereInThisSearch =
+				nodes_as_image_this_search[new_z][new_index];
+
+			if (alreadyThereInThisSearch == null) {
+
+				final SearchNode newNode = createNewNode(new_x, new_y, new_z,
+					g_for_new_point, h_for_new_point, p, openStatus);
+				open_queue.add(newNode);
+				addingNode(newNode);
+				nodes_as_image_this_search[new_z][new_index] = newNode;
+
+			}
+			else if (alreadyThereInThisSearch.f > f_for_new_point) {
+
+				// The other alternative is that this node is already
+				// known to this search, but we've now found a better
+				// way of getting to that point. Update it in place:
+				// if it is open this is a decrease-key, if it was
+				// closed, it needs to be re-opened.
+
+				final byte status = alreadyThereInThisSearch.searchStatus;
+				alreadyThereInThisSearch.g = g_for_new_point;
+				alreadyThereInThisSearch.h = h_for_new_point;
+				alreadyThereInThisSearch.f = f_for_new_point;
+				alreadyThereInThisSearch.setPredecessor(p);
+				if (status == openStatus) {
+					open_queue.decreaseKey(alreadyThereInThisSearch);
+				}
+				else if (status == closedStatus) {
+					alreadyThereInThisSearch.searchStatus = openStatus;
+					incrementClosedCount(fromStart, -1);
+					open_queue.add(alreadyThereInThisSearch);
+				}
+			}
+
+			if (bidirectional && nodes_as_image_other_search[new_z] != null) {
+
+				final SearchNode alreadyThereInOtherSearch =
+					nodes_as_image_other_search[new_z][new_index];
+
+				// If the other search has already closed this point, we're done
+				if (alreadyThereInOtherSearch != null &&
+					(alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_START ||
+						alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_GOAL))
+				{
+					final Path result;
+					if (fromStart) {
+						result = p.asPath(x_spacing, y_spacing, z_spacing, spacing_units);
+						final Path fromGoalReversed = alreadyThereInOtherSearch
+							.asPathReversed(x_spacing, y_spacing, z_spacing, spacing_units);
+						result.add(fromGoalReversed);
+					}
+					else {
+						result = alreadyThereInOtherSearch.asPath(x_spacing, y_spacing,
+							z_spacing, spacing_units);
+						result.add(p.asPathReversed(x_spacing, y_spacing, z_spacing,
+							spacing_units));
+					}
+					SNTUtils.log("Searches met!");
+					foundGoal(result);
+					setExitReason(SUCCESS);
+					reportFinished(true);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Expands the highest priority open node when nodes are kept in a
+	 * SparseNodeStore. This mirrors expandObjectNode() exactly (including the
+	 * ordering of ties) but never allocates SearchNodes, except when assembling
+	 * the final path. Returns true if the search has finished successfully.
+	 */
+	private boolean expandSparseNode(final boolean fromStart) {
+
+		final SparseNodeStore store = fromStart ? sparse_from_start
+			: sparse_from_goal;
+		final SparseNodeStore otherStore = fromStart ? sparse_from_goal
+			: sparse_from_start;
+		final byte openStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
+		final byte closedStatus = fromStart ? CLOSED_FROM_START
+			: CLOSED_FROM_GOAL;
+
+		if (store.open.size() == 0) return false;
+
+		final long key = store.open.poll();
+		final int px = SparseNodeStore.keyX(key);
+		final int py = SparseNodeStore.keyY(key);
+		final int pz = SparseNodeStore.keyZ(key);
+
+		// Has the route from the start found the goal?
+		if (definedGoal && atGoal(px, py, pz, fromStart)) {
+			SNTUtils.log("Found the goal!");
+			final SearchNode p = store.materialize(px, py, pz);
+			if (fromStart) foundGoal(p.asPath(x_spacing, y_spacing, z_spacing,
+				spacing_units));
+			else foundGoal(p.asPathReversed(x_spacing, y_spacing, z_spacing,
+				spacing_units));
+			setExitReason(SUCCESS);
+			reportFinished(true);
+			return true;
+		}
+
+		store.setStatus(px, py, pz, closedStatus);
+		incrementClosedCount(fromStart, 1);
+		final float pg = store.getG(px, py, pz);
+
+		final boolean interior = stencil.isInterior(px, py, pz);
+
+		for (int i = 0; i < stencil.size; i++) {
+
+			if (!interior && !stencil.inBounds(i, px, py, pz)) continue;
+
+			final int new_x = px + stencil.dx[i];
+			final int new_y = py + stencil.dy[i];
+			final int new_z = pz + stencil.dz[i];
+
+			final float h_for_new_point = estimateCostToGoal(new_x, new_y, new_z,
+				fromStart);
+
+			double cost_moving_to_new_point = costMovingTo(new_x, new_y, new_z);
+			if (cost_moving_to_new_point < minimum_cost_per_unit_distance) {
+				cost_moving_to_new_point = minimum_cost_per_unit_distance;
+			}
+
+			final float g_for_new_point = (float) (pg + stencil.stepLengths[i] *
+				cost_moving_to_new_point);
+
+			final float f_for_new_point = h_for_new_point + g_for_new_point;
+
+			// The predecessor is p, i.e., the opposite direction of the step
+			final byte predecessor = SparseNodeStore.direction(-stencil.dx[i],
+				-stencil.dy[i], -stencil.dz[i]);
+			final byte status = store.getStatus(new_x, new_y, new_z);
+
+			if (status == SparseNodeStore.UNVISITED) {
+				store.set(new_x, new_y, new_z, g_for_new_point, h_for_new_point,
+					predecessor, openStatus);
+				store.open.add(new_x, new_y, new_z);
+			}
+			else if (store.getF(new_x, new_y, new_z) > f_for_new_point) {
+				if (status == openStatus) {
+					store.set(new_x, new_y, new_z, g_for_new_point, h_for_new_point,
+						predecessor, openStatus);
+					store.open.decreaseKey(new_x, new_y, new_z);
+				}
+				else if (status == closedStatus) {
+					store.set(new_x, new_y, new_z, g_for_new_point, h_for_new_point,
+						predecessor, openStatus);
+					incrementClosedCount(fromStart, -1);
+					store.open.add(new_x, new_y, new_z);
+				}
+			}
+
+			if (bidirectional) {
+
+				final byte otherStatus = otherStore.getStatus(new_x, new_y, new_z);
+
+				// If the other search has already closed this point, we're done
+				if (otherStatus == CLOSED_FROM_START || otherStatus == CLOSED_FROM_GOAL) {
+					final SearchNode p = store.materialize(px, py, pz);
+					final SearchNode other = otherStore.materialize(new_x, new_y, new_z);
+					final Path result;
+					if (fromStart) {
+						result = p.asPath(x_spacing, y_spacing, z_spacing, spacing_units);
+						result.add(other.asPathReversed(x_spacing, y_spacing, z_spacing,
+							spacing_units));
+					}
+					else {
+						result = other.asPath(x_spacing, y_spacing, z_spacing,
+							spacing_units);
+						result.add(p.asPathReversed(x_spacing, y_spacing, z_spacing,
+							spacing_units));
+					}
+					SNTUtils.log("Searches met!");
+					foundGoal(result);
+					setExitReason(SUCCESS);
+					reportFinished(true);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private int openSize(final boolean fromStart) {
+		if (sparseNodeStorage) return (fromStart) ? sparse_from_start.open.size()
+			: sparse_from_goal.open.size();
+		return (fromStart) ? open_from_start.size() : open_from_goal.size();
+	}
+
 	/*
 	 * This is the heuristic value for the A* search. There's no defined goal in
 	 * this default superclass implementation, so always return 0 so we end up with
@@ -727,6 +999,11 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 		return 0;
 	}
 
+	private void incrementClosedCount(final boolean fromStart, final int delta) {
+		if (fromStart) closed_from_start_count += delta;
+		else closed_from_goal_count += delta;
+	}
+
 	/* This method is used to set the reason for the thread finishing */
 	void setExitReason(final int exitReason) {
 		this.exitReason = exitReason;
@@ -754,12 +1031,36 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 			if (n != null && threshold >= 0 && n.g > threshold) n = null;
 			if (n == null && goalSlice != null) {
 				n = goalSlice[index];
-				if (threshold >= 0 && n.g > threshold) n = null;
+				if (n != null && threshold >= 0 && n.g > threshold) n = null;
 			}
 		}
 		return n;
 	}
 
+	/*
+	 * Returns the search status of the node at the specified voxel with a g value
+	 * under threshold, or SparseNodeStore.UNVISITED if there is no such node.
+	 */
+	byte statusUnderThreshold(final int x, final int y, final int z,
+		final double threshold)
+	{
+		if (!sparseNodeStorage) {
+			final SearchNode n = anyNodeUnderThreshold(x, y, z, threshold);
+			return (n == null) ? SparseNodeStore.UNVISITED : n.searchStatus;
+		}
+		byte status = sparse_from_start.getStatus(x, y, z);
+		if (status != SparseNodeStore.UNVISITED && threshold >= 0 &&
+			sparse_from_start.getG(x, y, z) > threshold)
+			status = SparseNodeStore.UNVISITED;
+		if (status == SparseNodeStore.UNVISITED && sparse_from_goal != null) {
+			status = sparse_from_goal.getStatus(x, y, z);
+			if (status != SparseNodeStore.UNVISITED && threshold >= 0 &&
+				sparse_from_goal.getG(x, y, z) > threshold)
+				status = SparseNodeStore.UNVISITED;
+		}
+		return status;
+	}
+
 	/*
 	 * This draws over the Graphics object the current progress of the search at
 	 * this slice. If openColor or closedColor are null then that means
@@ -791,10 +1092,9 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 			if (plane == MultiDThreePanes.XY_PLANE) {
 				for (int y = 0; y < height; ++y)
 					for (int x = 0; x < width; ++x) {
-						final SearchNode n = anyNodeUnderThreshold(x, y, currentSliceInPlane,
+						final byte status = statusUnderThreshold(x, y, currentSliceInPlane,
 							drawingThreshold);
-						if (n == null) continue;
-						final byte status = n.searchStatus;
+						if (status == SparseNodeStore.UNVISITED) continue;
 						if (status == start_status || status == goal_status) g.fillRect(
 							canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(y) -
 								pixel_size / 2, pixel_size, pixel_size);
@@ -803,10 +1103,9 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 			else if (plane == MultiDThreePanes.XZ_PLANE) {
 				for (int z = 0; z < depth; ++z)
 					for (int x = 0; x < width; ++x) {
-						final SearchNode n = anyNodeUnderThreshold(x, currentSliceInPlane, z,
+						final byte status = statusUnderThreshold(x, currentSliceInPlane, z,
 							drawingThreshold);
-						if (n == null) continue;
-						final byte status = n.searchStatus;
+						if (status == SparseNodeStore.UNVISITED) continue;
 						if (status == start_status || status == goal_status) g.fillRect(
 							canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(z) -
 								pixel_size / 2, pixel_size, pixel_size);
@@ -815,10 +1114,9 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 			else if (plane == MultiDThreePanes.ZY_PLANE) {
 				for (int y = 0; y < height; ++y)
 					for (int z = 0; z < depth; ++z) {
-						final SearchNode n = anyNodeUnderThreshold(currentSliceInPlane, y, z,
+						final byte status = statusUnderThreshold(currentSliceInPlane, y, z,
 							drawingThreshold);
-						if (n == null) continue;
-						final byte status = n.searchStatus;
+						if (status == SparseNodeStore.UNVISITED) continue;
 						if (status == start_status || status == goal_status) g.fillRect(
 							canvas.myScreenX(z) - pixel_size / 2, canvas.myScreenY(y) -
 								pixel_size / 2, pixel_size, pixel_size);
@@ -831,6 +1129,11 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 
 	public void addNode(final SearchNode n, final boolean fromStart) {
 
+		if (sparseNodeStorage) {
+			addSparseNode(n, fromStart);
+			return;
+		}
+
 		final SearchNode[][] nodes_as_image = fromStart ? nodes_as_image_from_start
 			: nodes_as_image_from_goal;
 
@@ -858,20 +1161,108 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 		}
 		else if (n.searchStatus == CLOSED_FROM_START) {
 
-			closed_from_start.add(n);
+			closed_from_start_count++;
 			nodes_as_image[n.z][n.y * width + n.x] = n;
 
 		}
 		else if (n.searchStatus == CLOSED_FROM_GOAL) {
 			assert bidirectional && definedGoal;
 
-			closed_from_goal.add(n);
+			closed_from_goal_count++;
 			nodes_as_image[n.z][n.y * width + n.x] = n;
 
 		}
 
 	}
 
+	/*
+	 * Adds a seed node (i.e., with g = 0 and without predecessor) to the search.
+	 * Unlike addNode(), voxels already known to the search are updated (and
+	 * re-opened if needed), so that a search can be extended with new seeds
+	 * without being restarted.
+	 */
+	void addSeed(final int x, final int y, final int z, final boolean fromStart) {
+		final byte openStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
+		final byte closedStatus = fromStart ? CLOSED_FROM_START
+			: CLOSED_FROM_GOAL;
+		final float h = estimateCostToGoal(x, y, z, fromStart);
+		if (sparseNodeStorage) {
+			final SparseNodeStore store = fromStart ? sparse_from_start
+				: sparse_from_goal;
+			final byte status = store.getStatus(x, y, z);
+			if (status == SparseNodeStore.UNVISITED) {
+				store.set(x, y, z, 0f, h, SparseNodeStore.NO_PREDECESSOR, openStatus);
+				store.open.add(x, y, z);
+			}
+			else if (store.getG(x, y, z) > 0f) {
+				store.set(x, y, z, 0f, h, SparseNodeStore.NO_PREDECESSOR, openStatus);
+				if (status == openStatus) store.open.decreaseKey(x, y, z);
+				else if (status == closedStatus) {
+					incrementClosedCount(fromStart, -1);
+					store.open.add(x, y, z);
+				}
+			}
+			return;
+		}
+		final SearchNode[] slice = ((fromStart) ? nodes_as_image_from_start
+			: nodes_as_image_from_goal)[z];
+		final SearchNode n = (slice == null) ? null : slice[y * width + x];
+		if (n == null) {
+			addNode(createNewNode(x, y, z, 0f, h, null, openStatus), fromStart);
+		}
+		else if (n.g > 0f) {
+			final byte status = n.searchStatus;
+			n.g = 0f;
+			n.h = h;
+			n.f = h;
+			n.setPredecessor(null);
+			final SearchNodeHeap open_queue = fromStart ? open_from_start
+				: open_from_goal;
+			if (status == openStatus) open_queue.decreaseKey(n);
+			else if (status == closedStatus) {
+				n.searchStatus = openStatus;
+				incrementClosedCount(fromStart, -1);
+				open_queue.add(n);
+			}
+		}
+	}
+
+	private void addSparseNode(final SearchNode n, final boolean fromStart) {
+
+		final SparseNodeStore store = fromStart ? sparse_from_start
+			: sparse_from_goal;
+		if (store.getStatus(n.x, n.y, n.z) != SparseNodeStore.UNVISITED) {
+			// Then there's already a node there:
+			return;
+		}
+
+		// Predecessors can only be encoded if they are immediate neighbours
+		byte predecessor = SparseNodeStore.NO_PREDECESSOR;
+		final SearchNode pred = n.getPredecessor();
+		if (pred != null) {
+			final int dx = pred.x - n.x;
+			final int dy = pred.y - n.y;
+			final int dz = pred.z - n.z;
+			if (Math.abs(dx) <= 1 && Math.abs(dy) <= 1 && Math.abs(dz) <= 1 &&
+				(dx != 0 || dy != 0 || dz != 0))
+				predecessor = SparseNodeStore.direction(dx, dy, dz);
+		}
+
+		if (n.searchStatus == OPEN_FROM_START || n.searchStatus == OPEN_FROM_GOAL) {
+			assert n.searchStatus == OPEN_FROM_START || (bidirectional && definedGoal);
+			store.set(n.x, n.y, n.z, n.g, n.h, predecessor, n.searchStatus);
+			store.open.add(n.x, n.y, n.z);
+		}
+		else if (n.searchStatus == CLOSED_FROM_START ||
+			n.searchStatus == CLOSED_FROM_GOAL)
+		{
+			assert n.searchStatus == CLOSED_FROM_START || (bidirectional &&
+				definedGoal);
+			store.set(n.x, n.y, n.z, n.g, n.h, predecessor, n.searchStatus);
+			incrementClosedCount(fromStart, 1);
+		}
+	}
+
 	@Override
 	public void setCountDownLatch(final CountDownLatch latch) {
 		this.latch = latch;
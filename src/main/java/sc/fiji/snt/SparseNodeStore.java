@@ -0,0 +1,343 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.util.Arrays;
+
+/**
+ * A memory-lean alternative to keeping one {@link SearchNode} per explored
+ * voxel. Node data (g, h, search status and predecessor) is kept in primitive
+ * arrays, allocated lazily in XY tiles of each slice, so that only regions
+ * reached by the search consume memory. Predecessors are encoded as the
+ * (single byte) direction of the neighbouring voxel they were reached from.
+ * Open nodes are queued in a primitive indexed heap keyed by packed voxel
+ * coordinates. {@link SearchNode}s are only materialized when a path is
+ * assembled from the search results.
+ *
+ * @author Tiago Ferreira
+ */
+final class SparseNodeStore {
+
+	/** Status of voxels not yet reached by the search */
+	static final byte UNVISITED = 0;
+	/** Predecessor code of nodes without predecessor, e.g., seed nodes */
+	static final byte NO_PREDECESSOR = -1;
+
+	private static final int TILE_SHIFT = 6;
+	private static final int TILE_SIZE = 1 << TILE_SHIFT;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+	private static final int COORD_BITS = 21;
+	private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+	private final int width;
+	private final int height;
+	private final int depth;
+	private final int tilesX;
+	private final Tile[][] tiles;
+	private long nTiles;
+
+	/** The heap of open nodes */
+	final Heap open;
+
+	private static final class Tile {
+
+		final float[] g = new float[TILE_SIZE * TILE_SIZE];
+		final float[] h = new float[TILE_SIZE * TILE_SIZE];
+		final byte[] status = new byte[TILE_SIZE * TILE_SIZE];
+		final byte[] predecessor = new byte[TILE_SIZE * TILE_SIZE];
+		final int[] heapIndex = new int[TILE_SIZE * TILE_SIZE];
+	}
+
+	SparseNodeStore(final int width, final int height, final int depth) {
+		if (width > COORD_MASK || height > COORD_MASK || depth > COORD_MASK)
+			throw new IllegalArgumentException("Image dimensions too large");
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		tilesX = (width + TILE_MASK) >> TILE_SHIFT;
+		final int tilesY = (height + TILE_MASK) >> TILE_SHIFT;
+		tiles = new Tile[depth][tilesX * tilesY];
+		open = new Heap();
+	}
+
+	/**
+	 * Packs voxel coordinates into a single key. Keys sort in the same
+	 * (x, y, z) lexicographic order used by
+	 * {@link SearchNode#compareTo(SearchNode)} to break ties.
+	 */
+	static long key(final int x, final int y, final int z) {
+		return ((long) x << (2 * COORD_BITS)) | ((long) y << COORD_BITS) | z;
+	}
+
+	static int keyX(final long key) {
+		return (int) (key >>> (2 * COORD_BITS));
+	}
+
+	static int keyY(final long key) {
+		return (int) ((key >>> COORD_BITS) & COORD_MASK);
+	}
+
+	static int keyZ(final long key) {
+		return (int) (key & COORD_MASK);
+	}
+
+	/** Encodes the offset to a neighbouring voxel as a direction byte. */
+	static byte direction(final int dx, final int dy, final int dz) {
+		return (byte) ((dx + 1) * 9 + (dy + 1) * 3 + (dz + 1));
+	}
+
+	static int directionX(final byte dir) {
+		return dir / 9 - 1;
+	}
+
+	static int directionY(final byte dir) {
+		return (dir / 3) % 3 - 1;
+	}
+
+	static int directionZ(final byte dir) {
+		return dir % 3 - 1;
+	}
+
+	private Tile tile(final int x, final int y, final int z) {
+		return tiles[z][(y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT)];
+	}
+
+	private Tile tileForWriting(final int x, final int y, final int z) {
+		final int t = (y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT);
+		Tile tile = tiles[z][t];
+		if (tile == null) {
+			tile = new Tile();
+			tiles[z][t] = tile;
+			nTiles++;
+		}
+		return tile;
+	}
+
+	private static int offset(final int x, final int y) {
+		return ((y & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK);
+	}
+
+	byte getStatus(final int x, final int y, final int z) {
+		final Tile tile = tile(x, y, z);
+		return (tile == null) ? UNVISITED : tile.status[offset(x, y)];
+	}
+
+	float getG(final int x, final int y, final int z) {
+		return tile(x, y, z).g[offset(x, y)];
+	}
+
+	float getH(final int x, final int y, final int z) {
+		return tile(x, y, z).h[offset(x, y)];
+	}
+
+	float getF(final int x, final int y, final int z) {
+		final Tile tile = tile(x, y, z);
+		final int o = offset(x, y);
+		return tile.g[o] + tile.h[o];
+	}
+
+	byte getPredecessor(final int x, final int y, final int z) {
+		return tile(x, y, z).predecessor[offset(x, y)];
+	}
+
+	void setStatus(final int x, final int y, final int z, final byte status) {
+		tile(x, y, z).status[offset(x, y)] = status;
+	}
+
+	/**
+	 * Creates or updates the node at the specified voxel. Does not modify the
+	 * open heap.
+	 */
+	void set(final int x, final int y, final int z, final float g,
+		final float h, final byte predecessor, final byte status)
+	{
+		final Tile tile = tileForWriting(x, y, z);
+		final int o = offset(x, y);
+		tile.g[o] = g;
+		tile.h[o] = h;
+		tile.predecessor[o] = predecessor;
+		tile.status[o] = status;
+	}
+
+	/** @return the approximate number of bytes allocated by this store */
+	long getAllocatedBytes() {
+		return nTiles * TILE_SIZE * TILE_SIZE * (4 + 4 + 1 + 1 + 4) + open
+			.getAllocatedBytes();
+	}
+
+	/**
+	 * Visits all the nodes in the store, slice by slice.
+	 *
+	 * @param visitor the callback to be notified of each node
+	 */
+	void forEach(final SearchThread.NodeVisitor visitor) {
+		final int tilesY = (height + TILE_MASK) >> TILE_SHIFT;
+		for (int z = 0; z < depth; z++) {
+			for (int ty = 0; ty < tilesY; ty++) {
+				for (int tx = 0; tx < tilesX; tx++) {
+					final Tile tile = tiles[z][ty * tilesX + tx];
+					if (tile == null) continue;
+					for (int o = 0; o < TILE_SIZE * TILE_SIZE; o++) {
+						final byte status = tile.status[o];
+						if (status == UNVISITED) continue;
+						final int x = (tx << TILE_SHIFT) + (o & TILE_MASK);
+						final int y = (ty << TILE_SHIFT) + (o >> TILE_SHIFT);
+						final byte pred = tile.predecessor[o];
+						if (pred == NO_PREDECESSOR) {
+							visitor.visit(x, y, z, tile.g[o], status, -1, -1, -1);
+						}
+						else {
+							visitor.visit(x, y, z, tile.g[o], status, x + directionX(pred),
+								y + directionY(pred), z + directionZ(pred));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the chain of {@link SearchNode}s from the specified voxel back to
+	 * its seed node.
+	 *
+	 * @return the node at (x,y,z) with its chain of predecessors populated
+	 */
+	SearchNode materialize(final int x, final int y, final int z) {
+		int cx = x, cy = y, cz = z;
+		final SearchNode head = new SearchNode(cx, cy, cz, getG(cx, cy, cz), getH(
+			cx, cy, cz), null, getStatus(cx, cy, cz));
+		SearchNode current = head;
+		byte pred = getPredecessor(cx, cy, cz);
+		while (pred != NO_PREDECESSOR) {
+			cx += directionX(pred);
+			cy += directionY(pred);
+			cz += directionZ(pred);
+			final SearchNode n = new SearchNode(cx, cy, cz, getG(cx, cy, cz), getH(
+				cx, cy, cz), null, getStatus(cx, cy, cz));
+			current.setPredecessor(n);
+			current = n;
+			pred = getPredecessor(cx, cy, cz);
+		}
+		return head;
+	}
+
+	/**
+	 * A binary min-heap of packed voxel keys, ordered by f (g + h) and, for
+	 * equal f, by voxel coordinates. Heap positions are stored in the tiles of
+	 * the enclosing store, allowing O(log n) decrease-key.
+	 */
+	final class Heap {
+
+		private long[] keys = new long[1024];
+		private float[] fs = new float[1024];
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		long peek() {
+			return keys[0];
+		}
+
+		float peekG() {
+			final long k = keys[0];
+			return getG(keyX(k), keyY(k), keyZ(k));
+		}
+
+		/** Queues the node at the specified voxel (which must exist). */
+		void add(final int x, final int y, final int z) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size + (size >> 1));
+				fs = Arrays.copyOf(fs, keys.length);
+			}
+			keys[size] = key(x, y, z);
+			fs[size] = getF(x, y, z);
+			siftUp(size++);
+		}
+
+		/** @return the key of the node with the lowest f */
+		long poll() {
+			final long result = keys[0];
+			final int last = --size;
+			if (last > 0) {
+				keys[0] = keys[last];
+				fs[0] = fs[last];
+				siftDown(0);
+			}
+			return result;
+		}
+
+		/** Re-positions a queued node whose f has decreased. */
+		void decreaseKey(final int x, final int y, final int z) {
+			final int i = tile(x, y, z).heapIndex[offset(x, y)];
+			fs[i] = getF(x, y, z);
+			siftUp(i);
+		}
+
+		private boolean less(final float f1, final long k1, final float f2,
+			final long k2)
+		{
+			return f1 < f2 || (f1 == f2 && k1 < k2);
+		}
+
+		private void place(final int i, final long k, final float f) {
+			keys[i] = k;
+			fs[i] = f;
+			tile(keyX(k), keyY(k), keyZ(k)).heapIndex[offset(keyX(k), keyY(k))] = i;
+		}
+
+		private void siftUp(int i) {
+			final long k = keys[i];
+			final float f = fs[i];
+			while (i > 0) {
+				final int parent = (i - 1) >>> 1;
+				if (!less(f, k, fs[parent], keys[parent])) break;
+				place(i, keys[parent], fs[parent]);
+				i = parent;
+			}
+			place(i, k, f);
+		}
+
+		private void siftDown(int i) {
+			final long k = keys[i];
+			final float f = fs[i];
+			final int half = size >>> 1;
+			while (i < half) {
+				int child = (i << 1) + 1;
+				final int right = child + 1;
+				if (right < size && less(fs[right], keys[right], fs[child],
+					keys[child])) child = right;
+				if (!less(fs[child], keys[child], f, k)) break;
+				place(i, keys[child], fs[child]);
+				i = child;
+			}
+			place(i, k, f);
+		}
+
+		private long getAllocatedBytes() {
+			return keys.length * 12L;
+		}
+	}
+
+}
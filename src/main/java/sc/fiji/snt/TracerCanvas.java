@@ -22,12 +22,15 @@
 
 package sc.fiji.snt;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Stroke;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import ij.ImagePlus;
 import sc.fiji.snt.hyperpanes.MultiDThreePanesCanvas;
@@ -42,6 +45,8 @@ class TracerCanvas extends MultiDThreePanesCanvas {
 	protected int eitherSide;
 	private final ArrayList<SearchInterface> searchThreads = new ArrayList<>();
 	private double nodeSize = -1;
+	private final PathOverlayCache overlayCache = new PathOverlayCache(this);
+	private BasicStroke pathStroke;
 
 	public TracerCanvas(final ImagePlus imagePlus, final PaneOwner owner,
 		final int plane, final PathAndFillManager pathAndFillManager)
@@ -93,8 +98,12 @@ class TracerCanvas extends MultiDThreePanesCanvas {
 		final boolean drawDiametersXY = plugin.getDrawDiametersXY();
 
 		if (pathAndFillManager != null) {
-			final Stroke stroke = g.getStroke();
-			for (int i = 0; i < pathAndFillManager.size(); ++i) {
+			final int nPaths = pathAndFillManager.size();
+			final List<Path> paths = new ArrayList<>(nPaths);
+			final List<Color> colors = new ArrayList<>(nPaths);
+			final List<Boolean> selected = new ArrayList<>(nPaths);
+			final List<Boolean> highContrast = new ArrayList<>(nPaths);
+			for (int i = 0; i < nPaths; ++i) {
 				final Path p = pathAndFillManager.getPath(i);
 				if (p == null) continue;
 
@@ -122,20 +131,32 @@ class TracerCanvas extends MultiDThreePanesCanvas {
 				if (isSelected && !customColor) color = selectedColor;
 				else if (customColor) color = drawPath.getColor();
 
-				if (just_near_slices) {
-					drawPath.drawPathAsPoints(this, g, color, plane, (isSelected &&
-						customColor), drawDiametersXY, current_z, eitherSide);
-				}
-				else {
-					drawPath.drawPathAsPoints(this, g, color, plane, (isSelected &&
-						customColor), drawDiametersXY);
-				}
-				g.setStroke(stroke);
+				paths.add(drawPath);
+				colors.add(color);
+				selected.add(isSelected);
+				highContrast.add(isSelected && customColor);
 			}
+			final Stroke stroke = g.getStroke();
+			overlayCache.draw(g, paths, colors, selected, highContrast, drawDiametersXY,
+				Arrays.asList(nodeDiameter(), just_near_slices, (just_near_slices)
+					? eitherSide : -1, (just_near_slices) ? current_z : -1));
+			g.setStroke(stroke);
 		}
 
 	}
 
+	/**
+	 * Returns the stroke used to render path segments at current magnification.
+	 *
+	 * @return the rendering stroke of path segments
+	 */
+	protected BasicStroke getPathStroke() {
+		final float width = (float) (nodeDiameter() / 2.5);
+		if (pathStroke == null || pathStroke.getLineWidth() != width)
+			pathStroke = new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+		return pathStroke;
+	}
+
 	/* Keep another Graphics for double-buffering... */
 
 	private int backBufferWidth;
@@ -146,6 +167,8 @@ class TracerCanvas extends MultiDThreePanesCanvas {
 
 	protected void resetBackBuffer() {
 
+		overlayCache.invalidate();
+
 		if (backBufferGraphics != null) {
 			backBufferGraphics.dispose();
 			backBufferGraphics = null;
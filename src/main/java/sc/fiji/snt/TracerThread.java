@@ -39,6 +39,7 @@ public class TracerThread extends SearchThread {
 	private int goal_z;
 	private boolean reciprocal;
 	private ComputeCurvatures hessian;
+	private LazyHessian lazyHessian;
 	private double multiplier;
 	private float[][] cachedTubeness;
 	private boolean useHessian;
@@ -54,12 +55,13 @@ public class TracerThread extends SearchThread {
 		useHessian = snt.isHessianEnabled((snt.isTracingOnSecondaryImageActive())?"secondary":"primary");
 		if (useHessian) {
 			final boolean secondary = snt.isTracingOnSecondaryImageActive();
-			hessian = (secondary) ? snt.secondaryHessian.hessian : snt.primaryHessian.hessian;
-			if (hessian == null) {
+			final HessianCaller hc = (secondary) ? snt.secondaryHessian : snt.primaryHessian;
+			lazyHessian = hc.hessian;
+			cachedTubeness = hc.cachedTubeness;
+			if (lazyHessian == null && cachedTubeness == null) {
 				throw new IllegalArgumentException("Hessian enabled but settings are invalid.");
 			}
-			multiplier = (secondary) ? snt.secondaryHessian.getMultiplier() : snt.primaryHessian.getMultiplier();
-			cachedTubeness = (secondary) ? snt.secondaryHessian.cachedTubeness : snt.primaryHessian.cachedTubeness;
+			multiplier = hc.getMultiplier();
 		} else {
 			hessian = null;
 			multiplier = HessianCaller.DEFAULT_MULTIPLIER;
@@ -99,8 +101,9 @@ public class TracerThread extends SearchThread {
 		this.goal_x = goal_x;
 		this.goal_y = goal_y;
 		this.goal_z = goal_z;
-		// need to do this again since it needs to know if hessian is set...
-		minimum_cost_per_unit_distance = minimumCostPerUnitDistance();
+		// this also updates minimum_cost_per_unit_distance, now that we know
+		// whether hessian is set
+		setSearchCost(createSearchCost());
 		final SearchNode s = createNewNode(start_x, start_y, start_z, 0,
 			estimateCostToGoal(start_x, start_y, start_z, true), null,
 			OPEN_FROM_START);
@@ -131,25 +134,17 @@ public class TracerThread extends SearchThread {
 		else return (x == start_x) && (y == start_y) && (z == start_z);
 	}
 
+	private SearchCost createSearchCost() {
+		if (!useHessian) return IntensityCost.of(this, reciprocal);
+		if (cachedTubeness != null) return new TubenessCost(cachedTubeness, width);
+		if (lazyHessian != null) return new LazyHessianCost(lazyHessian, multiplier);
+		return new HessianCost(hessian, multiplier, singleSlice, x_spacing,
+			y_spacing, z_spacing);
+	}
+
 	@Override
 	protected double minimumCostPerUnitDistance() {
-
-		double minimum_cost;
-
-		if (hessian == null) {
-
-			minimum_cost = reciprocal ? (1 / 255.0) : 1;
-
-		}
-		else {
-
-			// result = 1E-4; /* for the ratio of e0/e1 */
-			// result = 0.002; // 1; /* for e1 - e0 */
-
-			minimum_cost = 1 / 60.0;
-		}
-
-		return minimum_cost;
+		return (cost == null) ? 0 : cost.minimumCostPerUnitDistance();
 	}
 
 	@Override
@@ -164,150 +159,6 @@ public class TracerThread extends SearchThread {
 		return result;
 	}
 
-	/*
-	 * If we're taking the reciprocal of the value at the new point as our cost,
-	 * then values of zero cause a problem. This is the value that we use instead of
-	 * zero there.
-	 */
-
-	static final double RECIPROCAL_FUDGE = 0.5;
-
-	/*
-	 * This cost doesn't take into account the distance between the points - it will
-	 * be post-multiplied by that value.
-	 *
-	 * The minimum cost should be > 0 - it is the value that is used in calculating
-	 * the heuristic for how far a given point is from the goal.
-	 */
-
-	@Override
-	protected double costMovingTo(final int new_x, final int new_y,
-		final int new_z)
-	{
-
-		double cost;
-		if (useHessian) {
-
-			if (cachedTubeness == null) {
-
-				if (singleSlice) {
-
-					final double[] hessianEigenValues = new double[2];
-
-					final boolean real = hessian.hessianEigenvaluesAtPoint2D(new_x, new_y,
-							true, hessianEigenValues, false, true, x_spacing, y_spacing);
-
-					// Just use the absolute value
-					// of the largest eigenvalue
-					// (if it's < 0)
-
-					if (real && (hessianEigenValues[1] < 0)) {
-
-						double measure = Math.abs(hessianEigenValues[1]);
-						if (measure == 0) // This should never happen in
-							// practice...
-							measure = 0.2;
-
-						measure *= multiplier;
-						if (measure > 256) measure = 256;
-						cost = 1 / measure;
-					}
-					else {
-						cost = 1 / 0.2;
-					}
-					return cost;
-
-				}
-				else {
-
-					final double[] hessianEigenValues = new double[3];
-
-					final boolean real = hessian.hessianEigenvaluesAtPoint3D(new_x, new_y,
-							new_z, true, hessianEigenValues, false, true, x_spacing, y_spacing,
-							z_spacing);
-
-					/*
-					 * FIXME: there's lots of literature on how to pick this rule (see Sato et al,
-					 * "Three-dimensional multi-scale line filter for segmentation and visualization
-					 * of curvilinear structures in medical images". The rule I'm using here
-					 * probably isn't optimal.
-					 */
-
-					final double e1 = hessianEigenValues[1];
-					final double e2 = hessianEigenValues[2];
-
-					if (real && (e1 < 0) && (e2 < 0)) {
-
-						double measure = Math.sqrt(e1 * e2);
-
-						if (measure == 0) // This should never happen in
-							// practice...
-							measure = 0.2;
-
-						measure *= multiplier;
-						if (measure > 256) measure = 256;
-
-						cost = 1 / measure;
-
-					}
-					else {
-
-						cost = 1 / 0.2;
-
-					}
-
-				}
-
-			}
-			else {
-
-				// Then this saves a lot of time:
-				float measure = cachedTubeness[new_z][new_y * width + new_x];
-				if (measure == 0) measure = 0.2f;
-				cost = 1 / measure;
-
-			}
-
-		}
-		else {
-
-			final double value_at_new_point = getValueAtNewPoint(new_x, new_y, new_z);
-			if (reciprocal) {
-				cost = 1 / RECIPROCAL_FUDGE;
-				if (value_at_new_point != 0) cost = 1.0 / value_at_new_point;
-			}
-			else {
-				cost = 256 - value_at_new_point;
-			}
-
-		}
-
-		return cost;
-	}
-
-	private double getValueAtNewPoint(final int new_x, final int new_y, final int new_z) {
-		double value_at_new_point = -1;
-		switch (imageType) {
-			case ImagePlus.GRAY8:
-			case ImagePlus.COLOR_256:
-				value_at_new_point = slices_data_b[new_z][new_y * width + new_x] & 0xFF;
-				break;
-			case ImagePlus.GRAY16: {
-				value_at_new_point = slices_data_s[new_z][new_y * width + new_x];
-				value_at_new_point = 255.0 * (value_at_new_point - stackMin) /
-					(stackMax - stackMin);
-				break;
-			}
-			case ImagePlus.GRAY32: {
-				value_at_new_point = slices_data_f[new_z][new_y * width + new_x];
-				value_at_new_point = 255.0 * (value_at_new_point - stackMin) /
-					(stackMax - stackMin);
-				break;
-			}
-		}
-		return value_at_new_point;
-	}
-
 	@Override
 	float estimateCostToGoal(final int current_x, final int current_y,
 		final int current_z, final boolean fromStart)
@@ -34,6 +34,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.scijava.util.ColorRGB;
@@ -696,6 +702,7 @@ public class Tree {
 				p.precise_y_positions[node] += yOffset;
 				p.precise_z_positions[node] += zOffset;
 			}
+			p.nodesModified();
 			if (p.startJoinsPoint != null) {
 				final PointInImage sPim = p.startJoinsPoint;
 				final Path sPath = p.startJoins;
@@ -742,6 +749,7 @@ public class Tree {
 				p.precise_y_positions[node] *= yScale;
 				p.precise_z_positions[node] *= zScale;
 			}
+			p.nodesModified();
 			if (p.startJoinsPoint != null) {
 				final PointInImage sPim = p.startJoinsPoint;
 				final Path sPath = p.startJoins;
@@ -1292,8 +1300,8 @@ public class Tree {
 	/**
 	 * Script-friendly method for creating a Tree from a reconstruction file.
 	 *
-	 * @param filePath the absolute path to the file (.Traces, (e)SWC or JSON) to be
-	 *                 imported
+	 * @param filePath the absolute path to the file (.Traces, .btraces, (e)SWC or
+	 *                 JSON) to be imported
 	 * @return the Tree instance, or null if file could not be imported
 	 */
 	public static Tree fromFile(final String filePath) {
@@ -1338,7 +1346,7 @@ public class Tree {
 	 * common directory.
 	 *
 	 * @param dir the directory containg the reconstruction files (.(e)swc, .traces,
-	 *            .json extension)
+	 *            .btraces, .json extension)
 	 * @return the list of imported {@link Tree}s. An empty list is retrieved if
 	 *         {@code dir} is not a valid, readable directory.
 	 */
@@ -1351,7 +1359,7 @@ public class Tree {
 	 * common directory matching the specified criteria.
 	 *
 	 * @param dir     the directory containing the reconstruction files (.(e)swc,
-	 *                .traces, .json extension)
+	 *                .traces, .btraces, .json extension)
 	 * @param pattern the filename substring (case sensitive) to be matched. Only
 	 *                filenames containing {@code pattern} will be imported from the
 	 *                directory. {@code null} allowed.
@@ -1367,7 +1375,7 @@ public class Tree {
 	 * common directory matching the specified criteria.
 	 *
 	 * @param dir     the directory containing the reconstruction files (.(e)swc,
-	 *                .traces, .json extension)
+	 *                .traces, .btraces, .json extension)
 	 * @param pattern the filename substring (case sensitive) to be matched. Only
 	 *                filenames containing {@code pattern} will be imported from the
 	 *                directory. {@code null} allowed.
@@ -1378,37 +1386,136 @@ public class Tree {
 	 *         {@code dir} is not a valid, readable directory.
 	 */
 	public static List<Tree> listFromDir(final String dir, final String pattern, final String... swcTypes) {
+		return listFromDir(dir, pattern, swcTypes, null);
+	}
+
+	/**
+	 * Retrieves a list of {@link Tree}s from reconstruction files stored in a
+	 * common directory matching the specified criteria. Files are parsed
+	 * concurrently using up to {@link SNTPrefs#getThreads()} threads, but Trees
+	 * are listed in the same order as if files had been parsed sequentially.
+	 * Files that cannot be parsed are skipped.
+	 *
+	 * @param dir      the directory containing the reconstruction files (.(e)swc,
+	 *                 .traces, .btraces, .json extension)
+	 * @param pattern  the filename substring (case sensitive) to be matched. Only
+	 *                 filenames containing {@code pattern} will be imported from
+	 *                 the directory. {@code null} allowed.
+	 * @param swcTypes SWC type(s) a string with at least 2 characters describing
+	 *                 the SWC type allowed in the subtree (e.g., 'soma', 'axn', or
+	 *                 'dendrite'). Ignored when {@code null}
+	 * @param callback the callback notified as files are parsed and of files that
+	 *                 could not be imported. {@code null} allowed.
+	 * @return the list of imported {@link Tree}s. An empty list is retrieved if
+	 *         {@code dir} is not a valid, readable directory.
+	 */
+	public static List<Tree> listFromDir(final String dir, final String pattern, final String[] swcTypes,
+			final TreeLoadingCallback callback) {
+		final List<Tree> trees = new ArrayList<>();
+		final File treeFiles[] = listReconstructionFiles(dir, pattern);
+		if (treeFiles.length == 0) {
+			return trees;
+		}
+		final int nFiles = treeFiles.length;
+		final AtomicInteger nDone = new AtomicInteger();
+		final List<Callable<Collection<Tree>>> tasks = new ArrayList<>(nFiles);
+		for (final File treeFile : treeFiles) {
+			tasks.add(() -> {
+				final Collection<Tree> treesInFile = listFromFile(treeFile, swcTypes, callback);
+				if (callback != null) {
+					synchronized (callback) {
+						callback.fileProcessed(treeFile, nDone.incrementAndGet(), nFiles);
+					}
+				}
+				return treesInFile;
+			});
+		}
+		final ExecutorService es = Executors.newFixedThreadPool(Math.min(nFiles, Math.max(1, SNTPrefs.getThreads())));
+		try {
+			// futures are retrieved in submission order, i.e., in the order of treeFiles
+			for (final Future<Collection<Tree>> future : es.invokeAll(tasks)) {
+				trees.addAll(future.get());
+			}
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException ex) {
+			SNTUtils.error("Could not import files from " + dir, ex.getCause());
+		} finally {
+			es.shutdownNow();
+		}
+		return trees;
+	}
+
+	/**
+	 * Lists the reconstruction files stored in a directory that would be
+	 * imported by {@link #listFromDir(String, String, String[], TreeLoadingCallback)}.
+	 * Files are not parsed.
+	 *
+	 * @param dir     the directory containing the reconstruction files (.(e)swc,
+	 *                .traces, .btraces, .json extension)
+	 * @param pattern the filename substring (case sensitive) to be matched.
+	 *                {@code null} allowed.
+	 * @return the matching files. An empty array is retrieved if {@code dir} is
+	 *         not a valid, readable directory.
+	 */
+	public static File[] listReconstructionFiles(final String dir, final String pattern) {
 		final String validatedPattern = (pattern == null) ? "" : pattern;
 		final FileFilter filter = (file) -> {
 			final String name = file.getName();
 			if (!name.contains(validatedPattern))
 				return false;
 			final String lName = name.toLowerCase();
-			return file.canRead() && (lName.endsWith("swc") || lName.endsWith(".traces") || lName.endsWith(".json"));
+			return file.canRead() && (lName.endsWith("swc") || lName.endsWith(".traces") || lName.endsWith(".json")
+					|| lName.endsWith(BinaryTracesFile.EXTENSION));
 		};
-		final List<Tree> trees = new ArrayList<>();
-		if (dir == null) return trees;
+		if (dir == null) return new File[0];
 		final File dirFile = new File(dir);
 		if (!dirFile.isDirectory() || !dirFile.exists() || !dirFile.canRead()) {
-			return trees;
+			return new File[0];
 		}
 		final File treeFiles[] = dirFile.listFiles(filter);
-		if (treeFiles == null || treeFiles.length == 0) {
-			return trees;
+		return (treeFiles == null) ? new File[0] : treeFiles;
+	}
+
+	/**
+	 * Retrieves the {@link Tree}s stored in a reconstruction file. Unlike
+	 * {@link #listFromFile(String)}, parsing failures are not thrown but reported
+	 * to {@code callback}.
+	 *
+	 * @param treeFile the reconstruction file (.(e)swc, .traces, .btraces, .json
+	 *                 extension)
+	 * @param swcTypes SWC type(s) allowed in the retrieved Trees (e.g., 'soma',
+	 *                 'axn', or 'dendrite'). Ignored when {@code null}
+	 * @param callback notified if {@code treeFile} could not be imported.
+	 *                 {@code null} allowed.
+	 * @return the imported {@link Tree}s. An empty collection is retrieved if
+	 *         file could not be parsed.
+	 */
+	public static Collection<Tree> listFromFile(final File treeFile, final String[] swcTypes,
+			final TreeLoadingCallback callback) {
+		String failure = null;
+		Collection<Tree> treesInFile = null;
+		try {
+			treesInFile = Tree.listFromFile(treeFile.getAbsolutePath());
+			if (treesInFile.isEmpty())
+				failure = "No reconstructions could be extracted";
+			else if (swcTypes != null) {
+				final List<Tree> subTrees = new ArrayList<>(treesInFile.size());
+				treesInFile.forEach(t -> subTrees.add(t.subTree(swcTypes)));
+				treesInFile = subTrees;
+			}
+		} catch (final RuntimeException ex) {
+			failure = (ex.getMessage() == null) ? ex.toString() : ex.getMessage();
 		}
-		for (final File treeFile : treeFiles) {
-			final Collection<Tree> treesInFile = Tree.listFromFile(treeFile.getAbsolutePath());
-			if (treesInFile != null) {
-				if (swcTypes == null)
-					trees.addAll(treesInFile);
-				else {
-					treesInFile.forEach(t -> {
-						trees.add(t.subTree(swcTypes));
-					});
-				}
+		if (failure == null)
+			return treesInFile;
+		SNTUtils.log("Skipping " + treeFile.getAbsolutePath() + ": " + failure);
+		if (callback != null) {
+			synchronized (callback) {
+				callback.fileFailed(treeFile, failure);
 			}
 		}
-		return trees;
+		return new ArrayList<>();
 	}
 
 	/**
@@ -1456,7 +1563,9 @@ public class Tree {
 	}
 
 	/**
-	 * Saves this Tree to a .TRACES (XML, compressed) file.
+	 * Saves this Tree to a .TRACES (XML, compressed) file, or to a binary
+	 * {@code .btraces} file if {@code filePath} has such extension. Binary files
+	 * hold the same data, but are smaller and considerably faster to load.
 	 *
 	 * @param filePath the absolute path of the output file. {@code .traces} is
 	 *                 automatically appended if {@code filePath} does not include
@@ -1470,14 +1579,18 @@ public class Tree {
 			return false;
 		initPathAndFillManager();
 		File file = new File(filePath);
+		final boolean binary = filePath.toLowerCase().endsWith(BinaryTracesFile.EXTENSION);
 		if (file.isDirectory() && getLabel() != null) {
 			final String fName = (getLabel().toLowerCase().endsWith(".traces")) ? getLabel() : getLabel() + ".traces";
 			file = new File(file.getAbsolutePath(), fName);
-		} else if (!filePath.toLowerCase().endsWith(".traces")) {
+		} else if (!binary && !filePath.toLowerCase().endsWith(".traces")) {
 			file = new File(filePath + ".traces");
 		}
 		try {
-			pafm.writeXML(file.getAbsolutePath(), true);
+			if (binary)
+				pafm.writeBinary(file.getAbsolutePath());
+			else
+				pafm.writeXML(file.getAbsolutePath(), true);
 		} catch (final IOException e) {
 			e.printStackTrace();
 			return false;
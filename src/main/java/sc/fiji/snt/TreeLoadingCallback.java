@@ -0,0 +1,48 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package sc.fiji.snt;
+
+import java.io.File;
+
+/**
+ * Monitors the bulk import of reconstruction files, e.g., by
+ * {@link Tree#listFromDir(String, String, String[], TreeLoadingCallback)}.
+ * Files are parsed concurrently, so methods may be called from worker threads,
+ * but never concurrently.
+ *
+ * @author Tiago Ferreira
+ */
+public interface TreeLoadingCallback {
+
+	/*
+	 * Called after each file has been parsed (successfully or not). 'nDone' is
+	 * the number of files parsed so far out of 'nFiles'
+	 */
+	public void fileProcessed(File file, int nDone, int nFiles);
+
+	/*
+	 * Called when no reconstructions could be extracted from a file. The file is
+	 * skipped and the import proceeds
+	 */
+	public void fileFailed(File file, String reason);
+
+}
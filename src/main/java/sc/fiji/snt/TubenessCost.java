@@ -0,0 +1,55 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+/**
+ * A {@link SearchCost} based on a precomputed ("cached") tubeness image: the
+ * cost of moving to a voxel is the reciprocal of its tubeness. This is much
+ * faster than computing Hessian eigenvalues on-the-fly.
+ *
+ * @author Tiago Ferreira
+ * @see HessianCost
+ */
+public class TubenessCost implements SearchCost {
+
+	private final float[][] tubeness;
+	private final int width;
+
+	public TubenessCost(final float[][] tubeness, final int width) {
+		this.tubeness = tubeness;
+		this.width = width;
+	}
+
+	@Override
+	public double costMovingTo(final int x, final int y, final int z) {
+		float measure = tubeness[z][y * width + x];
+		if (measure == 0) measure = (float) HessianCost.NON_TUBULAR_MEASURE;
+		return 1 / measure;
+	}
+
+	@Override
+	public double minimumCostPerUnitDistance() {
+		return 1 / 60.0;
+	}
+
+}
@@ -0,0 +1,441 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * A persistent, size-capped cache of tubeness (Hessian) images. Each entry is
+ * a file named after the digest of the image content, channel, frame, sigma
+ * and voxel spacing, so that the same volume is never processed twice, even
+ * across sessions. Entries store the blocks computed by {@link LazyHessian}:
+ * blocks are appended as they are computed and read back when reused. The
+ * capacity applies to the cache as a whole: Least recently used entries are
+ * deleted to make room for new blocks, and blocks are no longer written once
+ * only entries in use remain. Disabled by default (see
+ * {@link SNTPrefs#setTubenessDiskCacheEnabled(boolean)}).
+ * <p>
+ * Entry layout (little-endian):
+ * </p>
+ * <pre>
+ * header:    magic ("SNTT"), version (short), reserved (short), number of
+ *            blocks (int), block length (int)
+ * directory: offset (long) of each block: 0 if not computed, -1 if the block
+ *            has no tubular voxels
+ * blocks:    block length (float) tubeness values
+ * </pre>
+ *
+ * @author Tiago Ferreira
+ */
+public final class TubenessDiskCache {
+
+	/** The default capacity of the cache (in bytes) */
+	public static final long DEFAULT_MAX_SIZE = 2L * 1024 * 1024 * 1024;
+
+	private static final String EXTENSION = ".tubes.bin";
+	/* "SNTT" when serialized as little-endian */
+	private static final int MAGIC = 0x54544E53;
+	private static final short VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+	private static final long NOT_COMPUTED = 0;
+	private static final long EMPTY = -1;
+
+	private final File dir;
+	private volatile long maxSize;
+	private final Map<File, Store> openStores;
+	/* Disk space used by all entries: -1 until first needed */
+	private long size = -1;
+
+	/**
+	 * @param dir     the directory holding cached entries. It is created if it
+	 *                does not exist
+	 * @param maxSize the capacity of the cache (in bytes)
+	 */
+	public TubenessDiskCache(final File dir, final long maxSize) {
+		if (dir == null) throw new IllegalArgumentException("Cache directory is null");
+		this.dir = dir;
+		this.maxSize = maxSize;
+		openStores = new HashMap<>();
+	}
+
+	/**
+	 * Creates a cache in the default directory, with the default capacity.
+	 *
+	 * @see #getDefaultDirectory()
+	 * @see #DEFAULT_MAX_SIZE
+	 */
+	public TubenessDiskCache() {
+		this(getDefaultDirectory(), DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @return the default cache directory ({@code ~/.snt/tubeness-cache})
+	 */
+	public static File getDefaultDirectory() {
+		return new File(new File(System.getProperty("user.home"), ".snt"), "tubeness-cache");
+	}
+
+	/**
+	 * @return the directory holding cached entries
+	 */
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * @return the capacity of the cache (in bytes)
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Sets the capacity of the cache, evicting least recently used entries if
+	 * needed.
+	 *
+	 * @param maxSize the capacity of the cache (in bytes)
+	 */
+	public void setMaxSize(final long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * @return the disk space currently used by the cache (in bytes)
+	 */
+	public long getSize() {
+		return Arrays.stream(listEntries()).mapToLong(File::length).sum();
+	}
+
+	/**
+	 * Deletes all cached entries, except those currently in use.
+	 */
+	public synchronized void clear() {
+		for (final File file : listEntries()) {
+			if (!openStores.containsKey(file) && !file.delete())
+				SNTUtils.log("Could not delete " + file);
+		}
+		size = -1;
+	}
+
+	/**
+	 * Deletes least recently used entries (except those currently in use) until
+	 * the cache fits its capacity.
+	 */
+	public synchronized void evict() {
+		evict(0);
+	}
+
+	/* Evicts entries until the specified number of bytes can be added */
+	private void evict(final long extra) {
+		final File[] entries = listEntries();
+		long total = Arrays.stream(entries).mapToLong(File::length).sum();
+		Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+		for (final File file : entries) {
+			if (total + extra <= maxSize) break;
+			if (openStores.containsKey(file)) continue;
+			final long length = file.length();
+			if (file.delete()) total -= length;
+		}
+		size = total;
+	}
+
+	/*
+	 * Accounts for the specified number of bytes about to be appended to an
+	 * entry, evicting other entries if needed. Returns false if the cache cannot
+	 * hold them.
+	 */
+	private synchronized boolean reserve(final long bytes) {
+		if (size < 0 || size + bytes > maxSize) evict(bytes);
+		if (size + bytes > maxSize) return false;
+		size += bytes;
+		return true;
+	}
+
+	private File[] listEntries() {
+		final File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+		return (files == null) ? new File[0] : files;
+	}
+
+	/**
+	 * Opens (creating it if needed) the entry holding the blocks of the
+	 * specified Hessian.
+	 *
+	 * @return the entry, or null if it could not be opened
+	 */
+	synchronized Store open(final LazyHessian hessian, final int channel, final int frame) {
+		final File file = new File(dir, key(hessian, channel, frame) + EXTENSION);
+		Store store = openStores.get(file);
+		if (store != null) {
+			store.users++;
+			return store;
+		}
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Could not create " + dir);
+			if (!file.exists()) evict();
+			store = new Store(file, hessian.getBlockCount(), hessian.getBlockLength());
+			openStores.put(file, store);
+			size = -1; // account for the new (or reset) header
+			SNTUtils.log("Tubeness cache: " + file + " (" + store.nComputed() + "/" + store.offsets.length
+					+ " blocks cached)");
+			return store;
+		} catch (final IOException ex) {
+			SNTUtils.log("Tubeness cache unavailable: " + ex.getMessage());
+			return null;
+		}
+	}
+
+	private synchronized void release(final Store store) {
+		if (--store.users > 0) return;
+		openStores.remove(store.file);
+		store.closeChannel();
+		evict();
+	}
+
+	/* Digest of image content, channel, frame, sigma, spacing and block layout */
+	private static String key(final LazyHessian hessian, final int channel, final int frame) {
+		final Object[] slices = hessian.getSlices();
+		final long[] sliceHashes = IntStream.range(0, slices.length).parallel()
+				.mapToLong(z -> hash(slices[z])).toArray();
+		final ByteBuffer buffer = ByteBuffer.allocate(8 * (slices.length + 12));
+		for (final long h : sliceHashes)
+			buffer.putLong(h);
+		buffer.putInt(hessian.getWidth()).putInt(hessian.getHeight()).putInt(slices.length);
+		buffer.putInt(channel).putInt(frame);
+		buffer.putDouble(hessian.getSigma());
+		for (final double s : hessian.getSpacing())
+			buffer.putDouble(s);
+		buffer.putInt(hessian.getBlockCount()).putInt(hessian.getBlockLength());
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+					Arrays.copyOf(buffer.array(), buffer.position()));
+			final StringBuilder sb = new StringBuilder(2 * digest.length);
+			for (final byte b : digest)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (final NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex); // SHA-1 is available on all Java platforms
+		}
+	}
+
+	/* 64-bit FNV-1a hash of a pixel array */
+	private static long hash(final Object pixels) {
+		long h = 0xcbf29ce484222325L;
+		if (pixels instanceof byte[]) {
+			for (final byte v : (byte[]) pixels)
+				h = (h ^ v) * 0x100000001b3L;
+		} else if (pixels instanceof short[]) {
+			for (final short v : (short[]) pixels)
+				h = (h ^ v) * 0x100000001b3L;
+		} else {
+			for (final float v : (float[]) pixels)
+				h = (h ^ Float.floatToIntBits(v)) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * A cached entry, i.e., the blocks computed so far for a given image and
+	 * sigma. Blocks can be read and written concurrently.
+	 */
+	final class Store implements Closeable {
+
+		private final File file;
+		private final FileChannel fc;
+		private final long[] offsets;
+		private final int blockLength;
+		/* Reused by each reading thread */
+		private final ThreadLocal<ByteBuffer> readBuffer;
+		private int users = 1;
+		private volatile boolean usable = true;
+		/* Set once the cache could no longer hold new blocks */
+		private boolean full;
+
+		private Store(final File file, final int nBlocks, final int blockLength) throws IOException {
+			this.file = file;
+			this.blockLength = blockLength;
+			offsets = new long[nBlocks];
+			readBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4 * blockLength)
+					.order(ByteOrder.LITTLE_ENDIAN));
+			fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			try {
+				if (!readHeader()) {
+					fc.truncate(0);
+					final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 8 * nBlocks)
+							.order(ByteOrder.LITTLE_ENDIAN);
+					header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(nBlocks).putInt(blockLength);
+					header.rewind();
+					write(header, 0);
+				}
+			} catch (final IOException ex) {
+				fc.close();
+				throw ex;
+			}
+			file.setLastModified(System.currentTimeMillis());
+		}
+
+		private boolean readHeader() throws IOException {
+			final long size = fc.size();
+			if (size < HEADER_BYTES + 8L * offsets.length) return false;
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 8 * offsets.length)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			read(header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getShort() > VERSION) return false;
+			header.getShort();
+			if (header.getInt() != offsets.length || header.getInt() != blockLength) return false;
+			for (int i = 0; i < offsets.length; i++) {
+				final long offset = header.getLong();
+				// Ignore blocks truncated by an interrupted write
+				offsets[i] = (offset > 0 && offset + 4L * blockLength > size) ? NOT_COMPUTED : offset;
+			}
+			return true;
+		}
+
+		private int nComputed() {
+			return (int) Arrays.stream(offsets).filter(o -> o != NOT_COMPUTED).count();
+		}
+
+		/**
+		 * @return whether the specified block has been cached
+		 */
+		synchronized boolean contains(final long key) {
+			return usable && offsets[(int) key] != NOT_COMPUTED;
+		}
+
+		/**
+		 * @return the tubeness values of the specified block, or null if the
+		 *         block has not been cached
+		 */
+		float[] read(final long key) {
+			final long offset;
+			synchronized (this) {
+				offset = offsets[(int) key];
+			}
+			if (offset == NOT_COMPUTED || !usable) return null;
+			final float[] block = new float[blockLength];
+			if (offset == EMPTY) return block;
+			try {
+				final ByteBuffer buffer = readBuffer.get();
+				buffer.clear();
+				read(buffer, offset);
+				buffer.flip();
+				buffer.asFloatBuffer().get(block);
+				return block;
+			} catch (final IOException ex) {
+				disable(ex);
+				return null;
+			}
+		}
+
+		/**
+		 * Appends the specified block to the entry. Does nothing if the block
+		 * has already been cached or if the cache is full.
+		 */
+		synchronized void write(final long key, final float[] block) {
+			if (!usable || offsets[(int) key] != NOT_COMPUTED) return;
+			try {
+				long offset = EMPTY;
+				if (!isEmpty(block)) {
+					if (full) return;
+					if (!reserve(4L * blockLength)) {
+						full = true;
+						SNTUtils.log("Tubeness cache full: no longer caching blocks of " + file.getName());
+						return;
+					}
+					offset = fc.size();
+					final ByteBuffer buffer = ByteBuffer.allocate(4 * blockLength).order(ByteOrder.LITTLE_ENDIAN);
+					buffer.asFloatBuffer().put(block);
+					write(buffer, offset);
+				}
+				// Directory is only updated once block data has been written
+				final ByteBuffer entry = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, offset);
+				write(entry, HEADER_BYTES + 8 * key);
+				offsets[(int) key] = offset;
+			} catch (final IOException ex) {
+				disable(ex);
+			}
+		}
+
+		private boolean isEmpty(final float[] block) {
+			for (final float v : block)
+				if (v != 0) return false;
+			return true;
+		}
+
+		private void read(final ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				final int n = fc.read(buffer, position);
+				if (n < 0) throw new EOFException("Truncated entry: " + file.getName());
+				position += n;
+			}
+		}
+
+		private void write(final ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining())
+				position += fc.write(buffer, position);
+		}
+
+		private void disable(final IOException ex) {
+			// e.g., channel closed by an interrupted thread: compute on the fly
+			if (usable) SNTUtils.log("Tubeness cache disabled for " + file.getName() + ": " + ex);
+			usable = false;
+		}
+
+		private void closeChannel() {
+			usable = false;
+			try {
+				fc.close();
+			} catch (final IOException ignored) {
+				// do nothing
+			}
+		}
+
+		/**
+		 * Releases this entry. The underlying file is closed once no longer used.
+		 */
+		@Override
+		public void close() {
+			release(this);
+		}
+
+	}
+
+}
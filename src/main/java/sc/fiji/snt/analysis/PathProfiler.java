@@ -24,6 +24,7 @@ package sc.fiji.snt.analysis;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -69,6 +70,19 @@ public class PathProfiler extends ContextCommand {
 	/** Flag for retrieving intensities from {@link #getValues(Path)} */
 	public final static String Y_VALUES = "y-values";
 
+	/** Sampling flag: intensities are retrieved from the voxel nearest to each node */
+	public static final int NEAREST_NEIGHBOR = 0;
+
+	/** Sampling flag: intensities are trilinearly interpolated at each node */
+	public static final int TRILINEAR = 1;
+
+	/**
+	 * Sampling flag: intensities are averaged across the cross-section of each
+	 * node, i.e., the disk defined by the node radius in the plane orthogonal to
+	 * the path. Nodes without radius are sampled as per {@link #TRILINEAR}
+	 */
+	public static final int CROSS_SECTION = 2;
+
 	@Parameter
 	private PlotService plotService;
 
@@ -85,6 +99,7 @@ public class PathProfiler extends ContextCommand {
 	private boolean valuesAssignedToTree;
 	private int lastprofiledChannel = -1;
 	private boolean nodeIndices = false;
+	private int samplingMethod = NEAREST_NEIGHBOR;
 
 	/**
 	 * Instantiates a new Profiler
@@ -188,6 +203,202 @@ public class PathProfiler extends ContextCommand {
 		valuesAssignedToTree = true;
 	}
 
+	/**
+	 * Sets how intensities are sampled by {@link #assignChannelValues()}.
+	 *
+	 * @param samplingMethod either {@link #NEAREST_NEIGHBOR} (the default),
+	 *          {@link #TRILINEAR}, or {@link #CROSS_SECTION}
+	 */
+	public void setSamplingMethod(final int samplingMethod) {
+		if (samplingMethod < NEAREST_NEIGHBOR || samplingMethod > CROSS_SECTION)
+			throw new IllegalArgumentException("Unrecognized sampling method: " + samplingMethod);
+		this.samplingMethod = samplingMethod;
+	}
+
+	/**
+	 * Retrieves the intensities of all the image channels at each node of the
+	 * profiled Tree in a single pass, storing them as per-channel Path values.
+	 * Pixels are read directly from the image arrays and paths are profiled in
+	 * parallel. Nodes outside the image, and all the nodes of paths associated
+	 * with a frame the image does not have, are assigned {@code Double#NaN}.
+	 *
+	 * @see Path#getNodeChannelValues(int)
+	 * @see #setSamplingMethod(int)
+	 */
+	public void assignChannelValues() {
+		final Map<Integer, Object[][]> planes = new HashMap<>();
+		for (final Path p : tree.list()) {
+			if (validFrame(p)) planes.computeIfAbsent(p.getFrame(), this::getPlanes);
+		}
+		tree.list().parallelStream().forEach(p -> {
+			if (validFrame(p)) {
+				final ChannelSampler sampler = new ChannelSampler(planes.get(p.getFrame()));
+				p.setNodeChannelValues(sampler.sample(p));
+			} else {
+				final double[][] values = new double[imp.getNChannels()][p.size()];
+				for (final double[] channelValues : values)
+					Arrays.fill(channelValues, Double.NaN);
+				p.setNodeChannelValues(values);
+			}
+		});
+	}
+
+	private boolean validFrame(final Path p) {
+		return p.getFrame() >= 1 && p.getFrame() <= imp.getNFrames();
+	}
+
+	/* Pixel arrays of the specified frame, indexed by [channel - 1][slice - 1] */
+	private Object[][] getPlanes(final int frame) {
+		final Object[][] planes = new Object[imp.getNChannels()][imp.getNSlices()];
+		for (int c = 0; c < planes.length; c++) {
+			for (int z = 0; z < planes[c].length; z++)
+				planes[c][z] = stack.getPixels(imp.getStackIndex(c + 1, z + 1, frame));
+		}
+		return planes;
+	}
+
+	/**
+	 * Samples all channels of an image frame at once. Interpolation weights (and
+	 * cross-section geometry) are computed once per sampled position and shared
+	 * by all channels.
+	 */
+	private class ChannelSampler {
+
+		final Object[][] planes;
+		final int width = imp.getWidth();
+		final int height = imp.getHeight();
+		final int depth = imp.getNSlices();
+		final double[] sums;
+		int nSamples;
+
+		ChannelSampler(final Object[][] planes) {
+			this.planes = planes;
+			sums = new double[planes.length];
+		}
+
+		double[][] sample(final Path p) {
+			final double[][] values = new double[planes.length][p.size()];
+			final Calibration cal = p.getCalibration();
+			final double[] spacing = { cal.pixelWidth, cal.pixelHeight, cal.pixelDepth };
+			final double step = Math.min(spacing[0], Math.min(spacing[1], (depth > 1) ? spacing[2] : spacing[1]));
+			final double[] u = new double[3];
+			final double[] v = new double[3];
+			for (int i = 0; i < p.size(); i++) {
+				Arrays.fill(sums, 0);
+				nSamples = 0;
+				final double x = p.getXUnscaledDouble(i);
+				final double y = p.getYUnscaledDouble(i);
+				final double z = p.getZUnscaledDouble(i);
+				final double r = (samplingMethod == CROSS_SECTION) ? p.getNodeRadius(i) : 0;
+				if (samplingMethod == NEAREST_NEIGHBOR) {
+					addNearest(x, y, z);
+				} else if (r <= 0 || !normalPlane(p, i, spacing, u, v)) {
+					addInterpolated(x, y, z);
+				} else {
+					// grid of (calibrated) step spacing over the cross-section disk
+					// (or segment, in 2D images)
+					final int n = (int) Math.floor(r / step);
+					final int nB = (depth == 1) ? 0 : n;
+					for (int a = -n; a <= n; a++) {
+						for (int b = -nB; b <= nB; b++) {
+							if (a * a + b * b > (r / step) * (r / step)) continue;
+							final double da = a * step;
+							final double db = b * step;
+							addInterpolated(x + (da * u[0] + db * v[0]) / spacing[0],
+									y + (da * u[1] + db * v[1]) / spacing[1], z + (da * u[2] + db * v[2]) / spacing[2]);
+						}
+					}
+				}
+				for (int c = 0; c < planes.length; c++)
+					values[c][i] = (nSamples == 0) ? Double.NaN : sums[c] / nSamples;
+			}
+			return values;
+		}
+
+		/* Orthonormal basis (u, v) of the plane orthogonal to the path at node i */
+		boolean normalPlane(final Path p, final int i, final double[] spacing, final double[] u, final double[] v) {
+			final int min = Math.max(0, i - 1);
+			final int max = Math.min(p.size() - 1, i + 1);
+			final double tx = (p.getXUnscaledDouble(max) - p.getXUnscaledDouble(min)) * spacing[0];
+			final double ty = (p.getYUnscaledDouble(max) - p.getYUnscaledDouble(min)) * spacing[1];
+			final double tz = (p.getZUnscaledDouble(max) - p.getZUnscaledDouble(min)) * spacing[2];
+			final double norm = Math.sqrt(tx * tx + ty * ty + tz * tz);
+			if (norm == 0) return false;
+			if (depth == 1) {
+				// 2D: the cross-section is the segment orthogonal to the path
+				u[0] = -ty / norm;
+				u[1] = tx / norm;
+				u[2] = 0;
+				Arrays.fill(v, 0);
+				return true;
+			}
+			// u: cross product of tangent with the axis least aligned with it
+			final double ax = Math.abs(tx), ay = Math.abs(ty), az = Math.abs(tz);
+			final double[] axis = (ax <= ay && ax <= az) ? new double[] { 1, 0, 0 }
+					: (ay <= az) ? new double[] { 0, 1, 0 } : new double[] { 0, 0, 1 };
+			u[0] = ty * axis[2] - tz * axis[1];
+			u[1] = tz * axis[0] - tx * axis[2];
+			u[2] = tx * axis[1] - ty * axis[0];
+			final double uNorm = Math.sqrt(u[0] * u[0] + u[1] * u[1] + u[2] * u[2]);
+			for (int d = 0; d < 3; d++)
+				u[d] /= uNorm;
+			v[0] = (ty * u[2] - tz * u[1]) / norm;
+			v[1] = (tz * u[0] - tx * u[2]) / norm;
+			v[2] = (tx * u[1] - ty * u[0]) / norm;
+			return true;
+		}
+
+		void addNearest(final double x, final double y, final double z) {
+			final long xi = Math.round(x);
+			final long yi = Math.round(y);
+			final long zi = (depth == 1) ? 0 : Math.round(z);
+			if (xi < 0 || yi < 0 || zi < 0 || xi >= width || yi >= height || zi >= depth) return;
+			final int index = (int) yi * width + (int) xi;
+			for (int c = 0; c < planes.length; c++)
+				sums[c] += valueAt(planes[c][(int) zi], index);
+			nSamples++;
+		}
+
+		void addInterpolated(final double x, final double y, final double z) {
+			final double zz = (depth == 1) ? 0 : z;
+			if (!(x >= -0.5 && y >= -0.5 && zz >= -0.5 && x <= width - 0.5 && y <= height - 0.5 && zz <= depth - 0.5))
+				return; // also skips NaNs
+			final double xc = Math.max(0, Math.min(width - 1, x));
+			final double yc = Math.max(0, Math.min(height - 1, y));
+			final double zc = Math.max(0, Math.min(depth - 1, zz));
+			final int x0 = (int) xc, y0 = (int) yc, z0 = (int) zc;
+			final int x1 = Math.min(x0 + 1, width - 1);
+			final int y1 = Math.min(y0 + 1, height - 1);
+			final int z1 = Math.min(z0 + 1, depth - 1);
+			final double fx = xc - x0, fy = yc - y0, fz = zc - z0;
+			final int i00 = y0 * width + x0, i01 = y0 * width + x1;
+			final int i10 = y1 * width + x0, i11 = y1 * width + x1;
+			for (int c = 0; c < planes.length; c++) {
+				final Object lower = planes[c][z0];
+				final Object upper = planes[c][z1];
+				final double vLower = bilinear(lower, i00, i01, i10, i11, fx, fy);
+				final double vUpper = (fz == 0) ? vLower : bilinear(upper, i00, i01, i10, i11, fx, fy);
+				sums[c] += vLower + fz * (vUpper - vLower);
+			}
+			nSamples++;
+		}
+
+		private double bilinear(final Object plane, final int i00, final int i01, final int i10, final int i11,
+				final double fx, final double fy) {
+			final double top = valueAt(plane, i00) + fx * (valueAt(plane, i01) - valueAt(plane, i00));
+			final double bottom = valueAt(plane, i10) + fx * (valueAt(plane, i11) - valueAt(plane, i10));
+			return top + fy * (bottom - top);
+		}
+	}
+
+	/* Same conversions as ImageStack#getVoxel() */
+	private static double valueAt(final Object pixels, final int index) {
+		if (pixels instanceof byte[]) return ((byte[]) pixels)[index] & 0xff;
+		if (pixels instanceof short[]) return ((short[]) pixels)[index] & 0xffff;
+		if (pixels instanceof float[]) return ((float[]) pixels)[index];
+		return ((int[]) pixels)[index] & 0xffffff;
+	}
+
 	/**
 	 * Retrieves pixel intensities at each node of the Path storing them as Path
 	 * {@code values}
@@ -27,18 +27,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-
-import org.jgrapht.Graphs;
 
 import net.imagej.ImageJ;
 import sc.fiji.snt.SNTService;
 import sc.fiji.snt.SNTUtils;
 import sc.fiji.snt.Tree;
 import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
-import sc.fiji.snt.analysis.graph.SWCWeightedEdge;
+import sc.fiji.snt.analysis.graph.TreeTopology;
 import sc.fiji.snt.util.SWCPoint;
 
 /**
@@ -76,78 +72,119 @@ public class PersistenceAnalyzer {
 	private final HashMap<String, ArrayList<ArrayList<SWCPoint>>> persistenceNodesMap = new HashMap<String, ArrayList<ArrayList<SWCPoint>>>();
 
 	private DirectedWeightedGraph graph;
-	private boolean nodeValuesAssigned;
 
 	public PersistenceAnalyzer(final Tree tree) {
 		this.tree = tree;
 	}
 
+	/* Returns the canonical name of descriptor, computing its diagram if needed */
+	private String getComputedKey(final String descriptor) throws IllegalArgumentException {
+		final int function = getNormFunction(descriptor);
+		if (function == FUNC_UNKNOWN) {
+			throw new IllegalArgumentException("Unrecognizable descriptor \"" + descriptor + "\". "
+					+ "Maybe you meant one of the following?: \"" + String.join(", ", getDescriptors() + "\""));
+		}
+		final String key = FUNC_STRINGS[function];
+		if (persistenceDiagramMap.get(key) == null || persistenceDiagramMap.get(key).isEmpty()) {
+			compute(function);
+		}
+		return key;
+	}
+
 	/**
+	 * Computes the persistence diagrams of all the descriptor functions listed by
+	 * {@link #getDescriptors()} in a single traversal of the tree.
+	 *
+	 * @throws IllegalArgumentException If the {@code tree}'s graph could not be
+	 *                                  obtained
+	 */
+	public void computeAll() throws IllegalArgumentException {
+		final int[] functions = new int[FUNC_STRINGS.length];
+		for (int i = 0; i < functions.length; i++)
+			functions[i] = i;
+		compute(functions);
+	}
+
+	/*
 	 * Generate Persistence Diagram using the base algorithm described by Kanari, L.,
 	 * Dłotko, P., Scolamiero, M. et al. A Topological Representation of Branching
 	 * Neuronal Morphologies. Neuroinform 16, 3–13 (2018).
+	 * Nodes of the simplified graph are indexed as in TreeTopology, so that
+	 * iterating indices backwards is a post-order traversal, in which each
+	 * node 'inherits' the largest value of its children, and all other children
+	 * die at the node. This is O(n) per descriptor.
 	 */
-	private void compute(final String func) throws IllegalArgumentException {
-
-		final int function = getNormFunction(func);
-		if (function == FUNC_UNKNOWN) {
-			throw new IllegalArgumentException("Unrecognizable descriptor \"" + func + "\". "
-					+ "Maybe you meant one of the following?: \"" + String.join(", ", getDescriptors() + "\""));
-		}
-
-		final ArrayList<ArrayList<SWCPoint>> persistenceNodes = new ArrayList<ArrayList<SWCPoint>>();
-		final ArrayList<ArrayList<Double>> persistenceDiagram = new ArrayList<ArrayList<Double>>();
+	private void compute(final int... functions) throws IllegalArgumentException {
 
 		SNTUtils.log("Retrieving graph...");
 		// Use simplified graph since geodesic distances are preserved as edge weights
 		// This provides a significant performance boost over the full Graph.
 		graph = tree.getGraph().getSimplifiedGraph(); // IllegalArgumentException if i.e, tree has multiple roots
-		final HashMap<SWCPoint, Double> descriptorMap = new HashMap<SWCPoint, Double>();
-		for (final SWCPoint node : graph.vertexSet()) {
-			descriptorMap.put(node, descriptorFunc(graph, node, function));
-		}
-		final Set<SWCPoint> openSet = new HashSet<SWCPoint>();
-		final List<SWCPoint> tips = graph.getTips();
-		SWCPoint maxTip = tips.get(0);
-		for (final SWCPoint t : tips) {
-			openSet.add(t);
-			t.v = descriptorMap.get(t);
-			if (t.v > maxTip.v) {
-				maxTip = t;
-			}
+		final TreeTopology topology = TreeTopology.of(graph);
+		final int root = topology.getRoot(); // IllegalStateException if graph has multiple roots
+		final int n = topology.size();
+
+		final double[][] values = new double[functions.length][];
+		final double[][] survivingValues = new double[functions.length][];
+		final List<List<double[]>> diagrams = new ArrayList<>(functions.length);
+		final List<List<SWCPoint[]>> diagramNodes = new ArrayList<>(functions.length);
+		for (int f = 0; f < functions.length; f++) {
+			values[f] = descriptorValues(functions[f], topology);
+			survivingValues[f] = new double[n];
+			diagrams.add(new ArrayList<>());
+			diagramNodes.add(new ArrayList<>());
 		}
-		final SWCPoint root = graph.getRoot();
 
-		while (!openSet.contains(root)) {
-			final List<SWCPoint> toRemove = new ArrayList<SWCPoint>();
-			final List<SWCPoint> toAdd = new ArrayList<SWCPoint>();
-			for (final SWCPoint l : openSet){
-				if (toRemove.contains(l)) continue;
-				final SWCPoint p = Graphs.predecessorListOf(graph, l).get(0);
-				final List<SWCPoint> children = Graphs.successorListOf(graph, p);
-				if (openSet.containsAll(children)) {
-					final SWCPoint survivor = children.stream().max(Comparator.comparingDouble(n -> n.v)).get();
-					toAdd.add(p);
-					for (final SWCPoint child : children) {
-						toRemove.add(child);
-						if (!child.equals(survivor)) {
-							persistenceDiagram.add(new ArrayList<Double>(Arrays.asList(descriptorMap.get(p), child.v)));
-							persistenceNodes.add(new ArrayList<>(Arrays.asList(p, child)));
-						}
-					}
-					p.v = survivor.v;
+		for (int i = n - 1; i >= 0; i--) {
+			final int first = topology.getFirstChild(i);
+			final int last = first + topology.getChildCount(i);
+			for (int f = 0; f < functions.length; f++) {
+				final double[] value = values[f];
+				final double[] surviving = survivingValues[f];
+				if (first == last) { // tip
+					surviving[i] = value[i];
+					continue;
+				}
+				int survivor = first; // on ties, the first child survives
+				for (int c = first + 1; c < last; c++) {
+					if (surviving[c] > surviving[survivor]) survivor = c;
+				}
+				for (int c = first; c < last; c++) {
+					if (c == survivor) continue;
+					diagrams.get(f).add(new double[] { value[i], surviving[c] });
+					diagramNodes.get(f).add(new SWCPoint[] { topology.getNode(i), topology.getNode(c) });
 				}
+				surviving[i] = surviving[survivor];
 			}
-			openSet.addAll(toAdd);
-			openSet.removeAll(toRemove);
 		}
 
-		persistenceDiagram.add(new ArrayList<Double>(Arrays.asList(descriptorMap.get(root), root.v)));
-		persistenceNodes.add(new ArrayList<SWCPoint>(Arrays.asList(root, maxTip)));
+		final int[] tips = topology.getTips();
+		for (int f = 0; f < functions.length; f++) {
+			final double[] value = values[f];
+			int maxTip = tips[0];
+			for (final int t : tips) {
+				if (value[t] > value[maxTip]) maxTip = t;
+			}
+			diagrams.get(f).add(new double[] { value[root], survivingValues[f][root] });
+			diagramNodes.get(f).add(new SWCPoint[] { topology.getNode(root), topology.getNode(maxTip) });
+			store(FUNC_STRINGS[functions[f]], diagrams.get(f), diagramNodes.get(f));
+		}
+	}
 
+	/* Stores diagram points and their nodes, sorted by 'birth' */
+	private void store(final String func, final List<double[]> points, final List<SWCPoint[]> pointNodes) {
+		final Integer[] order = new Integer[points.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, Comparator.comparingDouble(i -> points.get(i)[0]));
+		final ArrayList<ArrayList<Double>> persistenceDiagram = new ArrayList<>(order.length);
+		final ArrayList<ArrayList<SWCPoint>> persistenceNodes = new ArrayList<>(order.length);
+		for (final int i : order) {
+			persistenceDiagram.add(new ArrayList<>(Arrays.asList(points.get(i)[0], points.get(i)[1])));
+			persistenceNodes.add(new ArrayList<>(Arrays.asList(pointNodes.get(i))));
+		}
 		persistenceDiagramMap.put(func, persistenceDiagram);
 		persistenceNodesMap.put(func, persistenceNodes);
-		nodeValuesAssigned = false; // reset field so that it can be recycled by a different func
 	}
 
 	/**
@@ -163,17 +200,7 @@ public class PersistenceAnalyzer {
 	 *                                  obtained
 	 */
 	public ArrayList<ArrayList<Double>> getDiagram(final String descriptor) throws UnknownMetricException, IllegalArgumentException {
-		if (persistenceDiagramMap.get(descriptor) == null || persistenceDiagramMap.get(descriptor).isEmpty()) {
-			compute(descriptor);
-		}
-		final ArrayList<ArrayList<Double>> diagram = persistenceDiagramMap.get(descriptor);
-		Collections.sort(diagram, new Comparator<ArrayList<Double>>() {
-			@Override
-			public int compare(final ArrayList<Double> o1, final ArrayList<Double> o2) {
-				return o1.get(0).compareTo(o2.get(0));
-			}
-		});
-		return diagram;
+		return persistenceDiagramMap.get(getComputedKey(descriptor));
 	}
 
 	/**
@@ -210,16 +237,7 @@ public class PersistenceAnalyzer {
 	 *                                  obtained
 	 */
 	public ArrayList<ArrayList<SWCPoint>> getDiagramNodes(final String descriptor) {
-		if (persistenceNodesMap.get(descriptor) == null || persistenceNodesMap.get(descriptor).isEmpty())
-			compute(descriptor);
-		final ArrayList<ArrayList<SWCPoint>> nodeDiagram = persistenceNodesMap.get(descriptor);
-		Collections.sort(nodeDiagram, new Comparator<ArrayList<SWCPoint>>() {
-			@Override
-			public int compare(final ArrayList<SWCPoint> o1, final ArrayList<SWCPoint> o2) {
-				return Double.compare(o1.get(0).v, o2.get(0).v);
-			}
-		});
-		return nodeDiagram;
+		return persistenceNodesMap.get(getComputedKey(descriptor));
 	}
 	
 	/** Gets the persistence landscape.
@@ -231,10 +249,7 @@ public class PersistenceAnalyzer {
      * @param resolution the number of samples for all piecewise-linear functions.
 	 */
 	public double[] getLandscape(final String descriptor, final int numLandscapes, final int resolution) {
-		if (persistenceDiagramMap.get(descriptor) == null || persistenceDiagramMap.get(descriptor).isEmpty()) {
-			compute(descriptor);
-		}
-		final ArrayList<ArrayList<Double>> diagram = persistenceDiagramMap.get(descriptor);
+		final ArrayList<ArrayList<Double>> diagram = persistenceDiagramMap.get(getComputedKey(descriptor));
 		final double[] landscape = landscapeTransform(diagram, numLandscapes, resolution);
 		return landscape;
 	}
@@ -248,29 +263,42 @@ public class PersistenceAnalyzer {
 		return Arrays.asList(FUNC_STRINGS);
 	}
 
-	private double descriptorFunc(final DirectedWeightedGraph graph, final SWCPoint node, final int func) throws UnknownMetricException {
+	private double[] descriptorValues(final int func, final TreeTopology topology) throws UnknownMetricException {
+		final int n = topology.size();
+		final double[] values = new double[n];
 		switch (func) {
 		case FUNC_0_GEODESIC:
-			return geodesicDistanceToRoot(graph, node);
+			return topology.getPathLengthsToRoot();
 		case FUNC_1_RADIAL:
-			return radialDistanceToRoot(graph, node);
+			final SWCPoint root = topology.getNode(topology.getRoot());
+			for (int i = 0; i < n; i++)
+				values[i] = root.distanceTo(topology.getNode(i));
+			break;
 		case FUNC_2_CENTRIFUGAL:
-			if (!nodeValuesAssigned) {
-				StrahlerAnalyzer.classify(graph, true);
-				nodeValuesAssigned = true;
-			}
-			return node.v;
+			final int[] orders = StrahlerAnalyzer.classify(topology, true);
+			for (int i = 0; i < n; i++)
+				values[i] = orders[i];
+			break;
 		case FUNC_3_PATH_ORDER:
-			return node.getPath().getOrder();
+			for (int i = 0; i < n; i++)
+				values[i] = topology.getNode(i).getPath().getOrder();
+			break;
 		case FUNC_4_X:
-			return node.getX();
+			for (int i = 0; i < n; i++)
+				values[i] = topology.getX(i);
+			break;
 		case FUNC_5_Y:
-			return node.getY();
+			for (int i = 0; i < n; i++)
+				values[i] = topology.getY(i);
+			break;
 		case FUNC_6_Z:
-			return node.getZ();
+			for (int i = 0; i < n; i++)
+				values[i] = topology.getZ(i);
+			break;
 		default:
 			throw new UnknownMetricException("Unrecognized Descriptor");
 		}
+		return values;
 	}
 
 	private int getNormFunction(final String func) {
@@ -291,24 +319,6 @@ public class PersistenceAnalyzer {
 		return FUNC_UNKNOWN;
 	}
 
-	private double geodesicDistanceToRoot(final DirectedWeightedGraph graph, SWCPoint node) {
-		double distance = 0;
-		if (node.parent == -1)
-			return 0.0;
-		while (node.parent != -1) {
-			final SWCPoint p = Graphs.predecessorListOf(graph, node).get(0);
-			final SWCWeightedEdge incomingEdge = graph.getEdge(p, node);
-			final double weight = incomingEdge.getWeight();
-			distance += weight;
-			node = p;
-		}
-		return distance;
-	}
-
-	private double radialDistanceToRoot(final DirectedWeightedGraph graph, final SWCPoint node) {
-		return graph.getRoot().distanceTo(node);
-	}
-
 	private class Linspace {
 		private double current;
 		private final double end;
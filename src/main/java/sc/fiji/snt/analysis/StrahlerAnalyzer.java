@@ -24,20 +24,11 @@ package sc.fiji.snt.analysis;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import org.jgrapht.Graphs;
-import org.jgrapht.graph.AsSubgraph;
-
 import net.imagej.ImageJ;
 import net.imagej.display.ColorTables;
 import sc.fiji.snt.Path;
@@ -45,7 +36,7 @@ import sc.fiji.snt.SNTService;
 import sc.fiji.snt.SNTUtils;
 import sc.fiji.snt.Tree;
 import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
-import sc.fiji.snt.analysis.graph.SWCWeightedEdge;
+import sc.fiji.snt.analysis.graph.TreeTopology;
 import sc.fiji.snt.util.SWCPoint;
 import sc.fiji.snt.viewer.Viewer3D;
 
@@ -78,107 +69,91 @@ public class StrahlerAnalyzer {
 	private void compute(final DirectedWeightedGraph graph) throws IllegalArgumentException {
 
 		this.graph = graph;
+		SNTUtils.log("Assembling topology...");
+		final TreeTopology topology = TreeTopology.of(graph);
 
-		final List<SWCPoint> allNodes = new ArrayList<>();
-		final List<SWCPoint> unVisitedNodes = new ArrayList<>();
-
-		// we'll store order classification in the "value" field of each node,
-		// so we need to reset those to 0 in case they have been set elsewhere
-		SNTUtils.log("Resetting node values...");
-		for (final SWCPoint node : graph.vertexSet()) {
-			node.v = 0;
-			allNodes.add(node);
-		}
-
+		// we'll store order classification in the "value" field of each node
 		SNTUtils.log("Assigning order labels...");
-		// NB: We must iterate over vertices in reverse order
+		final int[] orders = classify(topology, false);
 		maxOrder = 1;
-		final ListIterator<SWCPoint> listIterator = allNodes.listIterator(allNodes.size());
-		while (listIterator.hasPrevious()) {
-			final SWCPoint node = listIterator.previous();
-			classifyNode(node);
-			if (node.v < 1)
-				unVisitedNodes.add(node);
-		}
-
-		// All vertices should have been visited at this point. Do a 2nd pass
-		// if not (perhaps ordering in graph.vertexSet() got scrambled?),
-		assert unVisitedNodes.isEmpty();
-		while (unVisitedNodes.size() > 0) {
-			final ListIterator<SWCPoint> unvisitedIterator = unVisitedNodes.listIterator(unVisitedNodes.size());
-			while (unvisitedIterator.hasPrevious()) {
-				final SWCPoint node = unvisitedIterator.previous();
-				classifyNode(node);
-				if (node.v < 1)
-					unvisitedIterator.remove();
-			}
+		for (int i = 0; i < orders.length; i++) {
+			topology.getNode(i).v = orders[i];
+			if (orders[i] > maxOrder) maxOrder = orders[i];
 		}
 		SNTUtils.log("Max order: " + maxOrder);
 
 		SNTUtils.log("Assembling maps...");
-		IntStream.rangeClosed(1, maxOrder).forEach(order -> {
-
-			final Set<SWCPoint> nodes = graph.vertexSet().stream() //
-					.filter(node -> node.v == order) // include only those of this order
-					.collect(Collectors.toCollection(HashSet::new)); // collect output in new list
-
-			// now measure the group
-			final AsSubgraph<SWCPoint, SWCWeightedEdge> subGraph = new AsSubgraph<SWCPoint, SWCWeightedEdge>(
-					graph, nodes);
-
-			// Total length
-			double cableLength = 0;
-			for (final SWCWeightedEdge edge : subGraph.edgeSet()) {
-				cableLength += subGraph.getEdgeWeight(edge);
-			}
-			tLengthMap.put(order, cableLength);
-
+		final double[] lengths = new double[maxOrder + 1];
+		final double[] nBPs = new double[maxOrder + 1];
+		final List<List<Path>> branches = new ArrayList<>(maxOrder + 1);
+		for (int order = 0; order <= maxOrder; order++)
+			branches.add(new ArrayList<>());
+		for (int i = 0; i < orders.length; i++) {
+			// Total length: edges whose nodes share the same order
+			final int parent = topology.getParent(i);
+			if (parent > -1 && orders[parent] == orders[i])
+				lengths[orders[i]] += topology.getWeight(i);
 			// # N Branch Points
-			double nBPs = 0;
-			for (final SWCPoint node : subGraph.vertexSet()) {
-				if (graph.outDegreeOf(node) > 1) {
-					nBPs++;
-				}
-			}
-			bPointsMap.put(order, nBPs);
-
-			// # N. branches
-			ArrayList<Path>branches = new ArrayList<>();
-			final LinkedHashSet<SWCPoint> relevantNodes = new LinkedHashSet<>();
-			relevantNodes.addAll(subGraph.vertexSet().stream()
-					.filter(v -> graph.outDegreeOf(v) > 1).collect(Collectors.toCollection(HashSet::new)));
-			relevantNodes.addAll(subGraph.vertexSet().stream()
-					.filter(v -> graph.outDegreeOf(v) == 0).collect(Collectors.toCollection(HashSet::new)));
-			
-			for (SWCPoint subGraphNode : relevantNodes) {
-				Path p = getPathToFirstRelevantAncestor(subGraphNode);
-				if (p.size() > 1) branches.add(p);
+			if (topology.isBranchPoint(i))
+				nBPs[orders[i]]++;
+		}
+		// # N. branches: segments ending at branch points, then those ending at tips
+		for (final int[] relevantNodes : new int[][] { topology.getBranchPoints(), topology.getTips() }) {
+			for (final int node : relevantNodes) {
+				final Path p = getPathToFirstRelevantAncestor(topology, node);
+				if (p.size() > 1) branches.get(orders[node]).add(p);
 			}
-			
-			nBranchesMap.put(order, (double)branches.size());
-			branchesMap.put(order, branches);
-		});
+		}
+		for (int order = 1; order <= maxOrder; order++) {
+			tLengthMap.put(order, lengths[order]);
+			bPointsMap.put(order, nBPs[order]);
+			nBranchesMap.put(order, (double) branches.get(order).size());
+			branchesMap.put(order, branches.get(order));
+		}
 	}
 
-	private void classifyNode(final SWCPoint node) {
-		final int degree = graph.outDegreeOf(node);
-		int order = 0;
-		if (degree == 0) {
-			order = 1;
-		} else if (degree == 1) {
-			order = (int) Graphs.successorListOf(graph, node).get(0).v;
-		} else if (degree > 1) {
-			final List<SWCPoint> children = Graphs.successorListOf(graph, node);
-			final int highestOrder = (int) Collections.max(children, Comparator.comparing(n -> (int) n.v)).v;
-			final long highestOrderFreq = children.stream().filter(c -> (int) c.v == highestOrder).count();
-			if (highestOrderFreq == 1l)
-				order = highestOrder;
-			else if (highestOrderFreq > 1l) {
-				order = highestOrder + 1;
+	/**
+	 * Computes the Horton-Strahler number of each node of a topology.
+	 *
+	 * @param topology     the topology to be classified
+	 * @param reverseOrder if true, orders are reversed so that the root is
+	 *                     assigned 1 and the highest order is assigned to tips
+	 * @return the Horton-Strahler numbers, indexed as {@code topology}'s nodes.
+	 *         NB: The SWCPoints associated with {@code topology} are not modified
+	 */
+	public static int[] classify(final TreeTopology topology, final boolean reverseOrder) {
+		final int[] orders = new int[topology.size()];
+		int maxOrder = 1;
+		// children always have higher indices than their parents
+		for (int i = orders.length - 1; i >= 0; i--) {
+			final int degree = topology.getChildCount(i);
+			final int first = topology.getFirstChild(i);
+			int order;
+			if (degree == 0) {
+				order = 1;
+			} else if (degree == 1) {
+				order = orders[first];
+			} else {
+				int highestOrder = 0;
+				int highestOrderFreq = 0;
+				for (int c = first; c < first + degree; c++) {
+					if (orders[c] > highestOrder) {
+						highestOrder = orders[c];
+						highestOrderFreq = 1;
+					} else if (orders[c] == highestOrder) {
+						highestOrderFreq++;
+					}
+				}
+				order = (highestOrderFreq == 1) ? highestOrder : highestOrder + 1;
 			}
+			if (order > maxOrder) maxOrder = order;
+			orders[i] = order;
 		}
-		if (order > maxOrder) maxOrder = order;
-		node.v = order;
+		if (reverseOrder) {
+			for (int i = 0; i < orders.length; i++)
+				orders[i] = maxOrder - orders[i] + 1;
+		}
+		return orders;
 	}
 
 	/**
@@ -189,21 +164,20 @@ public class StrahlerAnalyzer {
 		return graph;
 	}
 	
-	private Path getPathToFirstRelevantAncestor(SWCPoint startVertex) {
-		Path path = startVertex.getPath().createPath();
-		path.setOrder((int) startVertex.v);
-		SWCPoint currentVertex = startVertex;
-
-		List<SWCPoint> reversed = new ArrayList<SWCPoint>();
-		reversed.add(0, currentVertex);
-		
-		while (Graphs.vertexHasPredecessors(graph, currentVertex)) {
-			currentVertex = Graphs.predecessorListOf(graph,  currentVertex).get(0);
-			reversed.add(0, currentVertex);
-			if (graph.outDegreeOf(currentVertex) > 1) {
+	private Path getPathToFirstRelevantAncestor(final TreeTopology topology, final int startVertex) {
+		final SWCPoint start = topology.getNode(startVertex);
+		final Path path = start.getPath().createPath();
+		path.setOrder((int) start.v);
+
+		final List<SWCPoint> reversed = new ArrayList<SWCPoint>();
+		reversed.add(start);
+		for (int current = topology.getParent(startVertex); current > -1; current = topology.getParent(current)) {
+			reversed.add(topology.getNode(current));
+			if (topology.isBranchPoint(current)) {
 				break;
 			}
 		}
+		Collections.reverse(reversed);
 
 		for (SWCPoint point : reversed) {
 			path.addNode(point);
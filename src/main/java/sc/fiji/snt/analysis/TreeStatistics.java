@@ -42,7 +42,7 @@ import sc.fiji.snt.SNTUtils;
 import sc.fiji.snt.Tree;
 import sc.fiji.snt.analysis.AnalysisUtils.HistogramDatasetPlus;
 import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
-import sc.fiji.snt.analysis.graph.DirectedWeightedSubgraph;
+import sc.fiji.snt.analysis.graph.TreeTopology;
 import sc.fiji.snt.annotation.AllenCompartment;
 import sc.fiji.snt.annotation.BrainAnnotation;
 import sc.fiji.snt.io.MouseLightLoader;
@@ -265,12 +265,17 @@ public class TreeStatistics extends TreeAnalyzer {
 		final NodeStatistics<SWCPoint> nodeStats = new NodeStatistics<SWCPoint>(graph.vertexSet(lr));
 		final Map<BrainAnnotation, Set<SWCPoint>> annotatedNodesMap = nodeStats.getAnnotatedNodes(level);
 		final HashMap<BrainAnnotation, Double> lengthMap = new HashMap<>();
+		// The length of each compartment includes edges crossing into it, i.e.,
+		// the edge between each of its nodes and its parent. This is equivalent to
+		// DirectedWeightedSubgraph#sumEdgeWeights(true), without assembling subgraphs
+		final TreeTopology topology = TreeTopology.of(graph);
 		for (final Map.Entry<BrainAnnotation, Set<SWCPoint>> entry : annotatedNodesMap.entrySet()) {
-		    final BrainAnnotation annotation = entry.getKey();
-		    final Set<SWCPoint> nodeSubset = entry.getValue();
-		    final DirectedWeightedSubgraph subgraph = graph.getSubgraph(nodeSubset);
-		    final double subgraphWeight = subgraph.sumEdgeWeights(true);
-		    lengthMap.put(annotation, subgraphWeight);
+		    double subgraphWeight = 0;
+		    for (final SWCPoint node : entry.getValue()) {
+		        final int index = topology.indexOf(node);
+		        if (index > -1) subgraphWeight += topology.getWeight(index);
+		    }
+		    lengthMap.put(entry.getKey(), subgraphWeight);
 		}
 		return lengthMap;
 	}
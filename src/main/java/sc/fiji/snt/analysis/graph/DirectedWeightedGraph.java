@@ -48,6 +48,7 @@ public class DirectedWeightedGraph extends SNTGraph<SWCPoint, SWCWeightedEdge> {
 
 	private static final long serialVersionUID = 1L;
 	private Tree tree;
+	private transient LCAIndex lcaIndex;
 
 	/**
 	 * Creates a DirectedWeightedGraph from a Tree with edge weights corresponding
@@ -239,39 +240,143 @@ public class DirectedWeightedGraph extends SNTGraph<SWCPoint, SWCWeightedEdge> {
 
 	/**
 	 * Uses the least common ancestor to find the shortest path between any two vertices.
-	 * This is much faster (and lighter) than any of the shortest path algorithms included with JGraphT, even
-	 * those based on LCA (i.e., TarjanLCAFinder, EulerTourRMQLCAFinder, etc.) since no preprocessing is required.
-	 * Since this is a custom implementation, it should be tested against one of the shortest path algos
-	 * included with JGraphT.
 	 * @param v1 the source vertex
 	 * @param v2 the target vertex
 	 * @return the List of SWCPoints representing the shortest path, or null if no path exists
 	 */
 	private List<SWCPoint> shortestPathInternal(SWCPoint v1, SWCPoint v2) {
-		List<SWCPoint> ancestorList1 = new ArrayList<>();
-		SWCPoint currentVertex = v1;
-		ancestorList1.add(currentVertex);
-		while (Graphs.vertexHasPredecessors(this, currentVertex)) {
-			currentVertex = Graphs.predecessorListOf(this, currentVertex).get(0);
-			ancestorList1.add(currentVertex);
+		final LCAIndex index = getLCAIndex();
+		final TreeTopology topology = index.getTopology();
+		final int[] path = index.getPath(topology.indexOf(v1), topology.indexOf(v2));
+		if (path == null) {
+			return null;
+		}
+		final List<SWCPoint> list = new ArrayList<>(path.length);
+		for (final int node : path) {
+			list.add(topology.getNode(node));
 		}
-		if (ancestorList1.contains(v2)) {
-			return ancestorList1.subList(0, ancestorList1.indexOf(v2) + 1);
+		return list;
+	}
+
+	/**
+	 * Gets the index used to retrieve lowest common ancestors and geodesic
+	 * distances. The index is assembled on first use, and discarded whenever
+	 * vertices, edges or edge weights of this graph are modified.
+	 *
+	 * @return the LCA index of this graph
+	 * @throws IllegalArgumentException if this graph is not a tree (or a forest)
+	 */
+	public LCAIndex getLCAIndex() throws IllegalArgumentException {
+		if (lcaIndex == null) lcaIndex = new LCAIndex(TreeTopology.of(this));
+		return lcaIndex;
+	}
+
+	/**
+	 * Gets the lowest common ancestor of two vertices.
+	 *
+	 * @param v1 the first vertex
+	 * @param v2 the second vertex
+	 * @return the lowest common ancestor, or null if {@code v1} and {@code v2}
+	 *         are not connected
+	 * @throws IllegalArgumentException if either vertex is not contained in this
+	 *                                  graph
+	 */
+	public SWCPoint getLowestCommonAncestor(final SWCPoint v1, final SWCPoint v2) throws IllegalArgumentException {
+		final LCAIndex index = getLCAIndex();
+		final int lca = index.getLCA(indexOf(v1), indexOf(v2));
+		return (lca == -1) ? null : index.getTopology().getNode(lca);
+	}
+
+	/**
+	 * Gets the geodesic distance between two vertices, i.e., the summed weights
+	 * of the edges along the shortest path between them. After the
+	 * {@link #getLCAIndex() index} has been assembled, queries take constant
+	 * time.
+	 *
+	 * @param v1 the first vertex
+	 * @param v2 the second vertex
+	 * @return the geodesic distance, or {@code Double.NaN} if {@code v1} and
+	 *         {@code v2} are not connected
+	 * @throws IllegalArgumentException if either vertex is not contained in this
+	 *                                  graph
+	 */
+	public double geodesicDistance(final SWCPoint v1, final SWCPoint v2) throws IllegalArgumentException {
+		return getLCAIndex().getDistance(indexOf(v1), indexOf(v2));
+	}
+
+	/**
+	 * Gets the geodesic distances between all pairs of a list of vertices.
+	 *
+	 * @param vertices the list of vertices, e.g., {@link #getTips()}
+	 * @return the symmetric matrix of geodesic distances, indexed as
+	 *         {@code vertices}
+	 * @throws IllegalArgumentException if any vertex is not contained in this
+	 *                                  graph
+	 * @see #geodesicDistance(SWCPoint, SWCPoint)
+	 */
+	public double[][] geodesicDistances(final List<SWCPoint> vertices) throws IllegalArgumentException {
+		final LCAIndex index = getLCAIndex();
+		final int[] indices = new int[vertices.size()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = indexOf(vertices.get(i));
 		}
-		List<SWCPoint> ancestorList2 = new ArrayList<>();
-		currentVertex = v2;
-		ancestorList2.add(currentVertex);
-		while (Graphs.vertexHasPredecessors(this, currentVertex)) {
-			currentVertex = Graphs.predecessorListOf(this, currentVertex).get(0);
-			ancestorList2.add(currentVertex);
-			if (ancestorList1.contains(currentVertex)) {
-				List<SWCPoint> firstList = ancestorList1.subList(0, ancestorList1.indexOf(currentVertex));
-				Collections.reverse(ancestorList2);
-				firstList.addAll(ancestorList2);
-				return firstList;
+		final double[][] distances = new double[indices.length][indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			for (int j = i + 1; j < indices.length; j++) {
+				distances[i][j] = distances[j][i] = index.getDistance(indices[i], indices[j]);
 			}
 		}
-		return null;
+		return distances;
+	}
+
+	private int indexOf(final SWCPoint vertex) throws IllegalArgumentException {
+		final int index = getLCAIndex().getTopology().indexOf(vertex);
+		if (index == -1) {
+			throw new IllegalArgumentException("Node not contained in graph");
+		}
+		return index;
+	}
+
+	@Override
+	public boolean addVertex(final SWCPoint v) {
+		lcaIndex = null;
+		return super.addVertex(v);
+	}
+
+	@Override
+	public SWCWeightedEdge addEdge(final SWCPoint sourceVertex, final SWCPoint targetVertex) {
+		lcaIndex = null;
+		return super.addEdge(sourceVertex, targetVertex);
+	}
+
+	@Override
+	public boolean addEdge(final SWCPoint sourceVertex, final SWCPoint targetVertex, final SWCWeightedEdge e) {
+		lcaIndex = null;
+		return super.addEdge(sourceVertex, targetVertex, e);
+	}
+
+	@Override
+	public SWCWeightedEdge removeEdge(final SWCPoint sourceVertex, final SWCPoint targetVertex) {
+		lcaIndex = null;
+		return super.removeEdge(sourceVertex, targetVertex);
+	}
+
+	@Override
+	public boolean removeEdge(final SWCWeightedEdge e) {
+		lcaIndex = null;
+		return super.removeEdge(e);
+	}
+
+	@Override
+	public boolean removeVertex(final SWCPoint v) {
+		lcaIndex = null;
+		return super.removeVertex(v);
+	}
+
+	@Override
+	public void setEdgeWeight(final SWCWeightedEdge e, final double weight) {
+		lcaIndex = null;
+		super.setEdgeWeight(e, weight);
 	}
 
 	/**
@@ -26,7 +26,6 @@ import net.imglib2.display.ColorTable;
 import org.jgrapht.Graph;
 import org.jgrapht.alg.connectivity.BiconnectivityInspector;
 import org.jgrapht.alg.decomposition.HeavyPathDecomposition;
-import org.jgrapht.alg.scoring.BetweennessCentrality;
 import org.jgrapht.alg.scoring.PageRank;
 import org.jgrapht.alg.shortestpath.GraphMeasurer;
 import org.jgrapht.graph.AsSubgraph;
@@ -34,6 +33,7 @@ import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.Context;
 import org.scijava.plugin.Parameter;
 import org.scijava.util.ColorRGB;
+import sc.fiji.snt.SNTPrefs;
 import sc.fiji.snt.analysis.ColorMapper;
 
 import java.io.IOException;
@@ -89,6 +89,8 @@ public class GraphColorMapper<V, E extends DefaultWeightedEdge> extends ColorMap
     public static final int VERTICES_AND_EDGES = 4;
     private int mappedState;
     private boolean minMaxSet = false;
+    private int betweennessPivots;
+    private int nThreads = SNTPrefs.getThreads();
 
     private static final String[] ALL_FLAGS = { //
             BETWEENNESS_CENTRALITY,
@@ -129,6 +131,31 @@ public class GraphColorMapper<V, E extends DefaultWeightedEdge> extends ColorMap
         return Arrays.stream(ALL_FLAGS).collect(Collectors.toList());
     }
 
+    /**
+     * Sets the number of pivots (randomly sampled source vertices) used to
+     * approximate {@value #BETWEENNESS_CENTRALITY}. Approximate scores are
+     * considerably faster to compute on large, cyclic graphs. Trees are always
+     * scored exactly (in linear time).
+     *
+     * @param nPivots the number of pivots. If non-positive (the default), exact
+     *                scores are computed
+     * @see ParallelBetweennessCentrality#setPivots(int)
+     */
+    public void setBetweennessPivots(final int nPivots) {
+        this.betweennessPivots = nPivots;
+    }
+
+    /**
+     * Sets the number of threads used by multi-threaded metrics (currently
+     * {@value #BETWEENNESS_CENTRALITY}).
+     *
+     * @param nThreads the number of threads. If non-positive, all available
+     *                 processors are used
+     */
+    public void setNumThreads(final int nThreads) {
+        this.nThreads = nThreads;
+    }
+
     private void initLuts() {
         if (luts == null) luts = lutService.findLUTs();
     }
@@ -262,7 +289,9 @@ public class GraphColorMapper<V, E extends DefaultWeightedEdge> extends ColorMap
     }
 
     protected void mapToBetweennessCentrality(final ColorTable colorTable) {
-        BetweennessCentrality<V, E> bc = new BetweennessCentrality<>(subgraph, false);
+        ParallelBetweennessCentrality<V, E> bc = new ParallelBetweennessCentrality<>(subgraph);
+        bc.setNumThreads(nThreads);
+        bc.setPivots(betweennessPivots);
         Map<V, Double> scores = bc.getScores();
         if (!minMaxSet) {
             double min = Double.MAX_VALUE;
@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.analysis.graph;
+
+import java.util.Arrays;
+
+/**
+ * Answers lowest common ancestor (LCA) and geodesic distance queries on a
+ * {@link TreeTopology} in constant time, after an O(n log n) build. Nodes are
+ * ranked in depth-first (pre-)order: the LCA of two nodes u, v (with u ranked
+ * before v) is the parent of lowest rank among the nodes ranked in (u, v],
+ * which is retrieved from a sparse table of range minima. Geodesic distances
+ * are obtained from the cumulative distances to the root.
+ *
+ * @author Tiago Ferreira
+ */
+public final class LCAIndex {
+
+	private final TreeTopology topology;
+	private final int[] ranks; // node -> preorder rank
+	private final int[] order; // preorder rank -> node
+	private final int[] components; // node -> root
+	private final int[][] table; // table[k][r]: min. parent rank in [r, r + 2^k)
+	private final double[] rootDistances;
+
+	/**
+	 * Builds the index.
+	 *
+	 * @param topology the topology to be indexed
+	 */
+	public LCAIndex(final TreeTopology topology) {
+		this.topology = topology;
+		final int n = topology.size();
+		ranks = new int[n];
+		order = new int[n];
+		components = new int[n];
+		rootDistances = topology.getPathLengthsToRoot();
+
+		// Iterative preorder traversal of each tree
+		final int[] stack = new int[Math.max(1, n)];
+		int rank = 0;
+		for (int root = 0; root < topology.getRootCount(); root++) {
+			int top = 0;
+			stack[top++] = root;
+			while (top > 0) {
+				final int node = stack[--top];
+				ranks[node] = rank;
+				order[rank++] = node;
+				final int parent = topology.getParent(node);
+				components[node] = (parent == -1) ? node : components[parent];
+				// push children in reverse, so that they are visited in index order
+				final int first = topology.getFirstChild(node);
+				for (int c = first + topology.getChildCount(node) - 1; c >= first; c--)
+					stack[top++] = c;
+			}
+		}
+
+		// Sparse table over the ranks of parents (roots map to themselves: they
+		// are never within a queried range)
+		final int levels = (n < 2) ? 1 : 32 - Integer.numberOfLeadingZeros(n - 1);
+		table = new int[levels][];
+		table[0] = new int[n];
+		for (int r = 0; r < n; r++) {
+			final int parent = topology.getParent(order[r]);
+			table[0][r] = (parent == -1) ? r : ranks[parent];
+		}
+		for (int k = 1; k < levels; k++) {
+			final int half = 1 << (k - 1);
+			final int len = n - (1 << k) + 1;
+			table[k] = new int[len];
+			final int[] prev = table[k - 1];
+			for (int r = 0; r < len; r++)
+				table[k][r] = Math.min(prev[r], prev[r + half]);
+		}
+	}
+
+	/**
+	 * @return the indexed topology
+	 */
+	public TreeTopology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * Gets the lowest common ancestor of two nodes.
+	 *
+	 * @param u the index of the first node
+	 * @param v the index of the second node
+	 * @return the index of the lowest common ancestor of {@code u} and
+	 *         {@code v}, or -1 if they belong to different trees
+	 */
+	public int getLCA(final int u, final int v) {
+		if (u == v) return u;
+		if (components[u] != components[v]) return -1;
+		int lo = ranks[u];
+		int hi = ranks[v];
+		if (lo > hi) {
+			final int tmp = lo;
+			lo = hi;
+			hi = tmp;
+		}
+		lo++; // range is (ranks[u], ranks[v]]
+		final int k = 31 - Integer.numberOfLeadingZeros(hi - lo + 1);
+		return order[Math.min(table[k][lo], table[k][hi - (1 << k) + 1])];
+	}
+
+	/**
+	 * Gets the geodesic (path) distance between two nodes, i.e., the summed edge
+	 * weights between them.
+	 *
+	 * @param u the index of the first node
+	 * @param v the index of the second node
+	 * @return the geodesic distance, or {@code Double.NaN} if {@code u} and
+	 *         {@code v} belong to different trees
+	 */
+	public double getDistance(final int u, final int v) {
+		final int lca = getLCA(u, v);
+		if (lca == -1) return Double.NaN;
+		return rootDistances[u] + rootDistances[v] - 2 * rootDistances[lca];
+	}
+
+	/**
+	 * @param node the node index
+	 * @return the summed edge weights between {@code node} and its root
+	 */
+	public double getDistanceToRoot(final int node) {
+		return rootDistances[node];
+	}
+
+	/**
+	 * Gets the nodes along the path between two nodes.
+	 *
+	 * @param u the index of the source node
+	 * @param v the index of the target node
+	 * @return the indices of the nodes between {@code u} and {@code v}
+	 *         (inclusive), or null if they belong to different trees
+	 */
+	public int[] getPath(final int u, final int v) {
+		final int lca = getLCA(u, v);
+		if (lca == -1) return null;
+		final int[] up = climb(u, lca);
+		final int[] down = climb(v, lca);
+		final int[] path = Arrays.copyOf(up, up.length + down.length - 1);
+		for (int i = 0; i < down.length - 1; i++)
+			path[up.length + i] = down[down.length - 2 - i];
+		return path;
+	}
+
+	/* nodes from node up to ancestor (inclusive) */
+	private int[] climb(final int node, final int ancestor) {
+		int length = 1;
+		for (int n = node; n != ancestor; n = topology.getParent(n))
+			length++;
+		final int[] nodes = new int[length];
+		int i = 0;
+		for (int n = node; n != ancestor; n = topology.getParent(n))
+			nodes[i++] = n;
+		nodes[i] = ancestor;
+		return nodes;
+	}
+
+}
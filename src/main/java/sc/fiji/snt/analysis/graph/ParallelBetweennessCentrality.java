@@ -0,0 +1,422 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.analysis.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgrapht.Graph;
+import org.jgrapht.alg.interfaces.VertexScoringAlgorithm;
+
+import sc.fiji.snt.SNTPrefs;
+
+/**
+ * Computes (non-normalized) betweenness centrality, with the same semantics
+ * as jgrapht's {@link org.jgrapht.alg.scoring.BetweennessCentrality}, but
+ * tailored to large graphs:
+ * <ul>
+ * <li>Directed forests (e.g., the graph of a reconstruction) are scored in
+ * linear time: the only shortest paths through a vertex are those linking its
+ * ancestors to its descendants, so its score is the product of its depth by
+ * the size of its subtree (excluding itself).</li>
+ * <li>Other graphs are scored with Brandes' algorithm, with single-source
+ * searches spread across multiple threads. Optionally, only a random sample of
+ * source vertices (pivots) is searched and scores are extrapolated from it
+ * (Brandes &amp; Pich, 2007).</li>
+ * </ul>
+ *
+ * @author Tiago Ferreira
+ */
+public class ParallelBetweennessCentrality<V, E> implements VertexScoringAlgorithm<V, Double> {
+
+	/* Number of sources searched by a worker at a time */
+	private static final int CHUNK_SIZE = 16;
+
+	private final Graph<V, E> graph;
+	private int nThreads;
+	private int nPivots;
+	private long seed;
+	private Map<V, Double> scores;
+
+	// Compressed adjacency: outgoing and incoming arcs of each vertex
+	private int n;
+	private int[] outOffsets;
+	private int[] outTargets;
+	private double[] outWeights;
+	private int[] inOffsets;
+	private int[] inSources;
+	private double[] inWeights;
+
+	/**
+	 * @param graph the input graph
+	 */
+	public ParallelBetweennessCentrality(final Graph<V, E> graph) {
+		this.graph = graph;
+		nThreads = SNTPrefs.getThreads();
+		seed = 0;
+	}
+
+	/**
+	 * Sets the number of threads to be used.
+	 *
+	 * @param nThreads the number of threads. If non-positive, all available
+	 *          processors are used
+	 */
+	public void setNumThreads(final int nThreads) {
+		this.nThreads = (nThreads < 1) ? Runtime.getRuntime().availableProcessors() : nThreads;
+		scores = null;
+	}
+
+	/**
+	 * Sets the number of pivots (randomly sampled source vertices) used to
+	 * approximate scores. Ignored for directed forests, which are always scored
+	 * exactly.
+	 *
+	 * @param nPivots the number of pivots. If non-positive, or not smaller than
+	 *          the number of vertices, exact scores are computed
+	 */
+	public void setPivots(final int nPivots) {
+		this.nPivots = nPivots;
+		scores = null;
+	}
+
+	/**
+	 * Sets the seed of the pivot sampling.
+	 *
+	 * @param seed the seed of the random number generator
+	 */
+	public void setSeed(final long seed) {
+		this.seed = seed;
+		scores = null;
+	}
+
+	@Override
+	public Map<V, Double> getScores() {
+		if (scores == null) compute();
+		return Collections.unmodifiableMap(scores);
+	}
+
+	@Override
+	public Double getVertexScore(final V v) {
+		if (!graph.containsVertex(v)) throw new IllegalArgumentException("Cannot return score of unknown vertex");
+		return getScores().get(v);
+	}
+
+	private void compute() {
+		final List<V> vertices = new ArrayList<>(graph.vertexSet());
+		buildAdjacency(vertices);
+		double[] values = forestScores();
+		if (values == null) {
+			values = brandesScores();
+			if (graph.getType().isUndirected()) {
+				for (int i = 0; i < n; i++)
+					values[i] /= 2;
+			}
+		}
+		scores = new LinkedHashMap<>(2 * n);
+		for (int i = 0; i < n; i++)
+			scores.put(vertices.get(i), values[i]);
+	}
+
+	private void buildAdjacency(final List<V> vertices) {
+		n = vertices.size();
+		final Map<V, Integer> indices = new HashMap<>(2 * n);
+		for (int i = 0; i < n; i++)
+			indices.put(vertices.get(i), i);
+		final boolean undirected = graph.getType().isUndirected();
+		final boolean weighted = graph.getType().isWeighted();
+		final int nEdges = graph.edgeSet().size();
+		final int[] sources = new int[undirected ? 2 * nEdges : nEdges];
+		final int[] targets = new int[sources.length];
+		final double[] weights = new double[sources.length];
+		int m = 0;
+		for (final E edge : graph.edgeSet()) {
+			final int s = indices.get(graph.getEdgeSource(edge));
+			final int t = indices.get(graph.getEdgeTarget(edge));
+			if (s == t) continue; // self-loops are never part of a shortest path
+			final double w = (weighted) ? graph.getEdgeWeight(edge) : 1d;
+			if (w < 0) throw new IllegalArgumentException("Negative edge weights are not allowed");
+			sources[m] = s;
+			targets[m] = t;
+			weights[m++] = w;
+			if (undirected) {
+				sources[m] = t;
+				targets[m] = s;
+				weights[m++] = w;
+			}
+		}
+		outOffsets = new int[n + 1];
+		inOffsets = new int[n + 1];
+		for (int a = 0; a < m; a++) {
+			outOffsets[sources[a] + 1]++;
+			inOffsets[targets[a] + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			outOffsets[i + 1] += outOffsets[i];
+			inOffsets[i + 1] += inOffsets[i];
+		}
+		outTargets = new int[m];
+		outWeights = new double[m];
+		inSources = new int[m];
+		inWeights = new double[m];
+		final int[] outFill = Arrays.copyOf(outOffsets, n);
+		final int[] inFill = Arrays.copyOf(inOffsets, n);
+		for (int a = 0; a < m; a++) {
+			final int o = outFill[sources[a]]++;
+			outTargets[o] = targets[a];
+			outWeights[o] = weights[a];
+			final int i = inFill[targets[a]]++;
+			inSources[i] = sources[a];
+			inWeights[i] = weights[a];
+		}
+	}
+
+	/**
+	 * Scores a directed forest in linear time.
+	 *
+	 * @return the scores, or null if the graph is not a directed forest
+	 */
+	private double[] forestScores() {
+		if (graph.getType().isUndirected()) return null;
+		for (int i = 0; i < n; i++) {
+			if (inOffsets[i + 1] - inOffsets[i] > 1) return null;
+		}
+		// Breadth-first traversal from the roots: every vertex must be reached
+		final int[] order = new int[n];
+		final int[] parents = new int[n];
+		final int[] depths = new int[n];
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			if (inOffsets[i + 1] == inOffsets[i]) {
+				parents[i] = -1;
+				order[size++] = i;
+			}
+		}
+		for (int head = 0; head < size; head++) {
+			final int v = order[head];
+			for (int a = outOffsets[v]; a < outOffsets[v + 1]; a++) {
+				final int w = outTargets[a];
+				parents[w] = v;
+				depths[w] = depths[v] + 1;
+				order[size++] = w;
+			}
+		}
+		if (size < n) return null; // cycles
+		final int[] subtreeSizes = new int[n];
+		final double[] values = new double[n];
+		for (int i = n - 1; i >= 0; i--) {
+			final int v = order[i];
+			values[v] = (double) depths[v] * subtreeSizes[v];
+			if (parents[v] > -1) subtreeSizes[parents[v]] += subtreeSizes[v] + 1;
+		}
+		return values;
+	}
+
+	/**
+	 * Scores an arbitrary graph using Brandes' algorithm.
+	 *
+	 * @return the scores
+	 */
+	private double[] brandesScores() {
+		final int[] sources = new int[n];
+		for (int i = 0; i < n; i++)
+			sources[i] = i;
+		int nSources = n;
+		if (nPivots > 0 && nPivots < n) {
+			// partial Fisher-Yates shuffle
+			final Random random = new Random(seed);
+			for (int i = 0; i < nPivots; i++) {
+				final int j = i + random.nextInt(n - i);
+				final int tmp = sources[i];
+				sources[i] = sources[j];
+				sources[j] = tmp;
+			}
+			nSources = nPivots;
+		}
+		final int nChunks = (nSources + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		final int nWorkers = Math.max(1, Math.min(nThreads, nChunks));
+		final double[][] partials = new double[nWorkers][];
+		final ExecutorService executor = Executors.newFixedThreadPool(nWorkers);
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final int lastSource = nSources;
+		try {
+			final List<Future<?>> futures = new ArrayList<>(nWorkers);
+			for (int w = 0; w < nWorkers; w++) {
+				final int worker = w;
+				futures.add(executor.submit(() -> {
+					final Search search = new Search();
+					int c;
+					while ((c = nextChunk.getAndIncrement()) < nChunks) {
+						if (Thread.currentThread().isInterrupted()) return;
+						final int end = Math.min(lastSource, (c + 1) * CHUNK_SIZE);
+						for (int i = c * CHUNK_SIZE; i < end; i++)
+							search.accumulate(sources[i]);
+					}
+					partials[worker] = search.values;
+				}));
+			}
+			for (final Future<?> future : futures)
+				future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Betweenness computation interrupted", e);
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("Betweenness computation failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		final double[] values = new double[n];
+		for (final double[] partial : partials) {
+			for (int i = 0; i < n; i++)
+				values[i] += partial[i];
+		}
+		if (nSources < n) {
+			final double scale = (double) n / nSources;
+			for (int i = 0; i < n; i++)
+				values[i] *= scale;
+		}
+		return values;
+	}
+
+	/**
+	 * Single-source shortest path search (Dijkstra, or breadth-first for
+	 * unweighted graphs) with its own buffers, accumulating the dependencies of
+	 * each searched source.
+	 */
+	private class Search {
+
+		final double[] values = new double[n];
+		final double[] distances = new double[n];
+		final double[] sigma = new double[n]; // number of shortest paths
+		final double[] delta = new double[n]; // dependency on source
+		final int[] positions = new int[n]; // order in which vertices were settled
+		final int[] settled = new int[n];
+		final boolean weighted = graph.getType().isWeighted();
+		// priority queue with lazy deletion: a vertex is queued once per improvement
+		int[] heapNodes = new int[Math.max(1, n)];
+		double[] heapKeys = new double[heapNodes.length];
+		int heapSize;
+		final int[] queue = (weighted) ? null : new int[n];
+
+		Search() {
+			Arrays.fill(distances, Double.POSITIVE_INFINITY);
+			Arrays.fill(positions, -1);
+		}
+
+		void accumulate(final int source) {
+			distances[source] = 0;
+			sigma[source] = 1;
+			int nSettled = 0;
+			int head = 0;
+			int tail = 0;
+			if (weighted) push(source, 0);
+			else queue[tail++] = source;
+			while ((weighted) ? heapSize > 0 : head < tail) {
+				final int v = (weighted) ? pop() : queue[head++];
+				if (positions[v] > -1) continue; // stale entry
+				positions[v] = nSettled;
+				settled[nSettled++] = v;
+				for (int a = outOffsets[v]; a < outOffsets[v + 1]; a++) {
+					final int w = outTargets[a];
+					if (positions[w] > -1) continue;
+					final double d = distances[v] + outWeights[a];
+					if (d < distances[w]) {
+						if (!weighted && distances[w] == Double.POSITIVE_INFINITY) queue[tail++] = w;
+						distances[w] = d;
+						sigma[w] = sigma[v];
+						if (weighted) push(w, d);
+					} else if (d == distances[w]) {
+						sigma[w] += sigma[v];
+					}
+				}
+			}
+			// Back-propagate dependencies in reverse order of settlement, over
+			// the arcs that contributed to each count of shortest paths
+			for (int s = nSettled - 1; s >= 0; s--) {
+				final int w = settled[s];
+				final double coefficient = (1 + delta[w]) / sigma[w];
+				for (int a = inOffsets[w]; a < inOffsets[w + 1]; a++) {
+					final int v = inSources[a];
+					if (positions[v] > -1 && positions[v] < s && distances[v] + inWeights[a] == distances[w])
+						delta[v] += sigma[v] * coefficient;
+				}
+				if (w != source) values[w] += delta[w];
+			}
+			for (int s = 0; s < nSettled; s++) {
+				final int v = settled[s];
+				distances[v] = Double.POSITIVE_INFINITY;
+				sigma[v] = 0;
+				delta[v] = 0;
+				positions[v] = -1;
+			}
+		}
+
+		void push(final int node, final double key) {
+			if (heapSize == heapNodes.length) {
+				heapNodes = Arrays.copyOf(heapNodes, 2 * heapSize);
+				heapKeys = Arrays.copyOf(heapKeys, 2 * heapSize);
+			}
+			int i = heapSize++;
+			while (i > 0) {
+				final int parent = (i - 1) >>> 1;
+				if (heapKeys[parent] <= key) break;
+				heapNodes[i] = heapNodes[parent];
+				heapKeys[i] = heapKeys[parent];
+				i = parent;
+			}
+			heapNodes[i] = node;
+			heapKeys[i] = key;
+		}
+
+		int pop() {
+			final int top = heapNodes[0];
+			final int last = heapNodes[--heapSize];
+			final double key = heapKeys[heapSize];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= heapSize) break;
+				if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+				if (heapKeys[child] >= key) break;
+				heapNodes[i] = heapNodes[child];
+				heapKeys[i] = heapKeys[child];
+				i = child;
+			}
+			heapNodes[i] = last;
+			heapKeys[i] = key;
+			return top;
+		}
+	}
+
+}
@@ -0,0 +1,447 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.analysis.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import sc.fiji.snt.Tree;
+import sc.fiji.snt.util.SWCPoint;
+
+/**
+ * Array-backed representation of the topology of a reconstruction.
+ * Nodes are indexed in breadth-first order so that parents always precede
+ * their children and the children of a node have consecutive indices:
+ * iterating indices in reverse order is a post-order traversal. Parents,
+ * children, coordinates, radii and edge weights are stored in primitive
+ * arrays, making this class considerably lighter (and faster to traverse)
+ * than {@link DirectedWeightedGraph} for large reconstructions.
+ * <p>
+ * Multiple roots (i.e., forests) are supported, but {@link #getRoot()} requires
+ * a single one.
+ * </p>
+ * <p>
+ * The structure of a topology does not change once assembled. However, the
+ * SWCPoints associated with it are shared with its source (not copied), and
+ * {@link #toTree(String)} modifies them.
+ * </p>
+ *
+ * @author Tiago Ferreira
+ */
+public final class TreeTopology {
+
+	private final SWCPoint[] nodes;
+	private final int[] parents;
+	private final int[] childOffsets;
+	private final double[] xs;
+	private final double[] ys;
+	private final double[] zs;
+	private final double[] radii;
+	private final double[] weights;
+	private final int nRoots;
+	private final Map<SWCPoint, Integer> indices;
+
+	/* nodes are in BFS order, roots first */
+	private TreeTopology(final SWCPoint[] nodes, final int[] parents, final double[] weights, final int nRoots) {
+		final int n = nodes.length;
+		this.nodes = nodes;
+		this.parents = parents;
+		this.weights = weights;
+		this.nRoots = nRoots;
+		childOffsets = new int[n + 1];
+		childOffsets[0] = nRoots;
+		final int[] childCounts = new int[n];
+		for (int i = nRoots; i < n; i++)
+			childCounts[parents[i]]++;
+		for (int i = 0; i < n; i++)
+			childOffsets[i + 1] = childOffsets[i] + childCounts[i];
+		xs = new double[n];
+		ys = new double[n];
+		zs = new double[n];
+		radii = new double[n];
+		indices = new IdentityHashMap<>(n);
+		for (int i = 0; i < n; i++) {
+			xs[i] = nodes[i].x;
+			ys[i] = nodes[i].y;
+			zs[i] = nodes[i].z;
+			radii[i] = nodes[i].radius;
+			indices.put(nodes[i], i);
+		}
+	}
+
+	/**
+	 * Assembles the topology of a Tree, with edge weights corresponding to
+	 * inter-node distances. The graph of {@code tree} is not assembled.
+	 *
+	 * @param tree the Tree to be converted
+	 * @return the topology of {@code tree}
+	 * @throws IllegalArgumentException if tree contains loops, or nodes with
+	 *           unknown parents
+	 */
+	public static TreeTopology of(final Tree tree) throws IllegalArgumentException {
+		return of(tree.getNodesAsSWCPoints());
+	}
+
+	/**
+	 * Assembles a topology from a collection of reconstruction nodes, linked by
+	 * their {@code id} and {@code parent} fields. Edge weights correspond to
+	 * inter-node distances.
+	 *
+	 * @param nodes the collection of SWC nodes
+	 * @return the topology of {@code nodes}
+	 * @throws IllegalArgumentException if nodes contain loops, or nodes with
+	 *           unknown parents
+	 */
+	public static TreeTopology of(final Collection<SWCPoint> nodes) throws IllegalArgumentException {
+		final SWCPoint[] src = nodes.toArray(new SWCPoint[0]);
+		final Map<Integer, Integer> ids = new HashMap<>(src.length * 2);
+		for (int i = 0; i < src.length; i++)
+			ids.put(src[i].id, i);
+		final int[] srcParents = new int[src.length];
+		final double[] srcWeights = new double[src.length];
+		for (int i = 0; i < src.length; i++) {
+			if (src[i].parent == -1) {
+				srcParents[i] = -1;
+				continue;
+			}
+			final Integer parent = ids.get(src[i].parent);
+			if (parent == null)
+				throw new IllegalArgumentException("Parent of node " + src[i].id + " does not exist");
+			srcParents[i] = parent;
+			srcWeights[i] = src[i].distanceTo(src[parent]);
+		}
+		return build(src, srcParents, srcWeights);
+	}
+
+	/**
+	 * Assembles the topology of a graph. Edge weights are retained.
+	 *
+	 * @param graph the graph to be converted
+	 * @return the topology of {@code graph}
+	 * @throws IllegalArgumentException if graph is not a tree (or a forest)
+	 */
+	public static TreeTopology of(final DirectedWeightedGraph graph) throws IllegalArgumentException {
+		final Set<SWCPoint> vertices = graph.vertexSet();
+		final SWCPoint[] src = vertices.toArray(new SWCPoint[0]);
+		final Map<SWCPoint, Integer> srcIndices = new IdentityHashMap<>(src.length);
+		for (int i = 0; i < src.length; i++)
+			srcIndices.put(src[i], i);
+		final int[] srcParents = new int[src.length];
+		final double[] srcWeights = new double[src.length];
+		for (int i = 0; i < src.length; i++) {
+			final Set<SWCWeightedEdge> incoming = graph.incomingEdgesOf(src[i]);
+			if (incoming.size() > 1)
+				throw new IllegalArgumentException("Node " + src[i].id + " has multiple parents");
+			if (incoming.isEmpty()) {
+				srcParents[i] = -1;
+				continue;
+			}
+			final SWCWeightedEdge edge = incoming.iterator().next();
+			srcParents[i] = srcIndices.get(graph.getEdgeSource(edge));
+			srcWeights[i] = edge.getWeight();
+		}
+		return build(src, srcParents, srcWeights);
+	}
+
+	/* Re-indexes nodes in BFS order, keeping children in source order */
+	private static TreeTopology build(final SWCPoint[] src, final int[] srcParents, final double[] srcWeights)
+			throws IllegalArgumentException {
+		final int n = src.length;
+		final int[] srcOffsets = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			if (srcParents[i] > -1) srcOffsets[srcParents[i] + 1]++;
+		}
+		for (int i = 0; i < n; i++)
+			srcOffsets[i + 1] += srcOffsets[i];
+		final int[] srcChildren = new int[srcOffsets[n]];
+		final int[] fill = Arrays.copyOf(srcOffsets, n);
+		for (int i = 0; i < n; i++) {
+			if (srcParents[i] > -1) srcChildren[fill[srcParents[i]]++] = i;
+		}
+
+		final int[] order = new int[n]; // new index -> source index
+		final int[] newIndices = new int[n]; // source index -> new index
+		int tail = 0;
+		for (int i = 0; i < n; i++) {
+			if (srcParents[i] == -1) {
+				newIndices[i] = tail;
+				order[tail++] = i;
+			}
+		}
+		final int nRoots = tail;
+		for (int head = 0; head < tail; head++) {
+			final int s = order[head];
+			for (int k = srcOffsets[s]; k < srcOffsets[s + 1]; k++) {
+				newIndices[srcChildren[k]] = tail;
+				order[tail++] = srcChildren[k];
+			}
+		}
+		if (tail != n)
+			throw new IllegalArgumentException("Nodes do not define a tree: " + (n - tail) + " node(s) in loops");
+
+		final SWCPoint[] nodes = new SWCPoint[n];
+		final int[] parents = new int[n];
+		final double[] weights = new double[n];
+		for (int i = 0; i < n; i++) {
+			nodes[i] = src[order[i]];
+			parents[i] = (i < nRoots) ? -1 : newIndices[srcParents[order[i]]];
+			weights[i] = srcWeights[order[i]];
+		}
+		return new TreeTopology(nodes, parents, weights, nRoots);
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return the number of roots. Roots are indexed from {@code 0} to
+	 *         {@code getRootCount() - 1}
+	 */
+	public int getRootCount() {
+		return nRoots;
+	}
+
+	/**
+	 * Gets the index of the root.
+	 *
+	 * @return the index of the root (always 0)
+	 * @throws IllegalStateException if this topology has no root, or multiple
+	 *           roots
+	 */
+	public int getRoot() throws IllegalStateException {
+		if (nRoots == 0) throw new IllegalStateException("Graph has no root");
+		if (nRoots > 1) throw new IllegalStateException("Graph has multiple connected components");
+		return 0;
+	}
+
+	/**
+	 * @param node the node index
+	 * @return the index of the parent of {@code node}, or -1 if {@code node} is a
+	 *         root
+	 */
+	public int getParent(final int node) {
+		return parents[node];
+	}
+
+	/**
+	 * @param node the node index
+	 * @return the number of children of {@code node}
+	 */
+	public int getChildCount(final int node) {
+		return childOffsets[node + 1] - childOffsets[node];
+	}
+
+	/**
+	 * Gets the index of the first child of a node. Children have consecutive
+	 * indices, from {@code getFirstChild(node)} to
+	 * {@code getFirstChild(node) + getChildCount(node) - 1}.
+	 *
+	 * @param node the node index
+	 * @return the index of the first child of {@code node}. Meaningless if
+	 *         {@code node} is a tip
+	 */
+	public int getFirstChild(final int node) {
+		return childOffsets[node];
+	}
+
+	public boolean isTip(final int node) {
+		return childOffsets[node + 1] == childOffsets[node];
+	}
+
+	public boolean isBranchPoint(final int node) {
+		return childOffsets[node + 1] - childOffsets[node] > 1;
+	}
+
+	/**
+	 * @param node the node index
+	 * @return the weight of the edge between {@code node} and its parent, or 0 if
+	 *         {@code node} is a root
+	 */
+	public double getWeight(final int node) {
+		return weights[node];
+	}
+
+	public double getX(final int node) {
+		return xs[node];
+	}
+
+	public double getY(final int node) {
+		return ys[node];
+	}
+
+	public double getZ(final int node) {
+		return zs[node];
+	}
+
+	public double getRadius(final int node) {
+		return radii[node];
+	}
+
+	/**
+	 * @param node the node index
+	 * @return the SWCPoint associated with {@code node}
+	 */
+	public SWCPoint getNode(final int node) {
+		return nodes[node];
+	}
+
+	/**
+	 * @param node the SWCPoint (compared by identity)
+	 * @return the index of {@code node}, or -1 if it does not exist in this
+	 *         topology
+	 */
+	public int indexOf(final SWCPoint node) {
+		final Integer index = indices.get(node);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * @return the indices of all end points, in ascending order
+	 */
+	public int[] getTips() {
+		return filter(false);
+	}
+
+	/**
+	 * @return the indices of all branch points, in ascending order
+	 */
+	public int[] getBranchPoints() {
+		return filter(true);
+	}
+
+	private int[] filter(final boolean branchPoints) {
+		int count = 0;
+		final int[] result = new int[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			if ((branchPoints) ? isBranchPoint(i) : isTip(i)) result[count++] = i;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Gets the sum of all edge weights.
+	 *
+	 * @return the sum of all edge weights
+	 */
+	public double sumWeights() {
+		double sum = 0;
+		for (final double w : weights)
+			sum += w;
+		return sum;
+	}
+
+	/**
+	 * @return the summed edge weights between each node and its root
+	 */
+	public double[] getPathLengthsToRoot() {
+		final double[] lengths = new double[nodes.length];
+		for (int i = nRoots; i < nodes.length; i++)
+			lengths[i] = lengths[parents[i]] + weights[i];
+		return lengths;
+	}
+
+	/**
+	 * Returns a simplified topology in which slab nodes are removed, so that it is
+	 * represented only by roots, branch points and tips. Edge weights correspond
+	 * to the summed weights of the removed edges. NB: Unlike
+	 * {@link DirectedWeightedGraph#getSimplifiedGraph()}, which drops edges of
+	 * zero weight (leaving their child nodes disconnected), edges of zero weight
+	 * are retained, so that the simplified topology has the same roots as this
+	 * one.
+	 *
+	 * @return the simplified topology
+	 * @see DirectedWeightedGraph#getSimplifiedGraph()
+	 */
+	public TreeTopology getSimplified() {
+		final int n = nodes.length;
+		final int[] srcIndices = new int[n];
+		final List<SWCPoint> src = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			if (i < nRoots || getChildCount(i) != 1) {
+				srcIndices[i] = src.size();
+				src.add(nodes[i]);
+			} else {
+				srcIndices[i] = -1;
+			}
+		}
+		final int[] srcParents = new int[src.size()];
+		final double[] srcWeights = new double[src.size()];
+		for (int i = 0; i < n; i++) {
+			if (srcIndices[i] == -1) continue;
+			double weight = 0;
+			int ancestor = i;
+			do {
+				weight += weights[ancestor];
+				ancestor = parents[ancestor];
+			} while (ancestor > -1 && srcIndices[ancestor] == -1);
+			srcParents[srcIndices[i]] = (ancestor == -1) ? -1 : srcIndices[ancestor];
+			srcWeights[srcIndices[i]] = (ancestor == -1) ? 0 : weight;
+		}
+		return build(src.toArray(new SWCPoint[0]), srcParents, srcWeights);
+	}
+
+	/**
+	 * Assembles a graph from this topology, retaining edge weights. Vertices are
+	 * the SWCPoints associated with this topology.
+	 *
+	 * @return the graph
+	 */
+	public DirectedWeightedGraph toGraph() {
+		final DirectedWeightedGraph graph = new DirectedWeightedGraph();
+		for (final SWCPoint node : nodes)
+			graph.addVertex(node);
+		for (int i = nRoots; i < nodes.length; i++) {
+			final SWCWeightedEdge edge = graph.addEdge(nodes[parents[i]], nodes[i]);
+			graph.setEdgeWeight(edge, weights[i]);
+		}
+		return graph;
+	}
+
+	/**
+	 * Assembles a Tree from this topology. NB: The {@code id}, {@code parent} and
+	 * previous point fields of the SWCPoints associated with this topology are
+	 * reassigned in index order.
+	 *
+	 * @param label the label of the new Tree
+	 * @return the Tree
+	 */
+	public Tree toTree(final String label) {
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].id = i + 1;
+			nodes[i].parent = (parents[i] == -1) ? -1 : parents[i] + 1;
+			nodes[i].setPreviousPoint((parents[i] == -1) ? null : nodes[parents[i]]);
+		}
+		return new Tree(Arrays.asList(nodes), label);
+	}
+
+}
@@ -22,9 +22,11 @@
 package sc.fiji.snt.analysis.sholl.parsers;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
 
 import org.scijava.Context;
 import org.scijava.thread.ThreadService;
@@ -36,23 +38,31 @@ import ij.Prefs;
 import ij.plugin.ChannelSplitter;
 import ij.util.ThreadUtil;
 import sc.fiji.snt.analysis.sholl.ProfileEntry;
+import sc.fiji.snt.util.NeighborStencil;
 import sc.fiji.snt.util.ShollPoint;
 
 /**
- * Parser for 3D images
+ * Parser for 3D images. Voxels intersecting each shell are grouped into
+ * 26-connected components. NB: Earlier versions grouped any two voxels sharing
+ * a plane or a column, so that counts of 3D images may differ from those
+ * obtained with earlier releases.
  * 
  * @author Tiago Ferreira
  */
 public class ImageParser3D extends ImageParser {
 
 	private double vxW, vxH, vxD;
-	private int progressCounter;
 	private boolean skipSingleVoxels;
 	private ImageStack stack;
+	private NeighborStencil faceNeighbors;
+	private double[] xSq, ySq, zSq;
 	private final int nCPUs;
 	private final ThreadService threadService;
-	private final AtomicInteger ai;
 	private int nSamples;
+	private int[] shellOrder;
+	private AtomicInteger nextShell;
+	private AtomicInteger nParsedShells;
+	private ProfileEntry[] parsedShells;
 
 	@Deprecated
 	public ImageParser3D(final ImagePlus imp) {
@@ -64,7 +74,6 @@ public class ImageParser3D extends ImageParser {
 		skipSingleVoxels = true;
 		setPosition(imp.getC(), imp.getT());
 		threadService = context.getService(ThreadService.class);
-		ai = new AtomicInteger(0);
 		nCPUs = Prefs.getThreads();
 	}
 
@@ -76,163 +85,195 @@ public class ImageParser3D extends ImageParser {
 		vxW = cal.pixelWidth;
 		vxH = cal.pixelHeight;
 		vxD = cal.pixelDepth;
-
-		// Split processing across the number of available CPUs
-		final Thread[] threads = new Thread[nCPUs];
-		setThreadedCounter(0);
-
+		faceNeighbors = new NeighborStencil(6, stack.getWidth(), stack.getHeight(), stack.getSize(), vxW, vxH, vxD);
+		xSq = squaredDistances(stack.getWidth(), cal::getX, center.x);
+		ySq = squaredDistances(stack.getHeight(), cal::getY, center.y);
+		zSq = squaredDistances(stack.getSize(), cal::getZ, center.z);
+
+		// Shells are processed individually, largest first: idle threads pick
+		// the next pending shell, so that no thread is left with a backlog of
+		// outer (expensive) shells while the others sit idle
+		shellOrder = IntStream.range(0, nSamples).boxed()
+				.sorted(Comparator.comparingLong((Integer s) -> estimateCost(radii.get(s))).reversed())
+				.mapToInt(Integer::intValue).toArray();
+		nextShell = new AtomicInteger(0);
+		nParsedShells = new AtomicInteger(0);
+		parsedShells = new ProfileEntry[nSamples];
+		final Thread[] threads = new Thread[Math.min(nCPUs, Math.max(1, nSamples))];
 		for (int ithread = 0; ithread < threads.length; ithread++) {
-			final int chunkSize = (nSamples + nCPUs - 1) / nCPUs; // divide by
-																	// threads
-																	// rounded
-																	// up.
-			final int start = ithread * chunkSize;
-			final int end = Math.min(start + chunkSize, nSamples);
-			threads[ithread] = threadService.newThread(new ChunkParser(start, end));
+			threads[ithread] = threadService.newThread(new ShellParser());
 		}
 		ThreadUtil.startAndJoin(threads);
 
+		// Merge in radius order, regardless of completion order. If parsing was
+		// terminated, only completed shells are kept
+		for (final ProfileEntry entry : parsedShells) {
+			if (entry != null) profile.add(entry);
+		}
+		parsedShells = null;
+
+	}
+
+	/* Squared calibrated distances to the center along a single axis */
+	private static double[] squaredDistances(final int n, final IntToDoubleFunction calibrate, final double c) {
+		final double[] sq = new double[n];
+		for (int i = 0; i < n; i++) {
+			final double d = calibrate.applyAsDouble(i) - c;
+			sq[i] = d * d;
+		}
+		return sq;
 	}
 
 	public void setPosition(final int channel, final int frame) {
 		super.setPosition(channel, frame);
 	}
 
-	private class ChunkParser implements Runnable {
+	private class ShellParser implements Runnable {
 
-		private final int start;
-		private final int end;
+		private final ShellComponents components;
 
-		public ChunkParser(final int start, final int end) {
-			this.start = start;
-			this.end = end;
+		public ShellParser() {
+			components = new ShellComponents(stack.getWidth(), stack.getHeight());
 		}
 
 		@Override
 		public void run() {
 
-			for (int k = ai.getAndIncrement(); k < nCPUs; k = ai.getAndIncrement()) {
-				for (int s = start; s < end; s++) {
-
-					final int counter = getThreadedCounter();
-					statusService.showStatus(counter, nSamples, "Sampling shell " +
-						counter + "/" + nSamples + " (" + nCPUs + " threads)");
-					setThreadedCounter(counter + 1);
-
-					// Initialize ArrayLists to hold surface points
-					final ArrayList<ShollPoint> pixelPoints = new ArrayList<>();
-
-					// Restrain analysis to the smallest volume for this
-					// sphere
-					final double r = radii.get(s);
-					final double upperR = r + voxelSize;
-					final double lowerR = r - voxelSize;
-					final int xr = (int) Math.round(r / vxW);
-					final int yr = (int) Math.round(r / vxH);
-					final int zr = (int) Math.round(r / vxD);
-					final int xmin = Math.max(xc - xr, minX);
-					final int ymin = Math.max(yc - yr, minY);
-					final int zmin = Math.max(zc - zr, minZ);
-					final int xmax = Math.min(xc + xr, maxX);
-					final int ymax = Math.min(yc + yr, maxY);
-					final int zmax = Math.min(zc + zr, maxZ);
-
-					for (int z = zmin; z <= zmax; z++) {
-						for (int y = ymin; y <= ymax; y++) {
-							for (int x = xmin; x <= xmax; x++) {
-
-								if (!running)
-									return;
-								final ShollPoint p = new ShollPoint(x, y, z, cal);
-								final double dxSq = p.distanceSquaredTo(center);
-								if (dxSq > lowerR * lowerR && dxSq < upperR * upperR) {
-									if (!withinThreshold(stack.getVoxel(x, y, z)))
-										continue;
-									if (skipSingleVoxels && !hasNeighbors(x, y, z))
-										continue;
-									pixelPoints.add(new ShollPoint(x, y, z, ShollPoint.NONE));
-								}
-
-							}
-						}
-					}
-
-					// We now have the the points intercepting the
-					// surface of this shell: Check if they are
-					// clustered and add them in world coordinates
-					// to profile
-					final HashSet<ShollPoint> points = getUnique3Dgroups(pixelPoints);
-					ShollPoint.scale(points, cal);
-					profile.add(new ProfileEntry(r, points));
-
-				}
+			for (int i = nextShell.getAndIncrement(); i < nSamples && running; i = nextShell.getAndIncrement()) {
+
+				// Collect the voxels intercepting the surface of this
+				// shell, and cluster them into 26-connected groups
+				final int s = shellOrder[i];
+				final double r = radii.get(s);
+				components.clear();
+				if (!collectShellVoxels(r, components))
+					return;
+				final HashSet<ShollPoint> points = components.getSeeds();
+				ShollPoint.scale(points, cal);
+				parsedShells[s] = new ProfileEntry(r, points);
+
+				final int counter = nParsedShells.incrementAndGet();
+				statusService.showStatus(counter, nSamples, "Sampling shell " +
+					counter + "/" + nSamples + " (" + nCPUs + " threads)");
 			}
 		}
 
 	}
 
-	protected HashSet<ShollPoint> getUnique3Dgroups(final ArrayList<ShollPoint> points) {
+	/* Returns the bounding box (xmin, xmax, ymin, ymax, zmin, zmax) of a shell */
+	private int[] getShellBounds(final double r) {
+		final int xr = (int) Math.round(r / vxW);
+		final int yr = (int) Math.round(r / vxH);
+		final int zr = (int) Math.round(r / vxD);
+		return new int[] { Math.max(xc - xr, minX), Math.min(xc + xr, maxX), //
+				Math.max(yc - yr, minY), Math.min(yc + yr, maxY), //
+				Math.max(zc - zr, minZ), Math.min(zc + zr, maxZ) };
+	}
+
+	/* Estimates the cost of parsing a shell from the volume of its bounding box */
+	private long estimateCost(final double r) {
+		final int[] b = getShellBounds(r);
+		return (long) Math.max(0, b[1] - b[0] + 1) * Math.max(0, b[3] - b[2] + 1) * Math.max(0, b[5] - b[4] + 1);
+	}
 
-		for (int i = 0; i < points.size(); i++) {
-			for (int j = i + 1; j < points.size(); j++) {
-
-				final ShollPoint pi = points.get(i);
-				final ShollPoint pj = points.get(j);
-				// Compute the chessboard (Chebyshev) distance for this point. A
-				// chessboard distance of 1 in xy (lateral) underlies
-				// 8-connectivity within the plane. A distance of 1 in z (axial)
-				// underlies 26-connectivity in 3D
-				if (pi.chebyshevXYdxTo(pj) * pi.chebyshevZdxTo(pj) < 2) { // int distances: ==1 <=> <2
-					pj.setFlag(ShollPoint.DELETE);
+	/*
+	 * Adds to components the above-threshold voxels whose distance to center lies
+	 * within (r - voxelSize, r + voxelSize), in scan order. Only the x-runs of
+	 * each row that may intersect the shell are visited. Returns false if the
+	 * parser was terminated.
+	 */
+	private boolean collectShellVoxels(final double r, final ShellComponents components) {
+		final double upperR = r + voxelSize;
+		final double lowerR = r - voxelSize;
+		final double upperSq = upperR * upperR;
+		final double lowerSq = lowerR * lowerR;
+		final int[] bounds = getShellBounds(r);
+		final int xmin = bounds[0];
+		final int xmax = bounds[1];
+		final int ymin = bounds[2];
+		final int ymax = bounds[3];
+		final int zmin = bounds[4];
+		final int zmax = bounds[5];
+		final double rawXc = center.rawX(cal);
+
+		for (int z = zmin; z <= zmax; z++) {
+			for (int y = ymin; y <= ymax; y++) {
+
+				if (!running)
+					return false;
+				final double yzSq = ySq[y] + zSq[z];
+				if (yzSq >= upperSq)
+					continue;
+
+				// Candidate run (padded by one voxel to absorb rounding errors)
+				final double outer = Math.sqrt(upperSq - yzSq) / vxW;
+				final int x0 = Math.max(xmin, (int) Math.floor(rawXc - outer) - 1);
+				final int x1 = Math.min(xmax, (int) Math.ceil(rawXc + outer) + 1);
+
+				// Voxels inside the inner sphere, which can be skipped
+				int hole0 = x1 + 1;
+				int hole1 = x1;
+				if (lowerSq > yzSq) {
+					final double inner = Math.sqrt(lowerSq - yzSq) / vxW;
+					hole0 = (int) Math.ceil(rawXc - inner) + 1;
+					hole1 = (int) Math.floor(rawXc + inner) - 1;
 				}
-			}
-		}
 
-		final Iterator<ShollPoint> it = points.iterator();
-		while (it.hasNext()) {
-			if (it.next().flag == ShollPoint.DELETE) {
-				it.remove();
+				for (int x = x0; x <= x1; x++) {
+					if (x >= hole0 && x <= hole1) {
+						x = hole1;
+						continue;
+					}
+					final double dxSq = xSq[x] + ySq[y] + zSq[z];
+					if (dxSq <= lowerSq || dxSq >= upperSq)
+						continue;
+					if (!withinThreshold(stack.getVoxel(x, y, z)))
+						continue;
+					if (skipSingleVoxels && !hasNeighbors(x, y, z))
+						continue;
+					components.add(x, y, z);
+				}
 			}
 		}
+		return true;
+	}
 
-		return new HashSet<>(points);
-
+	/**
+	 * Clusters voxels into 26-connected groups.
+	 *
+	 * @param points the voxels (in pixel coordinates) to be clustered
+	 * @return the first voxel of each group, in scan (z, y, x) order
+	 */
+	protected HashSet<ShollPoint> getUnique3Dgroups(final ArrayList<ShollPoint> points) {
+		final ArrayList<ShollPoint> sorted = new ArrayList<>(points);
+		sorted.sort(Comparator.comparingDouble((ShollPoint p) -> p.z).thenComparingDouble(p -> p.y)
+				.thenComparingDouble(p -> p.x));
+		final ShellComponents components = new ShellComponents(imp.getWidth(), imp.getHeight());
+		ShollPoint previous = null;
+		for (final ShollPoint p : sorted) {
+			if (!p.equals(previous)) // ignore duplicates
+				components.add((int) p.x, (int) p.y, (int) p.z);
+			previous = p;
+		}
+		return components.getSeeds();
 	}
 
 	private boolean hasNeighbors(final int x, final int y, final int z) {
 
-		final int[][] neighbors = new int[6][3];
-		neighbors[0] = new int[] { x - 1, y, z };
-		neighbors[1] = new int[] { x + 1, y, z };
-		neighbors[2] = new int[] { x, y - 1, z };
-		neighbors[3] = new int[] { x, y + 1, z };
-		neighbors[4] = new int[] { x, y, z + 1 };
-		neighbors[5] = new int[] { x, y, z - 1 };
-
-		for (int i = 0; i < neighbors.length; i++) {
-			try {
-				if (!withinBounds(neighbors[i][0], neighbors[i][1], neighbors[i][2]))
-					return false;
-				if (withinThreshold(stack.getVoxel(neighbors[i][0], neighbors[i][1], neighbors[i][2])))
-					return true;
-			} catch (final IndexOutOfBoundsException ignored) { // Edge voxel?
-																// Neighborhood
-																// unknown.
+		for (int i = 0; i < faceNeighbors.size; i++) {
+			final int nx = x + faceNeighbors.dx[i];
+			final int ny = y + faceNeighbors.dy[i];
+			final int nz = z + faceNeighbors.dz[i];
+			// Edge voxel? Neighborhood unknown.
+			if (!withinBounds(nx, ny, nz))
 				return false;
-			}
+			if (withinThreshold(stack.getVoxel(nx, ny, nz)))
+				return true;
 		}
 		return false;
 
 	}
 
-	private int getThreadedCounter() {
-		return progressCounter;
-	}
-
-	private void setThreadedCounter(final int updatedCounter) {
-		progressCounter = updatedCounter;
-	}
-
 	public void setSkipSingleVoxels(final boolean skip) {
 		skipSingleVoxels = skip;
 	}
@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.analysis.sholl.parsers;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import sc.fiji.snt.util.ShollPoint;
+
+/**
+ * Labels the 26-connected components of the voxels intersecting a Sholl shell
+ * using a union-find structure. Voxels are added in scan (z, y, x) order, so
+ * that each voxel only needs to be joined with its 13 preceding neighbors, and
+ * each component is represented by its first voxel. Instances are reusable
+ * (see {@link #clear()}) but not thread-safe.
+ *
+ * @author Tiago Ferreira
+ */
+class ShellComponents {
+
+	/* The 13 neighbors that precede a voxel in scan order */
+	private static final int[] DX = { -1, 0, 1, -1, 0, 1, -1, 0, 1, -1, 0, 1, -1 };
+	private static final int[] DY = { -1, -1, -1, 0, 0, 0, 1, 1, 1, -1, -1, -1, 0 };
+	private static final int[] DZ = { -1, -1, -1, -1, -1, -1, -1, -1, -1, 0, 0, 0, 0 };
+
+	private final int width;
+	private final int height;
+	private long[] keys;
+	private int[] parents;
+	private int size;
+
+	ShellComponents(final int width, final int height) {
+		this.width = width;
+		this.height = height;
+		keys = new long[1024];
+		parents = new int[1024];
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a voxel to this shell.
+	 *
+	 * @throws IllegalArgumentException if the voxel does not succeed the last
+	 *           added voxel in scan order
+	 */
+	void add(final int x, final int y, final int z) {
+		final long key = key(x, y, z);
+		if (size > 0 && key <= keys[size - 1])
+			throw new IllegalArgumentException("Voxels must be added in scan order");
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			parents = Arrays.copyOf(parents, size * 2);
+		}
+		keys[size] = key;
+		parents[size] = size;
+		for (int i = 0; i < DX.length; i++) {
+			final int nx = x + DX[i];
+			final int ny = y + DY[i];
+			final int nz = z + DZ[i];
+			if (nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0)
+				continue;
+			final int neighbor = Arrays.binarySearch(keys, 0, size, key(nx, ny, nz));
+			if (neighbor >= 0) union(neighbor, size);
+		}
+		size++;
+	}
+
+	/**
+	 * @return the number of 26-connected components
+	 */
+	int count() {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (parents[i] == i) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the first voxel (in scan order) of each 26-connected component, in
+	 *         pixel coordinates
+	 */
+	HashSet<ShollPoint> getSeeds() {
+		final HashSet<ShollPoint> seeds = new HashSet<>();
+		final long sliceSize = (long) width * height;
+		for (int i = 0; i < size; i++) {
+			if (parents[i] != i) continue;
+			final long key = keys[i];
+			final int z = (int) (key / sliceSize);
+			final int y = (int) ((key % sliceSize) / width);
+			final int x = (int) (key % width);
+			seeds.add(new ShollPoint(x, y, z, ShollPoint.NONE));
+		}
+		return seeds;
+	}
+
+	private long key(final int x, final int y, final int z) {
+		return ((long) z * height + y) * width + x;
+	}
+
+	private int find(int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]]; // path halving
+			i = parents[i];
+		}
+		return i;
+	}
+
+	private void union(final int i, final int j) {
+		final int ri = find(i);
+		final int rj = find(j);
+		// the earliest voxel remains the root of its component
+		if (ri < rj) parents[rj] = ri;
+		else if (rj < ri) parents[ri] = rj;
+	}
+
+}
@@ -48,12 +48,12 @@ import ij.gui.Overlay;
 import ij.gui.StackWindow;
 import ij.gui.TextRoi;
 import ij.process.FloatProcessor;
+import sc.fiji.snt.ChannelStatistics;
 import sc.fiji.snt.SNT;
 import stacks.ThreePaneCrop;
 import sc.fiji.snt.HessianCaller;
 import sc.fiji.snt.SNTUtils;
 import sc.fiji.snt.SNTUI;
-import util.Limits;
 
 /**
  * Implements SNT 'Sigma wizard'. It relies heavily on java.awt because it
@@ -523,9 +523,9 @@ public class SigmaPalette extends Thread {
 			final double sigma = sigmaValues[sigmaIndex];
 			hep.setSigma(sigma);
 			final ImagePlus processed = hep.generateImage(cropped);
-			final float[] limits = Limits.getStackLimits(processed);
-			defaultMin = limits[0];
-			defaultMax = limits[1];
+			final ChannelStatistics limits = ChannelStatistics.compute(processed, 1, 1);
+			defaultMin = limits.getMin();
+			defaultMax = limits.getMax();
 			copyIntoPalette(processed, paletteImage, offsetX, offsetY);
 			setMinMax(defaultMin, defaultMax);
 		}
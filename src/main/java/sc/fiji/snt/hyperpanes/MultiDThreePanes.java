@@ -26,16 +26,13 @@ import java.awt.Color;
 import java.awt.image.ColorModel;
 
 import ij.ImagePlus;
-import ij.ImageStack;
 import ij.gui.ImageCanvas;
 import ij.gui.Overlay;
+import ij.gui.Roi;
 import ij.gui.StackWindow;
 import ij.measure.Calibration;
+import ij.plugin.Duplicator;
 import ij.plugin.RGBStackConverter;
-import ij.process.ByteProcessor;
-import ij.process.ColorProcessor;
-import ij.process.FloatProcessor;
-import ij.process.ShortProcessor;
 
 /** Convenience class defining methods common to SNT's XY, XZ, and ZY panes */
 public class MultiDThreePanes implements PaneOwner {
@@ -346,199 +343,33 @@ public class MultiDThreePanes implements PaneOwner {
 			"Invalid frame: " + frame);
 
 		final boolean rgb_panes = xy.getNChannels() > 1 || xy.isComposite();
-		final int width = xy.getWidth();
-		final int height = xy.getHeight();
-		final int stackSize = xy.getNSlices();
-		int type;
 		original_xy_canvas = xy.getCanvas();
-
-		ImagePlus xyMonoChannel;
-
-		if (rgb_panes) {
-			xyMonoChannel = xy.createHyperStack(null, 1, xy.getNSlices(), xy
-				.getNFrames(), 24);
-			final RGBStackConverter converter = new RGBStackConverter();
-			converter.convertHyperstack(xy, xyMonoChannel);
-			type = ImagePlus.COLOR_RGB;
-		}
-		else {
-			xyMonoChannel = xy;
-			type = xy.getType();
-		}
-		final ImageStack xy_stack = xyMonoChannel.getStack();
-
-		ColorModel cm = null;
-
-		// FIXME: should we save the LUT for other image types?
-		if (type == ImagePlus.COLOR_256) cm = xy_stack.getColorModel();
 		single_pane = single_pane || isDummy();
 		if (!single_pane) {
-			final String title = (xy.getNFrames() > 0) ? "[T" + frame + "] " + xy
-				.getShortTitle() : xy.getShortTitle();
-			final int zy_width = stackSize;
-			final int zy_height = height;
-			final ImageStack zy_stack = new ImageStack(zy_width, zy_height);
-
-			final int xz_width = width;
-			final int xz_height = stackSize;
-			final ImageStack xz_stack = new ImageStack(xz_width, xz_height);
-
-			/*
-			 * Just load in the complete stack for simplicity's sake...
-			 */
-
-			final byte[][] slices_data_b = new byte[stackSize][];
-			final int[][] slices_data_i = new int[stackSize][];
-			final float[][] slices_data_f = new float[stackSize][];
-			final short[][] slices_data_s = new short[stackSize][];
-
-			for (int z = 0; z < stackSize; ++z) {
-				final int pos = xyMonoChannel.getStackIndex(1, z + 1, frame);
-				switch (type) {
-					case ImagePlus.GRAY8:
-					case ImagePlus.COLOR_256:
-						slices_data_b[z] = (byte[]) xy_stack.getPixels(pos);
-						break;
-					case ImagePlus.GRAY16:
-						slices_data_s[z] = (short[]) xy_stack.getPixels(pos);
-						break;
-					case ImagePlus.COLOR_RGB:
-						slices_data_i[z] = (int[]) xy_stack.getPixels(pos);
-						break;
-					case ImagePlus.GRAY32:
-						slices_data_f[z] = (float[]) xy_stack.getPixels(pos);
-						break;
-				}
+			final ImagePlus xyMonoChannel;
+			final int monoFrame;
+			final int type;
+			if (rgb_panes) {
+				// Only the displayed frame is converted to RGB: The ZY/XZ panes
+				// never display other frames
+				xyMonoChannel = rgbFrame(frame);
+				monoFrame = 1;
+				type = ImagePlus.COLOR_RGB;
 			}
-
-			// Create the ZY slices:
-			switch (type) {
-
-				case ImagePlus.GRAY8:
-				case ImagePlus.COLOR_256:
-
-					for (int x_in_original = 0; x_in_original < width; ++x_in_original) {
-
-						final byte[] sliceBytes = new byte[zy_width * zy_height];
-
-						for (int z_in_original =
-							0; z_in_original < stackSize; ++z_in_original)
-						{
-							for (int y_in_original =
-								0; y_in_original < height; ++y_in_original)
-							{
-
-								final int x_in_left = z_in_original;
-								final int y_in_left = y_in_original;
-
-								sliceBytes[y_in_left * zy_width + x_in_left] =
-									slices_data_b[z_in_original][y_in_original * width +
-										x_in_original];
-							}
-						}
-
-						final ByteProcessor bp = new ByteProcessor(zy_width, zy_height);
-						bp.setPixels(sliceBytes);
-						zy_stack.addSlice(null, bp);
-						showStatus(x_in_original, width, "Generating XZ planes...");
-					}
-					break;
-
-				case ImagePlus.GRAY16:
-
-					for (int x_in_original = 0; x_in_original < width; ++x_in_original) {
-
-						final short[] sliceShorts = new short[zy_width * zy_height];
-
-						for (int z_in_original =
-							0; z_in_original < stackSize; ++z_in_original)
-						{
-							for (int y_in_original =
-								0; y_in_original < height; ++y_in_original)
-							{
-
-								final int x_in_left = z_in_original;
-								final int y_in_left = y_in_original;
-
-								sliceShorts[y_in_left * zy_width + x_in_left] =
-									slices_data_s[z_in_original][y_in_original * width +
-										x_in_original];
-							}
-						}
-
-						final ShortProcessor sp = new ShortProcessor(zy_width, zy_height);
-						sp.setPixels(sliceShorts);
-						zy_stack.addSlice(null, sp);
-						showStatus(x_in_original, width, "Generating XZ planes...");
-					}
-					break;
-
-				case ImagePlus.COLOR_RGB:
-
-					for (int x_in_original = 0; x_in_original < width; ++x_in_original) {
-
-						final int[] sliceInts = new int[zy_width * zy_height];
-
-						for (int z_in_original =
-							0; z_in_original < stackSize; ++z_in_original)
-						{
-							for (int y_in_original =
-								0; y_in_original < height; ++y_in_original)
-							{
-
-								final int x_in_left = z_in_original;
-								final int y_in_left = y_in_original;
-
-								sliceInts[y_in_left * zy_width + x_in_left] =
-									slices_data_i[z_in_original][y_in_original * width +
-										x_in_original];
-							}
-						}
-
-						final ColorProcessor cp = new ColorProcessor(zy_width, zy_height);
-						cp.setPixels(sliceInts);
-						zy_stack.addSlice(null, cp);
-						showStatus(x_in_original, width, "Generating XZ planes...");
-					}
-					break;
-
-				case ImagePlus.GRAY32:
-
-					for (int x_in_original = 0; x_in_original < width; ++x_in_original) {
-
-						final float[] sliceFloats = new float[zy_width * zy_height];
-
-						for (int z_in_original =
-							0; z_in_original < stackSize; ++z_in_original)
-						{
-							for (int y_in_original =
-								0; y_in_original < height; ++y_in_original)
-							{
-
-								final int x_in_left = z_in_original;
-								final int y_in_left = y_in_original;
-
-								sliceFloats[y_in_left * zy_width + x_in_left] =
-									slices_data_f[z_in_original][y_in_original * width +
-										x_in_original];
-							}
-						}
-
-						final FloatProcessor fp = new FloatProcessor(zy_width, zy_height);
-						fp.setPixels(sliceFloats);
-						zy_stack.addSlice(null, fp);
-						showStatus(x_in_original, width, "Generating XZ planes...");
-					}
-					break;
-
+			else {
+				xyMonoChannel = xy;
+				monoFrame = frame;
+				type = xy.getType();
 			}
 
-			if (type == ImagePlus.COLOR_256) {
-				if (cm != null) {
-					zy_stack.setColorModel(cm);
-				}
-			}
+			ColorModel cm = null;
+			// FIXME: should we save the LUT for other image types?
+			if (type == ImagePlus.COLOR_256) cm = xyMonoChannel.getStack().getColorModel();
 
+			final String title = (xy.getNFrames() > 0) ? "[T" + frame + "] " + xy
+				.getShortTitle() : xy.getShortTitle();
+			// Planes are assembled on demand from xyMonoChannel: Nothing is copied here
+			final ResliceStack zy_stack = new ResliceStack(xyMonoChannel, monoFrame, ZY_PLANE, cm);
 			if (zy == null) {
 				zy = new ImagePlus("ZY " + title, zy_stack);
 				final Calibration zyCal = xy.getCalibration().copy();
@@ -549,129 +380,7 @@ public class MultiDThreePanes implements PaneOwner {
 			zy.setStack(zy_stack);
 			zy.setTitle("ZY " + title);
 
-			// Create the XZ slices:
-			switch (type) {
-
-				case ImagePlus.GRAY8:
-				case ImagePlus.COLOR_256:
-
-					for (int y_in_original = 0; y_in_original < height; ++y_in_original) {
-
-						final byte[] sliceBytes = new byte[xz_width * xz_height];
-
-						for (int z_in_original =
-							0; z_in_original < stackSize; ++z_in_original)
-						{
-
-							// Now we can copy a complete row from
-							// the original image to the XZ slice:
-
-							final int y_in_top = z_in_original;
-
-							System.arraycopy(slices_data_b[z_in_original], y_in_original *
-								width, sliceBytes, y_in_top * xz_width, width);
-
-						}
-
-						final ByteProcessor bp = new ByteProcessor(xz_width, xz_height);
-						bp.setPixels(sliceBytes);
-						xz_stack.addSlice(null, bp);
-
-						showStatus(y_in_original, width, "Generating ZY planes...");
-					}
-					break;
-
-				case ImagePlus.GRAY16:
-
-					for (int y_in_original = 0; y_in_original < height; ++y_in_original) {
-
-						final short[] sliceShorts = new short[xz_width * xz_height];
-
-						for (int z_in_original =
-							0; z_in_original < stackSize; ++z_in_original)
-						{
-
-							// Now we can copy a complete row from
-							// the original image to the XZ slice:
-
-							final int y_in_top = z_in_original;
-
-							System.arraycopy(slices_data_s[z_in_original], y_in_original *
-								width, sliceShorts, y_in_top * xz_width, width);
-
-						}
-
-						final ShortProcessor sp = new ShortProcessor(xz_width, xz_height);
-						sp.setPixels(sliceShorts);
-						xz_stack.addSlice(null, sp);
-
-						showStatus(y_in_original, width, "Generating ZY planes...");
-					}
-					break;
-
-				case ImagePlus.COLOR_RGB:
-
-					for (int y_in_original = 0; y_in_original < height; ++y_in_original) {
-
-						final int[] sliceInts = new int[xz_width * xz_height];
-
-						for (int z_in_original =
-							0; z_in_original < stackSize; ++z_in_original)
-						{
-
-							// Now we can copy a complete row from
-							// the original image to the XZ slice:
-
-							final int y_in_top = z_in_original;
-
-							System.arraycopy(slices_data_i[z_in_original], y_in_original *
-								width, sliceInts, y_in_top * xz_width, width);
-
-						}
-
-						final ColorProcessor cp = new ColorProcessor(xz_width, xz_height);
-						cp.setPixels(sliceInts);
-						xz_stack.addSlice(null, cp);
-
-						showStatus(y_in_original, width, "Generating ZY planes...");
-					}
-					break;
-
-				case ImagePlus.GRAY32:
-
-					for (int y_in_original = 0; y_in_original < height; ++y_in_original) {
-
-						final float[] sliceFloats = new float[xz_width * xz_height];
-
-						for (int z_in_original =
-							0; z_in_original < stackSize; ++z_in_original)
-						{
-
-							// Now we can copy a complete row from
-							// the original image to the XZ slice:
-
-							final int y_in_top = z_in_original;
-
-							System.arraycopy(slices_data_f[z_in_original], y_in_original *
-								width, sliceFloats, y_in_top * xz_width, width);
-
-						}
-
-						final FloatProcessor fp = new FloatProcessor(xz_width, xz_height);
-						fp.setPixels(sliceFloats);
-						xz_stack.addSlice(null, fp);
-
-						showStatus(y_in_original, width, "Generating ZY planes...");
-					}
-					break;
-
-			}
-
-			if (type == ImagePlus.COLOR_256) {
-				if (cm != null) {
-					xz_stack.setColorModel(cm);
-				}
-			}
+			final ResliceStack xz_stack = new ResliceStack(xyMonoChannel, monoFrame, XZ_PLANE, cm);
 			if (xz == null) {
 				xz = new ImagePlus("XZ " + title, xz_stack);
 				final Calibration xzCal = xy.getCalibration().copy();
@@ -681,11 +390,26 @@ public class MultiDThreePanes implements PaneOwner {
 			}
 			xz.setStack(xz_stack);
 			xz.setTitle("XZ " + title);
-			showStatus(0, 0, "Generating ZY planes...");
 		}
 		if (initCanvasesAndWindows) initCanvasesAndWindows();
 	}
 
+	/* Returns a single-frame RGB rendering of the specified frame of xy */
+	private ImagePlus rgbFrame(final int frame) {
+		final Roi roi = xy.getRoi(); // Duplicator would crop to it
+		xy.deleteRoi();
+		try {
+			final ImagePlus xyFrame = new Duplicator().run(xy, 1, xy.getNChannels(), 1,
+				xy.getNSlices(), frame, frame);
+			final ImagePlus rgb = xyFrame.createHyperStack(null, 1, xy.getNSlices(), 1, 24);
+			new RGBStackConverter().convertHyperstack(xyFrame, rgb);
+			return rgb;
+		}
+		finally {
+			if (roi != null) xy.setRoi(roi);
+		}
+	}
+
 	private void initCanvasesAndWindows() {
 		xy_canvas = createCanvas(xy, XY_PLANE);
 		if (isDummy()) {
@@ -0,0 +1,212 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.hyperpanes;
+
+import java.awt.image.ColorModel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * A virtual XZ or ZY reslice of a single frame of an XY stack. Planes are
+ * assembled on demand from the pixel arrays of the XY stack and only the most
+ * recently accessed planes are kept in memory.
+ *
+ * @author Tiago Ferreira
+ */
+final class ResliceStack extends VirtualStack {
+
+	/* The number of (most recently accessed) planes kept in memory */
+	private static final int CACHE_SIZE = 16;
+
+	private final int plane;
+	private final int type;
+	private final ImageStack source;
+	private final int[] sourceIndices;
+	private final Object[] sourceSlices;
+	private final int sourceWidth;
+	private final int sourceHeight;
+	private final int depth;
+	private final Map<Integer, Object> cache;
+
+	/**
+	 * @param imp   the single-channel (or RGB) XY image
+	 * @param frame the frame to be resliced
+	 * @param plane either {@link MultiDThreePanes#XZ_PLANE} or
+	 *              {@link MultiDThreePanes#ZY_PLANE}
+	 * @param cm    the color model of the planes. {@code null} allowed
+	 */
+	ResliceStack(final ImagePlus imp, final int frame, final int plane, final ColorModel cm) {
+		super((plane == MultiDThreePanes.ZY_PLANE) ? imp.getNSlices() : imp.getWidth(),
+				(plane == MultiDThreePanes.ZY_PLANE) ? imp.getHeight() : imp.getNSlices(), cm, null);
+		if (plane != MultiDThreePanes.XZ_PLANE && plane != MultiDThreePanes.ZY_PLANE)
+			throw new IllegalArgumentException("Only XZ and ZY planes can be resliced");
+		this.plane = plane;
+		type = imp.getType();
+		if (type != ImagePlus.GRAY8 && type != ImagePlus.COLOR_256 && type != ImagePlus.GRAY16
+				&& type != ImagePlus.COLOR_RGB && type != ImagePlus.GRAY32)
+			throw new IllegalArgumentException("Unsupported image type: " + type);
+		source = imp.getStack();
+		sourceWidth = imp.getWidth();
+		sourceHeight = imp.getHeight();
+		depth = imp.getNSlices();
+		sourceIndices = new int[depth];
+		for (int z = 0; z < depth; z++)
+			sourceIndices[z] = imp.getStackIndex(1, z + 1, frame);
+		if (source.isVirtual()) {
+			sourceSlices = null; // retrieved as needed
+		} else {
+			// Arrays are only referenced, not copied
+			sourceSlices = new Object[depth];
+			for (int z = 0; z < depth; z++)
+				sourceSlices[z] = source.getPixels(sourceIndices[z]);
+		}
+		cache = new LinkedHashMap<Integer, Object>(CACHE_SIZE + 1, 1f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Integer, Object> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	@Override
+	public synchronized ImageProcessor getProcessor(final int n) {
+		if (n < 1 || n > getSize())
+			throw new IllegalArgumentException("Argument out of range: " + n);
+		Object pixels = cache.get(n);
+		if (pixels == null) {
+			pixels = (plane == MultiDThreePanes.ZY_PLANE) ? assembleZYPlane(n - 1) : assembleXZPlane(n - 1);
+			cache.put(n, pixels);
+		}
+		final int w = getWidth();
+		final int h = getHeight();
+		switch (type) {
+		case ImagePlus.GRAY8:
+		case ImagePlus.COLOR_256:
+			return new ByteProcessor(w, h, (byte[]) pixels, getColorModel());
+		case ImagePlus.GRAY16:
+			return new ShortProcessor(w, h, (short[]) pixels, getColorModel());
+		case ImagePlus.COLOR_RGB:
+			return new ColorProcessor(w, h, (int[]) pixels);
+		default:
+			return new FloatProcessor(w, h, (float[]) pixels, getColorModel());
+		}
+	}
+
+	private Object getSourceSlice(final int z) {
+		return (sourceSlices == null) ? source.getPixels(sourceIndices[z]) : sourceSlices[z];
+	}
+
+	private Object newPlane(final int length) {
+		switch (type) {
+		case ImagePlus.GRAY8:
+		case ImagePlus.COLOR_256:
+			return new byte[length];
+		case ImagePlus.GRAY16:
+			return new short[length];
+		case ImagePlus.COLOR_RGB:
+			return new int[length];
+		default:
+			return new float[length];
+		}
+	}
+
+	/* The XZ plane at y: each z-slice contributes a complete row */
+	private Object assembleXZPlane(final int y) {
+		final Object pixels = newPlane(sourceWidth * depth);
+		for (int z = 0; z < depth; z++)
+			System.arraycopy(getSourceSlice(z), y * sourceWidth, pixels, z * sourceWidth, sourceWidth);
+		return pixels;
+	}
+
+	/* The ZY plane at x: each z-slice contributes a complete column */
+	private Object assembleZYPlane(final int x) {
+		final Object pixels = newPlane(depth * sourceHeight);
+		for (int z = 0; z < depth; z++) {
+			final Object slice = getSourceSlice(z);
+			switch (type) {
+			case ImagePlus.GRAY8:
+			case ImagePlus.COLOR_256:
+				final byte[] bSlice = (byte[]) slice;
+				final byte[] bPlane = (byte[]) pixels;
+				for (int y = 0; y < sourceHeight; y++)
+					bPlane[y * depth + z] = bSlice[y * sourceWidth + x];
+				break;
+			case ImagePlus.GRAY16:
+				final short[] sSlice = (short[]) slice;
+				final short[] sPlane = (short[]) pixels;
+				for (int y = 0; y < sourceHeight; y++)
+					sPlane[y * depth + z] = sSlice[y * sourceWidth + x];
+				break;
+			case ImagePlus.COLOR_RGB:
+				final int[] iSlice = (int[]) slice;
+				final int[] iPlane = (int[]) pixels;
+				for (int y = 0; y < sourceHeight; y++)
+					iPlane[y * depth + z] = iSlice[y * sourceWidth + x];
+				break;
+			default:
+				final float[] fSlice = (float[]) slice;
+				final float[] fPlane = (float[]) pixels;
+				for (int y = 0; y < sourceHeight; y++)
+					fPlane[y * depth + z] = fSlice[y * sourceWidth + x];
+				break;
+			}
+		}
+		return pixels;
+	}
+
+	@Override
+	public int getSize() {
+		return (plane == MultiDThreePanes.ZY_PLANE) ? sourceWidth : sourceHeight;
+	}
+
+	@Override
+	public String getSliceLabel(final int n) {
+		return null;
+	}
+
+	@Override
+	public int getBitDepth() {
+		switch (type) {
+		case ImagePlus.GRAY16:
+			return 16;
+		case ImagePlus.COLOR_RGB:
+			return 24;
+		case ImagePlus.GRAY32:
+			return 32;
+		default:
+			return 8;
+		}
+	}
+}
@@ -52,6 +52,9 @@ import java.util.Map;
         initializer = "init")
 public class GraphAdapterMapperCmd extends DynamicCommand {
 
+    private static final String BC_EXACT = "Exact";
+    private static final String BC_APPROXIMATE = "Approximate (sampled pivots)";
+
     @Parameter
     private PrefService prefService;
 
@@ -76,6 +79,16 @@ public class GraphAdapterMapperCmd extends DynamicCommand {
     @Parameter(required = false, label="Max Value")
     private double maxValue;
 
+    @Parameter(required = false, label = "Betweenness Centrality", choices = {BC_EXACT, BC_APPROXIMATE},
+            description = "<HTML>Exact scores are computed from all vertices. Approximate scores are extrapolated<br>"
+                    + "from a random sample of vertices (pivots) and are much faster to compute on large,<br>"
+                    + "cyclic graphs. Trees are always scored exactly")
+    private String betweennessChoice;
+
+    @Parameter(required = false, label = "No. of Pivots", min = "1",
+            description = "Number of sampled vertices used to approximate betweenness centrality")
+    private int nPivots = 500;
+
     @Parameter(label="Show Legend")
     private boolean showLegend;
 
@@ -113,6 +126,9 @@ public class GraphAdapterMapperCmd extends DynamicCommand {
             if (useRange) {
                 colorizer.setMinMax(minValue, maxValue);
             }
+            if (BC_APPROXIMATE.equals(betweennessChoice)) {
+                colorizer.setBetweennessPivots(nPivots);
+            }
             if (subgraph != null) {
                 mappedState = colorizer.map(cGraph, subgraph, measurementChoice, colorTable);
             } else {
@@ -45,6 +45,7 @@ import net.imagej.ImageJ;
 import net.imagej.display.ColorTables;
 import sc.fiji.snt.Path;
 import sc.fiji.snt.Tree;
+import sc.fiji.snt.TreeLoadingCallback;
 import sc.fiji.snt.analysis.GroupedTreeStatistics;
 import sc.fiji.snt.analysis.MultiTreeColorMapper;
 import sc.fiji.snt.analysis.MultiTreeStatistics;
@@ -146,6 +147,7 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 	private Viewer3D recViewer;
 
 	private int inputGroupsCounter;
+	private int failedFilesCounter;
 	private boolean noMetrics;
 
 
@@ -179,6 +181,7 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 
 		final GroupedTreeStatistics stats = new GroupedTreeStatistics();
 		inputGroupsCounter = 0;
+		failedFilesCounter = 0;
 		addGroup(stats, g1File, "Group 1");
 		addGroup(stats, g2File, "Group 2");
 		addGroup(stats, g3File, "Group 3");
@@ -236,6 +239,10 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 				exitMsg.append("<p>Some directories (").append(inputGroupsCounter - stats.getGroups().size());
 				exitMsg.append(") did not contain matching data and were skipped.</p>");
 			}
+			if (failedFilesCounter > 0) {
+				exitMsg.append("<p>").append(failedFilesCounter);
+				exitMsg.append(" file(s) could not be parsed and were skipped.</p>");
+			}
 			if (displayInMultiViewer && largestN[0] > 10) {
 				exitMsg.append((mappableMetric) ? "<p>NB: Only the first 10 cells of each group were mapped.</p>"
 						: "<p>NB: Metric is not mappable. Choice ignored.</p>");
@@ -306,7 +313,20 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 	private boolean addGroup(final GroupedTreeStatistics stats, final File file, final String label) {
 		if (!validFile(file)) return false;
 		inputGroupsCounter++;
-		final List<Tree> trees = Tree.listFromDir(file.getAbsolutePath(), "", getSWCTypes(scope));
+		final List<Tree> trees = Tree.listFromDir(file.getAbsolutePath(), "", getSWCTypes(scope),
+				new TreeLoadingCallback() {
+
+					@Override
+					public void fileProcessed(final File f, final int nDone, final int nFiles) {
+						statusService.showStatus(nDone, nFiles, "Loading " + label + " (" + nDone + "/" + nFiles + ")...");
+					}
+
+					@Override
+					public void fileFailed(final File f, final String reason) {
+						failedFilesCounter++;
+					}
+				});
+		statusService.clearStatus();
 		if (trees == null || trees.isEmpty()) return false;
 		stats.addGroup(trees, label);
 		return true;
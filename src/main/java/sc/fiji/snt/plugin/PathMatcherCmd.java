@@ -22,6 +22,8 @@
 
 package sc.fiji.snt.plugin;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -58,6 +60,8 @@ import sc.fiji.snt.util.SNTColor;
 public class PathMatcherCmd extends CommonDynamicCmd {
 
 	private static final String TAG_FORMAT = "{Group %d}";
+	private static final String MODE_SPATIAL_INDEX = "Nearby candidates only (spatial index)";
+	private static final String MODE_PAIRWISE = "All pairs";
 	protected static final String TAG_REGEX_PATTERN = "\\{Group \\d+\\}";
 
 	@Parameter(label = "<HTML><b>Range Criteria for Frames:", persist = false, 
@@ -120,6 +124,14 @@ public class PathMatcherCmd extends CommonDynamicCmd {
 			+ "node location' is disabled. Assumes spatially calibrated units.")
 	private double zNeighborhood;
 
+	@Parameter(label = "Candidate search:", required = false, choices = { MODE_SPATIAL_INDEX, MODE_PAIRWISE },
+			description = "<HTML><div WIDTH=500>"
+			+ "How candidate paths are retrieved when 'Starting node location' is enabled. With a "
+			+ "spatial index, only paths starting in the vicinity of each other are compared, which "
+			+ "is considerably faster for large time-lapse sequences. Both strategies produce the "
+			+ "same groups. Ignored if 'Starting node location' is disabled.")
+	private String matchingMode;
+
 	@Parameter(label = "Custom tag:", required = false, description="<HTML><div WIDTH=500>"
 			+ "The string (case sensitive) to be consider when assessing custom tag "
 			+ "matching. Ignored if 'Custom tag' is disabled. Regex pattern allowed.")
@@ -192,19 +204,25 @@ public class PathMatcherCmd extends CommonDynamicCmd {
 			return;
 		}
 
-		// Match paths
+		// Match paths. Paths are grouped in the order they are popped from
+		// the stack, i.e., candidates[i] is only matched against candidates[j < i]
+		final List<MatchingPath> candidates = new ArrayList<>(mPaths);
+		final int[][] matches = getMatches(candidates);
+		final boolean[] grouped = new boolean[candidates.size()];
 		ColorRGB[] colors = SNTColor.getDistinctColors(21);
 		int groupCounter = 0;
 		int colorCounter = 0;
-		while (!mPaths.isEmpty()) {
-			final MatchingPath current = mPaths.pop();
-			final List<MatchingPath> pathsWithCommonRoot = mPaths.stream().filter( p -> p.matches(current)).collect(Collectors.toList());
+		for (int i = candidates.size() - 1; i >= 0; i--) {
+			if (grouped[i]) continue;
+			grouped[i] = true;
 			if (colorCounter > colors.length-1) colorCounter = 0;
-			for (final MatchingPath hit : pathsWithCommonRoot) {
+			for (final int j : matches[i]) {
+				if (grouped[j]) continue;
+				grouped[j] = true;
+				final MatchingPath hit = candidates.get(j);
 				hit.assignID(groupCounter+1);
 				if (assignUniqueColors) hit.path.setColor(colors[colorCounter]);
 			}
-			mPaths.removeAll(pathsWithCommonRoot);
 			groupCounter++;
 			colorCounter++;
 		}
@@ -227,6 +245,27 @@ public class PathMatcherCmd extends CommonDynamicCmd {
 
 	}
 
+	/*
+	 * Returns, for each path, the (sorted) indices of the preceding paths
+	 * matching it. Paths of each time-point are processed in parallel.
+	 */
+	private int[][] getMatches(final List<MatchingPath> mPaths) {
+		mPaths.forEach(MatchingPath::bBox); // lazily created: initialize before going parallel
+		final StartNodeIndex index = (startNodeLocationMatching && !MODE_PAIRWISE.equals(matchingMode))
+				? new StartNodeIndex(mPaths) : null;
+		final int[][] matches = new int[mPaths.size()][];
+		final Collection<List<Integer>> frames = IntStream.range(0, mPaths.size()).boxed()
+				.collect(Collectors.groupingBy(i -> mPaths.get(i).path.getFrame())).values();
+		frames.parallelStream().forEach(frame -> {
+			for (final int i : frame) {
+				final MatchingPath current = mPaths.get(i);
+				final IntStream candidates = (index == null) ? IntStream.range(0, i) : index.getCandidates(current, i);
+				matches[i] = candidates.filter(j -> mPaths.get(j).matches(current)).toArray();
+			}
+		});
+		return matches;
+	}
+
 	/* null: consider all time-points; empty set: assume invalid input */
 	private Set<Integer> getTimePoints(final String userInput) {
 		if (userInput == null || userInput.trim().isEmpty() || userInput.equalsIgnoreCase("all"))
@@ -307,6 +346,62 @@ public class PathMatcherCmd extends CommonDynamicCmd {
 		}
 	}
 
+	/**
+	 * Spatial hash of starting nodes. Cells are (at least) as large as the
+	 * matching neighborhood, so that paths starting in the vicinity of a node
+	 * are retrieved from a handful of cells.
+	 */
+	private class StartNodeIndex {
+
+		final double[] cellSize;
+		final Map<Long, List<Integer>> cells = new HashMap<>();
+
+		StartNodeIndex(final List<MatchingPath> mPaths) {
+			cellSize = new double[] { cellSize(xNeighborhood), cellSize(yNeighborhood), cellSize(zNeighborhood) };
+			for (int i = 0; i < mPaths.size(); i++) {
+				final long[] cell = cell(mPaths.get(i).path.getNode(0));
+				cells.computeIfAbsent(key(cell[0], cell[1], cell[2]), k -> new ArrayList<>()).add(i);
+			}
+		}
+
+		private double cellSize(final double neighborhood) {
+			return Math.max(1, Math.abs(neighborhood));
+		}
+
+		private long[] cell(final PointInImage node) {
+			return new long[] { (long) Math.floor(node.getX() / cellSize[0]),
+					(long) Math.floor(node.getY() / cellSize[1]), (long) Math.floor(node.getZ() / cellSize[2]) };
+		}
+
+		private long key(final long x, final long y, final long z) {
+			return (x * 0x9E3779B97F4A7C15L) ^ (y * 0xC2B2AE3D27D4EB4FL) ^ (z * 0x165667B19E3779F9L);
+		}
+
+		/*
+		 * Returns the sorted indices (below maxIndex) of paths starting in the cells
+		 * around the starting node of the specified path. Cells are padded by one on
+		 * each side so that boundary (rounding) cases are left to MatchingPath#matches()
+		 */
+		IntStream getCandidates(final MatchingPath mPath, final int maxIndex) {
+			final long[] center = cell(mPath.path.getNode(0));
+			final long[] reach = { (long) Math.ceil(Math.abs(xNeighborhood) / cellSize[0]) + 1,
+					(long) Math.ceil(Math.abs(yNeighborhood) / cellSize[1]) + 1,
+					(long) Math.ceil(Math.abs(zNeighborhood) / cellSize[2]) + 1 };
+			final List<Integer> candidates = new ArrayList<>();
+			for (long x = center[0] - reach[0]; x <= center[0] + reach[0]; x++) {
+				for (long y = center[1] - reach[1]; y <= center[1] + reach[1]; y++) {
+					for (long z = center[2] - reach[2]; z <= center[2] + reach[2]; z++) {
+						final List<Integer> cell = cells.get(key(x, y, z));
+						if (cell != null) candidates.addAll(cell);
+					}
+				}
+			}
+			final int[] sorted = candidates.stream().mapToInt(Integer::intValue).filter(j -> j < maxIndex).toArray();
+			Arrays.sort(sorted);
+			return Arrays.stream(sorted).distinct(); // hash collisions may list a cell twice
+		}
+	}
+
 	/* IDE debug method **/
 	public static void main(final String[] args) {
 		GuiUtils.setSystemLookAndFeel();
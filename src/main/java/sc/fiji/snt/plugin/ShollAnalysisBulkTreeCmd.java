@@ -23,12 +23,25 @@
 package sc.fiji.snt.plugin;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.scijava.ItemIO;
 import org.scijava.ItemVisibility;
+import org.scijava.app.StatusService;
 import org.scijava.command.Command;
 import org.scijava.command.CommandService;
 import org.scijava.command.ContextCommand;
@@ -43,7 +56,10 @@ import org.scijava.widget.FileWidget;
 import org.scijava.widget.NumberWidget;
 
 import net.imagej.ImageJ;
+import sc.fiji.snt.SNTPrefs;
+import sc.fiji.snt.SNTUtils;
 import sc.fiji.snt.Tree;
+import sc.fiji.snt.TreeLoadingCallback;
 import sc.fiji.snt.analysis.TreeAnalyzer;
 import sc.fiji.snt.analysis.sholl.Profile;
 import sc.fiji.snt.analysis.sholl.gui.ShollPlot;
@@ -56,6 +72,10 @@ import sc.fiji.snt.util.Logger;
 
 /**
  * A modified version of {@link ShollAnalysisTreeCmd} for Bulk Sholl Analysis.
+ * Reconstructions are streamed from disk: At any given time only a number of
+ * files proportional to the number of threads is kept in memory, and summary
+ * rows are appended to the summary table (in filename order) as soon as they
+ * become available.
  *
  * @author Tiago Ferreira
  */
@@ -70,6 +90,8 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 	@Parameter
 	private PrefService prefService;
 	@Parameter
+	private StatusService statusService;
+	@Parameter
 	private ThreadService threadService;
 
 	/* Parameters */
@@ -153,6 +175,11 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 					+ "Destination directory. NB: Files will be overwritten on re-runs.")
 	private File saveDir;
 
+	@Parameter(label = "Threads", required = false, min = "0",
+			description = "Number of reconstructions analyzed concurrently. Memory usage scales with this value. "
+					+ "Set it to 0 to use the number of threads specified in ImageJ's preferences.")
+	private int nThreads;
+
 	@Parameter(required = false, visibility = ItemVisibility.MESSAGE, label = "<HTML>&nbsp;") // empty label
 	private String HEADER4;
 
@@ -164,6 +191,8 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 	private GUIHelper helper;
 	private Logger logger;
 	private ShollTable commonSummaryTable;
+	private File summaryFile;
+	private boolean summaryFileUpToDate;
 	private static final String SUMMARY_TABLE_NAME = "_Sholl_Metrics.csv";
 
 	/* Preferences */
@@ -173,8 +202,9 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 	@Override
 	public void run() {
 
-		final List<Tree> treeList = Tree.listFromDir(directory.getAbsolutePath(), filenamePattern, getSWCTypes());
-		if (treeList == null || treeList.isEmpty()) {
+		logger = new Logger(context(), "Sholl");
+		final File[] files = Tree.listReconstructionFiles(directory.getAbsolutePath(), filenamePattern);
+		if (files.length == 0) {
 			final String msg = (filenamePattern == null || filenamePattern.isEmpty())
 					? "No reconstruction files found in input folder."
 					: "No reconstruction files matching '" + filenamePattern + "' were found in input folder.";
@@ -185,17 +215,22 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 			helper.error("Output directory is not valid or writable.", "Please Change Output Directory");
 			return;
 		}
-		logger = new Logger(context(), "Sholl");
-		logger.info("Found " + treeList.size() + " reconstructions in " + directory.getAbsolutePath());
-		logger.info("Running multithreaded analysis...");
+		final int nWorkers = Math.min(files.length, Math.max(1, (nThreads > 0) ? nThreads : SNTPrefs.getThreads()));
+		logger.info("Found " + files.length + " reconstruction files in " + directory.getAbsolutePath());
+		logger.info("Running multithreaded analysis (" + nWorkers + " threads)...");
 		readPreferences();
-		treeList.parallelStream().forEach(tree -> {
-			new AnalysisRunner(tree).run();
-		});
+		summaryFile = new File(saveDir, SUMMARY_TABLE_NAME);
+		try {
+			new AnalysisPipeline(files, nWorkers).run();
+		} finally {
+			statusService.clearStatus();
+		}
 		logger.info("Done.");
 		if (commonSummaryTable == null) {
 			cancel("Options were likely invalid and no files were parsed. See Console for details.");
-		} else if (commonSummaryTable.hasUnsavedData() && !saveSummaryTable()) {
+		} else if (summaryFileUpToDate) {
+			logger.info("Summary table saved...");
+		} else if (!saveSummaryTable()) {
 			cancel("An Error occured while saving summary table. Please save it manually.");
 		}
 
@@ -309,7 +344,7 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 		return save;
 	}
 
-	private void updateDisplayAndSaveCommonSummaryTable() {
+	private void updateDisplay() {
 		final Display<?> display = displayService.getDisplay(SUMMARY_TABLE_NAME);
 		if (display != null && display.isDisplaying(commonSummaryTable)) {
 			display.update();
@@ -317,11 +352,197 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 		else {
 			displayService.createDisplay(SUMMARY_TABLE_NAME, commonSummaryTable);
 		}
-		if (commonSummaryTable.hasUnsavedData())
-			saveSummaryTable(); // keep saving table everytime it is updated
 	}
 
-	private class AnalysisRunner implements Runnable {
+	private void appendToSummaryTable(final SummaryRow row) {
+		if (commonSummaryTable == null) commonSummaryTable = new ShollTable();
+		final int nColumns = commonSummaryTable.getColumnCount();
+		row.stats.summarize(commonSummaryTable, row.header);
+		updateDisplay();
+		try {
+			// keep saving table everytime it is updated: Rows are appended to the
+			// file unless the row introduced new columns (e.g., a successful fit)
+			if (summaryFileUpToDate && nColumns == commonSummaryTable.getColumnCount()) {
+				SNTUtils.appendTableRows(commonSummaryTable, commonSummaryTable.getRowCount() - 1, summaryFile);
+			} else {
+				commonSummaryTable.save(summaryFile);
+			}
+			summaryFileUpToDate = true;
+		} catch (final IOException ex) {
+			summaryFileUpToDate = false;
+			logger.warn("Error while saving summary table: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Bounded producer/consumer pipeline: A single reader parses files into a
+	 * queue holding at most {@code nWorkers} files, workers analyze them, and
+	 * summary rows are handed to the calling thread, which appends them to the
+	 * summary table in the order of {@code files}.
+	 */
+	private class AnalysisPipeline {
+
+		private final File[] files;
+		private final int nWorkers;
+		private final BlockingQueue<ParsedFile> parsedFiles;
+		private final BlockingQueue<AnalyzedFile> analyzedFiles;
+
+		AnalysisPipeline(final File[] files, final int nWorkers) {
+			this.files = files;
+			this.nWorkers = nWorkers;
+			parsedFiles = new ArrayBlockingQueue<>(nWorkers);
+			analyzedFiles = new LinkedBlockingQueue<>(); // holds only summary rows
+		}
+
+		/**
+		 * @throws RuntimeException (or Error) if the reader or a worker failed
+		 *           unexpectedly
+		 */
+		void run() {
+			final ExecutorService es = Executors.newFixedThreadPool(nWorkers + 1);
+			final List<Future<?>> tasks = new ArrayList<>(nWorkers + 1);
+			try {
+				tasks.add(es.submit(this::readFiles));
+				for (int i = 0; i < nWorkers; i++)
+					tasks.add(es.submit(this::analyzeFiles));
+				writeResults(tasks);
+			} catch (final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				es.shutdownNow();
+			}
+		}
+
+		private void readFiles() {
+			final String[] swcTypes = getSWCTypes();
+			final TreeLoadingCallback callback = new TreeLoadingCallback() {
+
+				@Override
+				public void fileProcessed(final File file, final int nDone, final int nFiles) {
+					// progress is reported once files have been analyzed
+				}
+
+				@Override
+				public void fileFailed(final File file, final String reason) {
+					logger.warn("Skipping " + file.getName() + ": " + reason);
+				}
+			};
+			try {
+				for (int i = 0; i < files.length; i++) {
+					parsedFiles.put(new ParsedFile(i, Tree.listFromFile(files[i], swcTypes, callback)));
+				}
+			} catch (final InterruptedException ignored) {
+				// pipeline was shutdown
+			} finally {
+				// Always release the workers, even if reading failed unexpectedly. The
+				// failure itself is reported by writeResults()
+				try {
+					for (int i = 0; i < nWorkers; i++) {
+						parsedFiles.put(ParsedFile.END);
+					}
+				} catch (final InterruptedException ignored) {
+					// pipeline was shutdown: workers are interrupted too
+				}
+			}
+		}
+
+		private void analyzeFiles() {
+			try {
+				ParsedFile parsed;
+				while ((parsed = parsedFiles.take()) != ParsedFile.END) {
+					final List<SummaryRow> rows = new ArrayList<>(parsed.trees.size());
+					for (final Tree tree : parsed.trees) {
+						try {
+							final SummaryRow row = new AnalysisRunner(tree).call();
+							if (row != null) rows.add(row);
+						} catch (final RuntimeException ex) {
+							logger.warn(tree.getLabel() + " Exception occured: " + ex.getMessage());
+						}
+					}
+					analyzedFiles.put(new AnalyzedFile(parsed.index, rows));
+				}
+			} catch (final InterruptedException ignored) {
+				// pipeline was shutdown
+			}
+		}
+
+		private void writeResults(final List<Future<?>> tasks) throws InterruptedException {
+			final Map<Integer, AnalyzedFile> pending = new HashMap<>();
+			int next = 0;
+			while (next < files.length) {
+				AnalyzedFile analyzed = analyzedFiles.poll(1, TimeUnit.SECONDS);
+				if (analyzed == null) {
+					rethrowFailure(tasks);
+					if (!tasks.stream().allMatch(Future::isDone))
+						continue;
+					// all tasks terminated: this is the last chance to retrieve results
+					analyzed = analyzedFiles.poll();
+					if (analyzed == null) {
+						logger.warn("Analysis terminated prematurely: " + (files.length - next) + " file(s) not analyzed");
+						return;
+					}
+				}
+				pending.put(analyzed.index, analyzed);
+				while ((analyzed = pending.remove(next)) != null) {
+					analyzed.rows.forEach(row -> appendToSummaryTable(row));
+					next++;
+					statusService.showStatus(next, files.length,
+							"Analyzing reconstructions (" + next + "/" + files.length + ")...");
+				}
+			}
+		}
+
+		/* Rethrows the exception (or error) of the first failed task, if any */
+		private void rethrowFailure(final List<Future<?>> tasks) throws InterruptedException {
+			for (final Future<?> task : tasks) {
+				if (!task.isDone() || task.isCancelled()) continue;
+				try {
+					task.get();
+				} catch (final ExecutionException ex) {
+					final Throwable cause = ex.getCause();
+					if (cause instanceof Error) throw (Error) cause;
+					if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+					throw new IllegalStateException("Sholl analysis failed", cause);
+				}
+			}
+		}
+	}
+
+	private static class ParsedFile {
+
+		static final ParsedFile END = new ParsedFile(-1, new ArrayList<>());
+		final int index;
+		final Collection<Tree> trees;
+
+		ParsedFile(final int index, final Collection<Tree> trees) {
+			this.index = index;
+			this.trees = trees;
+		}
+	}
+
+	private static class AnalyzedFile {
+
+		final int index;
+		final List<SummaryRow> rows;
+
+		AnalyzedFile(final int index, final List<SummaryRow> rows) {
+			this.index = index;
+			this.rows = rows;
+		}
+	}
+
+	private static class SummaryRow {
+
+		final String header;
+		final ShollTable stats;
+
+		SummaryRow(final String header, final ShollTable stats) {
+			this.header = header;
+			this.stats = stats;
+		}
+	}
+
+	private class AnalysisRunner implements Callable<SummaryRow> {
 
 		private final Tree tree;
 		private TreeParser parser;
@@ -335,7 +556,7 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 		}
 
 		@Override
-		public void run() {
+		public SummaryRow call() {
 
 			// Ensure all conditions are met for analysis
 			if (tree == null || tree.isEmpty()) {
@@ -343,7 +564,7 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 				if (!"None".equals(filterChoice))
 					msg += " or does not contain " + filterChoice;
 				logger.warn(TREE_LABEL + msg);
-				return;
+				return null;
 			}
 			parser = new TreeParser(tree);
 			parser.setStepSize(adjustedStepSize());
@@ -351,7 +572,7 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 				parser.setCenter(ShollAnalysisTreeCmd.getCenterFromChoice(centerChoice));
 			} catch (final IllegalArgumentException ex) {
 				logger.warn(TREE_LABEL + " Skipping: Center choice cannot be applied to reconstruction. Try \"Root node(s)\" instead.");
-				return;
+				return null;
 			}
 
 			// parse
@@ -360,11 +581,11 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 				parser.parse();
 			} catch (final Exception ex) {
 				logger.warn(TREE_LABEL + " Exception occured: " + ex.getMessage());
-				return;
+				return null;
 			}
 			if (!parser.successful()) {
 				logger.warn(TREE_LABEL + " Skipping analysis: Parsing failed. No valid profile retrieved!");
-				return;
+				return null;
 			}
 			final Profile profile = parser.getProfile();
 
@@ -428,12 +649,10 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 			}
 
 			final ShollTable sTable = new ShollTable(lStats, nStats);
-			if (commonSummaryTable == null) commonSummaryTable = new ShollTable();
 			String header = TREE_LABEL;
 			if (!filterChoice.contains("None")) header += "(" + filterChoice + ")";
 			if (!sTable.hasContext()) sTable.setContext(getContext());
-			sTable.summarize(commonSummaryTable, header);
-			updateDisplayAndSaveCommonSummaryTable();
+			return new SummaryRow(header, sTable);
 		}
 
 	}
@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.util;
+
+/**
+ * A voxel neighbourhood stencil: A table of the offsets to the 6 (face) or 26
+ * (face, edge and vertex) neighbours of a voxel, together with the linear
+ * (within-slice) index offset and the calibrated length of each step. The
+ * stencil is built once for a given image, so that iterating over the
+ * neighbours of a voxel involves no arithmetic other than additions. Bounds
+ * checks are only required for voxels on the image boundary (see
+ * {@link #isInterior(int, int, int)}). For single-slice images, out-of-plane
+ * neighbours are omitted.
+ *
+ * @author Tiago Ferreira
+ */
+public class NeighborStencil {
+
+	/** The number of neighbours in the stencil (6 or 26) */
+	public final int size;
+
+	/** The x offset of each neighbour */
+	public final int[] dx;
+
+	/** The y offset of each neighbour */
+	public final int[] dy;
+
+	/** The z offset of each neighbour */
+	public final int[] dz;
+
+	/**
+	 * The offset of each neighbour in the (y * width + x) pixel array of its
+	 * slice
+	 */
+	public final int[] offsets;
+
+	/** The calibrated distance to each neighbour */
+	public final double[] stepLengths;
+
+	private final int width;
+	private final int height;
+	private final int depth;
+
+	/**
+	 * Constructs a new stencil.
+	 *
+	 * @param connectivity either 6 (face neighbours) or 26 (face, edge and vertex
+	 *          neighbours)
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param depth the number of slices of the image
+	 * @param xSpacing the voxel width
+	 * @param ySpacing the voxel height
+	 * @param zSpacing the voxel depth
+	 */
+	public NeighborStencil(final int connectivity, final int width,
+		final int height, final int depth, final double xSpacing,
+		final double ySpacing, final double zSpacing)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		final int[][] deltas;
+		switch (connectivity) {
+			case 6:
+				deltas = new int[][] { { -1, 0, 0 }, { 1, 0, 0 }, { 0, -1, 0 }, { 0, 1,
+					0 }, { 0, 0, 1 }, { 0, 0, -1 } };
+				break;
+			case 26:
+				// z varies slowest, then x, then y
+				deltas = new int[26][];
+				int i = 0;
+				for (int z = -1; z <= 1; z++)
+					for (int x = -1; x <= 1; x++)
+						for (int y = -1; y <= 1; y++)
+							if (x != 0 || y != 0 || z != 0) deltas[i++] = new int[] { x, y,
+								z };
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported connectivity: " +
+					connectivity);
+		}
+		size = (depth == 1) ? countPlanar(deltas) : deltas.length;
+		dx = new int[size];
+		dy = new int[size];
+		dz = new int[size];
+		offsets = new int[size];
+		stepLengths = new double[size];
+		for (int i = 0, j = 0; j < deltas.length; j++) {
+			if (depth == 1 && deltas[j][2] != 0) continue;
+			dx[i] = deltas[j][0];
+			dy[i] = deltas[j][1];
+			dz[i] = deltas[j][2];
+			offsets[i] = dy[i] * width + dx[i];
+			final double xd = dx[i] * xSpacing;
+			final double yd = dy[i] * ySpacing;
+			final double zd = dz[i] * zSpacing;
+			stepLengths[i++] = Math.sqrt(xd * xd + yd * yd + zd * zd);
+		}
+	}
+
+	private static int countPlanar(final int[][] deltas) {
+		int count = 0;
+		for (final int[] delta : deltas)
+			if (delta[2] == 0) count++;
+		return count;
+	}
+
+	/**
+	 * Checks whether all the neighbours of a voxel lie within the image.
+	 *
+	 * @param x the x-coordinate of the voxel
+	 * @param y the y-coordinate of the voxel
+	 * @param z the z-coordinate (0-based slice index) of the voxel
+	 * @return true if no neighbour of (x,y,z) lies outside the image
+	 */
+	public boolean isInterior(final int x, final int y, final int z) {
+		return x > 0 && y > 0 && x < width - 1 && y < height - 1 && (depth == 1 ||
+			z > 0 && z < depth - 1);
+	}
+
+	/**
+	 * Checks whether a neighbour of a voxel lies within the image.
+	 *
+	 * @param i the index of the neighbour in the stencil
+	 * @param x the x-coordinate of the voxel
+	 * @param y the y-coordinate of the voxel
+	 * @param z the z-coordinate (0-based slice index) of the voxel
+	 * @return true if the i-th neighbour of (x,y,z) lies within the image
+	 */
+	public boolean inBounds(final int i, final int x, final int y,
+		final int z)
+	{
+		final int nx = x + dx[i];
+		final int ny = y + dy[i];
+		final int nz = z + dz[i];
+		return nx >= 0 && ny >= 0 && nz >= 0 && nx < width && ny < height &&
+			nz < depth;
+	}
+
+}
@@ -26,7 +26,9 @@ import static org.junit.Assume.assumeNotNull;
 
 import java.util.*;
 
+import org.jgrapht.Graph;
 import org.jgrapht.GraphPath;
+import org.jgrapht.alg.scoring.BetweennessCentrality;
 import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
 import org.jgrapht.graph.AsUndirectedGraph;
 import org.junit.Before;
@@ -36,9 +38,13 @@ import org.jgrapht.graph.ParanoidGraph;
 import org.jgrapht.GraphTests;
 import org.jgrapht.Graphs;
 
+import sc.fiji.snt.analysis.StrahlerAnalyzer;
 import sc.fiji.snt.analysis.TreeAnalyzer;
 import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
+import sc.fiji.snt.analysis.graph.LCAIndex;
+import sc.fiji.snt.analysis.graph.ParallelBetweennessCentrality;
 import sc.fiji.snt.analysis.graph.SWCWeightedEdge;
+import sc.fiji.snt.analysis.graph.TreeTopology;
 import sc.fiji.snt.util.PointInImage;
 import sc.fiji.snt.util.SWCPoint;
 
@@ -198,4 +204,122 @@ public class DirectedWeightedGraphTest {
 		assertNull(graph.getShortestPath(root, root));
 	}
 
+	@Test
+	public void testTreeTopology() {
+		final DirectedWeightedGraph graph = tree.getGraph();
+		for (final TreeTopology topology : new TreeTopology[] { TreeTopology.of(tree), TreeTopology.of(graph) }) {
+			assertEquals("Topology: # Nodes", graph.vertexSet().size(), topology.size());
+			assertEquals("Topology: Root", 0, topology.getRoot());
+			assertEquals("Topology: # Branch Points", graph.getBPs().size(), topology.getBranchPoints().length);
+			assertEquals("Topology: # Tips", graph.getTips().size(), topology.getTips().length);
+			assertEquals("Topology: Summed Weights", analyzer.getCableLength(), topology.sumWeights(), precision);
+			for (int i = 1; i < topology.size(); i++) {
+				assertTrue("Topology: Parents precede children", topology.getParent(i) < i);
+			}
+			final TreeTopology simplified = topology.getSimplified();
+			assertEquals("Simplified topology: # Nodes", graph.getSimplifiedGraph().vertexSet().size(), simplified.size());
+			assertEquals("Simplified topology: Summed Weights", topology.sumWeights(), simplified.sumWeights(), precision);
+			final int[] orders = StrahlerAnalyzer.classify(topology, false);
+			assertEquals("Topology: Strahler #", analyzer.getStrahlerNumber(), orders[topology.getRoot()]);
+		}
+		final TreeTopology topology = TreeTopology.of(graph);
+		final DirectedWeightedGraph converted = topology.toGraph();
+		assertEquals("Topology to Graph: # Vertices", graph.vertexSet().size(), converted.vertexSet().size());
+		assertEquals("Topology to Graph: Summed Edge Weights", graph.sumEdgeWeights(), converted.sumEdgeWeights(), precision);
+	}
+
+	@Test
+	public void testGeodesicDistance() {
+		final DirectedWeightedGraph graph = tree.getGraph();
+		final DijkstraShortestPath<SWCPoint, SWCWeightedEdge> dijkstraShortestPath = new DijkstraShortestPath<>(
+				new AsUndirectedGraph<>(graph));
+		final List<SWCPoint> tips = graph.getTips();
+		final double[][] distances = graph.geodesicDistances(tips);
+		for (int i = 0; i < tips.size(); i++) {
+			for (int j = 0; j < tips.size(); j++) {
+				final double expected = (i == j) ? 0 : dijkstraShortestPath.getPathWeight(tips.get(i), tips.get(j));
+				assertEquals("Geodesic distance", expected, graph.geodesicDistance(tips.get(i), tips.get(j)), precision);
+				assertEquals("Geodesic distance matrix", expected, distances[i][j], precision);
+			}
+		}
+		final SWCPoint root = graph.getRoot();
+		assertEquals("LCA of root", root, graph.getLowestCommonAncestor(root, tips.get(0)));
+		assertEquals("LCA of itself", tips.get(0), graph.getLowestCommonAncestor(tips.get(0), tips.get(0)));
+
+		// index must be discarded when weights change. NB: dijkstraShortestPath
+		// wraps a live view of graph, so the unscaled distance is retrieved first
+		final double unscaled = dijkstraShortestPath.getPathWeight(root, tips.get(0));
+		assertEquals("Geodesic distance before scaling", unscaled, graph.geodesicDistance(root, tips.get(0)), precision);
+		graph.scale(2, 2, 2, true);
+		assertEquals("Geodesic distance after scaling", 2 * unscaled, graph.geodesicDistance(root, tips.get(0)),
+				precision);
+	}
+
+	@Test
+	public void testLCAIndexOnForests() {
+		final Random random = new Random(42);
+		for (int trial = 0; trial < 20; trial++) {
+			// random forest: each node is either a root or the child of a previous node
+			final int n = 1 + random.nextInt(200);
+			final List<SWCPoint> nodes = new ArrayList<>(n);
+			for (int id = 1; id <= n; id++) {
+				final int parent = (id == 1 || random.nextInt(10) == 0) ? -1 : 1 + random.nextInt(id - 1);
+				nodes.add(new SWCPoint(id, 0, random.nextDouble(), random.nextDouble(), random.nextDouble(), 1,
+						parent));
+			}
+			Collections.shuffle(nodes, random);
+			final TreeTopology topology = TreeTopology.of(nodes);
+			final LCAIndex index = new LCAIndex(topology);
+			for (int u = 0; u < n; u++) {
+				for (int v = 0; v < n; v++) {
+					final int expected = bruteForceLCA(topology, u, v);
+					assertEquals("LCA", expected, index.getLCA(u, v));
+					if (expected == -1) {
+						assertTrue("Distance across trees", Double.isNaN(index.getDistance(u, v)));
+						assertNull("Path across trees", index.getPath(u, v));
+						continue;
+					}
+					final double distance = distanceToAncestor(topology, u, expected)
+							+ distanceToAncestor(topology, v, expected);
+					assertEquals("Geodesic distance", distance, index.getDistance(u, v), precision);
+					final int[] path = index.getPath(u, v);
+					assertEquals("Path source", u, path[0]);
+					assertEquals("Path target", v, path[path.length - 1]);
+				}
+			}
+		}
+	}
+
+	private static int bruteForceLCA(final TreeTopology topology, final int u, final int v) {
+		final Set<Integer> ancestors = new HashSet<>();
+		for (int node = u; node != -1; node = topology.getParent(node))
+			ancestors.add(node);
+		for (int node = v; node != -1; node = topology.getParent(node)) {
+			if (ancestors.contains(node)) return node;
+		}
+		return -1;
+	}
+
+	private static double distanceToAncestor(final TreeTopology topology, final int node, final int ancestor) {
+		double distance = 0;
+		for (int n = node; n != ancestor; n = topology.getParent(n))
+			distance += topology.getWeight(n);
+		return distance;
+	}
+
+	@Test
+	public void testBetweennessCentrality() {
+		final DirectedWeightedGraph graph = tree.getGraph().getSimplifiedGraph();
+		// directed tree (linear-time path) and undirected view (Brandes' path)
+		final List<Graph<SWCPoint, SWCWeightedEdge>> graphs = Arrays.asList(graph, new AsUndirectedGraph<>(graph));
+		for (final Graph<SWCPoint, SWCWeightedEdge> g : graphs) {
+			final Map<SWCPoint, Double> expected = new BetweennessCentrality<>(g, false).getScores();
+			final ParallelBetweennessCentrality<SWCPoint, SWCWeightedEdge> bc = new ParallelBetweennessCentrality<>(g);
+			bc.setNumThreads(2);
+			final Map<SWCPoint, Double> scores = bc.getScores();
+			for (final SWCPoint v : g.vertexSet()) {
+				assertEquals("Betweenness centrality", expected.get(v), scores.get(v), precision);
+			}
+		}
+	}
 }
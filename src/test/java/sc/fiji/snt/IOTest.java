@@ -26,6 +26,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeNotNull;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Set;
@@ -85,6 +86,30 @@ public class IOTest {
 				// Did tree change when saving to TRACES?
 				assertTrue(bps.equals(new TreeAnalyzer(tracesTree).getBranchPoints()));
 				assertEquals(cableLength, new TreeAnalyzer(tracesTree).getCableLength(), precision);
+
+				// Binary I/O
+				final String binaryPath = folder.newFile(tree.getLabel() + ".btraces").getAbsolutePath();
+				assertTrue("Saving to "+ binaryPath, tree.save(binaryPath));
+				final Tree binaryTree = new Tree(binaryPath);
+				assertTrue("Reading file "+ binaryPath, binaryTree != null && !binaryTree.isEmpty());
+
+				// Did tree change when saving to binary?
+				assertEquals(tree.size(), binaryTree.size());
+				assertEquals(nodes.size(), binaryTree.getNodes().size());
+				assertTrue(bps.equals(new TreeAnalyzer(binaryTree).getBranchPoints()));
+				assertEquals(cableLength, new TreeAnalyzer(binaryTree).getCableLength(), precision);
+
+				// Are single blocks decoded as when reading the whole file?
+				final BinaryTracesFile binaryFile = new BinaryTracesFile(new File(binaryPath));
+				final List<Path> binaryPaths = binaryFile.readPaths(binaryFile.getXSpacing(),
+						binaryFile.getYSpacing(), binaryFile.getZSpacing(), binaryFile.getSpacingUnits());
+				assertEquals(binaryPaths.size(), binaryFile.getPathCount());
+				for (int i = 0; i < binaryFile.getPathCount(); i++) {
+					final Path p = binaryFile.readPath(i);
+					assertEquals(binaryPaths.get(i).getID(), p.getID());
+					assertEquals(binaryPaths.get(i).size(), p.size());
+					assertEquals(binaryPaths.get(i).getLength(), p.getLength(), precision);
+				}
 			} catch (final IOException e) {
 				e.printStackTrace();
 			}
@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import sc.fiji.snt.analysis.PathProfiler;
+import sc.fiji.snt.util.PointInImage;
+
+/**
+ * Tests for {@link PathProfiler}: Multichannel profiling of synthetic images
+ *
+ * @author Tiago Ferreira
+ */
+public class PathProfilerTest {
+
+	private final double precision = 0.0001;
+
+	@Test
+	public void testNearestNeighbor() {
+		final ImagePlus imp = IJ.createHyperStack("NN", 20, 20, 3, 6, 1, 16);
+		fill(imp, (c, x, y, z) -> c * 10000 + z * 400 + y * 20 + x);
+		final Path path = path(new double[][] { { 2, 3, 1 }, { 5.4, 6.6, 2 }, { 10, 12.2, 3.4 }, { 17, 18, 5 } });
+		final PathProfiler profiler = new PathProfiler(path, imp);
+		profiler.setSamplingMethod(PathProfiler.NEAREST_NEIGHBOR);
+		profiler.assignChannelValues();
+		assertEquals("# Channels", 3, path.getNodeChannelCount());
+		for (int c = 1; c <= imp.getNChannels(); c++) {
+			profiler.assignValues(path, c);
+			final double[] values = path.getNodeChannelValues(c);
+			for (int i = 0; i < path.size(); i++)
+				assertEquals("Channel " + c + ", node " + i, path.getNodeValue(i), values[i], precision);
+		}
+	}
+
+	@Test
+	public void testTrilinear() {
+		final ImagePlus imp = IJ.createHyperStack("Ramp", 20, 20, 2, 6, 1, 32);
+		fill(imp, (c, x, y, z) -> c * (0.5 * x + 2 * y + 3 * z) + 1);
+		final double[][] nodes = { { 2.25, 3.5, 1.75 }, { 5.4, 6.6, 2.1 }, { 10, 12.2, 3.4 }, { 17.9, 18.1, 4.5 } };
+		final Path path = path(nodes);
+		final PathProfiler profiler = new PathProfiler(path, imp);
+		profiler.setSamplingMethod(PathProfiler.TRILINEAR);
+		profiler.assignChannelValues();
+		// Interpolation of a linear ramp is exact
+		for (int c = 1; c <= imp.getNChannels(); c++) {
+			final double[] values = path.getNodeChannelValues(c);
+			for (int i = 0; i < nodes.length; i++) {
+				final double expected = c * (0.5 * nodes[i][0] + 2 * nodes[i][1] + 3 * nodes[i][2]) + 1;
+				assertEquals("Channel " + c + ", node " + i, expected, values[i], precision);
+			}
+		}
+	}
+
+	@Test
+	public void testCrossSection() {
+		// A cylinder of radius 5 (intensity 42) along Z, on a brighter background
+		final ImagePlus imp = IJ.createHyperStack("Cylinder", 40, 40, 1, 40, 1, 8);
+		fill(imp, (c, x, y, z) -> ((x - 20) * (x - 20) + (y - 20) * (y - 20) <= 25) ? 42 : 200);
+		final double[][] nodes = new double[31][];
+		for (int z = 5; z <= 35; z++)
+			nodes[z - 5] = new double[] { 20, 20, z };
+		final Path path = path(nodes);
+		path.setRadius(3);
+		final PathProfiler profiler = new PathProfiler(path, imp);
+		profiler.setSamplingMethod(PathProfiler.CROSS_SECTION);
+		profiler.assignChannelValues();
+		for (final double value : path.getNodeChannelValues(1))
+			assertEquals("Mean of cross-section", 42, value, precision);
+	}
+
+	@Test
+	public void testFrameOutOfRange() {
+		final ImagePlus imp = IJ.createHyperStack("Single frame", 20, 20, 2, 6, 1, 8);
+		fill(imp, (c, x, y, z) -> 100);
+		final Path path = path(new double[][] { { 2, 3, 1 }, { 5, 6, 2 } });
+		path.setCTposition(1, 2);
+		new PathProfiler(path, imp).assignChannelValues();
+		for (int c = 1; c <= imp.getNChannels(); c++) {
+			for (final double value : path.getNodeChannelValues(c))
+				assertTrue("Frame 2 is not in image", Double.isNaN(value));
+		}
+	}
+
+	private interface Intensity {
+		double at(int c, int x, int y, int z);
+	}
+
+	private static void fill(final ImagePlus imp, final Intensity intensity) {
+		for (int c = 1; c <= imp.getNChannels(); c++) {
+			for (int z = 1; z <= imp.getNSlices(); z++) {
+				final ImageProcessor ip = imp.getStack().getProcessor(imp.getStackIndex(c, z, 1));
+				for (int y = 0; y < imp.getHeight(); y++) {
+					for (int x = 0; x < imp.getWidth(); x++)
+						ip.putPixelValue(x, y, intensity.at(c, x, y, z - 1));
+				}
+			}
+		}
+	}
+
+	private static Path path(final double[][] nodes) {
+		final Path path = new Path(1, 1, 1, "px");
+		for (final double[] node : nodes)
+			path.addNode(new PointInImage(node[0], node[1], node[2]));
+		return path;
+	}
+
+}
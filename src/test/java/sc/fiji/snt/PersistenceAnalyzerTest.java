@@ -27,13 +27,22 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeNotNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.jgrapht.Graphs;
 import org.junit.Before;
 import org.junit.Test;
 
 import sc.fiji.snt.analysis.PersistenceAnalyzer;
+import sc.fiji.snt.analysis.StrahlerAnalyzer;
 import sc.fiji.snt.analysis.TreeAnalyzer;
+import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
 import sc.fiji.snt.util.SWCPoint;
 
 /**
@@ -120,4 +129,106 @@ public class PersistenceAnalyzerTest {
 		}
 	}
 
+	@Test
+	public void testDiagramAgainstReference() {
+		final PersistenceAnalyzer allAnalyzer = new PersistenceAnalyzer(tree);
+		allAnalyzer.computeAll();
+		for (final String descriptor : allDescriptors) {
+			final List<double[]> expected = referenceDiagram(descriptor);
+			assertSamePoints(descriptor, expected, pAnalyzer.getDiagram(descriptor));
+			assertSamePoints(descriptor + " (all)", expected, allAnalyzer.getDiagram(descriptor));
+		}
+	}
+
+	@Test
+	public void testDiagramNodesOrder() {
+		// Nodes are listed in the same order as the diagram, which is sorted by birth
+		for (final String descriptor : Arrays.asList("x", "y", "z")) {
+			final ArrayList<ArrayList<Double>> diagram = pAnalyzer.getDiagram(descriptor);
+			final ArrayList<ArrayList<SWCPoint>> diagramNodes = pAnalyzer.getDiagramNodes(descriptor);
+			for (int i = 0; i < diagram.size(); i++) {
+				if (i > 0) assertTrue("Sorted by birth", diagram.get(i - 1).get(0) <= diagram.get(i).get(0));
+				final SWCPoint birthNode = diagramNodes.get(i).get(0);
+				final double coord = ("x".equals(descriptor)) ? birthNode.getX()
+						: ("y".equals(descriptor)) ? birthNode.getY() : birthNode.getZ();
+				assertEquals("Birth of point " + i, coord, diagram.get(i).get(0), precision);
+			}
+		}
+	}
+
+	private void assertSamePoints(final String descriptor, final List<double[]> expected,
+			final List<ArrayList<Double>> actual) {
+		assertEquals(descriptor + ": number of points", expected.size(), actual.size());
+		final Comparator<double[]> cmp = Comparator.<double[]>comparingDouble(p -> p[0]).thenComparingDouble(p -> p[1]);
+		final List<double[]> actualPoints = new ArrayList<>();
+		actual.forEach(point -> actualPoints.add(new double[] { point.get(0), point.get(1) }));
+		expected.sort(cmp);
+		actualPoints.sort(cmp);
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(descriptor + ": birth", expected.get(i)[0], actualPoints.get(i)[0], precision);
+			assertEquals(descriptor + ": death", expected.get(i)[1], actualPoints.get(i)[1], precision);
+		}
+	}
+
+	/* Straightforward implementation of Kanari et al. 2018, for validation */
+	private List<double[]> referenceDiagram(final String descriptor) {
+		final DirectedWeightedGraph graph = tree.getGraph().getSimplifiedGraph();
+		final SWCPoint root = graph.getRoot();
+		if ("centrifugal".equals(descriptor)) StrahlerAnalyzer.classify(graph, true);
+		final Map<SWCPoint, Double> values = new HashMap<>();
+		for (final SWCPoint node : graph.vertexSet()) {
+			switch (descriptor) {
+			case "geodesic":
+				double sum = 0;
+				SWCPoint current = node;
+				while (graph.inDegreeOf(current) > 0) {
+					sum += graph.getEdgeWeight(graph.incomingEdgesOf(current).iterator().next());
+					current = Graphs.predecessorListOf(graph, current).get(0);
+				}
+				values.put(node, sum);
+				break;
+			case "radial":
+				values.put(node, root.distanceTo(node));
+				break;
+			case "centrifugal":
+				values.put(node, node.v);
+				break;
+			case "path order":
+				values.put(node, (double) node.getPath().getOrder());
+				break;
+			case "x":
+				values.put(node, node.getX());
+				break;
+			case "y":
+				values.put(node, node.getY());
+				break;
+			default:
+				values.put(node, node.getZ());
+			}
+		}
+		final List<double[]> diagram = new ArrayList<>();
+		final Map<SWCPoint, Double> surviving = new HashMap<>();
+		final Set<SWCPoint> openSet = new HashSet<>(graph.getTips());
+		openSet.forEach(tip -> surviving.put(tip, values.get(tip)));
+		while (!openSet.contains(root)) {
+			final Set<SWCPoint> parents = new HashSet<>();
+			for (final SWCPoint node : openSet) {
+				final SWCPoint p = Graphs.predecessorListOf(graph, node).get(0);
+				if (openSet.containsAll(Graphs.successorListOf(graph, p))) parents.add(p);
+			}
+			for (final SWCPoint p : parents) {
+				final List<SWCPoint> children = Graphs.successorListOf(graph, p);
+				final SWCPoint survivor = children.stream().max(Comparator.comparingDouble(surviving::get)).get();
+				for (final SWCPoint child : children) {
+					if (child != survivor) diagram.add(new double[] { values.get(p), surviving.get(child) });
+				}
+				surviving.put(p, surviving.get(survivor));
+				openSet.removeAll(children);
+				openSet.add(p);
+			}
+		}
+		diagram.add(new double[] { values.get(root), surviving.get(root) });
+		return diagram;
+	}
+
 }
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.analysis.sholl.parsers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import org.scijava.thread.ThreadService;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import sc.fiji.snt.util.ShollPoint;
+
+/**
+ * Tests for {@link ImageParser3D}: Counts of a synthetic volume under the
+ * current (26-connectivity) grouping of shell voxels and under the pairwise
+ * grouping used by earlier releases
+ *
+ * @author Tiago Ferreira
+ */
+public class ImageParser3DTest {
+
+	private static final int SIZE = 61;
+	private static final int CENTER = 30;
+	private static final int ROD_LENGTH = 22;
+	private static final double[] RADII = { 4, 8, 12, 16, 20, 24 };
+
+	private Context context;
+	private ImagePlus imp;
+
+	@Before
+	public void setUp() throws Exception {
+		context = new Context(ThreadService.class, StatusService.class);
+		imp = sixRods();
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testShellCounts() {
+		final ImageParser3D parser = new ImageParser3D(imp, context);
+		parser.setCenterPx(CENTER, CENTER, CENTER);
+		parser.setRadii(RADII);
+		parser.setThreshold(255, 255);
+		parser.parse();
+		// Each rod is its own 26-connected branch
+		final double[] expected = { 6, 6, 6, 6, 6, 0 };
+		assertArrayEquals("26-connected counts", expected, parser.getProfile().countsAsArray(), 0);
+	}
+
+	@Test
+	public void testLegacyGrouping() {
+		// The former pairwise test merged any two voxels sharing a plane or a
+		// column: The four in-plane rods collapsed into one, and the two axial
+		// rods into another
+		final double[] expected = { 2, 2, 2, 2, 2, 0 };
+		for (int i = 0; i < RADII.length; i++) {
+			final List<ShollPoint> voxels = shellVoxels(RADII[i]);
+			assertEquals("Legacy count at r=" + RADII[i], expected[i], legacyCount(voxels), 0);
+			final ShellComponents components = new ShellComponents(SIZE, SIZE);
+			voxels.forEach(p -> components.add((int) p.x, (int) p.y, (int) p.z));
+			assertEquals("26-connected count at r=" + RADII[i], (expected[i] > 0) ? 6 : 0, components.count());
+		}
+	}
+
+	/* Six single-voxel rods radiating from the center along the image axes */
+	private static ImagePlus sixRods() {
+		final ImageStack stack = new ImageStack(SIZE, SIZE);
+		for (int z = 0; z < SIZE; z++) {
+			final ByteProcessor ip = new ByteProcessor(SIZE, SIZE);
+			if (z == CENTER) {
+				ip.setValue(255);
+				ip.drawLine(CENTER - ROD_LENGTH, CENTER, CENTER + ROD_LENGTH, CENTER);
+				ip.drawLine(CENTER, CENTER - ROD_LENGTH, CENTER, CENTER + ROD_LENGTH);
+			} else if (Math.abs(z - CENTER) <= ROD_LENGTH) {
+				ip.set(CENTER, CENTER, 255);
+			}
+			stack.addSlice(ip);
+		}
+		return new ImagePlus("Rods", stack);
+	}
+
+	/* Foreground voxels in the shell of radius r, in scan order (full-cube scan) */
+	private List<ShollPoint> shellVoxels(final double r) {
+		final List<ShollPoint> voxels = new ArrayList<>();
+		final int ir = (int) r;
+		for (int z = CENTER - ir; z <= CENTER + ir; z++) {
+			for (int y = CENTER - ir; y <= CENTER + ir; y++) {
+				for (int x = CENTER - ir; x <= CENTER + ir; x++) {
+					final double dxSq = Math.pow(x - CENTER, 2) + Math.pow(y - CENTER, 2) + Math.pow(z - CENTER, 2);
+					if (dxSq > (r - 1) * (r - 1) && dxSq < (r + 1) * (r + 1)
+							&& imp.getStack().getVoxel(x, y, z) == 255)
+						voxels.add(new ShollPoint(x, y, z, ShollPoint.NONE));
+				}
+			}
+		}
+		return voxels;
+	}
+
+	/* The pairwise grouping of ImageParser3D#getUnique3Dgroups() in earlier releases */
+	private static int legacyCount(final List<ShollPoint> voxels) {
+		final boolean[] merged = new boolean[voxels.size()];
+		for (int i = 0; i < voxels.size(); i++) {
+			for (int j = i + 1; j < voxels.size(); j++) {
+				final ShollPoint pi = voxels.get(i);
+				final ShollPoint pj = voxels.get(j);
+				if (pi.chebyshevXYdxTo(pj) * pi.chebyshevZdxTo(pj) < 2) merged[j] = true;
+			}
+		}
+		int count = 0;
+		for (final boolean m : merged)
+			if (!m) count++;
+		return count;
+	}
+
+}